@@ -270,6 +270,7 @@ abstract class AMQPDispatcher(factory: ConnectionFactory, val exchange: String)
     channel foreach {_ch =>
       val contentType = props.getContentType match {
         case null | "" => DEFAULT_CONTENT_TYPE
+        case ContentType.COLUMNAR.mimeType if !Serializer.hasColumnar(content) => ContentType.AVRO // no columnar codec for this evt
         case x => ContentType(x)
       }
 
@@ -290,6 +291,12 @@ abstract class AMQPDispatcher(factory: ConnectionFactory, val exchange: String)
               case _ => // todo
             }
             Serializer.encodeAvro(content)
+          case COLUMNAR.mimeType =>
+            content match {
+              case msg: Msg[_] => headers.put(TAG, msg.tag.asInstanceOf[AnyRef])
+              case _ =>
+            }
+            Serializer.encodeColumnar(content)
 
           case JAVA_SERIALIZED_OBJECT.mimeType => Serializer.encodeJava(content)
           case OCTET_STREAM.mimeType => content.asInstanceOf[Array[Byte]]
@@ -398,6 +405,12 @@ abstract class AMQPDispatcher(factory: ConnectionFactory, val exchange: String)
                 Msg(tag.intValue, value)
               case _ => null
             }
+          case COLUMNAR.mimeType => headers.get(TAG) match {
+              case tag: java.lang.Integer =>
+                val value = Serializer.decodeColumnar(unzippedBody, tag.intValue)
+                Msg(tag.intValue, value)
+              case _ => null
+            }
 
           case JAVA_SERIALIZED_OBJECT.mimeType => Serializer.decodeJava(unzippedBody)
           case OCTET_STREAM.mimeType => unzippedBody
@@ -47,6 +47,7 @@ object ContentType {
   case object TEXT_PLAIN             extends CaseContentType("text", "plain", DEFAULT_CHARSET)
   case object AVRO                   extends CaseContentType("application", "avro", DEFAULT_CHARSET)
   case object AVRO_BINARY            extends CaseContentType("avro", "binary", DEFAULT_CHARSET)
+  case object COLUMNAR               extends CaseContentType("application", "x-columnar", null) // @see org.aiotrade.lib.avro.ColumnarCodec
   
   /**
    * Determines the best "Content-Type" header to use in a servlet response
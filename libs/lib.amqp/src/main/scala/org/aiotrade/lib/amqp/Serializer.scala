@@ -55,7 +55,7 @@ object Serializer {
    * encoder.SetEndMarkerMode(true)     // must set true
    * encoder.SetDictionarySize(1 << 20) // 1048576
    */
-  val lzmaProps = Array[Byte](93, 0, 0, 16, 0)
+  val lzmaProps = SevenZip.LzmaCodec.PROPERTIES.clone
   
   def encodeJava(content: Any): Array[Byte] = {
     val out = new ByteArrayOutputStream
@@ -95,6 +95,30 @@ object Serializer {
     }
   }
   
+  /**
+   * @return true if content is a Msg whose evt has a registered ColumnarCodec
+   */
+  def hasColumnar(content: Any): Boolean = {
+    content match {
+      case Msg(tag, _) => Evt.hasColumnar(tag)
+      case _ => false
+    }
+  }
+
+  def encodeColumnar(content: Any): Array[Byte] = {
+    content match {
+      case Msg(tag, value) => Evt.toColumnar(value, tag)
+      case _ => Array[Byte]()
+    }
+  }
+
+  def decodeColumnar(body: Array[Byte], tag: Int = Evt.NO_TAG): Any = {
+    Evt.fromColumnar(body, tag) match {
+      case Some(x) => x
+      case None => null
+    }
+  }
+  
   def encodeJson(content: Any): Array[Byte] = {
     content match {
       case Msg(tag, value) => Evt.toJson(value, tag)
@@ -142,38 +166,18 @@ object Serializer {
     body
   }
 
+  /**
+   * Encoder/decoder and their buffers are pooled per thread by LzmaCodec, the 
+   * output is still compatible with lzmaProps.
+   */
   @throws(classOf[IOException])
   def lzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
-
-    val encoder = new SevenZip.Compression.LZMA.Encoder
-    encoder.SetEndMarkerMode(true)     // must set true
-    encoder.SetDictionarySize(1 << 20) // 1048576
-
-    encoder.Code(in, out, -1, -1, null)
-
-    val body = out.toByteArray
-
-    in.close
-    out.close
-    body
+    SevenZip.LzmaCodec.Encode(input)
   }
 
   @throws(classOf[IOException])
   def unlzma(input: Array[Byte]): Array[Byte] = {
-    val in = new ByteArrayInputStream(input)
-    val out = new ByteArrayOutputStream
-
-    val decoder = new SevenZip.Compression.LZMA.Decoder
-    decoder.SetDecoderProperties(lzmaProps)
-    decoder.Code(in, out, -1)
-
-    val body = out.toByteArray
-
-    in.close
-    out.close
-    body
+    SevenZip.LzmaCodec.Decode(input)
   }
 
 }
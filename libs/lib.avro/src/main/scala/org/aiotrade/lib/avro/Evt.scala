@@ -75,6 +75,16 @@ import scala.reflect.runtime.universe._
 
 final case class Msg[T](tag: Int, value: T)
 
+/**
+ * A dedicated compact binary codec for the value of an Evt, for large batch 
+ * evts that are worth a hand written column oriented format instead of avro.
+ * @see Evt.registerColumnar
+ */
+trait ColumnarCodec[T] {
+  def encode(value: T): Array[Byte]
+  def decode(bytes: Array[Byte]): T
+}
+
 /**
  * We don't encourage to use 'object anApi extends Evt[T](..)' to define an Evt, 
  * instead, should use 'val anApi = Evt[T](..)' to define new api. The reason 
@@ -172,6 +182,7 @@ object Evt {
   private val log = Logger.getLogger(this.getClass.getName)
   
   private val tagToEvt = new mutable.HashMap[Int, Evt[_]]()
+  private val tagToColumnar = new mutable.HashMap[Int, ColumnarCodec[_]]()
   
   val NO_TAG = Int.MinValue
   val Error = Evt[String](Int.MaxValue)
@@ -201,6 +212,22 @@ object Evt {
     case Some(evt) => Avro.decode(bytes, evt.schema, evt.tpe, Avro.JSON)
     case None => None
   }
+
+  def registerColumnar[T](evt: Evt[T], codec: ColumnarCodec[T]) {
+    tagToColumnar(evt.tag) = codec
+  }
+  
+  def hasColumnar(tag: Int): Boolean = tagToColumnar.contains(tag)
+  
+  def toColumnar[T](value: T, tag: Int): Array[Byte] = tagToColumnar.get(tag) match {
+    case Some(codec) => codec.asInstanceOf[ColumnarCodec[T]].encode(value)
+    case None => Array[Byte]()
+  }
+  
+  def fromColumnar(bytes: Array[Byte], tag: Int): Option[_] = tagToColumnar.get(tag) match {
+    case Some(codec) => Some(codec.decode(bytes))
+    case None => None
+  }
   
   @throws(classOf[IOException])
   private def writeTag(tag: Int, out: OutputStream) {
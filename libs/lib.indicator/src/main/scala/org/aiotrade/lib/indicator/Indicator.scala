@@ -152,6 +152,14 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
   }
         
   def computedTime: Long = _computedTime
+
+  /**
+   * computedTime is still there, but the values have been reset, should re-compute all
+   */
+  override 
+  protected def allCleared {
+    _computedTime = Long.MinValue
+  }
     
   /**
    * @NOTE
@@ -273,143 +281,143 @@ abstract class Indicator(protected var _baseSer: BaseTSer) extends DefaultTSer
   // ----- End of functions for test
     
   final protected def sum(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
+    Function(functionCache, classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
   }
     
   final protected def max(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
+    Function(functionCache, classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
   }
     
   final protected def min(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
+    Function(functionCache, classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
   }
     
   final protected def ma(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
+    Function(functionCache, classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
   }
     
   final protected def ema(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
+    Function(functionCache, classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
   }
     
   final protected def stdDev(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
+    Function(functionCache, classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
+    Function(functionCache, classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], weight: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
+    Function(functionCache, classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def tr(idx: Int): Double = {
-    Function(classOf[TRFunction], baseSer).tr(sessionId, idx)
+    Function(functionCache, classOf[TRFunction], baseSer).tr(sessionId, idx)
   }
     
   final protected def dmPlus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
+    Function(functionCache, classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
   }
     
   final protected def dmMinus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
+    Function(functionCache, classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
   }
     
   final protected def diPlus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
+    Function(functionCache, classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
   }
     
   final protected def diMinus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
+    Function(functionCache, classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
   }
     
   final protected def dx(idx: Int, period: Factor): Double = {
-    Function(classOf[DXFunction], baseSer, period).dx(sessionId, idx)
+    Function(functionCache, classOf[DXFunction], baseSer, period).dx(sessionId, idx)
   }
     
   final protected def adx(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
+    Function(functionCache, classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
   }
     
   final protected def adxr(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
+    Function(functionCache, classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
   }
     
   final protected def bollMiddle(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
   }
     
   final protected def bollUpper(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
   }
     
   final protected def bollLower(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
   }
     
   final protected def cci(idx: Int, period: Factor, alpha: Factor): Double = {
-    Function(classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
+    Function(functionCache, classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
   }
     
   final protected def macd(idx: Int, baseVar: TVar[_], periodSlow: Factor, periodFast: Factor): Double = {
-    Function(classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
+    Function(functionCache, classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
   }
     
   final protected def mfi(idx: Int, period: Factor): Double = {
-    Function(classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
+    Function(functionCache, classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
   }
     
   final protected def mtm(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
+    Function(functionCache, classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
   }
     
   final protected def obv(idx: Int): Double = {
-    Function(classOf[OBVFunction], baseSer).obv(sessionId, idx)
+    Function(functionCache, classOf[OBVFunction], baseSer).obv(sessionId, idx)
   }
     
   final protected def roc(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
+    Function(functionCache, classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
   }
     
   final protected def rsi(idx: Int, period: Factor): Double = {
-    Function(classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
+    Function(functionCache, classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
   }
     
   final protected def sar(idx: Int, initial: Factor, step: Factor, maximum: Factor): Double = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
+    Function(functionCache, classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
   }
     
   final protected def sarSide(idx: Int, initial: Factor, step: Factor, maximum: Factor): Side = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
+    Function(functionCache, classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
   }
     
   final protected def stochK(idx: Int, period: Factor, periodK: Factor): Double = {
-    Function(classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
+    Function(functionCache, classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
   }
     
   final protected def stochD(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
+    Function(functionCache, classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
   }
     
   final protected def stochJ(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
+    Function(functionCache, classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
   }
     
   final protected def wms(idx: Int, period: Factor): Double = {
-    Function(classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
+    Function(functionCache, classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
   }
     
   final protected def zigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
   }
     
   final protected def pseudoZigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
   }
     
   final protected def zigzagSide(idx: Int, percent: Factor): Side = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
   }
     
   override def dispose {
@@ -131,6 +131,11 @@ abstract class SpotIndicator(_baseSer: BaseTSer) extends Indicator(_baseSer) wit
     def reset(time: Long) {
       timeToValue -= time
     }
+
+    override 
+    def removeHead(n: Int) {
+      timeToValue = timeToValue.from(timestamps.firstOccurredTime)
+    }
     
     def timesIterator: Iterator[Long] = timeToValue.keysIterator
     def valuesIterator: Iterator[V] = timeToValue.valuesIterator
@@ -30,8 +30,10 @@
  */
 package org.aiotrade.lib.indicator.function
 
+import java.util.concurrent.locks.ReentrantLock
 import org.aiotrade.lib.math.timeseries.{DefaultTSer, BaseTSer,TVar, Null}
 import org.aiotrade.lib.math.indicator.Factor
+import org.aiotrade.lib.math.indicator.FunctionCache
 import org.aiotrade.lib.math.signal.Side
 import org.aiotrade.lib.securities.QuoteSer
 
@@ -44,8 +46,8 @@ object Function {
    * a helper function for keeping the same functin form as Function, don't be
    * puzzled by the name, it actully will return funcion instance
    */
-  protected def apply[T <: org.aiotrade.lib.math.indicator.Function](clazz: Class[T], baseSer: BaseTSer, args: Any*): T = {
-    org.aiotrade.lib.math.indicator.Function(clazz, baseSer, args: _*)
+  protected def apply[T <: org.aiotrade.lib.math.indicator.Function](cache: FunctionCache, clazz: Class[T], baseSer: BaseTSer, args: Any*): T = {
+    org.aiotrade.lib.math.indicator.Function(cache, clazz, baseSer, args: _*)
   }
 }
 
@@ -64,6 +66,13 @@ abstract class Function extends DefaultTSer
    */
   private var sessionId = Long.MinValue
   protected var computedIdx = Int.MinValue
+  
+  /**
+   * A function may be shared by indicators that are computed in different 
+   * threads (see ComputeScheduler and FunctionCache's parent), so computeTo
+   * is serialized by this lock, always acquired after timestamps.readLock.
+   */
+  private val computeLock = new ReentrantLock
 
   /** base series to compute this. */
   protected var baseSer: BaseTSer = _
@@ -112,6 +121,7 @@ abstract class Function extends DefaultTSer
   def computeTo(sessionId: Long, idx: Int) {
     try {
       timestamps.readLock.lock
+      computeLock.lock
 
       preComputeTo(sessionId, idx)
         
@@ -125,17 +135,17 @@ abstract class Function extends DefaultTSer
         
       this.sessionId = sessionId
         
+      // fill with clear data from fromIdx, validate may also re-base computedIdx
+      if (this ne baseSer) {
+        validate
+      }
+
       // computedIdx itself has been computed, so, compare computedIdx + 1 with idx */
       var fromIdx = math.min(computedIdx + 1, idx)
       if (fromIdx < 0) {
         fromIdx = 0
       }
 
-      // fill with clear data from fromIdx
-      if (this ne baseSer) {
-        validate
-      }
-
       // call computeSpot(i)
       val size = timestamps.size
       val toIdx = math.min(idx, size - 1)
@@ -150,10 +160,26 @@ abstract class Function extends DefaultTSer
       postComputeTo(sessionId, toIdx)
       
     } finally {
+      computeLock.unlock
       timestamps.readLock.unlock
     }
   }
     
+  /**
+   * The oldest rows of baseSer were dropped, shift computedIdx with them.
+   */
+  override 
+  protected def headRemoved(removedSize: Int) {
+    if (computedIdx >= 0) {
+      computedIdx = math.max(computedIdx - removedSize, -1)
+    }
+  }
+
+  override 
+  protected def allCleared {
+    computedIdx = Int.MinValue
+  }
+    
   /**
    * override this method to do something before computeTo, such as set computedIdx etc.
    */
@@ -209,143 +235,143 @@ abstract class Function extends DefaultTSer
    */
     
   final protected def sum(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
+    Function(functionCache, classOf[SUMFunction], baseSer, baseVar, period).sum(sessionId, idx)
   }
     
   final protected def max(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
+    Function(functionCache, classOf[MAXFunction], baseSer, baseVar, period).max(sessionId, idx)
   }
     
   final protected def min(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
+    Function(functionCache, classOf[MINFunction], baseSer, baseVar, period).min(sessionId, idx)
   }
     
   final protected def ma(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
+    Function(functionCache, classOf[MAFunction], baseSer, baseVar, period).ma(sessionId, idx)
   }
     
   final protected def ema(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
+    Function(functionCache, classOf[EMAFunction], baseSer, baseVar, period).ema(sessionId, idx)
   }
     
   final protected def stdDev(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
+    Function(functionCache, classOf[STDDEVFunction], baseSer, baseVar, period).stdDev(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
+    Function(functionCache, classOf[PROBMASSFunction], baseSer, baseVar, null, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def probMass(idx: Int, baseVar: TVar[Double], weight: TVar[Double] , period: Factor, nInterval: Factor): Array[Array[Double]] = {
-    Function(classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
+    Function(functionCache, classOf[PROBMASSFunction], baseSer, baseVar, weight, period, nInterval).probMass(sessionId, idx)
   }
     
   final protected def tr(idx: Int): Double = {
-    Function(classOf[TRFunction], baseSer).tr(sessionId, idx)
+    Function(functionCache, classOf[TRFunction], baseSer).tr(sessionId, idx)
   }
     
   final protected def dmPlus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
+    Function(functionCache, classOf[DMFunction], baseSer).dmPlus(sessionId, idx)
   }
     
   final protected def dmMinus(idx: Int): Double = {
-    Function(classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
+    Function(functionCache, classOf[DMFunction], baseSer).dmMinus(sessionId, idx)
   }
     
   final protected def diPlus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
+    Function(functionCache, classOf[DIFunction], baseSer, period).diPlus(sessionId, idx)
   }
     
   final protected def diMinus(idx: Int, period: Factor): Double = {
-    Function(classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
+    Function(functionCache, classOf[DIFunction], baseSer, period).diMinus(sessionId, idx)
   }
     
   final protected def dx(idx: Int, period: Factor): Double = {
-    Function(classOf[DXFunction], baseSer, period).dx(sessionId, idx)
+    Function(functionCache, classOf[DXFunction], baseSer, period).dx(sessionId, idx)
   }
     
   final protected def adx(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
+    Function(functionCache, classOf[ADXFunction], baseSer, periodDi, periodAdx).adx(sessionId, idx)
   }
     
   final protected def adxr(idx: Int, periodDi: Factor, periodAdx: Factor): Double = {
-    Function(classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
+    Function(functionCache, classOf[ADXRFunction], baseSer, periodDi, periodAdx).adxr(sessionId, idx)
   }
     
   final protected def bollMiddle(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollMiddle(sessionId, idx)
   }
     
   final protected def bollUpper(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollUpper(sessionId, idx)
   }
     
   final protected def bollLower(idx: Int, baseVar: TVar[_], period: Factor, alpha: Factor): Double = {
-    Function(classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
+    Function(functionCache, classOf[BOLLFunction], baseSer, baseVar, period, alpha).bollLower(sessionId, idx)
   }
     
   final protected def cci(idx: Int, period: Factor, alpha: Factor): Double = {
-    Function(classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
+    Function(functionCache, classOf[CCIFunction], baseSer, period, alpha).cci(sessionId, idx)
   }
     
   final protected def macd(idx: Int, baseVar: TVar[_], periodSlow: Factor, periodFast: Factor): Double = {
-    Function(classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
+    Function(functionCache, classOf[MACDFunction], baseSer, baseVar, periodSlow, periodFast).macd(sessionId, idx)
   }
     
   final protected def mfi(idx: Int, period: Factor): Double = {
-    Function(classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
+    Function(functionCache, classOf[MFIFunction], baseSer, period).mfi(sessionId, idx)
   }
     
   final protected def mtm(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
+    Function(functionCache, classOf[MTMFunction], baseSer, baseVar, period).mtm(sessionId, idx)
   }
     
   final protected def obv(idx: Int): Double = {
-    Function(classOf[OBVFunction], baseSer).obv(sessionId, idx)
+    Function(functionCache, classOf[OBVFunction], baseSer).obv(sessionId, idx)
   }
     
   final protected def roc(idx: Int, baseVar: TVar[_], period: Factor): Double = {
-    Function(classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
+    Function(functionCache, classOf[ROCFunction], baseSer, baseVar, period).roc(sessionId, idx)
   }
     
   final protected def rsi(idx: Int, period: Factor): Double = {
-    Function(classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
+    Function(functionCache, classOf[RSIFunction], baseSer, period).rsi(sessionId, idx)
   }
     
   final protected def sar(idx: Int, initial: Factor, step: Factor, maximum: Factor): Double = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
+    Function(functionCache, classOf[SARFunction], baseSer, initial, step, maximum).sar(sessionId, idx)
   }
     
   final protected def sarSide(idx: Int, initial: Factor, step: Factor, maximum: Factor): Side = {
-    Function(classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
+    Function(functionCache, classOf[SARFunction], baseSer, initial, step, maximum).sarSide(sessionId, idx)
   }
     
   final protected def stochK(idx: Int, period: Factor, periodK: Factor): Double = {
-    Function(classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
+    Function(functionCache, classOf[STOCHKFunction], baseSer, period, periodK).stochK(sessionId, idx)
   }
     
   final protected def stochD(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
+    Function(functionCache, classOf[STOCHDFunction], baseSer, period, periodK, periodD).stochD(sessionId, idx)
   }
     
   final protected def stochJ(idx: Int, period: Factor, periodK: Factor, periodD: Factor): Double = {
-    Function(classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
+    Function(functionCache, classOf[STOCHJFunction], baseSer, period, periodK, periodD).stochJ(sessionId, idx)
   }
     
   final protected def wms(idx: Int, period: Factor): Double = {
-    Function(classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
+    Function(functionCache, classOf[WMSFunction], baseSer, period).wms(sessionId, idx)
   }
     
   final protected def zigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).zigzag(sessionId, idx)
   }
     
   final protected def pseudoZigzag(idx: Int, percent: Factor): Double = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).pseudoZigzag(sessionId, idx)
   }
     
   final protected def zigzagSide(idx: Int, percent: Factor): Side = {
-    Function(classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
+    Function(functionCache, classOf[ZIGZAGFunction], baseSer, percent).zigzagSide(sessionId, idx)
   }
     
     
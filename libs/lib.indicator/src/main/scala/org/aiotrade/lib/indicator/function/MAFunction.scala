@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.StatsFunctions
+import org.aiotrade.lib.math.RollingWindow
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,15 +41,13 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MAFunction extends Function {
-  final protected def ima(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    return StatsFunctions.ima(idx, baseVar.values, period.toInt, prev)
-  }
-    
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _ma = TVar[Double]()
     
+  private val window = new RollingWindow()
+    
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
     args match {
@@ -66,11 +64,24 @@ class MAFunction extends Function {
             
     } else {
             
-      _ma(i) = ima(i, baseVar, period.value, _ma(i - 1))
+      window.roll(i, baseVar, period.value.toInt)
+      _ma.updateDouble(i, window.mean)
             
     }
   }
     
+  override 
+  protected def headRemoved(removedSize: Int) {
+    super.headRemoved(removedSize)
+    window.reset
+  }
+
+  override 
+  protected def allCleared {
+    super.allCleared
+    window.reset
+  }
+    
   def ma(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
         
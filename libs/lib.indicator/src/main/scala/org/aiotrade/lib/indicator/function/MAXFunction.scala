@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.StatsFunctions
+import org.aiotrade.lib.math.RollingWindow
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,15 +41,13 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MAXFunction extends Function {
-  final protected def imax(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    StatsFunctions.imax(idx, baseVar.values, period.toInt, prev)
-  }
-    
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _max = TVar[Double]()
     
+  private val window = new RollingWindow(extremes = true)
+    
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
         
@@ -64,11 +62,24 @@ class MAXFunction extends Function {
             
     } else {
             
-      _max(i) = imax(i, baseVar, period.value, _max(i - 1))
+      window.roll(i, baseVar, period.value.toInt)
+      _max.updateDouble(i, window.max)
             
     }
   }
     
+  override 
+  protected def headRemoved(removedSize: Int) {
+    super.headRemoved(removedSize)
+    window.reset
+  }
+
+  override 
+  protected def allCleared {
+    super.allCleared
+    window.reset
+  }
+    
   def max(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
         
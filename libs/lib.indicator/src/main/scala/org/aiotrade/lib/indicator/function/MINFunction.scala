@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.StatsFunctions
+import org.aiotrade.lib.math.RollingWindow
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,15 +41,13 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class MINFunction extends Function {
-  final protected def imin(idx: Int, baseVar: TVar[Double], period: Double, prev: Double): Double = {
-    StatsFunctions.imin(idx, baseVar.values, period.toInt, prev)
-  }
-    
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _min = TVar[Double]()
     
+  private val window = new RollingWindow(extremes = true)
+    
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
         
@@ -64,11 +62,24 @@ class MINFunction extends Function {
             
     } else {
             
-      _min(i) = imin(i, baseVar, period.value, _min(i - 1))
+      window.roll(i, baseVar, period.value.toInt)
+      _min.updateDouble(i, window.min)
             
     }
   }
     
+  override 
+  protected def headRemoved(removedSize: Int) {
+    super.headRemoved(removedSize)
+    window.reset
+  }
+
+  override 
+  protected def allCleared {
+    super.allCleared
+    window.reset
+  }
+    
   def min(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
         
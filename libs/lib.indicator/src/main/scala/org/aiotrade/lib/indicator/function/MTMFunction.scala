@@ -60,7 +60,7 @@ class MTMFunction extends Function {
             
     } else {
             
-      _mtm(i) = (baseVar(i) / baseVar(i - period.value.toInt)) * 100f
+      _mtm.updateDouble(i, (baseVar.double(i) / baseVar.double(i - period.value.toInt)) * 100f)
             
     }
   }
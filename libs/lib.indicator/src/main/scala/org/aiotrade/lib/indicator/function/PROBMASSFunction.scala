@@ -44,14 +44,14 @@ final case class PROBMASSFunction extends Function {
     val begIdx = idx - period.intValue + 1
     val endIdx = idx
 
-    StatsFunctions.probMass(baseVar.values, begIdx, endIdx, nInterval.intValue)
+    StatsFunctions.probMass(baseVar, begIdx, endIdx, nInterval.intValue)
   }
 
   protected def probMass(idx: Int, baseVar: TVar[Double], weight: TVar[Double], period: Double, nInterval: Double): Array[Array[Double]] = {
     val begIdx = idx - period.intValue + 1
     val endIdx = idx
 
-    StatsFunctions.probMass(baseVar.values, weight.values, begIdx, endIdx, nInterval.intValue)
+    StatsFunctions.probMass(baseVar, weight, begIdx, endIdx, nInterval.intValue)
   }
     
   var period: Factor = _
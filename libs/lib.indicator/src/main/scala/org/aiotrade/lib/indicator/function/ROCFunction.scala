@@ -60,11 +60,11 @@ class ROCFunction extends Function {
             
     } else {
             
-      val var_j = baseVar(i - period.value.toInt)
+      val var_j = baseVar.double(i - period.value.toInt)
             
-      val roc_i = if (var_j == 0) 0f else ((baseVar(i) - var_j) / var_j) * 100
+      val roc_i = if (var_j == 0) 0f else ((baseVar.double(i) - var_j) / var_j) * 100
             
-      _roc(i) = roc_i
+      _roc.updateDouble(i, roc_i)
             
     }
   }
@@ -30,7 +30,7 @@
  */
 package org.aiotrade.lib.indicator.function
 
-import org.aiotrade.lib.math.StatsFunctions
+import org.aiotrade.lib.math.RollingWindow
 import org.aiotrade.lib.math.timeseries.Null
 import org.aiotrade.lib.math.timeseries.BaseTSer
 import org.aiotrade.lib.math.timeseries.TVar
@@ -41,19 +41,13 @@ import org.aiotrade.lib.math.indicator.Factor
  * @author Caoyuan Deng
  */
 class STDDEVFunction extends Function {
-  final protected def stdDev(idx: Int, baseVar: TVar[Double], period: Double): Double = {
-    val begIdx = idx - period.toInt + 1
-    val endIdx = idx
-
-    StatsFunctions.stdDev(baseVar.values, begIdx, endIdx)
-  }
-
-    
   var period: Factor = _
   var baseVar: TVar[Double] = _
     
   val _stdDev = TVar[Double]()
     
+  private val window = new RollingWindow(variance = true)
+    
   override def set(baseSer: BaseTSer, args: Any*): Unit = {
     super.set(baseSer)
         
@@ -68,11 +62,24 @@ class STDDEVFunction extends Function {
             
     } else {
             
-      _stdDev(i) = stdDev(i, baseVar, period.value)
+      window.roll(i, baseVar, period.value.toInt)
+      _stdDev.updateDouble(i, window.stdDev)
             
     }
   }
     
+  override 
+  protected def headRemoved(removedSize: Int) {
+    super.headRemoved(removedSize)
+    window.reset
+  }
+
+  override 
+  protected def allCleared {
+    super.allCleared
+    window.reset
+  }
+    
   def stdDev(sessionId: Long, idx: Int): Double = {
     computeTo(sessionId, idx)
         
@@ -52,8 +52,11 @@ class TRFunction extends Function {
             
     } else {
             
-      val tr_tmp = math.max(H(i) - L(i), math.abs(H(i) - C(i - 1)))
-      _tr(i) = math.max(tr_tmp, math.abs(L(i) - C(i - 1)))
+      val h_i = H.double(i)
+      val l_i = L.double(i)
+      val c_prev = C.double(i - 1)
+      val tr_tmp = math.max(h_i - l_i, math.abs(h_i - c_prev))
+      _tr.updateDouble(i, math.max(tr_tmp, math.abs(l_i - c_prev)))
             
     }
   }
@@ -58,6 +58,29 @@ class ZIGZAGFunction extends Function {
     this.percent = args(0).asInstanceOf[Factor]
   }
     
+  /**
+   * The peak idxes are stored as values, shift them with the dropped rows. A 
+   * peak that has been dropped is moved to the first row.
+   */
+  override 
+  protected def headRemoved(removedSize: Int) {
+    super.headRemoved(removedSize)
+    
+    var i = 0
+    val n = size
+    while (i < n) {
+      val hiIdx = _peakHiIdx(i)
+      if (Null.not(hiIdx)) {
+        _peakHiIdx(i) = math.max(hiIdx - removedSize, 0)
+      }
+      val loIdx = _peakLoIdx(i)
+      if (Null.not(loIdx)) {
+        _peakLoIdx(i) = math.max(loIdx - removedSize, 0)
+      }
+      i += 1
+    }
+  }
+    
   /**
    * @TODO
    * Re-think how to effictively get this pseudoZigzag
@@ -3,14 +3,15 @@ package org.aiotrade.lib.io
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
-import java.io.OutputStream
 import java.net.InetAddress
 import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.ReadableByteChannel
 import java.nio.channels.SelectionKey
 import java.nio.channels.ServerSocketChannel
 import java.nio.channels.spi.SelectorProvider
 import scala.actors.Actor
-import Encoding._
 
 
 class FileReceiver(hostAddress: InetAddress, port: Int, storageDirPath: String) extends Actor {
@@ -67,12 +68,7 @@ object FileReceiver {
     private val requestParser = new RequestParser(storageDir)
 
     private def handleRequest(data: Array[Byte]) = {
-      var i = 0
-      while (i < data.length) {
-        requestParser.consume(data(i))
-        i += 1
-      }
-
+      requestParser.consume(ByteBuffer.wrap(data))
       requestParser.parsed
     }
 
@@ -87,93 +83,185 @@ object FileReceiver {
 //        }
       }
     }
+  }
+
+  private final val NumFiles = 0
+  private final val NameLength = 1
+  private final val Name = 2
+  private final val FileLength = 3
+  private final val FileData = 4
+  private final val End = 5
+
+  /**
+   * A continuation-based request parser.
+   *
+   * The parser consumes a buffer at a time, which can be cut at any position,
+   * so the parsing process can be suspended at any time. Ints and longs are
+   * collected in a reused header buffer, and file content is written in slices
+   * of received buffer via FileChannel, nothing is allocated per byte.
+   *
+   * Request: numFiles(Int) [nameLength(Int) name(Bytes) fileLength(Long) content(Bytes)]*
+   *
+   * At the moment, this does not support Keep-Alive connections.
+   */
+  final class RequestParser(storageDir: File) {
+
+    /**
+     * Indicates the current position of the parser.
+     */
+    private var state = NumFiles
+
+    private val header = ByteBuffer.allocate(8)
+    private var nameBuf = new Array[Byte](256)
+    private var nameLen = 0
+    private var nameIdx = 0
+
+    private var out: FileChannel = _
+    private var remaining = 0L
+
+    /* Components of the request. */
+    private var numFiles = 0
+    private var cntFiles = 0
+
+    /**
+     * Has a complete request been parsed?
+     */
+    def parsed = state == End
+
+    def receivedFiles = cntFiles
 
     /**
-     * A continuation-based request parser.
-     *
-     * The parser consumes one character at a time,
-     * which means that the parsing process can be suspended at any time.
-     *
-     * At the moment, this does not support Keep-Alive connections.
+     * Update the state of the parser with the remaining bytes of buf. The buf's
+     * position will be moved to its limit.
      */
-    private class RequestParser(storageDir: File) {
-
-      /**
-       * Indicates the current position of the parser.
-       */
-      sealed trait State
-      case class NumFiles(buf: Array[Byte], idx: Int, len: Int) extends State
-      case class FileMeta(name: Option[String], buf: Array[Byte], idx: Int, len: Int) extends State
-      case class FileData(out: OutputStream, idx: Long, len: Long) extends State
-      case object End extends State
-      val NoneName = Some("")
-
-      private var state: State = NumFiles(new Array[Byte](4), 0, 4)
-
-      /* Components of the request. */
-      private var numFiles = 0
-      private var cntFiles = 0
-
-      /**
-       * Has a complete request been parsed?
-       */
-      def parsed = state == End
-
-      /**
-       * Update the state of the parser with the next character.
-       */
-      def consume(b: Byte) {
-        state = state match {
-          case NumFiles(buf, i, len) if i < len - 1 => buf(i) = b; NumFiles(buf, i + 1, len)
-          case NumFiles(buf, i, _) =>
-            buf(i) = b
-            numFiles = decodeInt(buf)
-            //println("number of files: " + numFiles)
-            FileMeta(None, new Array[Byte](4), 0, 4)
+    @throws(classOf[IOException])
+    def consume(buf: ByteBuffer) {
+      while (buf.hasRemaining) {
+        state match {
+          case NumFiles =>
+            if (fillHeader(buf, 4)) {
+              numFiles = header.getInt(0)
+              if (numFiles < 0) throw new IOException("Bad number of files: " + numFiles)
+              //println("number of files: " + numFiles)
+              state = if (numFiles == 0) End else NameLength
+            }
 
             // read filename length
-          case FileMeta(None, buf, i, len) if i < len - 1 => buf(i) = b; FileMeta(None, buf, i + 1, len)
-          case FileMeta(None, buf, i, _) =>
-            buf(i) = b
-            val len = decodeInt(buf)
-            //println("file name length: " + len)
-            FileMeta(NoneName, new Array[Byte](len), 0, len)
+          case NameLength =>
+            if (fillHeader(buf, 4)) {
+              nameLen = header.getInt(0)
+              if (nameLen < 0) throw new IOException("Bad file name length: " + nameLen)
+              //println("file name length: " + nameLen)
+              if (nameBuf.length < nameLen) {
+                nameBuf = new Array[Byte](nameLen)
+              }
+              nameIdx = 0
+              state = if (nameLen == 0) FileLength else Name
+            }
 
             // read filename string
-          case FileMeta(NoneName, buf, i, len) if i < len - 1 => buf(i) = b; FileMeta(NoneName, buf, i + 1, len)
-          case FileMeta(NoneName, buf, i, _) =>
-            buf(i) = b
-            val path = new String(buf) + "-" + System.currentTimeMillis
-            //println("file path: " + path)
-            // expect file length in Long
-            FileMeta(Some(path), new Array[Byte](8), 0, 8)
+          case Name =>
+            val n = math.min(buf.remaining, nameLen - nameIdx)
+            buf.get(nameBuf, nameIdx, n)
+            nameIdx += n
+            if (nameIdx == nameLen) {
+              state = FileLength
+            }
 
             // read file length
-          case FileMeta(Some(path), buf, i, len) if i < len - 1 => buf(i) = b; FileMeta(Some(path), buf, i + 1, len)
-          case FileMeta(Some(path), buf, i, _) =>
-            buf(i) = b
-            val len = decodeLong(buf)
-            //println("file length: " + len)
-
-            val file = new File(path)
-            val fileName = file.getName
-            val saveToFile = new File(storageDir, fileName)
-            val out = new FileOutputStream(saveToFile)
-            FileData(out, 0, len)
+          case FileLength =>
+            if (fillHeader(buf, 8)) {
+              remaining = header.getLong(0)
+              if (remaining < 0) throw new IOException("Bad file length: " + remaining)
+              //println("file length: " + remaining)
+              openFile
+              if (remaining == 0) closeFile
+            }
 
             // read file content
-          case FileData(out, i, len) if i < len - 1 => out.write(b); FileData(out, i + 1, len)
-          case FileData(out, _, _) =>
-            out.write(b)
-            out.close
-            cntFiles += 1
-            // all files received? if true end, else begin a new file
-            if (cntFiles == numFiles) End else FileMeta(None, new Array[Byte](4), 0, 4)
-
-          case _ => throw new Exception(state + "/" + b)
+          case FileData =>
+            val n = math.min(buf.remaining, remaining).toInt
+            val limit = buf.limit
+            buf.limit(buf.position + n)
+            try {
+              while (buf.hasRemaining) {
+                out.write(buf)
+              }
+            } finally {
+              buf.limit(limit)
+            }
+            remaining -= n
+            if (remaining == 0) closeFile
+
+          case _ => throw new IOException("Unexpected data after end of request: " + buf.remaining + " bytes")
         }
       }
     }
+
+    /**
+     * Read the request from src until it's parsed or src reaches end of stream.
+     * File content is transferred by FileChannel.transferFrom, headers are read 
+     * via buf, which should be empty (in fill mode) initially.
+     * 
+     * @return true if a complete request has been parsed
+     */
+    @throws(classOf[IOException])
+    def receive(src: ReadableByteChannel, buf: ByteBuffer): Boolean = {
+      var eof = false
+      while (state != End && !eof) {
+        if (state == FileData && buf.position == 0) {
+          val n = out.transferFrom(src, out.position, remaining)
+          if (n > 0) {
+            out.position(out.position + n)
+            remaining -= n
+            if (remaining == 0) closeFile
+          } else {
+            // transferFrom returns 0 on both no data and end of stream, read to tell
+            eof = src.read(buf) == -1
+          }
+        } else {
+          eof = src.read(buf) == -1
+        }
+        
+        if (buf.position > 0) {
+          buf.flip
+          // do not consume beyond this request
+          if (state != End) {
+            consume(buf)
+          }
+          buf.clear
+        }
+      }
+      
+      state == End
+    }
+
+    private def fillHeader(buf: ByteBuffer, len: Int): Boolean = {
+      while (header.position < len && buf.hasRemaining) {
+        header.put(buf.get)
+      }
+      if (header.position == len) {
+        header.clear
+        true
+      } else false
+    }
+
+    private def openFile {
+      val path = new String(nameBuf, 0, nameLen) + "-" + System.currentTimeMillis
+      //println("file path: " + path)
+      val fileName = new File(path).getName
+      val saveToFile = new File(storageDir, fileName)
+      out = new FileOutputStream(saveToFile).getChannel
+      state = FileData
+    }
+
+    private def closeFile {
+      out.close
+      out = null
+      cntFiles += 1
+      // all files received? if true end, else begin a new file
+      state = if (cntFiles == numFiles) End else NameLength
+    }
   }
 
 }
@@ -0,0 +1,163 @@
+package org.aiotrade.lib.io
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+
+/**
+ * Throughput of FileReceiver.RequestParser over loopback, the sender writes
+ * the request by FileChannel.transferTo, the receiver parses it either by
+ * consume (buffer at a time, as FileReceiverHandler does) or by receive 
+ * (FileChannel.transferFrom).
+ * Not enabled by default, run it via main.
+ * 
+ * -DtestSize=<MB> size of each file, default 256
+ * -DtestFiles=<n> number of files in a request, default 2
+ * -DtestRuns=<n>  runs of each mode, default 3
+ */
+object FileReceiverBench {
+  private val SIZE = Integer.parseInt(System.getProperty("testSize", "256")) * 1024L * 1024L
+  private val FILES = Integer.parseInt(System.getProperty("testFiles", "2"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "3"))
+
+  def main(args: Array[String]) {
+    val tmpDir = new File(System.getProperty("java.io.tmpdir"), "FileReceiverBench-" + System.currentTimeMillis)
+    val storageDir = new File(tmpDir, "storage")
+    storageDir.mkdirs
+
+    val files = new Array[File](FILES)
+    var i = 0
+    while (i < FILES) {
+      files(i) = createFile(new File(tmpDir, "data" + i), SIZE)
+      i += 1
+    }
+    println("Files=" + FILES + ", Size=" + SIZE / 1024 / 1024 + "MB, Runs=" + RUNS)
+
+    try {
+      var run = 0
+      while (run < RUNS) {
+        bench("consume",      files, storageDir, false)
+        bench("transferFrom", files, storageDir, true)
+        run += 1
+      }
+    } finally {
+      deleteAll(tmpDir)
+    }
+  }
+
+  private def bench(name: String, files: Array[File], storageDir: File, isTransfer: Boolean) {
+    val server = ServerSocketChannel.open
+    server.socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0))
+    val port = server.socket.getLocalPort
+
+    val sender = new Thread(new Runnable {
+        def run = send(port, files)
+      }, "FileReceiverBench-sender")
+
+    val t0 = System.nanoTime
+    sender.start
+    val channel = server.accept
+    val parser = new FileReceiver.RequestParser(storageDir)
+    val buf = ByteBuffer.allocateDirect(64 * 1024)
+    try {
+      if (isTransfer) {
+        parser.receive(channel, buf)
+      } else {
+        while (!parser.parsed && channel.read(buf) != -1) {
+          buf.flip
+          parser.consume(buf)
+          buf.clear
+        }
+      }
+    } finally {
+      channel.close
+      server.close
+    }
+    val elapsed = System.nanoTime - t0
+    sender.join
+
+    val received = storageDir.listFiles
+    var bytes = 0L
+    var i = 0
+    while (i < received.length) {
+      bytes += received(i).length
+      received(i).delete
+      i += 1
+    }
+    val expected = SIZE * files.length
+    val mbPerSec = bytes / 1024.0 / 1024.0 / (elapsed / 1000000000.0)
+    println("%-12s received %d files, %d bytes%s in %6d ms: %8.1f MB/s".format(
+        name, parser.receivedFiles, bytes, if (bytes == expected) "" else " (expected " + expected + ")", elapsed / 1000000, mbPerSec))
+  }
+
+  private def send(port: Int, files: Array[File]) {
+    val channel = SocketChannel.open(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port))
+    try {
+      val header = ByteBuffer.allocate(8)
+      header.putInt(files.length).flip
+      writeFully(channel, header)
+      var i = 0
+      while (i < files.length) {
+        val file = files(i)
+        val name = file.getName.getBytes
+        header.clear
+        header.putInt(name.length).flip
+        writeFully(channel, header)
+        writeFully(channel, ByteBuffer.wrap(name))
+
+        val fileChannel = new RandomAccessFile(file, "r").getChannel
+        try {
+          val size = fileChannel.size
+          header.clear
+          header.putLong(size).flip
+          writeFully(channel, header)
+          var pos = 0L
+          while (pos < size) {
+            pos += fileChannel.transferTo(pos, size - pos, channel)
+          }
+        } finally {
+          fileChannel.close
+        }
+        i += 1
+      }
+    } finally {
+      channel.close
+    }
+  }
+
+  private def writeFully(channel: SocketChannel, buf: ByteBuffer) {
+    while (buf.hasRemaining) {
+      channel.write(buf)
+    }
+  }
+
+  private def createFile(file: File, size: Long): File = {
+    val channel = new RandomAccessFile(file, "rw").getChannel
+    try {
+      val random = new scala.util.Random(size)
+      val chunk = new Array[Byte](1024 * 1024)
+      random.nextBytes(chunk)
+      val buf = ByteBuffer.wrap(chunk)
+      var pos = 0L
+      while (pos < size) {
+        buf.clear
+        buf.limit(math.min(chunk.length, size - pos).toInt)
+        pos += channel.write(buf, pos)
+      }
+    } finally {
+      channel.close
+    }
+    file
+  }
+
+  private def deleteAll(file: File) {
+    if (file.isDirectory) {
+      file.listFiles foreach deleteAll
+    }
+    file.delete
+  }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math
+
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TVar
+
+/**
+ * Rolling window kernel that keeps sum, variance and max/min of the last
+ * 'period' values of a var, so that each new bar costs O(1) instead of O(period).
+ *
+ * The window is split into the settled values [idx - period + 1, idx - 1] and
+ * the last value at idx. The last bar of a realtime ser is updated again and
+ * again, so it's kept out of the running states and only combined at query time:
+ * - sum: Kahan compensated running sum
+ * - variance: Welford running mean/M2, with removal
+ * - max/min: monotonic deques of idx
+ *
+ * roll(idx) should usually be called with idx == lastIdx (refresh last value)
+ * or idx == lastIdx + 1 (slide one bar), any other idx, or a changed period,
+ * will rebuild the window from baseVar in O(period), so callers may re-compute
+ * from any earlier idx as Function.computeTo does.
+ *
+ * Null.Double values are skipped by sum and max/min, and make stdDev Null.
+ *
+ * @author Caoyuan Deng
+ */
+final class RollingWindow(variance: Boolean = false, extremes: Boolean = false) {
+  
+  private var _period = 0
+  private var _lastIdx = Int.MinValue
+  private var _last = Null.Double
+  /** settled values, indexed by idx % period */
+  private var ring: Array[Double] = Array()
+  private var nNulls = 0
+  
+  /** Kahan */
+  private var sum0 = 0.0
+  private var compensation = 0.0
+  
+  /** Welford */
+  private var n = 0
+  private var mean0 = 0.0
+  private var m2 = 0.0
+  
+  /** monotonic deques of idx */
+  private var maxDeque: IdxDeque = _
+  private var minDeque: IdxDeque = _
+
+  def period = _period
+  def lastIdx = _lastIdx
+  
+  def reset {
+    _lastIdx = Int.MinValue
+    _last = Null.Double
+  }
+  
+  /**
+   * Move the window to end at idx, the value of idx is always (re)read from baseVar.
+   */
+  def roll(idx: Int, baseVar: TVar[Double], period: Int) {
+    if (period != _period) {
+      init(period)
+      rebuild(idx, baseVar)
+    } else if (idx == _lastIdx) {
+      _last = baseVar.double(idx)
+    } else if (idx == _lastIdx + 1) {
+      // settle the value of lastIdx as it is now, then drop the one out of window
+      settle(_lastIdx, baseVar.double(_lastIdx))
+      val outIdx = idx - period
+      if (outIdx >= 0) {
+        evict(outIdx)
+      }
+      _lastIdx = idx
+      _last = baseVar.double(idx)
+    } else {
+      rebuild(idx, baseVar)
+    }
+  }
+  
+  /** count of bars in window, including Null.Double ones */
+  def count: Int = if (_lastIdx < 0) 0 else math.min(_lastIdx + 1, _period)
+  
+  def sum: Double = {
+    if (Null.is(_last)) sum0 - compensation else sum0 + (_last - compensation)
+  }
+  
+  def mean: Double = {
+    val count1 = count
+    if (count1 == 0) Null.Double else sum / count1
+  }
+  
+  /**
+   * Population standard deviation, same as StatsFunctions.stdDev
+   */
+  def stdDev: Double = {
+    assert(variance, "RollingWindow was not created with variance")
+    if (nNulls > 0 || Null.is(_last)) {
+      Null.Double
+    } else {
+      // combine settled (n, mean, m2) with the last value
+      val n1 = n + 1
+      val delta = _last - mean0
+      val mean1 = mean0 + delta / n1
+      val m21 = m2 + delta * (_last - mean1)
+      math.sqrt(math.max(m21, 0.0) / n1)
+    }
+  }
+  
+  /**
+   * @return Double.MinValue if all values are Null, same as StatsFunctions.max
+   */
+  def max: Double = {
+    assert(extremes, "RollingWindow was not created with extremes")
+    val settled = if (maxDeque.isEmpty) Double.MinValue else ring(slot(maxDeque.head))
+    if (Null.is(_last) || settled >= _last) settled else _last
+  }
+
+  /**
+   * @return Double.MaxValue if all values are Null, same as StatsFunctions.min
+   */
+  def min: Double = {
+    assert(extremes, "RollingWindow was not created with extremes")
+    val settled = if (minDeque.isEmpty) Double.MaxValue else ring(slot(minDeque.head))
+    if (Null.is(_last) || settled <= _last) settled else _last
+  }
+
+  @inline private def slot(idx: Int) = idx % _period
+  
+  private def init(period: Int) {
+    _period = math.max(period, 1)
+    ring = new Array[Double](_period)
+    if (extremes) {
+      maxDeque = new IdxDeque(_period)
+      minDeque = new IdxDeque(_period)
+    }
+  }
+  
+  private def clearStates {
+    nNulls = 0
+    sum0 = 0.0
+    compensation = 0.0
+    n = 0
+    mean0 = 0.0
+    m2 = 0.0
+    if (extremes) {
+      maxDeque.clear
+      minDeque.clear
+    }
+  }
+  
+  private def rebuild(idx: Int, baseVar: TVar[Double]) {
+    clearStates
+    if (idx < 0) {
+      reset
+      return
+    }
+    
+    var i = math.max(idx - _period + 1, 0)
+    while (i < idx) {
+      settle(i, baseVar.double(i))
+      i += 1
+    }
+    _lastIdx = idx
+    _last = baseVar.double(idx)
+  }
+  
+  private def settle(idx: Int, value: Double) {
+    if (idx < 0) return
+    
+    ring(slot(idx)) = value
+    if (Null.is(value)) {
+      nNulls += 1
+      return
+    }
+    
+    kahanAdd(value)
+    
+    if (variance) {
+      n += 1
+      val delta = value - mean0
+      mean0 += delta / n
+      m2 += delta * (value - mean0)
+    }
+    
+    if (extremes) {
+      while (!maxDeque.isEmpty && ring(slot(maxDeque.last)) <= value) maxDeque.removeLast
+      maxDeque.addLast(idx)
+      while (!minDeque.isEmpty && ring(slot(minDeque.last)) >= value) minDeque.removeLast
+      minDeque.addLast(idx)
+    }
+  }
+  
+  private def evict(idx: Int) {
+    val value = ring(slot(idx))
+    if (Null.is(value)) {
+      nNulls -= 1
+      return
+    }
+    
+    kahanAdd(-value)
+    
+    if (variance) {
+      n -= 1
+      if (n == 0) {
+        mean0 = 0.0
+        m2 = 0.0
+      } else {
+        val delta = value - mean0
+        mean0 -= delta / n
+        m2 -= delta * (value - mean0)
+        if (m2 < 0) m2 = 0.0
+      }
+    }
+    
+    if (extremes) {
+      if (!maxDeque.isEmpty && maxDeque.head == idx) maxDeque.removeHead
+      if (!minDeque.isEmpty && minDeque.head == idx) minDeque.removeHead
+    }
+  }
+  
+  private def kahanAdd(value: Double) {
+    val y = value - compensation
+    val t = sum0 + y
+    compensation = (t - sum0) - y
+    sum0 = t
+  }
+}
+
+/**
+ * Fixed capacity ring deque of int, no boxing.
+ */
+private[math] final class IdxDeque(capacity: Int) {
+  private val elems = new Array[Int](capacity)
+  private var headPos = 0
+  private var size0 = 0
+  
+  def isEmpty = size0 == 0
+  def size = size0
+  
+  def head: Int = elems(headPos)
+  def last: Int = elems((headPos + size0 - 1) % capacity)
+  
+  def addLast(x: Int) {
+    elems((headPos + size0) % capacity) = x
+    size0 += 1
+  }
+  
+  def removeHead {
+    headPos = (headPos + 1) % capacity
+    size0 -= 1
+  }
+  
+  def removeLast {
+    size0 -= 1
+  }
+  
+  def clear {
+    headPos = 0
+    size0 = 0
+  }
+}
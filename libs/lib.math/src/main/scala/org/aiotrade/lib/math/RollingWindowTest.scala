@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math
+
+import org.aiotrade.lib.math.indicator.Plot
+import org.aiotrade.lib.math.timeseries.DefaultBaseTSer
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TVar
+import scala.util.Random
+
+/**
+ * Checks RollingWindow against the full window StatsFunctions, including
+ * refreshing the last bar and re-computing from an earlier idx.
+ * Not enabled by default, run it via main.
+ * 
+ * @author Caoyuan Deng
+ */
+object RollingWindowTest {
+  private val SIZE = 10000
+  private val PERIOD = 60
+  private val EPS = 1e-6
+
+  private class TestSer extends DefaultBaseTSer {
+    val x: TVar[Double] = TVar[Double]("X", Plot.None)
+  }
+
+  def main(args: Array[String]) {
+    val random = new Random(1)
+    val ser = new TestSer
+    val xs = new Array[Double](SIZE)
+    var i = 0
+    while (i < SIZE) {
+      ser.createOrReset(i * 60000L)
+      xs(i) = if (random.nextInt(500) == 0) Null.Double else 1000 + random.nextGaussian * 10
+      ser.x(i) = xs(i)
+      i += 1
+    }
+
+    val window = new RollingWindow(variance = true, extremes = true)
+    var errors = 0
+    def check(i: Int) {
+      window.roll(i, ser.x, PERIOD)
+      val fromIdx = i - PERIOD + 1
+      errors += compare("sum", i, window.sum, StatsFunctions.sum(xs, fromIdx, i))
+      errors += compare("mean", i, window.mean, StatsFunctions.ma(xs, fromIdx, i))
+      errors += compare("stdDev", i, window.stdDev, StatsFunctions.stdDev(xs, fromIdx, i))
+      errors += compare("max", i, window.max, StatsFunctions.max(xs, fromIdx, i))
+      errors += compare("min", i, window.min, StatsFunctions.min(xs, fromIdx, i))
+    }
+
+    i = PERIOD - 1
+    while (i < SIZE) {
+      check(i)
+      // realtime: the last bar is updated again
+      if (i % 7 == 0) {
+        xs(i) += 5
+        ser.x(i) = xs(i)
+        check(i)
+      }
+      // re-compute from an earlier idx
+      if (i % 1001 == 0 && i > 2 * PERIOD) {
+        check(i - PERIOD)
+        var j = i - PERIOD + 1
+        while (j <= i) {
+          check(j)
+          j += 1
+        }
+      }
+      i += 1
+    }
+
+    println(if (errors == 0) "RollingWindowTest passed" else "RollingWindowTest failed: " + errors + " errors")
+  }
+
+  private def compare(name: String, idx: Int, actual: Double, expected: Double): Int = {
+    if (Null.is(actual) && Null.is(expected) || math.abs(actual - expected) <= EPS * math.max(1.0, math.abs(expected))) {
+      0
+    } else {
+      println("%s at %s: %s, expected %s".format(name, idx, actual, expected))
+      1
+    }
+  }
+}
@@ -31,9 +31,14 @@
 package org.aiotrade.lib.math
 
 import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TVar
 import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.collection.DoubleArrayView
 
 /**
+ * Each function is implemented on DoubleArrayView, the Array, ArrayList and 
+ * TVar overloads only wrap their backing array into a view without copying, so 
+ * calling an i-function for each idx of a var costs O(period) instead of O(size).
  *
  * @author Caoyuan Deng
  */
@@ -44,8 +49,10 @@ object StatsFunctions {
   val VALUE = 0
   val MASS = 1
 
-  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = sum(values.toArray, fromIdx, toIdx)
-  def sum(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def sum(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = sum(view(values), fromIdx, toIdx)
+  def sum(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = sum(values.doubleView, fromIdx, toIdx)
+  def sum(values: Array[Double], fromIdx: Int, toIdx: Int): Double = sum(view(values), fromIdx, toIdx)
+  def sum(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.length) {
       return Null.Double
     }
@@ -63,8 +70,10 @@ object StatsFunctions {
     sum
   }
 
-  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = isum(idx, values.toArray, period, prev)
-  def isum(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def isum(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = isum(idx, view(values), period, prev)
+  def isum(idx: Int, values: TVar[Double], period: Int, prev: Double): Double = isum(idx, values.doubleView, period, prev)
+  def isum(idx: Int, values: Array[Double], period: Int, prev: Double): Double = isum(idx, view(values), period, prev)
+  def isum(idx: Int, values: DoubleArrayView, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
     if (lookbackIdx < 0 || idx >= values.length) {
@@ -86,8 +95,10 @@ object StatsFunctions {
     }
   }
 
-  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ma(values.toArray, fromIdx, toIdx)
-  def ma(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def ma(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ma(view(values), fromIdx, toIdx)
+  def ma(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = ma(values.doubleView, fromIdx, toIdx)
+  def ma(values: Array[Double], fromIdx: Int, toIdx: Int): Double = ma(view(values), fromIdx, toIdx)
+  def ma(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.length) {
       return Null.Double
     }
@@ -99,8 +110,10 @@ object StatsFunctions {
   /**
    * ma(t + 1) = ma(t) + ( x(t) / N - x(t - n) / N )
    */
-  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = ima(idx, values.toArray, period, prev)
-  def ima(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def ima(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = ima(idx, view(values), period, prev)
+  def ima(idx: Int, values: TVar[Double], period: Int, prev: Double): Double = ima(idx, values.doubleView, period, prev)
+  def ima(idx: Int, values: Array[Double], period: Int, prev: Double): Double = ima(idx, view(values), period, prev)
+  def ima(idx: Int, values: DoubleArrayView, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
     if (lookbackIdx < 0 || idx >= values.length) {
@@ -122,8 +135,10 @@ object StatsFunctions {
     }
   }
 
-  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ema(values.toArray, fromIdx, toIdx)
-  def ema(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def ema(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = ema(view(values), fromIdx, toIdx)
+  def ema(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = ema(values.doubleView, fromIdx, toIdx)
+  def ema(values: Array[Double], fromIdx: Int, toIdx: Int): Double = ema(view(values), fromIdx, toIdx)
+  def ema(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.length) {
       return Null.Double
     }
@@ -144,8 +159,10 @@ object StatsFunctions {
    *            = (1 - 1/N) * ema(t) + (1/N) * x(t)
    *            = (1 - a) * ema(t) + a * x(t)  // let a = 1/N
    */
-  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = iema(idx, values.toArray, period, prev)
-  def iema(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = {
+  def iema(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = iema(idx, view(values), period, prev)
+  def iema(idx: Int, values: TVar[Double], period: Int, prev: Double): Double = iema(idx, values.doubleView, period, prev)
+  def iema(idx: Int, values: Array[Double], period: Int, prev: Double): Double = iema(idx, view(values), period, prev)
+  def iema(idx: Int, values: DoubleArrayView, period: Int, prev: Double): Double = {
     var value = values(idx)
     if (Null.is(value)) value = 0.0
 
@@ -160,13 +177,17 @@ object StatsFunctions {
     //return ((period - 1.0f) / (period + 1.0f)) * prevEma + (2.0f / (period + 1.0f)) * value;
   }
 
-  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = max(values.toArray, fromIdx, toIdx)
-  def max(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def max(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = max(view(values), fromIdx, toIdx)
+  def max(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = max(values.doubleView, fromIdx, toIdx)
+  def max(values: Array[Double], fromIdx: Int, toIdx: Int): Double = max(view(values), fromIdx, toIdx)
+  def max(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     maxmin(values, fromIdx, toIdx)(MAX)
   }
 
-  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imax(idx, values.toArray, period, prev)
-  def imax(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def imax(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imax(idx, view(values), period, prev)
+  def imax(idx: Int, values: TVar[Double], period: Int, prev: Double): Double = imax(idx, values.doubleView, period, prev)
+  def imax(idx: Int, values: Array[Double], period: Int, prev: Double): Double = imax(idx, view(values), period, prev)
+  def imax(idx: Int, values: DoubleArrayView, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
     if (lookbackIdx < 0 || idx >= values.length) {
@@ -183,13 +204,17 @@ object StatsFunctions {
     }
   }
 
-  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = min(values.toArray, fromIdx, toIdx)
-  def min(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def min(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = min(view(values), fromIdx, toIdx)
+  def min(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = min(values.doubleView, fromIdx, toIdx)
+  def min(values: Array[Double], fromIdx: Int, toIdx: Int): Double = min(view(values), fromIdx, toIdx)
+  def min(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     maxmin(values, fromIdx, toIdx)(MIN)
   }
 
-  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imin(idx, values.toArray, period, prev)
-  def imin(idx: Int, values: Array[Double], period: Int, prev: Double): Double = {
+  def imin(idx: Int, values: ArrayList[Double], period: Int, prev: Double): Double = imin(idx, view(values), period, prev)
+  def imin(idx: Int, values: TVar[Double], period: Int, prev: Double): Double = imin(idx, values.doubleView, period, prev)
+  def imin(idx: Int, values: Array[Double], period: Int, prev: Double): Double = imin(idx, view(values), period, prev)
+  def imin(idx: Int, values: DoubleArrayView, period: Int, prev: Double): Double = {
     val lookbackIdx = lookback(idx, period)
 
     if (lookbackIdx < 0 || idx >= values.length) {
@@ -206,8 +231,10 @@ object StatsFunctions {
     }
   }
 
-  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values.toArray, fromIdx, toIdx)
-  def maxmin(values: Array[Double], fromIdx: Int, toIdx: Int): Array[Double] = {
+  def maxmin(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(view(values), fromIdx, toIdx)
+  def maxmin(values: TVar[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(values.doubleView, fromIdx, toIdx)
+  def maxmin(values: Array[Double], fromIdx: Int, toIdx: Int): Array[Double] = maxmin(view(values), fromIdx, toIdx)
+  def maxmin(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Array[Double] = {
     if (fromIdx < 0) {
       return Array(Null.Double, Null.Double)
     }
@@ -231,8 +258,10 @@ object StatsFunctions {
   /**
    * Standard Deviation
    */
-  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values.toArray, fromIdx, toIdx)
-  def stdDev(values: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def stdDev(values: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = stdDev(view(values), fromIdx, toIdx)
+  def stdDev(values: TVar[Double], fromIdx: Int, toIdx: Int): Double = stdDev(values.doubleView, fromIdx, toIdx)
+  def stdDev(values: Array[Double], fromIdx: Int, toIdx: Int): Double = stdDev(view(values), fromIdx, toIdx)
+  def stdDev(values: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     if (fromIdx < 0 || toIdx >= values.length) {
       return Null.Double
     }
@@ -251,8 +280,10 @@ object StatsFunctions {
     math.sqrt(deviation_square_sum / period1)
   }
 
-  def correlation(xs: ArrayList[Double], ys: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = correlation(xs.toArray, ys.toArray, fromIdx, toIdx)
-  def correlation(xs: Array[Double], ys: Array[Double], fromIdx: Int, toIdx: Int): Double = {
+  def correlation(xs: ArrayList[Double], ys: ArrayList[Double], fromIdx: Int, toIdx: Int): Double = correlation(view(xs), view(ys), fromIdx, toIdx)
+  def correlation(xs: TVar[Double], ys: TVar[Double], fromIdx: Int, toIdx: Int): Double = correlation(xs.doubleView, ys.doubleView, fromIdx, toIdx)
+  def correlation(xs: Array[Double], ys: Array[Double], fromIdx: Int, toIdx: Int): Double = correlation(view(xs), view(ys), fromIdx, toIdx)
+  def correlation(xs: DoubleArrayView, ys: DoubleArrayView, fromIdx: Int, toIdx: Int): Double = {
     assert(
       xs != null && ys != null && xs.length >= 2 && xs.length == ys.length, 
       "Invald params: x.length(>=2)=%s, y.length(=x.length)=%s".format(xs.length, ys.length)
@@ -290,16 +321,20 @@ object StatsFunctions {
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, nIntervals)
-  def probMass(values: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = {
-    probMass(values, null.asInstanceOf[Array[Double]], fromIdx, toIdx, nIntervals)
+  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(view(values), fromIdx, toIdx, nIntervals)
+  def probMass(values: TVar[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.doubleView, fromIdx, toIdx, nIntervals)
+  def probMass(values: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(view(values), fromIdx, toIdx, nIntervals)
+  def probMass(values: DoubleArrayView, fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = {
+    probMass(values, null.asInstanceOf[DoubleArrayView], fromIdx, toIdx, nIntervals)
   }
   
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, nIntervals)
-  def probMass(values: Array[Double], weights: Array[Double],
+  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(view(values), view(weights), fromIdx, toIdx, nIntervals)
+  def probMass(values: TVar[Double], weights: TVar[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(values.doubleView, weights.doubleView, fromIdx, toIdx, nIntervals)
+  def probMass(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, nIntervals: Int): Array[Array[Double]] = probMass(view(values), view(weights), fromIdx, toIdx, nIntervals)
+  def probMass(values: DoubleArrayView, weights: DoubleArrayView,
                fromIdx: Int, toIdx: Int, nIntervals: Int
   ): Array[Array[Double]] = {
 
@@ -318,8 +353,10 @@ object StatsFunctions {
   /**
    * Probability Density Function
    */
-  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.toArray, fromIdx, toIdx, interval)
-  def probMass(values: Array[Double],
+  def probMass(values: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(view(values), fromIdx, toIdx, interval)
+  def probMass(values: TVar[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.doubleView, fromIdx, toIdx, interval)
+  def probMass(values: Array[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(view(values), fromIdx, toIdx, interval)
+  def probMass(values: DoubleArrayView,
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
@@ -329,8 +366,10 @@ object StatsFunctions {
   /**
    * Probability Mass Function
    */
-  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, interval)
-  def probMass(values: Array[Double], weights: Array[Double],
+  def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(view(values), view(weights), fromIdx, toIdx, interval)
+  def probMass(values: TVar[Double], weights: TVar[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(values.doubleView, weights.doubleView, fromIdx, toIdx, interval)
+  def probMass(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMass(view(values), view(weights), fromIdx, toIdx, interval)
+  def probMass(values: DoubleArrayView, weights: DoubleArrayView,
                fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
@@ -350,8 +389,8 @@ object StatsFunctions {
   /**
    * Probability Mass Function
    */
-  private def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int): Array[Array[Double]] = probMass(values.toArray, weights.toArray, fromIdx, toIdx, max, min, nIntervals)
-  private def probMass(values: Array[Double], weights: Array[Double],
+  private def probMass(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int): Array[Array[Double]] = probMass(view(values), view(weights), fromIdx, toIdx, max, min, nIntervals)
+  private def probMass(values: DoubleArrayView, weights: DoubleArrayView,
                        fromIdx: Int, toIdx: Int, max: Double, min: Double, nIntervals: Int
   ): Array[Array[Double]] = {
 
@@ -394,8 +433,10 @@ object StatsFunctions {
   /**
    * Probability Density Function
    */
-  def probMassWithTimeInfo(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(values.toArray, weights.toArray, fromIdx, toIdx, interval)
-  def probMassWithTimeInfo(values: Array[Double], weights: Array[Double],
+  def probMassWithTimeInfo(values: ArrayList[Double], weights: ArrayList[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(view(values), view(weights), fromIdx, toIdx, interval)
+  def probMassWithTimeInfo(values: TVar[Double], weights: TVar[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(values.doubleView, weights.doubleView, fromIdx, toIdx, interval)
+  def probMassWithTimeInfo(values: Array[Double], weights: Array[Double], fromIdx: Int, toIdx: Int, interval: Double): Array[Array[Double]] = probMassWithTimeInfo(view(values), view(weights), fromIdx, toIdx, interval)
+  def probMassWithTimeInfo(values: DoubleArrayView, weights: DoubleArrayView,
                            fromIdx: Int, toIdx: Int, interval: Double
   ): Array[Array[Double]] = {
 
@@ -437,6 +478,14 @@ object StatsFunctions {
     mass
   }
   
+  private def view(values: Array[Double]): DoubleArrayView = {
+    if (values == null) null else new DoubleArrayView(values)
+  }
+
+  private def view(values: ArrayList[Double]): DoubleArrayView = {
+    if (values == null) null else DoubleArrayView(values)
+  }
+  
   private def period(fromIdx: Int, toIdx: Int): Int = {
     toIdx - fromIdx + 1
   }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math
+
+import org.aiotrade.lib.math.indicator.Plot
+import org.aiotrade.lib.math.timeseries.DefaultBaseTSer
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TVar
+import scala.util.Random
+
+/**
+ * Computes ima/imax/stdDev for every bar of a var's full history, once by 
+ * copying the values for each bar (what the ArrayList overloads used to do via
+ * toArray), and once on the DoubleArrayView of the var. The former grows 
+ * quadratically with size, the latter linearly. Results of both are compared
+ * bar by bar, a Null one only equals to a Null one.
+ * Not enabled by default, run it via main.
+ * 
+ * @author Caoyuan Deng
+ */
+object StatsFunctionsBench {
+  private val PERIOD = Integer.parseInt(System.getProperty("testPeriod", "20"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "5"))
+  /** 2000-01-03 00:00 UTC, aligned to the default DAILY freq of DefaultBaseTSer */
+  private val START_TIME = 946857600000L
+
+  private class BenchSer(size: Int) extends DefaultBaseTSer {
+    val x: TVar[Double] = TVar[Double]("X", Plot.None)
+
+    val random = new Random(1)
+    var time = START_TIME
+    var i = 0
+    while (i < size) {
+      createOrReset(time)
+      x(i) = 1000 + random.nextGaussian * 10
+      time = freq.nextTime(time)
+      i += 1
+    }
+  }
+
+  /**
+   * @return ma, max and stdDev of each bar, in a row
+   */
+  private def computeAll(x: TVar[Double], copy: Boolean): Array[Double] = {
+    val results = new Array[Double](x.size * 3)
+    var ma = Null.Double
+    var max = Null.Double
+    var stdDev = Null.Double
+    var i = 0
+    while (i < x.size) {
+      if (copy) {
+        val values = x.values.toArray
+        ma  = StatsFunctions.ima(i, values, PERIOD, ma)
+        max = StatsFunctions.imax(i, values, PERIOD, max)
+        stdDev = StatsFunctions.stdDev(values, i - PERIOD + 1, i)
+      } else {
+        ma  = StatsFunctions.ima(i, x, PERIOD, ma)
+        max = StatsFunctions.imax(i, x, PERIOD, max)
+        stdDev = StatsFunctions.stdDev(x, i - PERIOD + 1, i)
+      }
+      results(i * 3) = ma
+      results(i * 3 + 1) = max
+      results(i * 3 + 2) = stdDev
+      i += 1
+    }
+    results
+  }
+
+  /**
+   * @return count of results that differ, a Null one only equals to a Null one
+   */
+  private def countDiffs(results1: Array[Double], results2: Array[Double]): Int = {
+    var n = 0
+    var i = 0
+    while (i < results1.length) {
+      val a = results1(i)
+      val b = results2(i)
+      if (Null.is(a) || Null.is(b)) {
+        if (Null.is(a) != Null.is(b)) n += 1
+      } else if (a != b) {
+        n += 1
+      }
+      i += 1
+    }
+    n
+  }
+
+  private def bench(size: Int): Boolean = {
+    val ser = new BenchSer(size)
+    
+    var t0 = System.nanoTime
+    var results1: Array[Double] = null
+    var run = 0
+    while (run < RUNS) {
+      results1 = computeAll(ser.x, true)
+      run += 1
+    }
+    val copyMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    t0 = System.nanoTime
+    var results2: Array[Double] = null
+    run = 0
+    while (run < RUNS) {
+      results2 = computeAll(ser.x, false)
+      run += 1
+    }
+    val viewMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    val nDiffs = countDiffs(results1, results2)
+    println("size %6d: copy %9.2f ms, view %7.2f ms (%s)".format(
+        size, copyMs, viewMs, if (nDiffs == 0) "same results" else nDiffs + " DIFFERENT results"))
+    nDiffs == 0
+  }
+
+  def main(args: Array[String]) {
+    println("Period=" + PERIOD + ", Runs=" + RUNS)
+    
+    // warm up
+    var passed = bench(1000)
+    
+    var size = 1250
+    while (size <= 20000) {
+      passed &= bench(size)
+      size *= 2
+    }
+    
+    if (!passed) {
+      println("FAILED: view and copy results differ")
+      System.exit(1)
+    }
+  }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2006-2010, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.aiotrade.lib.math.algebra
+
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.RecursiveAction
+
+/**
+ * Cache-blocked kernels on row arrays, i.e. the storage of DenseMatrix, where
+ * each row is a contiguous double[], so all inner loops run with unit stride.
+ *
+ * - gemm: C = A * B, in i-k-j order, blocked on k and j so that a KB x NB block
+ *   of B stays in cache while it's applied to all rows of A.
+ * - gemv: y = A * x
+ * - transposeTimes: C = A' * B, without materializing A'
+ * - ger: C += alpha * x * y', rank-1 update
+ * - transpose: in TB x TB tiles
+ *
+ * Kernels whose multiply-adds exceed PARALLEL_THRESHOLD are split into row
+ * blocks on a ForkJoinPool, each block writes a disjoint range of rows of the
+ * result, so there is no sharing of written data between tasks.
+ *
+ * The parallelism (-Daiotrade.math.parallelism, default available processors)
+ * and threshold (-Daiotrade.math.parallelThreshold, default 2^21) are system
+ * properties.
+ *
+ * @author Caoyuan Deng
+ */
+object DenseKernels {
+  /** block sizes, a KB x NB block of B is 256K */
+  private val KB = 128
+  private val NB = 256
+  private val TB = 32
+
+  val parallelism = Integer.parseInt(System.getProperty("aiotrade.math.parallelism", Runtime.getRuntime.availableProcessors.toString))
+  val PARALLEL_THRESHOLD = java.lang.Long.parseLong(System.getProperty("aiotrade.math.parallelThreshold", (1L << 21).toString))
+
+  private lazy val pool = new ForkJoinPool(parallelism)
+
+  /**
+   * C(m x n) = A(m x k) * B(k x n), c is overwritten.
+   * 
+   * @param parallel false to always compute in caller's thread, for callers that
+   *        are already tasks of a pool
+   */
+  def gemm(a: Array[Array[Double]], b: Array[Array[Double]], c: Array[Array[Double]], m: Int, n: Int, k: Int, parallel: Boolean = true) {
+    forRows(m, m.toLong * n * k, parallel) {(fromRow, untilRow) =>
+      var i = fromRow
+      while (i < untilRow) {
+        java.util.Arrays.fill(c(i), 0, n, 0.0)
+        i += 1
+      }
+
+      var jj = 0
+      while (jj < n) {
+        val jEnd = math.min(jj + NB, n)
+        var kk = 0
+        while (kk < k) {
+          val kEnd = math.min(kk + KB, k)
+          var i = fromRow
+          while (i < untilRow) {
+            val ai = a(i)
+            val ci = c(i)
+            var p = kk
+            while (p < kEnd) {
+              val aip = ai(p)
+              if (aip != 0.0) {
+                val bp = b(p)
+                var j = jj
+                while (j < jEnd) {
+                  ci(j) += aip * bp(j)
+                  j += 1
+                }
+              }
+              p += 1
+            }
+            i += 1
+          }
+          kk = kEnd
+        }
+        jj = jEnd
+      }
+    }
+  }
+
+  /**
+   * y(m) = A(m x n) * x(n), y is overwritten.
+   */
+  def gemv(a: Array[Array[Double]], x: Array[Double], y: Array[Double], m: Int, n: Int) {
+    forRows(m, m.toLong * n) {(fromRow, untilRow) =>
+      var i = fromRow
+      while (i < untilRow) {
+        val ai = a(i)
+        var sum = 0.0
+        var j = 0
+        while (j < n) {
+          sum += ai(j) * x(j)
+          j += 1
+        }
+        y(i) = sum
+        i += 1
+      }
+    }
+  }
+
+  /**
+   * C(k x n) = A(m x k)' * B(m x n), c is overwritten.
+   *
+   * Rows of C are split among tasks, each task walks all rows of A and B, but
+   * only reads its own column range of A.
+   * 
+   * @param parallel see gemm
+   */
+  def transposeTimes(a: Array[Array[Double]], b: Array[Array[Double]], c: Array[Array[Double]], m: Int, n: Int, k: Int, parallel: Boolean = true) {
+    forRows(k, m.toLong * n * k, parallel) {(fromRow, untilRow) =>
+      var i = fromRow
+      while (i < untilRow) {
+        java.util.Arrays.fill(c(i), 0, n, 0.0)
+        i += 1
+      }
+
+      var jj = 0
+      while (jj < n) {
+        val jEnd = math.min(jj + NB, n)
+        var r = 0
+        while (r < m) {
+          val ar = a(r)
+          val br = b(r)
+          var i = fromRow
+          while (i < untilRow) {
+            val ari = ar(i)
+            if (ari != 0.0) {
+              val ci = c(i)
+              var j = jj
+              while (j < jEnd) {
+                ci(j) += ari * br(j)
+                j += 1
+              }
+            }
+            i += 1
+          }
+          r += 1
+        }
+        jj = jEnd
+      }
+    }
+  }
+
+  /**
+   * y(n) = A(m x n)' * x(m), y is overwritten.
+   */
+  def transposeTimes(a: Array[Array[Double]], x: Array[Double], y: Array[Double], m: Int, n: Int) {
+    java.util.Arrays.fill(y, 0, n, 0.0)
+    var r = 0
+    while (r < m) {
+      val xr = x(r)
+      if (xr != 0.0) {
+        val ar = a(r)
+        var j = 0
+        while (j < n) {
+          y(j) += xr * ar(j)
+          j += 1
+        }
+      }
+      r += 1
+    }
+  }
+
+  /**
+   * C(m x n) += alpha * x(m) * y(n)'
+   */
+  def ger(alpha: Double, x: Array[Double], y: Array[Double], c: Array[Array[Double]], m: Int, n: Int) {
+    forRows(m, m.toLong * n) {(fromRow, untilRow) =>
+      var i = fromRow
+      while (i < untilRow) {
+        val axi = alpha * x(i)
+        if (axi != 0.0) {
+          val ci = c(i)
+          var j = 0
+          while (j < n) {
+            ci(j) += axi * y(j)
+            j += 1
+          }
+        }
+        i += 1
+      }
+    }
+  }
+
+  /**
+   * T(n x m) = A(m x n)'
+   */
+  def transpose(a: Array[Array[Double]], t: Array[Array[Double]], m: Int, n: Int) {
+    forRows(n, m.toLong * n / 4) {(fromCol, untilCol) =>
+      var ii = 0
+      while (ii < m) {
+        val iEnd = math.min(ii + TB, m)
+        var jj = fromCol
+        while (jj < untilCol) {
+          val jEnd = math.min(jj + TB, untilCol)
+          var i = ii
+          while (i < iEnd) {
+            val ai = a(i)
+            var j = jj
+            while (j < jEnd) {
+              t(j)(i) = ai(j)
+              j += 1
+            }
+            i += 1
+          }
+          jj = jEnd
+        }
+        ii = iEnd
+      }
+    }
+  }
+
+  /**
+   * Apply f on [0, rows) in one call, or on row blocks in parallel if work is
+   * above PARALLEL_THRESHOLD.
+   */
+  private def forRows(rows: Int, work: Long, parallel: Boolean = true)(f: (Int, Int) => Unit) {
+    if (!parallel || work < PARALLEL_THRESHOLD || rows < 2 || parallelism < 2) {
+      f(0, rows)
+    } else {
+      // about 4 blocks per thread for load balance, but not less than worth a task
+      val grain = math.max(math.max(rows / (parallelism * 4), 1), (PARALLEL_THRESHOLD / math.max(work / rows, 1)).toInt)
+      pool.invoke(new RowsTask(0, rows, grain, f))
+    }
+  }
+
+  private final class RowsTask(fromRow: Int, untilRow: Int, grain: Int, f: (Int, Int) => Unit) extends RecursiveAction {
+    protected def compute() {
+      if (untilRow - fromRow <= grain) {
+        f(fromRow, untilRow)
+      } else {
+        val mid = (fromRow + untilRow) >>> 1
+        val left = new RowsTask(fromRow, mid, grain, f)
+        left.fork
+        new RowsTask(mid, untilRow, grain, f).compute
+        left.join
+      }
+    }
+  }
+}
@@ -129,6 +129,80 @@ class DenseMatrix protected (private var values: Array[Array[Double]]) extends A
     DenseVector(values(row), true)
   }
   
+  /**
+   * The row arrays, shared but not copied.
+   */
+  private[algebra] def backingArray: Array[Array[Double]] = values
+
+  // --- fast paths on row arrays, see DenseKernels
+  
+  override
+  def times(other: Matrix): Matrix = other match {
+    case x: DenseMatrix =>
+      if (columnSize != x.rowSize) {
+        throw new CardinalityException(columnSize, x.rowSize)
+      }
+      val result = DenseMatrix(rowSize, x.columnSize)
+      DenseKernels.gemm(values, x.values, result.values, rowSize, x.columnSize, columnSize)
+      result
+    case _ => super.times(other)
+  }
+
+  override
+  def times(v: Vector): Vector = {
+    if (columnSize != v.size) {
+      throw new CardinalityException(columnSize, v.size)
+    }
+    val y = new Array[Double](rowSize)
+    DenseKernels.gemv(values, arrayOf(v), y, rowSize, columnSize)
+    DenseVector(y)
+  }
+
+  override
+  def timesSquared(v: Vector): Vector = {
+    if (columnSize != v.size) {
+      throw new CardinalityException(columnSize, v.size)
+    }
+    val av = new Array[Double](rowSize)
+    DenseKernels.gemv(values, arrayOf(v), av, rowSize, columnSize)
+    val w = new Array[Double](columnSize)
+    DenseKernels.transposeTimes(values, av, w, rowSize, columnSize)
+    DenseVector(w)
+  }
+
+  override
+  def transpose: Matrix = {
+    val result = DenseMatrix(columnSize, rowSize)
+    DenseKernels.transpose(values, result.values, rowSize, columnSize)
+    result
+  }
+
+  /**
+   * this' * other, without materializing this'. It's X'X when other is this,
+   * i.e. the cross product of a (observations x variables) matrix.
+   */
+  def transposeTimes(other: Matrix): Matrix = other match {
+    case x: DenseMatrix =>
+      if (rowSize != x.rowSize) {
+        throw new CardinalityException(rowSize, x.rowSize)
+      }
+      val result = DenseMatrix(columnSize, x.columnSize)
+      DenseKernels.transposeTimes(values, x.values, result.values, rowSize, x.columnSize, columnSize)
+      result
+    case _ => transpose.times(other)
+  }
+
+  private def arrayOf(v: Vector): Array[Double] = v match {
+    case x: DenseVector => x.backingArray
+    case _ =>
+      val xs = new Array[Double](v.size)
+      var i = 0
+      while (i < xs.length) {
+        xs(i) = v(i)
+        i += 1
+      }
+      xs
+  }
 }
 
 object DenseMatrix {
@@ -0,0 +1,102 @@
+package org.aiotrade.lib.math.algebra
+
+import scala.util.Random
+
+/**
+ * Compares DenseMatrix times/transposeTimes/times(vector)/transpose on
+ * DenseKernels against the element by element loops of AbstractMatrix, which
+ * are reached through a full MatrixView of the same matrix.
+ *
+ * The naive loops are only run up to naiveMaxSize, since they take minutes
+ * at 3000.
+ * Not enabled by default, run it via main, with e.g.
+ *   -DtestSizes=256,1024,3000 -DnaiveMaxSize=1024 -Daiotrade.math.parallelism=1
+ *
+ * @author Caoyuan Deng
+ */
+object DenseMatrixBench {
+  private val SIZES = System.getProperty("testSizes", "256,1024,3000").split(",") map (_.trim.toInt)
+  private val NAIVE_MAX_SIZE = Integer.parseInt(System.getProperty("naiveMaxSize", "1024"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "3"))
+
+  def main(args: Array[String]) {
+    println("Parallelism=" + DenseKernels.parallelism + ", threshold=" + DenseKernels.PARALLEL_THRESHOLD + ", runs=" + RUNS)
+
+    // warm up
+    bench(128, true)
+
+    SIZES foreach {size => bench(size, size <= NAIVE_MAX_SIZE)}
+  }
+
+  private def bench(n: Int, naive: Boolean) {
+    val random = new Random(n)
+    val a = randomMatrix(n, random)
+    val b = randomMatrix(n, random)
+    val v = DenseVector(Array.fill(n)(random.nextGaussian))
+    val aView = MatrixView(a, Array(0, 0), Array(n, n))
+    val bView = MatrixView(b, Array(0, 0), Array(n, n))
+
+    report(n, "times", naive,
+           time(a.times(b)),
+           time(aView.times(bView)))
+    report(n, "transposeTimes", naive,
+           time(a.transposeTimes(b)),
+           time(aView.transpose.times(bView)))
+    report(n, "times(vector)", naive,
+           time(a.times(v)),
+           time(aView.times(v)))
+    report(n, "transpose", naive,
+           time(a.transpose),
+           time(aView.transpose))
+  }
+
+  private def report(n: Int, name: String, naive: Boolean, fast: => (Double, AnyRef), slow: => (Double, AnyRef)) {
+    val (fastMs, fastResult) = fast
+    if (naive) {
+      val (slowMs, slowResult) = slow
+      println("%5d %-15s kernels: %9.2f ms, naive: %9.2f ms, x%.1f, max diff %.3g".format(
+          n, name, fastMs, slowMs, slowMs / fastMs, maxDiff(fastResult, slowResult)))
+    } else {
+      println("%5d %-15s kernels: %9.2f ms".format(n, name, fastMs))
+    }
+  }
+
+  private def time(f: => AnyRef): (Double, AnyRef) = {
+    var result: AnyRef = null
+    val t0 = System.nanoTime
+    var run = 0
+    while (run < RUNS) {
+      result = f
+      run += 1
+    }
+    ((System.nanoTime - t0) / 1000000.0 / RUNS, result)
+  }
+
+  private def maxDiff(x: AnyRef, y: AnyRef): Double = (x, y) match {
+    case (m1: Matrix, m2: Matrix) =>
+      var max = 0.0
+      var i = 0
+      while (i < m1.rowSize) {
+        var j = 0
+        while (j < m1.columnSize) {
+          max = math.max(max, math.abs(m1(i, j) - m2(i, j)))
+          j += 1
+        }
+        i += 1
+      }
+      max
+    case (v1: Vector, v2: Vector) =>
+      var max = 0.0
+      var i = 0
+      while (i < v1.size) {
+        max = math.max(max, math.abs(v1(i) - v2(i)))
+        i += 1
+      }
+      max
+    case _ => Double.NaN
+  }
+
+  private def randomMatrix(n: Int, random: Random): DenseMatrix = {
+    DenseMatrix(Array.fill(n, n)(random.nextGaussian))
+  }
+}
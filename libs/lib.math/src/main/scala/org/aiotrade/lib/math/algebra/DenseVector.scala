@@ -54,6 +54,11 @@ class DenseVector protected (private var values: Array[Double]) extends Abstract
     values(index)
   }
 
+  /**
+   * The values array, shared but not copied.
+   */
+  private[algebra] def backingArray: Array[Double] = values
+
   override
   def like(): DenseVector = {
     DenseVector(size)
@@ -441,14 +441,19 @@ object Matrix {
   def toArray(m: Matrix): Array[Array[Double]] = {
     checkSquare(m)
     val n = m.numCols
-    val V = Array.ofDim[Double](n, n)
-    for (slice <- m) {
-      val row = slice.index
-      for (element <- slice.vector) {
-        V(row)(element.index) = element.get
-      }
+    m match {
+      case x: DenseMatrix =>
+        x.backingArray map (_.clone)
+      case _ =>
+        val V = Array.ofDim[Double](n, n)
+        for (slice <- m) {
+          val row = slice.index
+          for (element <- slice.vector) {
+            V(row)(element.index) = element.get
+          }
+        }
+        V
     }
-    V
   }
 
   def isSymmetric(matrix: Array[Array[Double]]): Boolean = {
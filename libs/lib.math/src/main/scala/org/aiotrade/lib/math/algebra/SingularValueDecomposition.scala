@@ -38,14 +38,26 @@ class SingularValueDecomposition(arg: Matrix) {
   private var transpositionNeeded = false
   
   def init(arg: Matrix) {
-    var i = 0
-    while (i < m) {
-      var j = 0
-      while (j < n) {
-        a(i)(j) = if (transpositionNeeded) arg.get(j, i) else arg.get(i, j)
-        j += 1
-      }
-      i += 1
+    arg match {
+      case x: DenseMatrix if transpositionNeeded =>
+        DenseKernels.transpose(x.backingArray, a, n, m)
+      case x: DenseMatrix =>
+        val rows = x.backingArray
+        var i = 0
+        while (i < m) {
+          System.arraycopy(rows(i), 0, a(i), 0, n)
+          i += 1
+        }
+      case _ =>
+        var i = 0
+        while (i < m) {
+          var j = 0
+          while (j < n) {
+            a(i)(j) = if (transpositionNeeded) arg.get(j, i) else arg.get(i, j)
+            j += 1
+          }
+          i += 1
+        }
     }
     
     val nu = math.min(m, n)
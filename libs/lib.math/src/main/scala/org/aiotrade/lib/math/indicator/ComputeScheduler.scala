@@ -0,0 +1,411 @@
+/*
+ * Copyright (c) 2006-2010, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.indicator
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.BaseTSer
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.ForkJoinWorkerThread
+
+/**
+ * Schedules Indicator.computeFrom on a work-stealing pool.
+ * 
+ * - Indicators of different base sers are computed in parallel, while indicators
+ *   of the same base ser are always computed one by one by a single task, since
+ *   they may share the same Function instances (see Function.apply).
+ *   computeFrom itself still holds the timestamps' readLock of base ser.
+ * - Repeated requests for an indicator that is not started yet are coalesced
+ *   into one, with the min fromTime.
+ * - Functions are got from each indicator's own functionCache, so whichever
+ *   thread computes it, an indicator always uses the cache it's given.
+ * - computeAll may be called from a task of this pool, e.g. by an indicator that
+ *   computes others. Then an indicator whose base ser is not being computed by
+ *   another thread is computed inline. The caller waits for the others by
+ *   ForkJoinPool.managedBlock, so the pool may add a thread instead of the caller
+ *   occupying one, and meanwhile computes the pendings of the sers it's computing,
+ *   which no other thread can compute. Otherwise a pool of few threads, or two
+ *   sers whose indicators wait for each other's, would deadlock.
+ * 
+ * Indicators compute asynchronously via their base ser's events only when
+ * ASYNC_COMPUTE is on (-Daiotrade.indicator.asyncCompute=true), otherwise this
+ * scheduler is only used explicitly, by computeAll etc.
+ *
+ * @author Caoyuan Deng
+ */
+object ComputeScheduler {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  val ASYNC_COMPUTE = java.lang.Boolean.getBoolean("aiotrade.indicator.asyncCompute")
+  
+  val parallelism = Integer.parseInt(System.getProperty("aiotrade.indicator.computeThreads", Runtime.getRuntime.availableProcessors.toString))
+  
+  private lazy val pool = new ForkJoinPool(parallelism)
+  
+  /** weak keys, so a ser will not be kept here after all its indicators gone */
+  private val serToComputer = java.util.Collections.synchronizedMap(new java.util.WeakHashMap[BaseTSer, SerComputer])
+
+  private val _queueDepth = new AtomicInteger
+  private val _submittedCount = new AtomicLong
+  private val _coalescedCount = new AtomicLong
+  private val _computedCount = new AtomicLong
+  private val _failedCount = new AtomicLong
+  private val _totalLatency = new AtomicLong
+  private val _maxLatency = new AtomicLong
+  private val _totalComputeTime = new AtomicLong
+
+  /** count of indicators that are waiting to be computed */
+  def queueDepth = _queueDepth.get
+  def submittedCount = _submittedCount.get
+  def coalescedCount = _coalescedCount.get
+  def computedCount = _computedCount.get
+  def failedCount = _failedCount.get
+  /** average latency from submitted to computing started, in ms */
+  def avgLatency: Double = if (computedCount == 0) 0.0 else _totalLatency.get / 1000000.0 / computedCount
+  def maxLatency: Double = _maxLatency.get / 1000000.0
+  /** average time of computeFrom, in ms */
+  def avgComputeTime: Double = if (computedCount == 0) 0.0 else _totalComputeTime.get / 1000000.0 / computedCount
+  
+  def metrics = {
+    "ComputeScheduler(parallelism=%s, queueDepth=%s, submitted=%s, coalesced=%s, computed=%s, failed=%s, avgLatency=%.3fms, maxLatency=%.3fms, avgCompute=%.3fms)".format(
+      parallelism, queueDepth, submittedCount, coalescedCount, computedCount, failedCount, avgLatency, maxLatency, avgComputeTime
+    )
+  }
+  
+  /**
+   * Asynchronously computeFrom(fromTime)
+   */
+  def submit(indicator: Indicator, fromTime: Long) {
+    submit(indicator, fromTime, null)
+  }
+  
+  /**
+   * computeFrom(fromTime) on all indicators in parallel, and wait until all done.
+   */
+  def computeAll(indicators: Iterable[Indicator], fromTime: Long) {
+    computeAll(indicators, fromTime, Long.MaxValue)
+  }
+
+  /**
+   * @return true if all done before timeout
+   */
+  def computeAll(indicators: Iterable[Indicator], fromTime: Long, timeout: Long, unit: TimeUnit): Boolean = {
+    computeAll(indicators, fromTime, unit.toNanos(timeout))
+  }
+  
+  /**
+   * @param timeoutNanos Long.MaxValue means no timeout
+   */
+  private def computeAll(indicators: Iterable[Indicator], fromTime: Long, timeoutNanos: Long): Boolean = {
+    val latch = new CountDownLatch(indicators.size)
+    if (isPoolWorker) {
+      indicators foreach {x => 
+        if (computeInline(x, fromTime)) latch.countDown else submit(x, fromTime, latch)
+      }
+      awaitHelping(latch, timeoutNanos)
+    } else {
+      indicators foreach {x => submit(x, fromTime, latch)}
+      if (timeoutNanos == Long.MaxValue) {
+        latch.await
+        true
+      } else {
+        latch.await(timeoutNanos, TimeUnit.NANOSECONDS)
+      }
+    }
+  }
+  
+  private def isPoolWorker: Boolean = Thread.currentThread match {
+    case x: ForkJoinWorkerThread => x.getPool eq pool
+    case _ => false
+  }
+  
+  /**
+   * Wait in a pool worker. The sers that this worker is computing can not be 
+   * computed by others meanwhile, so their pending indicators, which may be just
+   * what the waited indicators are waiting for, are computed here while waiting.
+   */
+  private def awaitHelping(latch: CountDownLatch, timeoutNanos: Long): Boolean = {
+    val deadline = if (timeoutNanos == Long.MaxValue) Long.MaxValue else System.nanoTime + timeoutNanos
+    while (latch.getCount > 0) {
+      ownedComputers.get foreach (_.help)
+      if (latch.getCount > 0) {
+        val remaining = if (deadline == Long.MaxValue) Long.MaxValue else deadline - System.nanoTime
+        if (remaining <= 0) return false
+        ForkJoinPool.managedBlock(new LatchBlocker(latch, math.min(remaining, HELP_INTERVAL)))
+      }
+    }
+    true
+  }
+  
+  private final class LatchBlocker(latch: CountDownLatch, timeoutNanos: Long) extends ForkJoinPool.ManagedBlocker {
+    def block: Boolean = {
+      latch.await(timeoutNanos, TimeUnit.NANOSECONDS)
+      true
+    }
+    
+    def isReleasable: Boolean = latch.getCount == 0
+  }
+
+  private def submit(indicator: Indicator, fromTime: Long, latch: CountDownLatch) {
+    val baseSer = indicator.baseSer
+    if (baseSer == null) {
+      if (latch != null) latch.countDown
+      return
+    }
+    
+    _submittedCount.incrementAndGet
+    val computer = computerOf(baseSer)
+    if (computer.add(indicator, fromTime, latch)) {
+      pool.execute(computer)
+    }
+  }
+  
+  /**
+   * @return true if computed in caller's thread, false if the base ser is being
+   *         computed by another thread, then it should be submitted.
+   */
+  private def computeInline(indicator: Indicator, fromTime: Long): Boolean = {
+    val baseSer = indicator.baseSer
+    if (baseSer == null) {
+      true
+    } else {
+      computerOf(baseSer).computeInline(indicator, fromTime)
+    }
+  }
+  
+  private def computerOf(baseSer: BaseTSer): SerComputer = serToComputer synchronized {
+    serToComputer.get(baseSer) match {
+      case null =>
+        val x = new SerComputer
+        serToComputer.put(baseSer, x)
+        x
+      case x => x
+    }
+  }
+
+  private val BUSY = 0
+  private val REENTRANT = 1
+  private val CLAIMED = 2
+  
+  /** interval to check pendings of owned computers while waiting, in nanos */
+  private val HELP_INTERVAL = 1000000L
+  
+  /** computers that are being run by this thread, innermost first */
+  private val ownedComputers = new ThreadLocal[List[SerComputer]] {
+    override protected def initialValue = Nil
+  }
+
+  private final class Pending(var fromTime: Long, val submittedTime: Long) {
+    var latches: List[CountDownLatch] = Nil
+  }
+
+  /**
+   * Computes all pending indicators of one base ser, by one thread at a time,
+   * the owner. A scheduled task that finds an owner leaves the pendings to it.
+   */
+  private final class SerComputer extends Runnable {
+    // guarded by this
+    private var pendings = new java.util.IdentityHashMap[Indicator, Pending]
+    private var scheduled = false
+    private var owner: Thread = _
+    
+    /**
+     * @return true if this computer should be scheduled
+     */
+    def add(indicator: Indicator, fromTime: Long, latch: CountDownLatch): Boolean = synchronized {
+      val pending = pendings.get(indicator) match {
+        case null =>
+          _queueDepth.incrementAndGet
+          val x = new Pending(fromTime, System.nanoTime)
+          pendings.put(indicator, x)
+          x
+        case x =>
+          _coalescedCount.incrementAndGet
+          x.fromTime = math.min(x.fromTime, fromTime)
+          x
+      }
+      if (latch != null) {
+        pending.latches ::= latch
+      }
+      
+      if (scheduled) {
+        false
+      } else {
+        scheduled = true
+        true
+      }
+    }
+    
+    /**
+     * Compute indicator in caller's thread if this has no owner, i.e. it's idle
+     * or only queued in pool, or the owner is caller itself.
+     * 
+     * @return false if this is owned by another thread, then nothing is done
+     */
+    def computeInline(indicator: Indicator, fromTime: Long): Boolean = {
+      val current = Thread.currentThread
+      val state = synchronized {
+        if (owner eq current) {
+          REENTRANT
+        } else if (owner eq null) {
+          owner = current
+          scheduled = true
+          CLAIMED
+        } else {
+          BUSY
+        }
+      }
+      
+      if (state == BUSY) {
+        false
+      } else {
+        _submittedCount.incrementAndGet
+        if (state == CLAIMED) ownedComputers.set(this :: ownedComputers.get)
+        try {
+          computeOne(indicator, new Pending(fromTime, System.nanoTime))
+        } finally {
+          if (state == CLAIMED) {
+            ownedComputers.set(ownedComputers.get.tail)
+            release
+          }
+        }
+        true
+      }
+    }
+    
+    /**
+     * Give up the claim of computeInline, pendings added meanwhile are scheduled.
+     */
+    private def release() {
+      val isToSchedule = synchronized {
+        owner = null
+        if (pendings.isEmpty) {
+          scheduled = false
+          false
+        } else true
+      }
+      if (isToSchedule) {
+        pool.execute(this)
+      }
+    }
+    
+    def run() {
+      val isOwned = synchronized {
+        if (owner eq null) {
+          owner = Thread.currentThread
+          true
+        } else false
+      }
+      if (!isOwned) return
+      
+      ownedComputers.set(this :: ownedComputers.get)
+      try {
+        var batch = drain
+        while (batch ne null) {
+          computeBatch(batch)
+          batch = drain
+        }
+      } finally {
+        ownedComputers.set(ownedComputers.get.tail)
+      }
+    }
+    
+    /**
+     * Compute pendings in owner's thread while it's waiting in computeAll. An
+     * indicator that owner is computing in an outer frame is computed again
+     * nested, as computeInline does for a reentrant call, leaving it pending
+     * would let the waiter of it wait for owner, which may be waiting for it.
+     */
+    def help() {
+      val batch = synchronized {
+        if ((owner ne Thread.currentThread) || pendings.isEmpty) {
+          null
+        } else {
+          val x = pendings
+          pendings = new java.util.IdentityHashMap[Indicator, Pending]
+          _queueDepth.addAndGet(-x.size)
+          x
+        }
+      }
+      if (batch ne null) {
+        computeBatch(batch)
+      }
+    }
+    
+    private def computeBatch(batch: java.util.IdentityHashMap[Indicator, Pending]) {
+      val itr = batch.entrySet.iterator
+      while (itr.hasNext) {
+        val entry = itr.next
+        computeOne(entry.getKey, entry.getValue)
+      }
+    }
+
+    /**
+     * @return null if nothing is pending, and this is unscheduled then
+     */
+    private def drain: java.util.IdentityHashMap[Indicator, Pending] = synchronized {
+      if (pendings.isEmpty) {
+        scheduled = false
+        owner = null
+        null
+      } else {
+        val batch = pendings
+        pendings = new java.util.IdentityHashMap[Indicator, Pending]
+        _queueDepth.addAndGet(-batch.size)
+        batch
+      }
+    }
+    
+    private def computeOne(indicator: Indicator, pending: Pending) {
+      val t0 = System.nanoTime
+      val latency = t0 - pending.submittedTime
+      _totalLatency.addAndGet(latency)
+      var max = _maxLatency.get
+      while (latency > max && !_maxLatency.compareAndSet(max, latency)) {
+        max = _maxLatency.get
+      }
+      
+      try {
+        indicator.computeFrom(pending.fromTime)
+      } catch {
+        case ex: Throwable => _failedCount.incrementAndGet; log.log(Level.SEVERE, ex.getMessage, ex)
+      } finally {
+        _totalComputeTime.addAndGet(System.nanoTime - t0)
+        _computedCount.incrementAndGet
+        pending.latches foreach (_.countDown)
+      }
+    }
+  }
+}
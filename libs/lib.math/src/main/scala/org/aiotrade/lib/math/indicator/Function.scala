@@ -31,7 +31,6 @@
 
 package org.aiotrade.lib.math.indicator
 
-import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Level
 import java.util.logging.Logger
 import org.aiotrade.lib.math.timeseries.BaseTSer
@@ -41,21 +40,44 @@ import org.aiotrade.lib.math.timeseries.TSer
 object Function {
   private val log = Logger.getLogger(this.getClass.getName)
 
-  private val idToFunction = new ConcurrentHashMap[Id[_ <: Function], Function](8, 0.9f, 1)
-
+  val MAX_CACHED_FUNCTIONS = Integer.parseInt(System.getProperty("aiotrade.function.cacheSize", "8192"))
+  
+  /**
+   * Shared functions, bounded, see FunctionCache. A collected function will be
+   * re-created and re-computed transparently on next Function(...) call.
+   */
+  val cache = new FunctionCache(MAX_CACHED_FUNCTIONS)
+  
   def idOf[T <: Function](klass: Class[T], baseSer: BaseTSer, args: Any*) = Id[T](klass, baseSer, args: _*)
   
   def apply[T <: Function](klass: Class[T], baseSer: BaseTSer, args: Any*): T = {
-    val id = idOf(klass, baseSer, args: _*)
-    idToFunction.get(id) match {
+    apply(cache, klass, baseSer, args: _*)
+  }
+  
+  /**
+   * Get or create the function from the specified cache, the global one if it's
+   * null. The created function will remember the cache that it's put in, so
+   * functions that it calls will go to the same cache.
+   * 
+   * Factors in args are frozen to copies, so a function is identified by the
+   * factor values it's created with, and will never be changed by later
+   * modifications on caller's factors.
+   */
+  def apply[T <: Function](functionCache: FunctionCache, klass: Class[T], baseSer: BaseTSer, args: Any*): T = {
+    val cache = if (functionCache eq null) this.cache else functionCache
+    cache.get(klass, baseSer, args) match {
       case null =>
-        /** if got none from idToFunction, try to create new one */
+        /** if got none from cache, try to create new one */
         try {
+          val frozenArgs = args map {
+            case x: Factor => x.clone
+            case x => x
+          }
           val function = klass.newInstance
+          function.functionCache = cache.ownerOf(baseSer, frozenArgs)
           /** don't forget to call set(baseSer, args) immediatley */
-          function.set(baseSer, args: _*)
-          idToFunction.putIfAbsent(id, function)
-          function
+          function.set(baseSer, frozenArgs: _*)
+          cache.putIfAbsent(klass, baseSer, frozenArgs, function).asInstanceOf[T]
         } catch {
           case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); null.asInstanceOf[T]
         }
@@ -64,12 +86,18 @@ object Function {
   }
   
   def releaseAll() {
-    idToFunction.clear
+    cache.clear
   }
 }
 
 trait Function extends TSer {
   
+  /**
+   * The cache that this function is put in, and the functions called by it
+   * should be got from. Null means the global Function.cache.
+   */
+  var functionCache: FunctionCache = _
+  
   /**
    * set the function's arguments.
    * @param baseSer, the ser that this function is based, ie. used to compute
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2006-2010, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.indicator
+
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import org.aiotrade.lib.math.timeseries.BaseTSer
+import org.aiotrade.lib.math.timeseries.TSer
+import org.aiotrade.lib.math.timeseries.TVar
+
+/**
+ * Bounded registry of shared Function instances.
+ * 
+ * - Lock free hits: entries are in a ConcurrentHashMap, a hit is a lookup and
+ *   a mark of the entry as accessed, no lock is taken.
+ * - No strong reference to functions or sers: the cache only holds functions,
+ *   baseSer and the vars or sers in args weakly. A kept function is retained by
+ *   its baseSer (BaseTSer.cachedFunctions), so it never keeps its ser alive, and
+ *   entry is purged once the function, baseSer or one of the args is garbage
+ *   collected.
+ * - Size bounded: at most maxSize functions are kept, when more are put, entries
+ *   are released in CLOCK order, an approximate LRU, i.e. an entry accessed
+ *   since last sweep gets a second chance. A released entry stays in map until
+ *   its function is collected, so a function that is still referenced by live
+ *   indicators keeps being found and shared, and is never built twice.
+ * 
+ * Since a function can always be rebuilt from (klass, baseSer, args) and will
+ * re-compute from idx 0, collected entries are transparent to callers except
+ * for the cost of re-computing.
+ *
+ * A cache may have a parent, for example each backtest run of a parameter sweep
+ * has its own cache while all runs share one parent. Then functions that only
+ * depend on baseSer itself, i.e. args are vars of baseSer, Factors or plain
+ * values, are looked up in parent and shared, the others, which depend on vars
+ * of other sers, are kept in this cache. Factors are safe to share since
+ * Function.apply freezes them to copies, so they are keyed by value.
+ *
+ * @author Caoyuan Deng
+ */
+final class FunctionCache(val maxSize: Int, val parent: FunctionCache = null) {
+  
+  private val queue = new ReferenceQueue[AnyRef]
+  private val map = new ConcurrentHashMap[AbstractKey, Entry]
+  
+  /** kept entries in CLOCK order, only swept under sweepLock */
+  private val keptEntries = new ConcurrentLinkedQueue[Entry]
+  private val keptCount = new AtomicInteger
+  private val sweepLock = new ReentrantLock
+
+  private val _hitCount = new AtomicLong
+  private val _missCount = new AtomicLong
+  private val _evictionCount = new AtomicLong
+  private val _collectedCount = new AtomicLong
+
+  def hitCount = _hitCount.get
+  def missCount = _missCount.get
+  /** count of entries released by CLOCK policy */
+  def evictionCount = _evictionCount.get
+  /** count of entries purged since its function, baseSer or arg was garbage collected */
+  def collectedCount = _collectedCount.get
+
+  /** number of entries, including released ones whose functions are still alive */
+  def size: Int = map.size
+  
+  def get(klass: Class[_], baseSer: BaseTSer, args: Seq[Any]): Function = {
+    if ((parent ne null) && isBaseSerOnly(baseSer, args)) {
+      return parent.get(klass, baseSer, args)
+    }
+    
+    expungeStaleEntries
+    
+    map.get(new LookupKey(klass, baseSer, args)) match {
+      case null => _missCount.incrementAndGet; null
+      case entry => entry.get match {
+          case null => _missCount.incrementAndGet; null
+          case x =>
+            if (!entry.isAccessed) entry.isAccessed = true
+            _hitCount.incrementAndGet
+            x.asInstanceOf[Function]
+        }
+    }
+  }
+  
+  /**
+   * @return the function that is in cache after this call, which may be a
+   *         previous put one by another thread.
+   */
+  def putIfAbsent(klass: Class[_], baseSer: BaseTSer, args: Seq[Any], function: Function): Function = {
+    if ((parent ne null) && isBaseSerOnly(baseSer, args)) {
+      return parent.putIfAbsent(klass, baseSer, args, function)
+    }
+    
+    val key = new Key(klass, baseSer, args, queue)
+    val entry = new Entry(key, function, queue)
+    while (true) {
+      map.putIfAbsent(key, entry) match {
+        case null =>
+          keep(baseSer, entry, function)
+          return function
+        case existed => existed.get match {
+            case null => 
+              // collected but not expunged yet
+              if (map.remove(existed.key, existed)) _collectedCount.incrementAndGet
+            case x =>
+              existed.isAccessed = true
+              return x.asInstanceOf[Function]
+          }
+      }
+    }
+    function
+  }
+  
+  /**
+   * @return the cache that a function of (baseSer, args) will be put in
+   */
+  def ownerOf(baseSer: BaseTSer, args: Seq[Any]): FunctionCache = {
+    if ((parent ne null) && isBaseSerOnly(baseSer, args)) {
+      parent.ownerOf(baseSer, args)
+    } else this
+  }
+  
+  def clear() {
+    try {
+      sweepLock.lock
+      var entry = keptEntries.poll
+      while (entry ne null) {
+        release(entry)
+        entry = keptEntries.poll
+      }
+      keptCount.set(0)
+      map.clear
+    } finally {
+      sweepLock.unlock
+    }
+    while (queue.poll != null) {}
+  }
+  
+  override 
+  def toString = {
+    "FunctionCache(size=%s, kept=%s, maxSize=%s, hits=%s, misses=%s, evictions=%s, collected=%s)".format(
+      size, keptCount.get, maxSize, hitCount, missCount, evictionCount, collectedCount
+    )
+  }
+
+  private def isBaseSerOnly(baseSer: BaseTSer, args: Seq[Any]): Boolean = {
+    val vars = baseSer.vars
+    args forall {
+      case x: TVar[_] => vars exists (_ eq x)
+      case x: TSer => x eq baseSer
+      case _ => true
+    }
+  }
+
+  /**
+   * Let baseSer retain function, then release entries in CLOCK order if there
+   * are more than maxSize kept.
+   */
+  private def keep(baseSer: BaseTSer, entry: Entry, function: Function) {
+    baseSer.cachedFunctions.put(entry, function)
+    keptEntries.add(entry)
+    if (keptCount.incrementAndGet > maxSize) {
+      try {
+        sweepLock.lock
+        while (keptCount.get > maxSize) {
+          val x = keptEntries.poll
+          if (x eq null) {
+            return
+          } else if (x.isAccessed && !x.isStale) {
+            x.isAccessed = false
+            keptEntries.add(x)
+          } else {
+            release(x)
+            keptCount.decrementAndGet
+            if (!x.isStale) _evictionCount.incrementAndGet
+          }
+        }
+      } finally {
+        sweepLock.unlock
+      }
+    }
+  }
+  
+  /**
+   * Let baseSer no longer retain entry's function, the entry is kept in map
+   * until the function is collected.
+   */
+  private def release(entry: Entry) {
+    entry.key.baseSer match {
+      case null =>
+      case baseSer: BaseTSer => baseSer.cachedFunctions.remove(entry)
+      case _ =>
+    }
+  }
+
+  private def expungeStaleEntries {
+    var ref = queue.poll
+    while (ref != null) {
+      ref match {
+        case x: SerRef => expunge(x.key, null)
+        case x: ArgRef => expunge(x.key, null)
+        case x: Entry => expunge(x.key, x)
+        case _ =>
+      }
+      ref = queue.poll
+    }
+  }
+  
+  /**
+   * Remove the entry of a cleared key, or the cleared entry if it's still the
+   * mapped one.
+   */
+  private def expunge(key: Key, entry: Entry) {
+    val removed = if (entry eq null) map.remove(key) else if (map.remove(key, entry)) entry else null
+    if (removed ne null) {
+      removed.isStale = true
+      release(removed)
+      _collectedCount.incrementAndGet
+    }
+  }
+  
+  private def hashOf(klass: Class[_], baseSer: AnyRef, args: Seq[Any]): Int = {
+    var h = 17
+    h = 37 * h + klass.hashCode
+    h = 37 * h + System.identityHashCode(baseSer)
+    args foreach {
+      case x: TVar[_] => h = 37 * h + System.identityHashCode(x)
+      case x: TSer => h = 37 * h + System.identityHashCode(x)
+      case null => h = 37 * h
+      case x => h = 37 * h + x.hashCode
+    }
+    h
+  }
+  
+  /**
+   * Key of map, a LookupKey equals to the Key of same klass, baseSer and args,
+   * vars and sers in args are compared by identity.
+   */
+  private abstract class AbstractKey {
+    def klass: Class[_]
+    def hash: Int
+    def baseSer: AnyRef
+    def nArgs: Int
+    def argAt(i: Int): Any
+    
+    override 
+    def hashCode = hash
+    
+    override 
+    def equals(o: Any): Boolean = o match {
+      case that: AbstractKey =>
+        (this eq that) || {
+          val ser = baseSer
+          (ser ne null) && (ser eq that.baseSer) && this.hash == that.hash &&
+          (this.klass eq that.klass) && this.nArgs == that.nArgs && {
+            var i = -1
+            var same = true
+            while (same && {i += 1; i < nArgs}) {
+              same = (this.argAt(i), that.argAt(i)) match {
+                case (a: TVar[_], b) => a.asInstanceOf[AnyRef] eq b.asInstanceOf[AnyRef]
+                case (a: TSer, b) => a eq b.asInstanceOf[AnyRef]
+                case (a, b) => a == b
+              }
+            }
+            same
+          }
+        }
+      case _ => false
+    }
+  }
+  
+  /**
+   * Transient key for get, which holds everything strongly and is never put
+   * in map.
+   */
+  private final class LookupKey(val klass: Class[_], val baseSer: AnyRef, args: Seq[Any]) extends AbstractKey {
+    val hash = hashOf(klass, baseSer, args)
+    private val argArray = args.toArray
+    def nArgs = argArray.length
+    def argAt(i: Int) = argArray(i)
+  }
+  
+  private final class Key(val klass: Class[_], baseSer0: BaseTSer, rawArgs: Seq[Any], queue: ReferenceQueue[AnyRef]
+  ) extends AbstractKey {
+    
+    val hash = hashOf(klass, baseSer0, rawArgs)
+    
+    private val serRef = new SerRef(this, baseSer0, queue)
+    
+    /**
+     * A var is an inner instance of its ser, so vars and sers in args are held
+     * weakly too, otherwise the key would retain baseSer via them.
+     */
+    private val args: Array[Any] = (rawArgs map {
+        case x: TVar[_] => new ArgRef(this, x, queue)
+        case x: TSer => new ArgRef(this, x, queue)
+        case x => x
+      }).toArray
+    
+    def baseSer = serRef.get
+    def nArgs = args.length
+    
+    /** a cleared arg is the ArgRef itself, which only equals to itself */
+    def argAt(i: Int) = args(i) match {
+      case x: ArgRef => 
+        val arg = x.get
+        if (arg eq null) x else arg
+      case x => x
+    }
+  }
+  
+  private final class SerRef(val key: Key, baseSer: BaseTSer, queue: ReferenceQueue[AnyRef]
+  ) extends WeakReference[AnyRef](baseSer, queue)
+  
+  private final class ArgRef(val key: Key, arg: AnyRef, queue: ReferenceQueue[AnyRef]
+  ) extends WeakReference[AnyRef](arg, queue)
+  
+  /**
+   * Weak reference to the function, which is retained by baseSer while entry is
+   * kept. Equals by identity.
+   */
+  private final class Entry(val key: Key, function: Function, queue: ReferenceQueue[AnyRef]
+  ) extends WeakReference[AnyRef](function, queue) {
+    @volatile var isAccessed = false
+    @volatile var isStale = false
+  }
+}
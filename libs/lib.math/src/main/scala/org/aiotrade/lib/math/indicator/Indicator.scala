@@ -53,6 +53,12 @@ trait Indicator extends TSer with WithFactors with Ordered[Indicator] {
       if (baseSer != null) computeFrom(0)
   }
 
+  /**
+   * The cache that functions of this indicator are got from, for example a
+   * backtest run's own cache. Null means the global Function.cache.
+   */
+  var functionCache: FunctionCache = _
+
   def set(baseSer: BaseTSer)
   def baseSer: BaseTSer
   def baseSer_=(baseSer: BaseTSer)
@@ -69,14 +69,11 @@ trait IndicatorHelper {self: Indicator =>
      */
     baseSerReaction = {
       case TSerEvent.Loaded(_, _, fromTime, toTime, _, callback) =>
-        self.computeFrom(fromTime)
-        baseSerEventCallBack = callback
+        computeOnEvent(fromTime, callback)
       case TSerEvent.Refresh(_, _, fromTime, toTime, _, callback) =>
-        self.computeFrom(fromTime)
-        baseSerEventCallBack = callback
+        computeOnEvent(fromTime, callback)
       case TSerEvent.Updated(_, _, fromTime, toTime, _, callback) =>
-        self.computeFrom(fromTime)
-        baseSerEventCallBack = callback
+        computeOnEvent(fromTime, callback)
       case TSerEvent.Computed(src, _, fromTime, toTime, _, callback) if (src eq baseSer) && (src ne this) =>
         /**
          * If the resultSer is the same as baseSer (such as QuoteSer),
@@ -84,8 +81,7 @@ trait IndicatorHelper {self: Indicator =>
          * then run to here, this may cause a dead loop. So, FinishedComputing
          * should not react when self eq baseSer
          */
-        self.computeFrom(fromTime)
-        baseSerEventCallBack = callback
+        computeOnEvent(fromTime, callback)
       case TSerEvent.Cleared(src, _, fromTime, toTime, _, callback) if (src eq baseSer) && (src ne this) =>
         self.clear(fromTime)
         baseSerEventCallBack = callback
@@ -93,12 +89,31 @@ trait IndicatorHelper {self: Indicator =>
     
     baseSerReaction
   }
+  
+  /**
+   * Compute in current thread, or via ComputeScheduler when ASYNC_COMPUTE is on,
+   * so repeated events of the same ser will be coalesced.
+   */
+  private def computeOnEvent(fromTime: Long, callback: TSerEvent.Callback) {
+    if (ComputeScheduler.ASYNC_COMPUTE) {
+      baseSerEventCallBack = callback
+      ComputeScheduler.submit(self, fromTime)
+    } else {
+      self.computeFrom(fromTime)
+      baseSerEventCallBack = callback
+    }
+  }
         
   def preComputeFrom(fromTime: Long): Int = {
     assert(this.baseSer != null, "base series not set!")
 
     val timestamps = self.timestamps
 
+    // validate first, which may drop the oldest rows or reset computedTime
+    if (this ne baseSer) {
+      self.validate
+    }
+
     val (fromTime1, fromIdx, mayNeedToValidate) = if (fromTime <= 0) {
       (fromTime, 0, true)
     } else {
@@ -124,10 +139,6 @@ trait IndicatorHelper {self: Indicator =>
       }
     }
 
-    if (this ne baseSer) {
-      self.validate
-    }
-
     //        if (mayNeedToValidate) {
     //            self.validate
     //        }
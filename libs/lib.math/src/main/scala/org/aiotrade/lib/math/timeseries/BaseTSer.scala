@@ -41,6 +41,13 @@ trait BaseTSer extends TSer {
 
   def serProvider: SerProvider
 
+  /**
+   * Functions of this ser that are kept by a FunctionCache, they are retained
+   * here instead of in the cache, so a cached function never outlives its ser.
+   * @see org.aiotrade.lib.math.indicator.FunctionCache
+   */
+  private[math] val cachedFunctions = new java.util.concurrent.ConcurrentHashMap[AnyRef, AnyRef]
+
   // --- Only BaseTSer can have methods that explictly add value
   def createOrReset(time: Long)
   def ++=[V <: TVal](values: Array[V]): TSer
@@ -43,6 +43,9 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
   private val log = Logger.getLogger(getClass.getName)
   
   private var _isOnCalendarMode = false
+  
+  /** max number of rows kept in bounded mode, 0 means unbounded */
+  private var _maxSize = 0
     
   attach(TStamps(INIT_CAPACITY))
 
@@ -84,6 +87,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
         // append at the end: create a new one, add placeholder
         val holder = createItem(time)
         internal_addItem_fillTimestamps_InTimeOrder(time, holder)
+        evictIfOverflow
       }
       
     } finally {
@@ -104,6 +108,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
         // append at the end: create a new one, add placeholder
         val holder = createItem(time)
         internal_addItem_fillTimestamps_InTimeOrder(time, holder)
+        evictIfOverflow
       }
 
     } finally {
@@ -146,13 +151,6 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
           holders.insertOne(idx, holder)
           
           idx
-
-          // @todo Not remove it now
-//          if (timestamps.size > MAX_DATA_SIZE){
-//            val length = timestamps.size - MAX_DATA_SIZE
-//            clearUntilIdx(length)
-//          }
-
         } finally {
           timestamps.writeLock.unlock
         }
@@ -170,13 +168,6 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
         holders += holder
         
         this.size - 1
-
-        // @todo Not remove it now.
-//        if (timestamps.size > MAX_DATA_SIZE){
-//          val length = timestamps.size - MAX_DATA_SIZE
-//          clearUntilIdx(length)
-//        }
-
       } finally {
         timestamps.writeLock.unlock
       }
@@ -200,9 +191,37 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
     }
   }
 
-  private def clearUntilIdx(idx: Int){
-    timestamps.remove(0, idx)
-    holders.remove(0, idx)
+  /**
+   * In bounded mode, when size exceeds maxSize, drop the oldest rows down to 
+   * maxSize - maxSize / 8, so the removing (and its log) happens once per batch 
+   * instead of per row.
+   */
+  private def evictIfOverflow {
+    if (_maxSize > 0 && timestamps.size > _maxSize) {
+      clearUntilIdx(timestamps.size - _maxSize + (_maxSize >> 3))
+    }
+  }
+  
+  /**
+   * Drop rows before idx from timestamps, holders and vars. All of them just move 
+   * their offset forward, so there is no array shifting. Other sers that share 
+   * the timestamps will follow it via the remove log when validate.
+   */
+  private def clearUntilIdx(idx: Int) {
+    try {
+      timestamps.writeLock.lock
+
+      timestamps.removeHead(idx)
+      timestamps.log.logRemove(idx)
+
+      holders.removeHead(idx)
+      vars foreach (_.removeHead(idx))
+    } finally {
+      timestamps.writeLock.unlock
+    }
+    
+    headRemoved(idx)
+    log.fine(shortName + "(" + freq + ") Removed " + idx + " oldest rows => newSize=" + holders.size)
   }
 
   /**
@@ -244,7 +263,7 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
           i += 1
       }
 
-      publish(TSerEvent.Updated(this, shortName, frTime, toTime))
+      TSerEventCoalescer.publishUpdated(this, shortName, frTime, toTime)
 
     } finally {
       writeLock.unlock
@@ -254,6 +273,27 @@ class DefaultBaseTSer(_serProvider: SerProvider, _freq: TFreq) extends DefaultTS
     this
   }
 
+  /**
+   * Keep at most maxSize rows, the oldest rows will be dropped when new rows 
+   * come in. Useful for long running realtime sers.
+   */
+  def toBoundedMode(maxSize: Int = MAX_DATA_SIZE) {
+    require(maxSize > 0, "maxSize should be > 0: " + maxSize)
+    try {
+      writeLock.lock
+      
+      _maxSize = maxSize
+      evictIfOverflow
+    } finally {
+      writeLock.unlock
+    }
+  }
+  def toUnboundedMode {
+    _maxSize = 0
+  }
+  def isBounded = _maxSize > 0
+  def maxSize = _maxSize
+  
   def isOnCalendarMode = _isOnCalendarMode
   def toOnCalendarMode {
     _isOnCalendarMode = true
@@ -178,6 +178,14 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
       val tlog = timestamps.log
       val tlogCursor = tlog.logCursor
       var checkingCursor = tsLogCheckedCursor
+      
+      // if the oldest rows have been removed since last check, the time of rows  
+      // referred by unchecked insert/append logs may not exist anymore. 
+      if (tlogCursor > -1 && uncheckedRemoveSize(tlog) > 0) {
+        rebaseToTimestamps(tlog)
+        checkingCursor = tlogCursor + 1
+      }
+      
       while (tlogCursor > -1 && checkingCursor <= tlogCursor) {
         val cursorMoved = if (checkingCursor != tsLogCheckedCursor) {
           // is checking a new log, should reset tsLogCheckedSize
@@ -254,6 +262,87 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
 
   }
 
+  /**
+   * @return total size of removed rows in logs that have not been checked
+   */
+  private def uncheckedRemoveSize(tlog: TStampsLog): Int = {
+    var size = 0
+    var cursor = tsLogCheckedCursor
+    while (cursor <= tlog.logCursor) {
+      val flag = tlog(cursor)
+      if (tlog.checkKind(flag) == TStampsLog.REMOVE) {
+        size += (if (cursor == tsLogCheckedCursor) tlog.checkSize(flag) - tsLogCheckedSize else tlog.checkSize(flag))
+      }
+      cursor = tlog.nextCursor(cursor)
+    }
+    size
+  }
+  
+  private def hasUncheckedInsert(tlog: TStampsLog): Boolean = {
+    var cursor = tsLogCheckedCursor
+    while (cursor <= tlog.logCursor) {
+      val flag = tlog(cursor)
+      if (tlog.checkKind(flag) == TStampsLog.INSERT) {
+        val uncheckedSize = if (cursor == tsLogCheckedCursor) tlog.checkSize(flag) - tsLogCheckedSize else tlog.checkSize(flag)
+        if (uncheckedSize > 0) {
+          return true
+        }
+      }
+      cursor = tlog.nextCursor(cursor)
+    }
+    false
+  }
+  
+  /**
+   * Re-base holders and vars to current timestamps when there are unchecked 
+   * remove logs. Removing only happens at head and appending at tail, so if 
+   * there are only appends besides removes, the kept rows are still at the tail 
+   * of holders, just drop the removed ones and append the new ones. Otherwise, 
+   * reset all rows to null.
+   */
+  private def rebaseToTimestamps(tlog: TStampsLog) {
+    val removeSize = if (hasUncheckedInsert(tlog)) {
+      holders.size
+    } else {
+      math.min(uncheckedRemoveSize(tlog), holders.size)
+    }
+    
+    holders.removeHead(removeSize)
+    vars foreach (_.removeHead(removeSize))
+    val keptSize = holders.size
+
+    val newSize = timestamps.size
+    var i = keptSize
+    while (i < newSize) {
+      val time = timestamps(i)
+      vars foreach (_.putNull(time))
+      holders += createItem(time)
+      i += 1
+    }
+    
+    tsLogCheckedCursor = tlog.logCursor
+    tsLogCheckedSize = tlog.checkSize(tlog(tlog.logCursor))
+    log.fine(shortName + "(" + freq + ") Log check: rebased, removeSize=" + removeSize + " => newSize=" + holders.size)
+    
+    if (keptSize == 0) {
+      allCleared
+    } else {
+      headRemoved(removeSize)
+    }
+  }
+
+  /**
+   * Called after the oldest removedSize rows are dropped, override it to re-base 
+   * states that refer to idx.
+   */
+  protected def headRemoved(removedSize: Int) {}
+
+  /**
+   * Called after all rows are dropped and re-filled with null values, override
+   * it to reset computing states.
+   */
+  protected def allCleared {}
+
   def clear(fromTime: Long) {
     try {
       writeLock.lock
@@ -421,14 +510,23 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
   def hashCode: Int = _hashCode
 
   object TVar {
-    def apply[V: ClassTag](): TVar[V] = new InnerTVar[V]("", Plot.None)
-    def apply[V: ClassTag](name: String): TVar[V] = new InnerTVar[V](name, Plot.None)
-    def apply[V: ClassTag](name: String, plot: Plot): TVar[V] = new InnerTVar[V](name, plot)
+    def apply[V: ClassTag](): TVar[V] = apply[V]("", Plot.None)
+    def apply[V: ClassTag](name: String): TVar[V] = apply[V](name, Plot.None)
+    def apply[V: ClassTag](name: String, plot: Plot): TVar[V] = {
+      // primitive typed vars read/write their backing storage without boxing
+      (reflect.classTag[V] match {
+          case ClassTag.Double  => new DoubleTVar(name, plot)
+          case ClassTag.Long    => new LongTVar(name, plot)
+          case ClassTag.Boolean => new BooleanTVar(name, plot)
+          case _ => new InnerTVar[V](name, plot)
+        }
+      ).asInstanceOf[TVar[V]]
+    }
   }
   
-  final protected class InnerTVar[V: ClassTag](_name: String, _plot: Plot) extends AbstractInnerTVar[V](_name, _plot) {
+  protected class InnerTVar[V: ClassTag](_name: String, _plot: Plot) extends AbstractInnerTVar[V](_name, _plot) {
 
-    private var _values = new ArrayList[V](INIT_CAPACITY)
+    private val _values = new ArrayList[V](INIT_CAPACITY)
     def values = _values
     
     def put(time: Long, value: V): Boolean = {
@@ -495,6 +593,260 @@ class DefaultTSer(private var _freq: TFreq) extends TSer {
     def valuesIterator: Iterator[V] = _values.iterator
   }
   
+  /**
+   * The values are kept in a double[] (ArrayList[Double] is backed by a primitive 
+   * array), which is read/written directly by double(idx)/updateDouble(idx, value)
+   * without boxing or type matching.
+   */
+  final protected class DoubleTVar(_name: String, _plot: Plot) extends InnerTVar[Double](_name, _plot) {
+    
+    override 
+    def apply(idx: Int): Double = double(idx)
+
+    override 
+    def update(idx: Int, value: Double) {
+      updateDouble(idx, value)
+    }
+
+    override 
+    def double(time: Long): Double = double(timestamps.indexOfOccurredTime(time))
+
+    override 
+    def double(idx: Int): Double = {
+      if (idx >= 0 && idx < values.size) {
+        values.backingArray(values.backingOffset + idx)
+      } else Null.Double
+    }
+
+    override 
+    def float(time: Long): Float = double(time).toFloat
+
+    override 
+    def float(idx: Int): Float = double(idx).toFloat
+
+    override 
+    def updateDouble(idx: Int, value: Double) {
+      if (idx >= 0 && idx < values.size) {
+        values.backingArray(values.backingOffset + idx) = value
+      } else {
+        assert(false, "DoubleTVar.updateDouble(index, value): this index's value of Var did not be holded yet: " +
+               "idx=" + idx + ", value size=" + values.size + ", timestamps size=" + timestamps.size)
+      }
+    }
+
+    override 
+    def toDoubleArray: Array[Double] = values.toArray
+  }
+
+  /**
+   * The values are kept in a long[], double(idx) converts them without boxing.
+   */
+  final protected class LongTVar(_name: String, _plot: Plot) extends InnerTVar[Long](_name, _plot) {
+    
+    override 
+    def apply(idx: Int): Long = {
+      if (idx >= 0 && idx < values.size) {
+        values.backingArray(values.backingOffset + idx)
+      } else Null.Long
+    }
+
+    override 
+    def double(time: Long): Double = double(timestamps.indexOfOccurredTime(time))
+
+    override 
+    def double(idx: Int): Double = apply(idx).toDouble
+
+    override 
+    def float(time: Long): Float = double(time).toFloat
+
+    override 
+    def float(idx: Int): Float = apply(idx).toFloat
+
+    override 
+    def toDoubleArray: Array[Double] = {
+      val length = values.size
+      val xs = values.backingArray
+      val offset = values.backingOffset
+      val result = new Array[Double](length)
+      var i = 0
+      while (i < length) {
+        result(i) = xs(offset + i).toDouble
+        i += 1
+      }
+      result
+    }
+  }
+
+  /**
+   * The values are kept in a bitset of long words, which takes 1 bit instead 
+   * of 1 byte per value.
+   * 
+   * @Note values is a copy of current bits, modify it won't affect this var.
+   */
+  final protected class BooleanTVar(_name: String, _plot: Plot) extends AbstractInnerTVar[Boolean](_name, _plot) {
+    
+    private var words = new Array[Long]((INIT_CAPACITY >> 6) + 1)
+    private var _size = 0
+    /** bit offset of idx 0, moved forward by removeHead */
+    private var _offset = 0
+
+    private def bit(idx: Int): Boolean = {
+      val i = _offset + idx
+      (words(i >> 6) & (1L << i)) != 0
+    }
+
+    private def setBit(idx: Int, value: Boolean) {
+      val i = _offset + idx
+      if (value) {
+        words(i >> 6) |= (1L << i)
+      } else {
+        words(i >> 6) &= ~(1L << i)
+      }
+    }
+    
+    private def ensureSize(n: Int) {
+      // drop the whole words before offset first
+      val headWords = _offset >> 6
+      if (headWords > 0 && ((_offset + n) >> 6) + 1 > words.length) {
+        System.arraycopy(words, headWords, words, 0, words.length - headWords)
+        java.util.Arrays.fill(words, words.length - headWords, words.length, 0L)
+        _offset -= headWords << 6
+      }
+      
+      val nWords = ((_offset + n) >> 6) + 1
+      if (nWords > words.length) {
+        val newWords = new Array[Long](math.max(words.length * 2, nWords))
+        System.arraycopy(words, 0, newWords, 0, words.length)
+        words = newWords
+      }
+    }
+
+    private def insertOne(idx: Int, value: Boolean) {
+      ensureSize(_size + 1)
+      var i = _size
+      while (i > idx) {
+        setBit(i, bit(i - 1))
+        i -= 1
+      }
+      setBit(idx, value)
+      _size += 1
+    }
+    
+    def values: ArrayList[Boolean] = {
+      val xs = new ArrayList[Boolean](_size)
+      var i = 0
+      while (i < _size) {
+        xs += bit(i)
+        i += 1
+      }
+      xs
+    }
+    
+    override 
+    def size: Int = _size
+
+    def put(time: Long, value: Boolean): Boolean = {
+      val idx = timestamps.indexOfOccurredTime(time)
+      if (idx >= 0 && idx <= _size) {
+        insertOne(idx, value)
+        true
+      } else {
+        assert(false, "Fill timestamps first before put an element! " + ": " + "idx=" + idx + ", time=" + time)
+        false
+      }
+    }
+
+    def put(time: Long, fromHeadOrTail: Boolean, value: Boolean): Boolean = {
+      val idx = if (fromHeadOrTail) DefaultTSer.this.indexOfOccurredTimeFromHead(time) else DefaultTSer.this.indexOfOccurredTimeFromTail(time)
+      if (idx >= 0 && idx <= _size) {
+        insertOne(idx, value)
+        true
+      } else {
+        assert(false, "Fill timestamps first before put an element! " + ": " + "idx=" + idx + ", time=" + time)
+        false
+      }
+    }
+
+    def apply(time: Long): Boolean = apply(timestamps.indexOfOccurredTime(time))
+
+    def apply(time: Long, fromHeadOrTail: Boolean): Boolean = {
+      val idx = if (fromHeadOrTail) DefaultTSer.this.indexOfOccurredTimeFromHead(time) else DefaultTSer.this.indexOfOccurredTimeFromTail(time)
+      apply(idx)
+    }
+
+    def update(time: Long, value: Boolean) {
+      update(timestamps.indexOfOccurredTime(time), value)
+    }
+
+    override 
+    def apply(idx: Int): Boolean = {
+      if (idx >= 0 && idx < _size) bit(idx) else Null.Boolean
+    }
+
+    override 
+    def update(idx: Int, value: Boolean) {
+      if (idx >= 0 && idx < _size) {
+        setBit(idx, value)
+      } else {
+        assert(false, "BooleanTVar.update(index, value): this index's value of Var did not be holded yet: " +
+               "idx=" + idx + ", value size=" + _size + ", timestamps size=" + timestamps.size)
+      }
+    }
+
+    override 
+    def double(time: Long): Double = double(timestamps.indexOfOccurredTime(time))
+
+    override 
+    def double(idx: Int): Double = if (apply(idx)) 1.0 else 0.0
+
+    override 
+    def float(time: Long): Float = double(time).toFloat
+
+    override 
+    def float(idx: Int): Float = double(idx).toFloat
+
+    override 
+    def clear(fromIdx: Int) {
+      if (fromIdx < 0) {
+        return
+      }
+      while (_size > fromIdx) {
+        _size -= 1
+        setBit(_size, false)
+      }
+    }
+
+    override 
+    def removeHead(n: Int) {
+      var i = 0
+      val n1 = math.min(n, _size)
+      while (i < n1) {
+        setBit(i, false)
+        i += 1
+      }
+      _offset += n1
+      _size -= n1
+    }
+
+    def timesIterator: Iterator[Long] = timestamps.iterator
+    def valuesIterator: Iterator[Boolean] = new Iterator[Boolean] {
+      private var i = 0
+      def hasNext = i < _size
+      def next = {
+        val value = bit(i)
+        i += 1
+        value
+      }
+    }
+
+    /** values is always a new copy, so compare the identity instead */
+    override 
+    def equals(o: Any): Boolean = o match {
+      case x: AnyRef => this eq x
+      case _ => false
+    }
+  }
+  
   //@todo SparseTVar
   /* protected class SparseTVar[V: ClassTag](
    name: String, plot: Plot
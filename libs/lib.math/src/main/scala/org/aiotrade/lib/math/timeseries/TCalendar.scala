@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+/**
+ * A trading calendar that counts only the periods a market is actually open,
+ * it's used by on-calendar TStamps instead of plain TFreq arithmetic, which
+ * counts weekends, holidays and off-session hours as empty rows.
+ *
+ * Implementations should answer in O(1) and be safe to share among all sers
+ * of the same market.
+ *
+ * @author Caoyuan Deng
+ */
+trait TCalendar {
+  
+  /**
+   * @return true if this calendar knows how to count periods of freq, otherwise
+   *         the caller should fall back to freq's own arithmetic
+   */
+  def isSupported(freq: TFreq): Boolean
+  
+  /**
+   * @return number of trading periods of freq between the one contains fromTime
+   *         and the one contains toTime, negative if toTime is before fromTime
+   */
+  def nFreqsBetween(fromTime: Long, toTime: Long, freq: TFreq): Int
+  
+  /**
+   * @return begin time of the trading period that is nFreqs after the one
+   *         contains fromTime, nFreqs may be 0 or negative
+   */
+  def timeAfterNFreqs(fromTime: Long, nFreqs: Int, freq: TFreq): Long
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.util.Calendar
+import java.util.TimeZone
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Calendar-free rounding of times to the periods of a freq in a time zone.
+ * round/next only do arithmetic and binary searches on precomputed tables,
+ * they allocate nothing and are thread safe, so a rounder can be held and
+ * shared instead of creating Calendars for each call.
+ * 
+ * Zone offsets come from a table of the zone's offset transitions (DST or raw
+ * offset changes) between 1900 and 2100, out of it TimeZone.getOffset is used.
+ * 
+ * For Second, Minute, Hour and Day, a period begins as TFreq.round computes,
+ * ie. at the multiple of interval in local time, using the zone offset at that
+ * time. For Week, Month and Year, a period begins at local midnight of the
+ * first day of the week (by the zone's default Calendar), month or year, the
+ * boundaries are generated once from 1900 on and extended forward on demand.
+ * Multiple units are aligned to the week count from 1900, to the month of year,
+ * or to the year.
+ * 
+ * Get an instance via TFreqRounder(freq, timeZone), instances are shared.
+ * 
+ * @author Caoyuan Deng
+ */
+final class TFreqRounder private (val freq: TFreq, val timeZone: TimeZone) {
+  import TFreqRounder._
+
+  private val isCalendarUnit = freq.unit match {
+    case TUnit.Week | TUnit.Month | TUnit.Year => true
+    case _ => false
+  }
+
+  private val (transitions, offsets) = offsetTransitionsOf(timeZone)
+
+  @volatile private var boundaries: Array[Long] = Array()
+
+  /**
+   * @return zone offset to UTC in milliseconds at time, including DST
+   */
+  def offsetAt(time: Long): Int = {
+    if (time < MIN_TABLED_TIME || time >= MAX_TABLED_TIME) {
+      timeZone.getOffset(time)
+    } else {
+      offsets(floorIndex(transitions, time))
+    }
+  }
+
+  /**
+   * @return begin time of the period that includes time
+   */
+  def round(time: Long): Long = {
+    if (isCalendarUnit) {
+      val bounds = boundariesCovering(time)
+      bounds(floorIndex(bounds, time))
+    } else {
+      val offset = offsetAt(time)
+      ((time + offset) / freq.interval) * freq.interval - offset
+    }
+  }
+
+  /**
+   * @return begin time of the period next to the one that includes time
+   */
+  def next(time: Long): Long = {
+    if (isCalendarUnit) {
+      var bounds = boundariesCovering(time)
+      val idx = floorIndex(bounds, time) + 1
+      if (idx >= bounds.length) bounds = boundariesCovering(bounds(idx - 1))
+      bounds(idx)
+    } else {
+      val begin = round(time)
+      // a day with daylight saving change has 23 or 25 hours
+      val end = round(begin + freq.interval)
+      if (end > begin) end else round(begin + freq.interval + timeZone.getDSTSavings)
+    }
+  }
+
+  def sameInterval(timeA: Long, timeB: Long): Boolean = round(timeA) == round(timeB)
+
+  private def boundariesCovering(time: Long): Array[Long] = {
+    val bounds = boundaries
+    if (bounds.length > 0 && time < bounds(bounds.length - 1)) {
+      bounds
+    } else synchronized {
+      if (boundaries.length == 0 || time >= boundaries(boundaries.length - 1)) {
+        boundaries = generateBoundaries(time)
+      }
+      boundaries
+    }
+  }
+
+  /**
+   * Generate from 1900 to at least 10 years after time, times before the first
+   * boundary fall into the first period.
+   */
+  private def generateBoundaries(time: Long): Array[Long] = {
+    val cal = Calendar.getInstance(timeZone)
+    cal.setTimeInMillis(time)
+    val toYear = cal.get(Calendar.YEAR) + 10
+
+    cal.clear
+    cal.set(FROM_YEAR, Calendar.JANUARY, 1)
+    cal.getTimeInMillis // let all fields computed before setting DAY_OF_WEEK
+    val field = freq.unit match {
+      case TUnit.Week =>
+        cal.set(Calendar.DAY_OF_WEEK, cal.getFirstDayOfWeek)
+        Calendar.WEEK_OF_YEAR
+      case TUnit.Month => Calendar.MONTH
+      case _ => Calendar.YEAR
+    }
+
+    val bounds = new Array[Long]((toYear - FROM_YEAR + 2) * 54)
+    var n = 0
+    var i = 0
+    while (cal.get(Calendar.YEAR) <= toYear) {
+      val aligned = freq.unit match {
+        case TUnit.Week  => i % freq.nUnits == 0
+        case TUnit.Month => cal.get(Calendar.MONTH) % freq.nUnits == 0
+        case _ => cal.get(Calendar.YEAR) % freq.nUnits == 0
+      }
+      if (aligned) {
+        bounds(n) = cal.getTimeInMillis
+        n += 1
+      }
+      cal.add(field, 1)
+      // add keeps the hour of day, which is 01:00 after a DST start at midnight
+      cal.set(Calendar.HOUR_OF_DAY, 0)
+      i += 1
+    }
+
+    java.util.Arrays.copyOf(bounds, n)
+  }
+}
+
+object TFreqRounder {
+  private val FROM_YEAR = 1900
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+
+  private val MIN_TABLED_TIME = -2208988800000L // 1900-01-01 00:00 UTC
+  private val MAX_TABLED_TIME =  4102444800000L // 2100-01-01 00:00 UTC
+
+  private val rounders = new ConcurrentHashMap[String, TFreqRounder]
+  private val zoneToTransitions = new ConcurrentHashMap[String, (Array[Long], Array[Int])]
+
+  def apply(freq: TFreq, timeZone: TimeZone): TFreqRounder = {
+    val key = timeZone.getID + "/" + freq.shortName
+    val exist = rounders.get(key)
+    if (exist != null) {
+      exist
+    } else {
+      val newOne = new TFreqRounder(freq, timeZone)
+      val raced = rounders.putIfAbsent(key, newOne)
+      if (raced != null) raced else newOne
+    }
+  }
+
+  /**
+   * Scan the zone offsets day by day, and locate each change to the
+   * millisecond.
+   * @return (transition times, offset since each transition), the first
+   *         transition is MIN_TABLED_TIME
+   */
+  private def offsetTransitionsOf(timeZone: TimeZone): (Array[Long], Array[Int]) = {
+    val exist = zoneToTransitions.get(timeZone.getID)
+    if (exist != null) return exist
+    
+    val times = new java.util.ArrayList[java.lang.Long]
+    val offsets = new java.util.ArrayList[Integer]
+    var offset = timeZone.getOffset(MIN_TABLED_TIME)
+    times.add(MIN_TABLED_TIME)
+    offsets.add(offset)
+
+    var time = MIN_TABLED_TIME
+    while (time < MAX_TABLED_TIME) {
+      val next = time + ONE_DAY
+      val nextOffset = timeZone.getOffset(next)
+      if (nextOffset != offset) {
+        // offset changes in (time, next], find the first millisecond of new offset
+        var lo = time
+        var hi = next
+        while (hi - lo > 1) {
+          // times before 1970 are negative, (lo + hi) >>> 1 would be a huge positive
+          val mid = lo + (hi - lo) / 2
+          if (timeZone.getOffset(mid) == offset) lo = mid else hi = mid
+        }
+        times.add(hi)
+        offsets.add(nextOffset)
+        offset = nextOffset
+      }
+      time = next
+    }
+
+    val n = times.size
+    val transitions = (Array.tabulate(n){i => times.get(i).longValue}, Array.tabulate(n){i => offsets.get(i).intValue})
+    var i = 1
+    while (i < n) {
+      assert(transitions._1(i) > transitions._1(i - 1), "Transitions of " + timeZone.getID + " are not strictly increasing at " + transitions._1(i))
+      i += 1
+    }
+    zoneToTransitions.putIfAbsent(timeZone.getID, transitions)
+    transitions
+  }
+
+  /**
+   * @return index of the last element that is <= time, or 0
+   */
+  private def floorIndex(sorted: Array[Long], time: Long): Int = {
+    var lo = 0
+    var hi = sorted.length - 1
+    while (lo < hi) {
+      val mid = (lo + hi + 1) >>> 1
+      if (sorted(mid) <= time) lo = mid else hi = mid - 1
+    }
+    lo
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.util.Calendar
+import java.util.TimeZone
+
+/**
+ * Throughput of TFreqRounder.round against TFreq.round(time, cal) and
+ * TUnit.beginTimeOfUnitThatInclude(time, cal) with a reused Calendar, and
+ * against creating a Calendar per call as many callers did.
+ * Not enabled by default, run it via main.
+ * 
+ * -DtestSize=<n>  times per run, default 1000000
+ * -DtestRuns=<n>  default 5
+ * -DtestZone=<id> default Asia/Shanghai
+ * 
+ * @author Caoyuan Deng
+ */
+object TFreqRounderBench {
+  private val SIZE = Integer.parseInt(System.getProperty("testSize", "1000000"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "5"))
+  private val ZONE = TimeZone.getTimeZone(System.getProperty("testZone", "Asia/Shanghai"))
+
+  def main(args: Array[String]) {
+    val random = new scala.util.Random(1)
+    val from = 946684800000L // 2000-01-01
+    val span = 12 * 365 * 24 * 60 * 60 * 1000L
+    val times = Array.fill(SIZE)(from + (random.nextDouble * span).toLong)
+
+    println("Size=" + SIZE + ", Zone=" + ZONE.getID)
+    var run = 0
+    while (run < RUNS) {
+      for (freq <- Array(TFreq.ONE_MIN, TFreq.DAILY)) {
+        val cal = Calendar.getInstance(ZONE)
+        bench(freq + " TFreq.round(cal)    ", times){t => freq.round(t, cal)}
+        bench(freq + " new Calendar per call", times){t => freq.round(t, Calendar.getInstance(ZONE))}
+        val rounder = TFreqRounder(freq, ZONE)
+        bench(freq + " TFreqRounder.round   ", times){t => rounder.round(t)}
+      }
+      for (freq <- Array(TFreq.WEEKLY, TFreq.MONTHLY)) {
+        val cal = Calendar.getInstance(ZONE)
+        bench(freq + " TUnit.begin...(cal)  ", times){t => freq.unit.beginTimeOfUnitThatInclude(t, cal)}
+        val rounder = TFreqRounder(freq, ZONE)
+        bench(freq + " TFreqRounder.round   ", times){t => rounder.round(t)}
+        bench(freq + " TFreqRounder.next    ", times){t => rounder.next(t)}
+      }
+      println
+      run += 1
+    }
+  }
+
+  private def bench(name: String, times: Array[Long])(round: Long => Long) {
+    var sum = 0L
+    val t0 = System.nanoTime
+    var i = -1
+    while ({i += 1; i < times.length}) {
+      sum += round(times(i))
+    }
+    val ns = System.nanoTime - t0
+    println(name + ": " + (ns / times.length) + " ns/op (" + (sum & 0xFF) + ")")
+  }
+}
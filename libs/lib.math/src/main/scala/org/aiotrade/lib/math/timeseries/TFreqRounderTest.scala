@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.util.Calendar
+import java.util.TimeZone
+
+/**
+ * Checks TFreqRounder against the Calendar path over several years, in zones
+ * with and without daylight saving. Second to Day freqs are compared with
+ * TFreq.round, Week/Month/Year with the begin of the calendar period at local
+ * midnight. next is compared with the round of the next period's first day.
+ * offsetAt is compared with TimeZone.getOffset over the whole table, 1900 to
+ * 2100, whatever the test years are.
+ * 
+ * TFreq.round takes the zone's current raw offset, so it's not a reference
+ * where the raw offset was different, such as Europe/London before 1971-10-31.
+ * Not enabled by default, run it via main.
+ * 
+ * -DtestFromYear=<n>  default 2000
+ * -DtestYears=<n>     default 12
+ * 
+ * @author Caoyuan Deng
+ */
+object TFreqRounderTest {
+  private val FROM_YEAR = Integer.parseInt(System.getProperty("testFromYear", "2000"))
+  private val YEARS = Integer.parseInt(System.getProperty("testYears", "12"))
+  /** not a divisor of any freq interval, so times walk through all minutes of day */
+  private val STEP = 37 * 60 * 1000L + 13 * 1000L
+
+  private val zones = Array("Asia/Shanghai", "America/New_York", "Europe/London", "Australia/Sydney")
+  private val freqs = Array(TFreq.ONE_MIN, TFreq.FIVE_MINS, TFreq.THIRTY_MINS, TFreq.ONE_HOUR, TFreq.DAILY,
+                            TFreq.WEEKLY, TFreq.MONTHLY, TFreq.THREE_MONTHS, TFreq.ONE_YEAR)
+
+  def main(args: Array[String]) {
+    var errors = 0
+    var checks = 0L
+    for (zone <- zones; freq <- freqs) {
+      val timeZone = TimeZone.getTimeZone(zone)
+      val rounder = TFreqRounder(freq, timeZone)
+      val cal = Calendar.getInstance(timeZone)
+      cal.clear
+      cal.set(FROM_YEAR, Calendar.JANUARY, 1)
+      val fromTime = cal.getTimeInMillis
+      cal.add(Calendar.YEAR, YEARS)
+      val toTime = cal.getTimeInMillis
+
+      var nErrors = 0
+      var time = fromTime
+      while (time < toTime) {
+        val expected = calendarRound(freq, time, cal)
+        val rounded = rounder.round(time)
+        if (rounded != expected) {
+          nErrors += 1
+          if (nErrors <= 5) println(zone + " " + freq + ": round(" + time + ")=" + rounded + ", expected " + expected)
+        }
+        
+        val expectedNext = calendarNext(freq, expected, cal)
+        val next = rounder.next(time)
+        if (next != expectedNext) {
+          nErrors += 1
+          if (nErrors <= 5) println(zone + " " + freq + ": next(" + time + ")=" + next + ", expected " + expectedNext)
+        }
+        
+        checks += 1
+        time += STEP
+      }
+      
+      if (nErrors > 0) println(zone + " " + freq + ": " + nErrors + " errors")
+      errors += nErrors
+    }
+    
+    errors += checkOffsets
+    
+    println("Checked " + checks + " times, " + (if (errors == 0) "passed" else errors + " errors, FAILED"))
+  }
+
+  /**
+   * offsetAt against TimeZone.getOffset over the whole tabled range, 1900 to
+   * 2100, whatever testFromYear is, since the table is built from 1900.
+   */
+  private def checkOffsets: Int = {
+    var errors = 0
+    for (zone <- zones) {
+      val timeZone = TimeZone.getTimeZone(zone)
+      val rounder = TFreqRounder(TFreq.DAILY, timeZone)
+      var nErrors = 0
+      var time = -2208988800000L // 1900-01-01 00:00 UTC
+      while (time < 4102444800000L) {
+        val expected = timeZone.getOffset(time)
+        val offset = rounder.offsetAt(time)
+        if (offset != expected) {
+          nErrors += 1
+          if (nErrors <= 5) println(zone + ": offsetAt(" + time + ")=" + offset + ", expected " + expected)
+        }
+        time += STEP
+      }
+      
+      if (nErrors > 0) println(zone + " offsetAt: " + nErrors + " errors")
+      errors += nErrors
+    }
+    errors
+  }
+
+  private def calendarRound(freq: TFreq, time: Long, cal: Calendar): Long = {
+    freq.unit match {
+      case TUnit.Week | TUnit.Month | TUnit.Year =>
+        cal.setTimeInMillis(time)
+        cal.set(Calendar.HOUR_OF_DAY, 0)
+        cal.set(Calendar.MINUTE, 0)
+        cal.set(Calendar.SECOND, 0)
+        cal.set(Calendar.MILLISECOND, 0)
+        freq.unit match {
+          case TUnit.Week =>
+            while (cal.get(Calendar.DAY_OF_WEEK) != cal.getFirstDayOfWeek) cal.add(Calendar.DAY_OF_YEAR, -1)
+          case TUnit.Month =>
+            cal.set(Calendar.DAY_OF_MONTH, 1)
+            cal.add(Calendar.MONTH, -(cal.get(Calendar.MONTH) % freq.nUnits))
+          case _ =>
+            cal.set(Calendar.DAY_OF_YEAR, 1)
+            cal.add(Calendar.YEAR, -(cal.get(Calendar.YEAR) % freq.nUnits))
+        }
+        // add keeps the hour of day, which is 01:00 if time is on a day that DST starts at midnight
+        cal.set(Calendar.HOUR_OF_DAY, 0)
+        cal.getTimeInMillis
+      case _ => freq.round(time, cal)
+    }
+  }
+
+  private def calendarNext(freq: TFreq, begin: Long, cal: Calendar): Long = {
+    freq.unit match {
+      case TUnit.Week =>
+        cal.setTimeInMillis(begin)
+        cal.add(Calendar.WEEK_OF_YEAR, freq.nUnits)
+        cal.set(Calendar.HOUR_OF_DAY, 0)
+        cal.getTimeInMillis
+      case TUnit.Month =>
+        cal.setTimeInMillis(begin)
+        cal.add(Calendar.MONTH, freq.nUnits)
+        cal.set(Calendar.HOUR_OF_DAY, 0)
+        cal.getTimeInMillis
+      case TUnit.Year =>
+        cal.setTimeInMillis(begin)
+        cal.add(Calendar.YEAR, freq.nUnits)
+        cal.set(Calendar.HOUR_OF_DAY, 0)
+        cal.getTimeInMillis
+      case _ =>
+        // first time after begin that rounds to another period
+        var next = freq.round(begin + freq.interval, cal)
+        if (next <= begin) next = freq.round(begin + freq.interval + cal.getTimeZone.getDSTSavings, cal)
+        next
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Merges TSerEvent.Updated of the same ser into one event that covers
+ * [minFromTime, maxToTime], so listeners (indicators, charts etc) recompute
+ * once per ser per batch instead of once per value.
+ * 
+ * Updated events go through publishUpdated:
+ * - Inside a batch scope (see batch), they are merged per ser and delivered when
+ *   the outermost scope of current thread exits.
+ * - Otherwise, if WINDOW (-Daiotrade.tser.coalesceWindow, in ms) > 0, they are
+ *   merged per ser and delivered by a timer thread at most WINDOW ms later.
+ * - Otherwise they are delivered immediately, as before.
+ * 
+ * Events with message or callback are never merged.
+ *
+ * @author Caoyuan Deng
+ */
+object TSerEventCoalescer {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  val WINDOW = java.lang.Long.getLong("aiotrade.tser.coalesceWindow", 0L).longValue
+
+  private val raised = new AtomicLong
+  private val delivered = new AtomicLong
+
+  /** number of Updated events raised by sers */
+  def raisedCount = raised.get
+  /** number of Updated events actually published to listeners */
+  def deliveredCount = delivered.get
+  def coalescedCount = raisedCount - deliveredCount
+
+  def resetCounters {
+    raised.set(0)
+    delivered.set(0)
+  }
+
+  private final class Pending(val ser: TSer, val symbol: String, var fromTime: Long, var toTime: Long)
+
+  private final class Batch {
+    private val serToPending = new java.util.IdentityHashMap[TSer, Pending]
+    private val pendings = new java.util.ArrayList[Pending]
+
+    def isEmpty = pendings.isEmpty
+
+    def add(ser: TSer, symbol: String, fromTime: Long, toTime: Long) {
+      val pending = serToPending.get(ser)
+      if (pending eq null) {
+        val x = new Pending(ser, symbol, fromTime, toTime)
+        serToPending.put(ser, x)
+        pendings.add(x)
+      } else {
+        pending.fromTime = math.min(pending.fromTime, fromTime)
+        pending.toTime = math.max(pending.toTime, toTime)
+      }
+    }
+
+    /** @return pendings in raising order, and reset this batch */
+    def drain: Array[Pending] = {
+      val xs = pendings.toArray(new Array[Pending](pendings.size))
+      pendings.clear
+      serToPending.clear
+      xs
+    }
+  }
+
+  private val currentBatch = new ThreadLocal[Batch]
+  private val batchDepth = new ThreadLocal[Array[Int]] {
+    override 
+    protected def initialValue = Array(0)
+  }
+
+  private val windowLock = new ReentrantLock
+  private val windowBatch = new Batch
+  private var isFlushScheduled = false
+  private lazy val timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory {
+      def newThread(r: Runnable) = {
+        val t = new Thread(r, "TSerEventCoalescer")
+        t.setDaemon(true)
+        t
+      }
+    })
+  private val windowFlusher = new Runnable {
+    def run = flushWindow
+  }
+
+  /**
+   * Run body with Updated events of current thread merged, then deliver them.
+   * Nested scopes are merged into the outermost one.
+   */
+  def batch[T](body: => T): T = {
+    val depth = batchDepth.get
+    if (depth(0) == 0) {
+      currentBatch.set(new Batch)
+    }
+    depth(0) += 1
+    try {
+      body
+    } finally {
+      depth(0) -= 1
+      if (depth(0) == 0) {
+        val batch = currentBatch.get
+        currentBatch.remove
+        deliver(batch.drain)
+      }
+    }
+  }
+
+  def isInBatch = batchDepth.get()(0) > 0
+
+  def publishUpdated(ser: TSer, symbol: String, fromTime: Long, toTime: Long) {
+    raised.incrementAndGet
+    
+    val batch = currentBatch.get
+    if (batch ne null) {
+      batch.add(ser, symbol, fromTime, toTime)
+    } else if (WINDOW > 0) {
+      windowLock.lock
+      try {
+        windowBatch.add(ser, symbol, fromTime, toTime)
+        if (!isFlushScheduled) {
+          isFlushScheduled = true
+          timer.schedule(windowFlusher, WINDOW, TimeUnit.MILLISECONDS)
+        }
+      } finally {
+        windowLock.unlock
+      }
+    } else {
+      delivered.incrementAndGet
+      ser.publish(TSerEvent.Updated(ser, symbol, fromTime, toTime))
+    }
+  }
+
+  /** Deliver events pending in window immediately */
+  def flushWindow {
+    var pendings: Array[Pending] = null
+    windowLock.lock
+    try {
+      isFlushScheduled = false
+      pendings = windowBatch.drain
+    } finally {
+      windowLock.unlock
+    }
+    deliver(pendings)
+  }
+
+  private def deliver(pendings: Array[Pending]) {
+    var i = -1
+    while ({i += 1; i < pendings.length}) {
+      val x = pendings(i)
+      delivered.incrementAndGet
+      try {
+        x.ser.publish(TSerEvent.Updated(x.ser, x.symbol, x.fromTime, x.toTime))
+      } catch {
+        case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+      }
+    }
+  }
+}
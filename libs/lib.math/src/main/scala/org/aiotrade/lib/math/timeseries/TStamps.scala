@@ -137,11 +137,42 @@ final class TStampsLog(initialSize: Int) extends AbstractArrayList[Short](initia
     _logTime = System.currentTimeMillis
   }
 
+  /**
+   * Log removing of size elements from head
+   */
+  def logRemove(size: Int) {
+    def addLog(size: Int) {
+      if (size > SIZE) {
+        this += (REMOVE | SIZE).toShort
+        _logCursor = nextCursor(_logCursor)
+        addLog(size - SIZE)
+      } else {
+        this += (REMOVE | size).toShort
+        _logCursor = nextCursor(_logCursor)
+      }
+    }
+        
+    if (_logCursor >= 0) {
+      val prev = apply(_logCursor)
+      val prevKind = checkKind(prev)
+      val prevSize = checkSize(prev)
+      if (prevKind == REMOVE) {
+        val newSize = prevSize + size
+        if (newSize <= SIZE) {
+          // merge with previous one
+          update(_logCursor, (REMOVE | newSize).toShort)
+        } else addLog(size)
+      } else addLog(size)
+    } else addLog(size)
+
+    _logTime = System.currentTimeMillis
+  }
+
   def insertIndexOfLog(cursor: Int): Int = {
     shortsToInt(apply(cursor + 1), apply(cursor + 2))
   }
 
-  /** cursorIncr: if (prev == append) 1 else 3 */
+  /** cursorIncr: if (prev == append || prev == remove) 1 else 3 */
   def nextCursor(cursor: Int): Int = {
     if (cursor == -1) {
       0
@@ -149,6 +180,7 @@ final class TStampsLog(initialSize: Int) extends AbstractArrayList[Short](initia
       checkKind(apply(cursor)) match {
         case APPEND => cursor + 1
         case INSERT => cursor + 3
+        case REMOVE => cursor + 1
       }
     }
   }
@@ -175,6 +207,9 @@ final class TStampsLog(initialSize: Int) extends AbstractArrayList[Short](initia
           i += 1
         case INSERT => sb.append("I").append(checkSize(flag)).append("@").append(shortsToInt(apply(i + 1), apply(i + 2))).append(",")
           i += 3
+        case REMOVE =>
+          sb.append("R").append(checkSize(flag)).append(",")
+          i += 1
         case x => sb.append("\nflag").append(x).append("X").append(i).append(",")
       }
     }
@@ -231,6 +266,13 @@ abstract class TStamps(initialSize: Int) extends AbstractArrayList[Long](initial
   def isOnCalendar: Boolean
     
   def asOnCalendar: TStamps
+
+  /**
+   * Trading calendar used to count rows in on-calendar mode, null means
+   * counting by freq's own arithmetic.
+   */
+  def calendar: TCalendar
+  def calendar_=(calendar: TCalendar)
     
   /**
    * Get nearest row that can also properly extends before firstOccurredTime
@@ -296,9 +338,17 @@ object TStamps {
 
     private val onCalendarShadow = new TStampsOnCalendar(this)
 
+    @volatile
+    private var _calendar: TCalendar = _
+
     def isOnCalendar: Boolean = false
         
     def asOnCalendar: TStamps = onCalendarShadow
+
+    def calendar = _calendar
+    def calendar_=(calendar: TCalendar) {
+      _calendar = calendar
+    }
         
     /**
      * Get nearest row that can also properly extends before firstOccurredTime
@@ -546,7 +596,9 @@ object TStamps {
 
     override 
     def clone: TStamps = {
-      new TStampsOnOccurred(this.size) ++= this
+      val x = new TStampsOnOccurred(this.size) ++= this
+      x.calendar = _calendar
+      x
     }
 
     class ItrOnOccurred(freq: TFreq, _fromTime: Long, toTime: Long, timeZone: TimeZone) extends TStampsIterator {
@@ -684,6 +736,29 @@ object TStamps {
     def isOnCalendar: Boolean = true
         
     def asOnCalendar: TStamps = delegateTimestamps.asOnCalendar
+
+    def calendar = delegateTimestamps.calendar
+    def calendar_=(calendar: TCalendar) {
+      delegateTimestamps.calendar = calendar
+    }
+
+    private def nFreqsBetween(fromTime: Long, toTime: Long, freq: TFreq): Int = {
+      val cal = calendar
+      if (cal != null && cal.isSupported(freq)) {
+        cal.nFreqsBetween(fromTime, toTime, freq)
+      } else {
+        freq.nFreqsBetween(fromTime, toTime)
+      }
+    }
+
+    private def timeAfterNFreqs(fromTime: Long, nFreqs: Int, freq: TFreq): Long = {
+      val cal = calendar
+      if (cal != null && cal.isSupported(freq)) {
+        cal.timeAfterNFreqs(fromTime, nFreqs, freq)
+      } else {
+        freq.timeAfterNFreqs(fromTime, nFreqs)
+      }
+    }
         
     /**
      * Get nearest row that can also properly extends before firstOccurredTime
@@ -696,7 +771,7 @@ object TStamps {
       }
             
       val firstOccurredTime = apply(0)
-      freq.nFreqsBetween(firstOccurredTime, time)
+      nFreqsBetween(firstOccurredTime, time, freq)
     }
         
     /**
@@ -709,7 +784,7 @@ object TStamps {
       }
             
       val firstOccurredTime = apply(0)
-      freq.timeAfterNFreqs(firstOccurredTime, row)
+      timeAfterNFreqs(firstOccurredTime, row, freq)
     }
         
     def lastRow(freq: TFreq): Int = {
@@ -720,7 +795,7 @@ object TStamps {
             
       val firstOccurredTime = apply(0)
       val lastOccurredTime  = apply(lastOccurredIdx)
-      freq.nFreqsBetween(firstOccurredTime, lastOccurredTime)
+      nFreqsBetween(firstOccurredTime, lastOccurredTime, freq)
     }
         
     def sizeOf(freq: TFreq): Int = {
@@ -795,6 +870,9 @@ object TStamps {
         
     override 
     def remove(idx: Int) = delegateTimestamps.remove(idx)
+
+    override 
+    def removeHead(n: Int) = delegateTimestamps.removeHead(n)
         
     override 
     def contains(elem: Any) = delegateTimestamps.contains(elem)
@@ -833,8 +911,12 @@ object TStamps {
 
     class ItrOnCalendar(freq: TFreq, _fromTime: Long, toTime: Long, timeZone: TimeZone) extends TStampsIterator {
       private val cal = Calendar.getInstance(timeZone)
+      private val tcal = {
+        val x = calendar
+        if (x != null && x.isSupported(freq)) x else null
+      }
 
-      val fromTime = freq.round(_fromTime, cal)
+      val fromTime = if (tcal != null) tcal.timeAfterNFreqs(_fromTime, 0, freq) else freq.round(_fromTime, cal)
             
       def this(freq: TFreq) {
         this(freq, firstOccurredTime, lastOccurredTime, TimeZone.getDefault)
@@ -871,7 +953,7 @@ object TStamps {
         checkForComodification
         try {
           cursorRow += 1
-          val next = freq.nextTime(cursorTime)
+          val next = if (tcal != null) tcal.timeAfterNFreqs(cursorTime, 1, freq) else freq.nextTime(cursorTime)
           cursorTime = next
           lastReturnTime = cursorTime
           return next
@@ -896,7 +978,7 @@ object TStamps {
         checkForComodification
         try {
           cursorRow -= 1
-          val previous = freq.previousTime(cursorTime)
+          val previous = if (tcal != null) tcal.timeAfterNFreqs(cursorTime, -1, freq) else freq.previousTime(cursorTime)
           cursorTime = previous
           lastReturnTime = cursorTime
           return previous
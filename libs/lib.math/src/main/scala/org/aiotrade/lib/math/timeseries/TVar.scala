@@ -32,6 +32,7 @@ package org.aiotrade.lib.math.timeseries
 
 import org.aiotrade.lib.math.indicator.Plottable
 import org.aiotrade.lib.collection.ArrayList
+import org.aiotrade.lib.collection.DoubleArrayView
 import scala.reflect.ClassTag
 
 /**
@@ -136,7 +137,7 @@ abstract class TVar[V: ClassTag] extends Plottable {
     if (length > 0 && apply(0).isInstanceOf[Number]) {
       var i = 0
       while (i < length) {
-        result(i) = apply(i).asInstanceOf[Number].doubleValue
+        result(i) = double(i)
         i += 1
       }
     }
@@ -144,12 +145,40 @@ abstract class TVar[V: ClassTag] extends Plottable {
     result
   }
 
+  /**
+   * A read-only view of all values as Double. The values of a Double var are 
+   * viewed on the backing array without copying, others are converted by 
+   * toDoubleArray.
+   * 
+   * @Note The view is only valid until this var grows or removes head, so use 
+   * it transiently, e.g. within one computeSpot, and never hold it.
+   */
+  def doubleView: DoubleArrayView = {
+    if (implicitly[ClassTag[V]] == ClassTag.Double) {
+      DoubleArrayView(values.asInstanceOf[ArrayList[Double]])
+    } else {
+      DoubleArrayView(toDoubleArray)
+    }
+  }
+
+  /**
+   * The float/double accessors are the unboxed fast path of reading values, 
+   * primitive typed vars override them to read from the backing array directly.
+   */
   def float(time: Long): Float = toFloat(apply(time))
   def float(idx: Int):   Float = toFloat(apply(idx))
 
   def double(time: Long): Double = toDouble(apply(time))
   def double(idx: Int):   Double = toDouble(apply(idx))
 
+  /**
+   * Unboxed fast path of update(idx, value), primitive typed vars override it 
+   * to write into the backing array directly. Only for vars of Double.
+   */
+  def updateDouble(idx: Int, value: Double) {
+    update(idx, value.asInstanceOf[V])
+  }
+
   def toFloat(v: V): Float = {
     v match {
       case null => Null.Float
@@ -195,13 +224,18 @@ abstract class TVar[V: ClassTag] extends Plottable {
     if (fromIdx < 0) {
       return
     }
-    var i = values.size - 1
-    while (i >= fromIdx) {
-      values.remove(i)
-      i += 1
+    if (fromIdx < values.size) {
+      values.reduceToSize(fromIdx)
     }
   }
 
+  /**
+   * Remove the first n values, which is called when the ser drops its oldest rows
+   */
+  def removeHead(n: Int) {
+    values.removeHead(math.min(n, values.size))
+  }
+
   def size: Int = values.size
 
   /**
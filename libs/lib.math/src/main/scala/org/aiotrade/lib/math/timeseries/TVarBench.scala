@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.math.timeseries
+
+import org.aiotrade.lib.math.indicator.Plot
+import org.aiotrade.lib.util.MemoryBench
+
+/**
+ * Memory/throughput comparison of the generic InnerTVar against the primitive 
+ * typed vars picked by TVar.apply.
+ * Not enabled by default, run it via main.
+ * 
+ * @author Caoyuan Deng
+ */
+object TVarBench {
+  private val SIZE = Integer.parseInt(System.getProperty("testSize", "1000000"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "20"))
+
+  private class BenchSer(primitive: Boolean) extends DefaultBaseTSer {
+    val doubleVar: TVar[Double] = if (primitive) TVar[Double]("D", Plot.None) else new InnerTVar[Double]("D", Plot.None)
+    val booleanVar: TVar[Boolean] = if (primitive) TVar[Boolean]("B", Plot.None) else new InnerTVar[Boolean]("B", Plot.None)
+    
+    def fill: this.type = {
+      var i = 0
+      while (i < SIZE) {
+        createOrReset(i * 60000L)
+        i += 1
+      }
+      this
+    }
+  }
+
+  private class SerFactory(primitive: Boolean) extends MemoryBench.ObjectFactory {
+    def makeObject = new BenchSer(primitive).fill
+  }
+
+  private def throughput(name: String, ser: BenchSer) {
+    val v = ser.doubleVar
+    var i = 0
+    while (i < SIZE) {
+      v(i) = i
+      i += 1
+    }
+    
+    var sum = 0.0
+    var t0 = System.nanoTime
+    var run = 0
+    while (run < RUNS) {
+      i = 0
+      while (i < SIZE) {
+        v.updateDouble(i, v.double(i) + 1)
+        i += 1
+      }
+      run += 1
+    }
+    val writeMs = (System.nanoTime - t0) / 1000000
+
+    t0 = System.nanoTime
+    run = 0
+    while (run < RUNS) {
+      i = 0
+      while (i < SIZE) {
+        sum += v.double(i)
+        i += 1
+      }
+      run += 1
+    }
+    val readMs = (System.nanoTime - t0) / 1000000
+
+    t0 = System.nanoTime
+    run = 0
+    while (run < RUNS) {
+      sum += v.toDoubleArray.length
+      run += 1
+    }
+    val toArrayMs = (System.nanoTime - t0) / 1000000
+
+    println("%-10s read+write: %6d ms, read: %6d ms, toDoubleArray: %6d ms (checksum %s)".format(name, writeMs, readMs, toArrayMs, sum))
+  }
+
+  def main(args: Array[String]) {
+    println("Size=" + SIZE + ", Runs=" + RUNS)
+
+    print("InnerTVar: ")
+    MemoryBench.showMemoryUsage(new SerFactory(false))
+    print("Primitive: ")
+    MemoryBench.showMemoryUsage(new SerFactory(true))
+
+    // warm up then measure
+    throughput("InnerTVar", new BenchSer(false).fill)
+    throughput("Primitive", new BenchSer(true).fill)
+    throughput("InnerTVar", new BenchSer(false).fill)
+    throughput("Primitive", new BenchSer(true).fill)
+  }
+}
@@ -31,19 +31,38 @@
 
 package org.aiotrade.lib.neuralnetwork.core.committee
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
 import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.math.vector.InputOutputPoint
 import org.aiotrade.lib.math.vector.InputOutputPointSet
 import org.aiotrade.lib.math.vector.Vec
 import org.aiotrade.lib.neuralnetwork.core.committee.function.CommitteeFunction
 import org.aiotrade.lib.neuralnetwork.core.descriptor.NetworkDescriptor
+import org.aiotrade.lib.neuralnetwork.core.model.NetworkTrained
+import org.aiotrade.lib.neuralnetwork.core.model.NetworkUpdated
 import org.aiotrade.lib.neuralnetwork.core.model.Parameter
 import org.aiotrade.lib.neuralnetwork.core.model.Network
+import org.aiotrade.lib.util.actors.Reactor
+import scala.concurrent.SyncVar
 
 /**
  * A committe or set of neural networks to be trained and used concurrently to
  * provide a consistent learning experiment and predictions.
  *
+ * Unless isSerialProcessing, members are trained on NetworkCommittee.executor,
+ * each on its own copy of the training set in randomized order, and predict
+ * fans out to members on the same executor then assambles their results.
+ *
+ * NetworkUpdated events of members are republished by the committee, so
+ * listening to the committee is enough to follow, and unlock, the training of
+ * all members. A NetworkTrained is published for each member when it's
+ * trained, and for the committee when all members are trained.
+ *
  * @author Caoyuan
  */
 @SerialVersionUID(3256438123029147696L)
@@ -85,26 +104,77 @@ class NetworkCommittee(private var _combinationFunction: CommitteeFunction) exte
   }
     
   def predict(input: Vec): Vec = {
-    val results = _committee map (_.predict(input))
-    _combinationFunction.assamble(results.toArray)
+    val n = _committee.size
+    val results = new Array[Vec](n)
+    if (isSerialProcessing || n < 2) {
+      var i = 0
+      while (i < n) {
+        results(i) = _committee(i).predict(input)
+        i += 1
+      }
+    } else {
+      /** fan out all members but the first one, which is predicted in this thread */
+      val futures = new Array[Future[Vec]](n)
+      var i = 1
+      while (i < n) {
+        futures(i) = NetworkCommittee.executor.submit(new PredictTask(_committee(i), input))
+        i += 1
+      }
+      results(0) = _committee(0).predict(input)
+      i = 1
+      while (i < n) {
+        results(i) = await(futures(i))
+        i += 1
+      }
+    }
+    _combinationFunction.assamble(results)
   }
     
   def train(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
-    val threadGroup = new ThreadGroup("a-group-of:" + this)
-    for (network <- _committee) {
-      val trainRunner = new TrainRunner(network, iops.cloneWithRandomizedOrder)
-      val aThread = new Thread(threadGroup, trainRunner)
-      aThread.start
-            
-      if (isSerialProcessing) {
-        while (aThread.isAlive) {
-          Thread.`yield`
+    val n = _committee.size
+    val relays = new Array[ProgressRelay](n)
+    try {
+      val futures = new Array[Future[_]](n)
+      var i = 0
+      while (i < n) {
+        relays(i) = new ProgressRelay(_committee(i))
+        val trainRunner = new TrainRunner(relays(i), iops.cloneWithRandomizedOrder)
+        if (isSerialProcessing) {
+          trainRunner.run
+        } else {
+          futures(i) = NetworkCommittee.executor.submit(trainRunner)
+        }
+        i += 1
+      }
+      
+      if (!isSerialProcessing) {
+        i = 0
+        while (i < n) {
+          await(futures(i))
+          i += 1
         }
       }
+    } finally {
+      /** relays are only weakly referenced by members, keep them reachable until here */
+      relays foreach {relay => if (relay != null) relay.close}
     }
 
-    while (threadGroup.activeCount > 0) {
-      Thread.`yield`
+    var maxEpoch = 0L
+    var sumError = 0.0
+    var i = 0
+    while (i < n) {
+      maxEpoch = math.max(maxEpoch, relays(i).epoch)
+      sumError += relays(i).meanError
+      i += 1
+    }
+    publish(NetworkTrained(this, maxEpoch, sumError / n, new SyncVar[Boolean]))
+  }
+    
+  private def await[T](future: Future[T]): T = {
+    try {
+      future.get
+    } catch {
+      case ex: ExecutionException => throw new RuntimeException(ex.getCause)
     }
   }
     
@@ -113,6 +183,7 @@ class NetworkCommittee(private var _combinationFunction: CommitteeFunction) exte
     val conf = descriptor.asInstanceOf[NetworkCommitteeConfig]
         
     param = descriptor.param
+    isSerialProcessing = conf.isSerialProcessing
         
     try {
       combinationFunction = conf.combinationFunctionClass.newInstance
@@ -168,10 +239,53 @@ class NetworkCommittee(private var _combinationFunction: CommitteeFunction) exte
     res
   }
     
-  class TrainRunner(network: Network, iops: InputOutputPointSet[_ <: InputOutputPoint]) extends Runnable {
+  class TrainRunner(relay: ProgressRelay, iops: InputOutputPointSet[_ <: InputOutputPoint]) extends Runnable {
     def run() {
-      network.train(iops)
+      relay.member.train(iops)
+      publish(NetworkTrained(relay.member, relay.epoch, relay.meanError, new SyncVar[Boolean]))
+    }
+  }
+
+  private class PredictTask(member: Network, input: Vec) extends Callable[Vec] {
+    def call: Vec = member.predict(input)
+  }
+  
+  /**
+   * Republishes NetworkUpdated of a member via this committee, and keeps its
+   * last epoch and mean error.
+   */
+  class ProgressRelay(val member: Network) extends Reactor {
+    @volatile var epoch = 0L
+    @volatile var meanError = Double.NaN
+    
+    reactions += {
+      case e@NetworkUpdated(network, epoch1, meanError1, _) if network eq member =>
+        epoch = epoch1
+        meanError = meanError1
+        NetworkCommittee.this.publish(e)
+    }
+    listenTo(member)
+    
+    def close() {
+      deafTo(member)
+      stop
     }
   }
+}
 
+object NetworkCommittee {
+  /**
+   * -Daiotrade.nn.committee.parallelism, default available processors
+   */
+  val parallelism = Integer.parseInt(System.getProperty("aiotrade.nn.committee.parallelism", Runtime.getRuntime.availableProcessors.toString))
+  
+  private lazy val executor: ExecutorService = Executors.newFixedThreadPool(parallelism, new ThreadFactory {
+      private var count = 0
+      def newThread(r: Runnable) = synchronized {
+        val thread = new Thread(r, "network-committee-" + count)
+        thread.setDaemon(true)
+        count += 1
+        thread
+      }
+    })
 }
\ No newline at end of file
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.neuralnetwork.core.committee
+
+import org.aiotrade.lib.math.vector.InputOutputPoint
+import org.aiotrade.lib.math.vector.InputOutputPointSet
+import org.aiotrade.lib.neuralnetwork.core.committee.function.Average
+import org.aiotrade.lib.neuralnetwork.core.descriptor.LayerDescriptor
+import org.aiotrade.lib.neuralnetwork.core.model.NetworkUpdated
+import org.aiotrade.lib.neuralnetwork.datasource.DefaultDataSource
+import org.aiotrade.lib.neuralnetwork.machine.mlp.MlpNetwork
+import org.aiotrade.lib.neuralnetwork.machine.mlp.MlpNetworkDescriptor
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.LinearNeuron
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.TanhSigmoidNeuron
+import org.aiotrade.lib.util.actors.Reactor
+import scala.util.Random
+
+/**
+ * Wall-clock of training and predicting by committees of 8/16/32 MLP members,
+ * serially vs concurrently.
+ *
+ * Members' own MlpTrainer parallelism is better set to 1, so the comparison is
+ * of the committee level parallelism only.
+ * Not enabled by default, run it via main, with e.g.
+ *   -DcommitteeSizes=8,16,32 -DtestPoints=5000 -DtestEpochs=20 -Daiotrade.nn.parallelism=1
+ *
+ * @author Caoyuan Deng
+ */
+object NetworkCommitteeBench {
+  private val SIZES = System.getProperty("committeeSizes", "8,16,32").split(",") map (_.trim.toInt)
+  private val POINTS = Integer.parseInt(System.getProperty("testPoints", "5000"))
+  private val INPUT_DIMENSION = Integer.parseInt(System.getProperty("inputDimension", "20"))
+  private val HIDDEN_NEURONS = Integer.parseInt(System.getProperty("hiddenNeurons", "16"))
+  private val EPOCHS = Integer.parseInt(System.getProperty("testEpochs", "20"))
+
+  /** unlocks members waiting on NetworkUpdated */
+  private val unlocker = new Reactor {
+    reactions += {
+      case NetworkUpdated(_, _, _, syncVar) => syncVar.put(true)
+    }
+  }
+
+  def main(args: Array[String]) {
+    val iops = syntheticSet(new Random(1))
+
+    println("Points=" + POINTS + ", inputs=" + INPUT_DIMENSION + ", hidden=" + HIDDEN_NEURONS + ", epochs=" + EPOCHS + ", committee parallelism=" + NetworkCommittee.parallelism)
+
+    // warm up
+    bench(2, iops, true)
+    bench(2, iops, false)
+
+    SIZES foreach {size =>
+      val (serialTrainMs, serialPredictMs) = bench(size, iops, true)
+      val (concurrentTrainMs, concurrentPredictMs) = bench(size, iops, false)
+      println("%3d members, train serial: %9.2f ms, concurrent: %9.2f ms, x%.1f; predict all points serial: %8.2f ms, concurrent: %8.2f ms, x%.1f".format(
+          size, serialTrainMs, concurrentTrainMs, serialTrainMs / concurrentTrainMs,
+          serialPredictMs, concurrentPredictMs, serialPredictMs / concurrentPredictMs))
+    }
+  }
+
+  /**
+   * @return (ms of train, ms of predicting all points)
+   */
+  private def bench(size: Int, iops: InputOutputPointSet[InputOutputPoint], serial: Boolean): (Double, Double) = {
+    val committee = new NetworkCommittee(new Average)
+    committee.isSerialProcessing = serial
+    var i = 0
+    while (i < size) {
+      committee.addCommitteeMember(createMember)
+      i += 1
+    }
+    unlocker.listenTo(committee)
+
+    val t0 = System.nanoTime
+    committee.train(iops)
+    val trainMs = (System.nanoTime - t0) / 1000000.0
+
+    val t1 = System.nanoTime
+    i = 0
+    while (i < iops.size) {
+      committee.predict(iops(i).input)
+      i += 1
+    }
+    val predictMs = (System.nanoTime - t1) / 1000000.0
+
+    unlocker.deafTo(committee)
+    (trainMs, predictMs)
+  }
+
+  private def syntheticSet(random: Random): InputOutputPointSet[InputOutputPoint] = {
+    val coefs = Array.fill(INPUT_DIMENSION)(random.nextGaussian / math.sqrt(INPUT_DIMENSION))
+    val points = Array.fill(POINTS) {
+      val iop = InputOutputPoint(INPUT_DIMENSION, 1)
+      var sum = 0.0
+      var i = 0
+      while (i < INPUT_DIMENSION) {
+        val x = random.nextGaussian
+        iop.input(i) = x
+        sum += coefs(i) * x
+        i += 1
+      }
+      iop.output(0) = math.tanh(sum)
+      iop
+    }
+    InputOutputPointSet(points)
+  }
+
+  private def createMember: MlpNetwork = {
+    val descriptor = new MlpNetworkDescriptor
+    descriptor.addHiddenLayerDescriptor(LayerDescriptor(classOf[TanhSigmoidNeuron].getName, HIDDEN_NEURONS))
+    descriptor.addHiddenLayerDescriptor(LayerDescriptor(classOf[LinearNeuron].getName, 1))
+    descriptor.dataSource = new DefaultDataSource(1, INPUT_DIMENSION, 1)
+    /** a tiny prediction error, so each member runs all epochs */
+    descriptor.param = MlpNetwork.Param(EPOCHS, 0.001, 0.5, 1e-9)
+    descriptor.createServiceInstance.asInstanceOf[MlpNetwork]
+  }
+}
@@ -68,6 +68,11 @@ class Layer(private var _nextLayer: Layer, private var _inputDimension: Int) {
   def neurons = _neurons
   def neurons_=(neurons: ArrayList[Neuron]) {
     _neurons = neurons
+    var i = 0
+    while (i < neurons.length) {
+      neurons(i).idx = i
+      i += 1
+    }
   }
     
   def nextLayer = _nextLayer
@@ -108,6 +113,7 @@ class Layer(private var _nextLayer: Layer, private var _inputDimension: Int) {
   def numNeurons: Int = _neurons.length
     
   def addNeuron(neuron: Neuron) {
+    neuron.idx = _neurons.length
     _neurons += neuron
   }
     
@@ -48,6 +48,7 @@ abstract class Neuron(_inputDimension: Int, private var _isHidden: Boolean = tru
   def this() = this(0, true)
   
   private var _connectedNeurons = new ArrayList[Neuron]()
+  private var _idx = -1
   private var _expectedOutput: Double = _
   private var _input: Vec = _ 
 
@@ -108,6 +109,15 @@ abstract class Neuron(_inputDimension: Int, private var _isHidden: Boolean = tru
     _connectedNeurons += neuron
   }
     
+  /**
+   * Index of this neuron in its layer, which is also the index of its output
+   * in input of connected neurons (without threshold)
+   */
+  def idx = _idx
+  def idx_=(idx: Int) {
+    _idx = idx
+  }
+    
   def connectedNeurons = _connectedNeurons
   def numConnectedNeurons = _connectedNeurons.size
     
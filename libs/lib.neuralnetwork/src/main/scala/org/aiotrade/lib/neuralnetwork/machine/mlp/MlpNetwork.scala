@@ -195,7 +195,8 @@ class MlpNetwork extends Network {
     
   def train(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
     //trainSerialMode(iops)
-    trainBatchMode(iops)
+    //trainBatchMode(iops)
+    trainVectorized(iops)
   }
     
   private def trainSerialMode(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
@@ -203,18 +204,7 @@ class MlpNetwork extends Network {
     var epoch = 1L
     while (epoch <= param.maxEpoch && !break) {
             
-      /** re-randomize iops order each time */
-      iops.randomizeOrder
-            
-      var epochSumError = 0.0
-      var i = 0
-      while (i < iops.size) {
-        epochSumError += propagteBidirection(iops(i).input, iops(i).output)
-        adapt()
-        i += 1
-      }
-            
-      val epochMeanError = epochSumError / iops.size
+      val epochMeanError = trainSerialEpoch(iops)
 
       // @todo instead of syncVar, a better way may be contruct a machine that can compute input -> output and put in event?
       val syncVar = new SyncVar[Boolean]
@@ -232,19 +222,57 @@ class MlpNetwork extends Network {
   }
     
   private def trainBatchMode(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
+    trainEpochs(iops)(trainBatchEpoch)
+  }
+    
+  /**
+   * Train by MlpTrainer, which computes batches of points as matrix operations
+   * on multiple cores.
+   */
+  private def trainVectorized(iops: InputOutputPointSet[_ <: InputOutputPoint]) {
+    val trainer = new MlpTrainer(this)
+    trainEpochs(iops)(trainer.trainEpoch)
+  }
+    
+  /**
+   * @return mean error of this epoch
+   */
+  private[mlp] def trainSerialEpoch(iops: InputOutputPointSet[_ <: InputOutputPoint]): Double = {
+    /** re-randomize iops order each time */
+    iops.randomizeOrder
+            
+    var epochSumError = 0.0
+    var i = 0
+    while (i < iops.size) {
+      epochSumError += propagteBidirection(iops(i).input, iops(i).output)
+      adapt()
+      i += 1
+    }
+            
+    epochSumError / iops.size
+  }
+    
+  /**
+   * @return mean error of this epoch
+   */
+  private[mlp] def trainBatchEpoch(iops: InputOutputPointSet[_ <: InputOutputPoint]): Double = {
+    var epochSumError = 0.0
+    var i = 0
+    while (i < iops.size) {
+      epochSumError += propagteBidirection(iops(i).input, iops(i).output)
+      i += 1
+    }
+    adapt()
+            
+    epochSumError / iops.size
+  }
+    
+  private def trainEpochs(iops: InputOutputPointSet[_ <: InputOutputPoint])(trainEpoch: InputOutputPointSet[_ <: InputOutputPoint] => Double) {
     val syncVar = new SyncVar[Boolean]
     var break = false
     var epoch = 1L
     while (epoch <= param.maxEpoch && !break) {
-      var epochSumError = 0.0
-      var i = 0
-      while (i < iops.size) {
-        epochSumError += propagteBidirection(iops(i).input, iops(i).output)
-        i += 1
-      }
-      adapt()
-            
-      val epochMeanError = epochSumError / iops.size
+      val epochMeanError = trainEpoch(iops)
             
       publish(NetworkUpdated(this, epoch, epochMeanError, syncVar))
       syncVar.take
@@ -285,8 +313,8 @@ object MlpNetwork {
     momentumRate: Double,
     predictionError: Double
   ) extends Parameter {
-    assert(learningRate < 0, "learning rate must > 0")
-    assert(maxEpoch < 0, "max epoch must be > 0")
-    assert(predictionError <= 0, "prediction error must > 0")
+    assert(learningRate > 0, "learning rate must > 0")
+    assert(maxEpoch > 0, "max epoch must be > 0")
+    assert(predictionError > 0, "prediction error must > 0")
   }
 }
\ No newline at end of file
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.neuralnetwork.machine.mlp
+
+import org.aiotrade.lib.math.algebra.DenseKernels
+import org.aiotrade.lib.math.vector.InputOutputPoint
+import org.aiotrade.lib.math.vector.InputOutputPointSet
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.PerceptronNeuron
+import scala.concurrent.forkjoin.ForkJoinPool
+import scala.concurrent.forkjoin.RecursiveAction
+
+/**
+ * Layer level training engine of MlpNetwork, instead of propagating points one
+ * by one through neurons, it computes forward and backward passes of a batch
+ * of points as matrix operations on DenseKernels:
+ *
+ *   X(l):   rows x (nIn + 1), input of layer l, column 0 is the threshold input -1
+ *   W(l):   nOut x (nIn + 1), row j is the weight of neuron j, i.e. the very
+ *           Array of neuron.weight, so there is nothing to copy back
+ *   Z(l):   X(l) * W(l)', net input
+ *   X(l+1): f(Z(l)) with threshold column
+ *   D(L):   (Y - X(L+1)) .* df(Z(L))                            output layer
+ *   D(l):   (D(l+1) * W(l+1)) without column 0 .* df(Z(l))      hidden layers
+ *   G(l):   D(l)' * X(l), summed gradient, with the same sign as neuron.gradient
+ *
+ * A batch is split into row shards that are computed on a ForkJoinPool, each
+ * shard has its own Workspace, G of shards are summed after the join, then
+ * each neuron's learner adapts its weight by its row of G. So RpropBpLearner
+ * and MomentumBpLearner keep their own update rules and states, only the
+ * gradients are computed here. Shards call the kernels sequentially, so a task
+ * of this pool never forks into DenseKernels' pool.
+ *
+ * batchSize (-Daiotrade.nn.batchSize) 0 means full batch, which is the same as
+ * MlpNetwork's batch mode, otherwise points are shuffled each epoch and weights
+ * are adapted after each mini-batch. batchSize 1 is the serial mode.
+ * parallelism (-Daiotrade.nn.parallelism) defaults to available processors.
+ *
+ * @author Caoyuan Deng
+ */
+final class MlpTrainer(network: MlpNetwork, batchSize: Int, parallelism: Int) {
+  import MlpTrainer._
+
+  def this(network: MlpNetwork) = this(network, MlpTrainer.BATCH_SIZE, MlpTrainer.parallelism)
+
+  private val nLayers = network.numLayers
+  private val neurons = Array.tabulate(nLayers){l =>
+    val layerNeurons = network.layers(l).neurons
+    Array.tabulate(layerNeurons.length){j => layerNeurons(j).asInstanceOf[PerceptronNeuron]}
+  }
+  /** input dimension with threshold of each layer */
+  private val nIns = Array.tabulate(nLayers){l => network.layers(l).inputDimension + 1}
+  private val nOuts = Array.tabulate(nLayers){l => neurons(l).length}
+
+  private val weights = Array.tabulate(nLayers){l => neurons(l) map (_.weight.values)}
+  private val weightsT = Array.tabulate(nLayers){l => Array.ofDim[Double](nIns(l), nOuts(l))}
+  private val gradients = Array.tabulate(nLayers){l => Array.ofDim[Double](nOuts(l), nIns(l))}
+
+  private val workspaces = Array.ofDim[Workspace](math.max(parallelism, 1))
+
+  /**
+   * Train one epoch
+   *
+   * @return mean error of the epoch, which is computed with the weights before
+   *         adapting by each batch, as propagteBidirection does.
+   */
+  def trainEpoch(iops: InputOutputPointSet[_ <: InputOutputPoint]): Double = {
+    val n = iops.size
+    val batch = if (batchSize <= 0 || batchSize >= n) n else batchSize
+    if (batch < n) {
+      iops.randomizeOrder
+    }
+
+    val nShards = math.max(math.min(workspaces.length, batch / MIN_SHARD_ROWS), 1)
+    val shardRows = (batch + nShards - 1) / nShards
+
+    var sumError = 0.0
+    var from = 0
+    while (from < n) {
+      val until = math.min(from + batch, n)
+      sumError += computeGradients(iops, from, until, nShards, shardRows)
+      adapt()
+      from = until
+    }
+
+    sumError / n
+  }
+
+  /**
+   * @return sum of errors of points in [from, until)
+   */
+  private def computeGradients(iops: InputOutputPointSet[_ <: InputOutputPoint], from: Int, until: Int, nShards: Int, shardRows: Int): Double = {
+    var l = 0
+    while (l < nLayers) {
+      DenseKernels.transpose(weights(l), weightsT(l), nOuts(l), nIns(l))
+      l += 1
+    }
+
+    val tasks = new Array[ShardTask](nShards)
+    var nTasks = 0
+    var shardFrom = from
+    while (shardFrom < until) {
+      val shardUntil = math.min(shardFrom + shardRows, until)
+      if (workspaces(nTasks) == null || workspaces(nTasks).rows < shardRows) {
+        workspaces(nTasks) = new Workspace(shardRows)
+      }
+      tasks(nTasks) = new ShardTask(workspaces(nTasks), iops, shardFrom, shardUntil)
+      nTasks += 1
+      shardFrom = shardUntil
+    }
+
+    if (nTasks == 1) {
+      tasks(0).compute
+    } else {
+      pool.invoke(new RecursiveAction {
+          protected def compute() {
+            var i = 1
+            while (i < nTasks) {
+              tasks(i).fork
+              i += 1
+            }
+            tasks(0).compute
+            i = 1
+            while (i < nTasks) {
+              tasks(i).join
+              i += 1
+            }
+          }
+        })
+    }
+
+    /** sum gradients and errors of shards */
+    var sumError = 0.0
+    var k = 0
+    while (k < nTasks) {
+      val ws = workspaces(k)
+      var l = 0
+      while (l < nLayers) {
+        val g = gradients(l)
+        val wsg = ws.gradients(l)
+        val n = nIns(l)
+        var j = 0
+        while (j < nOuts(l)) {
+          val gj = g(j)
+          val wsgj = wsg(j)
+          if (k == 0) {
+            System.arraycopy(wsgj, 0, gj, 0, n)
+          } else {
+            var i = 0
+            while (i < n) {
+              gj(i) += wsgj(i)
+              i += 1
+            }
+          }
+          j += 1
+        }
+        l += 1
+      }
+      sumError += ws.sumError
+      k += 1
+    }
+
+    sumError
+  }
+
+  private def adapt() {
+    val learningRate = network.param.learningRate
+    val momentumRate = network.param.momentumRate
+    var l = 0
+    while (l < nLayers) {
+      var j = 0
+      while (j < nOuts(l)) {
+        neurons(l)(j).learner.adapt(gradients(l)(j), learningRate, momentumRate)
+        j += 1
+      }
+      l += 1
+    }
+  }
+
+  private final class ShardTask(ws: Workspace, iops: InputOutputPointSet[_ <: InputOutputPoint], from: Int, until: Int) extends RecursiveAction {
+    def compute() {
+      ws.compute(iops, from, until)
+    }
+  }
+
+  /**
+   * Buffers of one shard, up to rows points
+   */
+  private final class Workspace(val rows: Int) {
+    /** xs(l) is input of layer l, xs(nLayers) is output of network */
+    val xs = Array.tabulate(nLayers + 1){l => Array.ofDim[Double](rows, if (l < nLayers) nIns(l) else nOuts(nLayers - 1) + 1)}
+    val nets = Array.tabulate(nLayers){l => Array.ofDim[Double](rows, nOuts(l))}
+    val deltas = Array.tabulate(nLayers){l => Array.ofDim[Double](rows, nOuts(l))}
+    /** D(l+1) * W(l+1), with threshold column */
+    val backs = Array.tabulate(nLayers){l => Array.ofDim[Double](rows, nOuts(l) + 1)}
+    val gradients = Array.tabulate(nLayers){l => Array.ofDim[Double](nOuts(l), nIns(l))}
+    var sumError = 0.0
+
+    def compute(iops: InputOutputPointSet[_ <: InputOutputPoint], from: Int, until: Int) {
+      val m = until - from
+
+      /** load input */
+      val x0 = xs(0)
+      val nIn0 = nIns(0) - 1
+      var r = 0
+      while (r < m) {
+        x0(r)(0) = PerceptronNeuron.THRESHOLD_INPUT_VALUE
+        System.arraycopy(iops(from + r).input.values, 0, x0(r), 1, nIn0)
+        r += 1
+      }
+
+      /** forward */
+      var l = 0
+      while (l < nLayers) {
+        val z = nets(l)
+        val x = xs(l + 1)
+        val ns = neurons(l)
+        val nOut = nOuts(l)
+        DenseKernels.gemm(xs(l), weightsT(l), z, m, nOut, nIns(l), false)
+        var r = 0
+        while (r < m) {
+          val zr = z(r)
+          val xr = x(r)
+          xr(0) = PerceptronNeuron.THRESHOLD_INPUT_VALUE
+          var j = 0
+          while (j < nOut) {
+            xr(j + 1) = ns(j).f(zr(j))
+            j += 1
+          }
+          r += 1
+        }
+        l += 1
+      }
+
+      /** error and delta of output layer */
+      val last = nLayers - 1
+      val nOutLast = nOuts(last)
+      val output = xs(nLayers)
+      sumError = 0.0
+      r = 0
+      while (r < m) {
+        val y = iops(from + r).output.values
+        val or = output(r)
+        val zr = nets(last)(r)
+        val dr = deltas(last)(r)
+        var sumSquare = 0.0
+        var j = 0
+        while (j < nOutLast) {
+          val e = y(j) - or(j + 1)
+          sumSquare += e * e
+          dr(j) = e * neurons(last)(j).df(zr(j))
+          j += 1
+        }
+        sumError += math.sqrt(sumSquare) / nOutLast
+        r += 1
+      }
+
+      /** delta of hidden layers */
+      l = last - 1
+      while (l >= 0) {
+        val back = backs(l)
+        DenseKernels.gemm(deltas(l + 1), weights(l + 1), back, m, nIns(l + 1), nOuts(l + 1), false)
+        val ns = neurons(l)
+        val nOut = nOuts(l)
+        var r = 0
+        while (r < m) {
+          val br = back(r)
+          val zr = nets(l)(r)
+          val dr = deltas(l)(r)
+          var j = 0
+          while (j < nOut) {
+            dr(j) = br(j + 1) * ns(j).df(zr(j))
+            j += 1
+          }
+          r += 1
+        }
+        l -= 1
+      }
+
+      /** gradients */
+      l = 0
+      while (l < nLayers) {
+        DenseKernels.transposeTimes(deltas(l), xs(l), gradients(l), m, nIns(l), nOuts(l), false)
+        l += 1
+      }
+    }
+  }
+}
+
+object MlpTrainer {
+  /** shards less than this rows are not worth a task */
+  private val MIN_SHARD_ROWS = 32
+
+  val BATCH_SIZE = Integer.parseInt(System.getProperty("aiotrade.nn.batchSize", "0"))
+  val parallelism = Integer.parseInt(System.getProperty("aiotrade.nn.parallelism", Runtime.getRuntime.availableProcessors.toString))
+
+  private lazy val pool = new ForkJoinPool(math.max(parallelism, 1))
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.neuralnetwork.machine.mlp
+
+import org.aiotrade.lib.math.vector.DefaultVec
+import org.aiotrade.lib.math.vector.InputOutputPoint
+import org.aiotrade.lib.math.vector.InputOutputPointSet
+import org.aiotrade.lib.neuralnetwork.core.descriptor.LayerDescriptor
+import org.aiotrade.lib.neuralnetwork.datasource.DefaultDataSource
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.LinearNeuron
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.PerceptronNeuron
+import org.aiotrade.lib.neuralnetwork.machine.mlp.neuron.TanhSigmoidNeuron
+import scala.util.Random
+
+/**
+ * Compares epochs of MlpNetwork's per neuron batch mode against MlpTrainer,
+ * on a synthetic regression set, all networks start from the same weights.
+ *
+ * The first epoch of full batch MlpTrainer should give the same error and
+ * weights as the batch mode, up to rounding, it fails if max weight diff is
+ * above testTolerance.
+ * Not enabled by default, run it via main, with e.g.
+ *   -DtestPoints=20000 -DinputDimension=40 -DhiddenNeurons=64 -DtestEpochs=5 -DminiBatchSize=256
+ *
+ * @author Caoyuan Deng
+ */
+object MlpTrainerBench {
+  private val POINTS = Integer.parseInt(System.getProperty("testPoints", "20000"))
+  private val INPUT_DIMENSION = Integer.parseInt(System.getProperty("inputDimension", "40"))
+  private val HIDDEN_NEURONS = Integer.parseInt(System.getProperty("hiddenNeurons", "64"))
+  private val EPOCHS = Integer.parseInt(System.getProperty("testEpochs", "5"))
+  private val MINI_BATCH_SIZE = Integer.parseInt(System.getProperty("miniBatchSize", "256"))
+  /** max allowed weight diff between batch mode and trainer after first epoch */
+  private val TOLERANCE = java.lang.Double.parseDouble(System.getProperty("testTolerance", "1e-9"))
+
+  def main(args: Array[String]) {
+    val random = new Random(1)
+    val iops = syntheticSet(random)
+    val origin = createNetwork
+
+    println("Points=" + POINTS + ", inputs=" + INPUT_DIMENSION + ", hidden=" + HIDDEN_NEURONS + ", parallelism=" + MlpTrainer.parallelism)
+
+    /** one epoch of each should be the same */
+    val batchNet = copyOf(origin)
+    val trainerNet = copyOf(origin)
+    val batchError = batchNet.trainBatchEpoch(iops)
+    val trainerError = new MlpTrainer(trainerNet, 0, MlpTrainer.parallelism).trainEpoch(iops)
+    val weightDiff = maxWeightDiff(batchNet, trainerNet)
+    println("First epoch error, batch mode: %.6f, trainer: %.6f, max weight diff: %.3g".format(
+        batchError, trainerError, weightDiff))
+    if (!(weightDiff <= TOLERANCE)) {
+      println("FAILED: max weight diff is above " + TOLERANCE)
+      System.exit(1)
+    }
+
+    bench("batch mode", origin, iops) {net => net.trainBatchEpoch _}
+    bench("trainer, 1 thread", origin, iops) {net => new MlpTrainer(net, 0, 1).trainEpoch _}
+    bench("trainer, " + MlpTrainer.parallelism + " threads", origin, iops) {net => new MlpTrainer(net, 0, MlpTrainer.parallelism).trainEpoch _}
+    bench("trainer, mini-batch " + MINI_BATCH_SIZE, origin, iops) {net => new MlpTrainer(net, MINI_BATCH_SIZE, MlpTrainer.parallelism).trainEpoch _}
+  }
+
+  private def bench(name: String, origin: MlpNetwork, iops: InputOutputPointSet[InputOutputPoint])(epochOf: MlpNetwork => (InputOutputPointSet[_ <: InputOutputPoint] => Double)) {
+    val net = copyOf(origin)
+    val trainEpoch = epochOf(net)
+    var error = 0.0
+    val t0 = System.nanoTime
+    var epoch = 0
+    while (epoch < EPOCHS) {
+      error = trainEpoch(iops)
+      epoch += 1
+    }
+    val ms = (System.nanoTime - t0) / 1000000.0 / EPOCHS
+    println("%-28s %9.2f ms/epoch, error after %d epochs: %.6f".format(name, ms, EPOCHS, error))
+  }
+
+  private def syntheticSet(random: Random): InputOutputPointSet[InputOutputPoint] = {
+    val coefs = Array.fill(INPUT_DIMENSION)(random.nextGaussian / math.sqrt(INPUT_DIMENSION))
+    val points = Array.fill(POINTS) {
+      val iop = InputOutputPoint(INPUT_DIMENSION, 1)
+      var sum = 0.0
+      var i = 0
+      while (i < INPUT_DIMENSION) {
+        val x = random.nextGaussian
+        iop.input(i) = x
+        sum += coefs(i) * x
+        i += 1
+      }
+      iop.output(0) = math.tanh(sum) + 0.1 * math.sin(3 * sum)
+      iop
+    }
+    InputOutputPointSet(points)
+  }
+
+  private def createNetwork: MlpNetwork = {
+    val descriptor = new MlpNetworkDescriptor
+    descriptor.addHiddenLayerDescriptor(LayerDescriptor(classOf[TanhSigmoidNeuron].getName, HIDDEN_NEURONS))
+    descriptor.addHiddenLayerDescriptor(LayerDescriptor(classOf[LinearNeuron].getName, 1))
+    descriptor.dataSource = new DefaultDataSource(1, INPUT_DIMENSION, 1)
+    descriptor.param = MlpNetwork.Param(EPOCHS, 0.001, 0.5, 1e-6)
+    descriptor.createServiceInstance.asInstanceOf[MlpNetwork]
+  }
+
+  private def copyOf(origin: MlpNetwork): MlpNetwork = {
+    val net = createNetwork
+    forWeights(origin, net) {(from, to) => to.weight = new DefaultVec(from.weight.values.clone)}
+    net
+  }
+
+  private def maxWeightDiff(net1: MlpNetwork, net2: MlpNetwork): Double = {
+    var max = 0.0
+    forWeights(net1, net2) {(n1, n2) =>
+      var i = 0
+      while (i < n1.inputDimension) {
+        max = math.max(max, math.abs(n1.weight(i) - n2.weight(i)))
+        i += 1
+      }
+    }
+    max
+  }
+
+  private def forWeights(net1: MlpNetwork, net2: MlpNetwork)(f: (PerceptronNeuron, PerceptronNeuron) => Unit) {
+    var l = 0
+    while (l < net1.numLayers) {
+      val neurons1 = net1.layers(l).neurons
+      val neurons2 = net2.layers(l).neurons
+      var j = 0
+      while (j < neurons1.length) {
+        f(neurons1(j).asInstanceOf[PerceptronNeuron], neurons2(j).asInstanceOf[PerceptronNeuron])
+        j += 1
+      }
+      l += 1
+    }
+  }
+}
@@ -83,6 +83,17 @@ abstract class AbstractBpLearner(val neuron: PerceptronNeuron, val mode: Mode) e
     }
   }
     
+  /**
+   * Adapt by a gradient that has been computed and summed outside, such as by
+   * MlpTrainer over a batch of points, instead of by computeGradientAndSumIt.
+   *
+   * @param sumGradient with the same sign as neuron.gradient
+   */
+  def adapt(sumGradient: Array[Double], learningRate: Double, momentumRate: Double) {
+    System.arraycopy(sumGradient, 0, _sumGradient.values, 0, neuron.inputDimension)
+    adapt(learningRate, momentumRate)
+  }
+    
   /**
    * Reset leaner, here, we just set sumGradient to 0
    * This should be called after adapt() is called each time
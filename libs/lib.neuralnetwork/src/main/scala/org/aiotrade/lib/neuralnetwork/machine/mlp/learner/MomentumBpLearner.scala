@@ -65,7 +65,7 @@ class MomentumBpLearner(_neuron: PerceptronNeuron) extends AbstractBpLearner(_ne
             
       deltaWeight(i) = gradientTerm + prevDeltaWeightTerm
             
-      weight(i) + weight(i) + deltaWeight(i)
+      weight(i) = weight(i) + deltaWeight(i)
       
       i += 1
     }
@@ -269,16 +269,19 @@ abstract class PerceptronNeuron extends Neuron {
      * @NOTICE
      * We should consider the weight of connectedNeuron's threshold.
      * which is of the idx of 0, so the neurons' weight start from 1,
-     * so, we should use weight.get(1 + i) here.
+     * so, we should use weight.get(1 + idx) here.
+     * 
+     * The weight from this neuron is at this neuron's own idx in layer, not
+     * at the connected neuron's idx in next layer.
      **/
     var i = 0
     while (i < connectedNeurons.length) {
       val connectedNeuron = connectedNeurons(i).asInstanceOf[PerceptronNeuron]
             
-      val weightToConnectedNeuron = if (i < connectedNeuron.threholdDimensionIdx) {
-        connectedNeuron.weight(i)
+      val weightToConnectedNeuron = if (idx < connectedNeuron.threholdDimensionIdx) {
+        connectedNeuron.weight(idx)
       } else {
-        connectedNeuron.weight(i + 1)
+        connectedNeuron.weight(idx + 1)
       }
             
       buf_weightToConnectedNeurons(i) = weightToConnectedNeuron
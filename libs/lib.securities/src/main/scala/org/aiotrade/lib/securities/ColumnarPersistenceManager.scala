@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import java.io.File
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+
+/**
+ * Keeps quotes in a ColumnarQuoteStore instead of db tables, mix it into a
+ * concrete PersistenceManager, for example:
+ *   class MyPersistenceManager extends PlainPersistenceManager with ColumnarPersistenceManager
+ * 
+ * The store is ColumnarQuoteStore.default if -Daiotrade.quoteStore.dir is set, 
+ * otherwise <user.home>/.aiotrade/quotes
+ *
+ * @author Caoyuan Deng
+ */
+trait ColumnarPersistenceManager extends PersistenceManager {
+
+  lazy val quoteStore: ColumnarQuoteStore = ColumnarQuoteStore.default getOrElse {
+    new ColumnarQuoteStore(new File(System.getProperty("user.home") + File.separator + ".aiotrade" + File.separator + "quotes"))
+  }
+
+  override 
+  def saveQuotes(symbol: String, freq: TFreq, quotes: Array[Quote], sourceId: Long) {
+    quoteStore.append(symbol, freq, quotes)
+  }
+  
+  override 
+  def restoreQuotes(symbol: String, freq: TFreq): Array[Quote] = {
+    quoteStore.load(symbol, freq).toQuotes
+  }
+  
+  /**
+   * Bulk version of restoreQuotes, which can be loaded into QuoteSer via QuoteSer.++=(QuoteColumns)
+   */
+  def restoreQuoteColumns(symbol: String, freq: TFreq): QuoteColumns = {
+    quoteStore.load(symbol, freq)
+  }
+  
+  override 
+  def deleteQuotes(symbol: String, freq: TFreq, fromTime: Long, toTime: Long) {
+    quoteStore.delete(symbol, freq, fromTime, toTime)
+  }
+  
+  override 
+  def dropAllQuoteTables(symbol: String) {
+    quoteStore.dropAll(symbol)
+  }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.ArrayList
+import java.util.HashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+
+/**
+ * Quotes of one (symbol, freq) in columns, rows are in ascending time order.
+ * 
+ * @author Caoyuan Deng
+ */
+final class QuoteColumns(val size: Int) {
+  val time       = new Array[Long](size)
+  val lastModify = new Array[Long](size)
+  val flag       = new Array[Int](size)
+  val open       = new Array[Double](size)
+  val high       = new Array[Double](size)
+  val low        = new Array[Double](size)
+  val close      = new Array[Double](size)
+  val volume     = new Array[Double](size)
+  val amount     = new Array[Double](size)
+  val average    = new Array[Double](size)
+  val prevClose  = new Array[Double](size)
+  val execCount  = new Array[Double](size)
+  
+  def isEmpty = size == 0
+
+  def toQuotes: Array[Quote] = {
+    val quotes = new Array[Quote](size)
+    var i = -1
+    while ({i += 1; i < size}) {
+      val quote = new Quote
+      quote.time = time(i)
+      quote.lastModify = lastModify(i)
+      quote.flag = flag(i)
+      quote.open = open(i)
+      quote.high = high(i)
+      quote.low = low(i)
+      quote.close = close(i)
+      quote.volume = volume(i)
+      quote.amount = amount(i)
+      quote.prevClose = prevClose(i)
+      quote.execCount = execCount(i)
+      quote.average = average(i)
+      quote.isTransient = false
+      quotes(i) = quote
+    }
+    quotes
+  }
+}
+
+/**
+ * Local, append-only store of quotes. Each (symbol, freq) is kept in its own
+ * directory as one file per field:
+ *   <dir>/<freq>/<symbol>/time.col, lastModify.col, flag.col, open.col ...
+ * Each file is a plain big-endian array of long, int or double, so the number
+ * of rows is file size / width. Loading memory-maps the files and copies them 
+ * in bulk into QuoteColumns, no object is created per row.
+ * 
+ * Appending quotes that are not newer than the last stored row will merge them
+ * with the stored rows from the earliest time of appending quotes, a stored row
+ * is replaced only by an appending quote of the same time, so re-saving an 
+ * unclosed bar of today just rewrites the last row, and re-saving an old bar
+ * keeps the rows after it.
+ * 
+ * Quotes that are saved one bar per symbol at a time (for example, each 1-min
+ * close of an exchange) could be buffered by buffer(...) and written per symbol
+ * in one append when flushRows are pending or by flush/flushAll, so the column 
+ * files are not opened per bar. Pending rows are flushed before load/delete.
+ * 
+ * Enabled by -Daiotrade.quoteStore.dir=<dir>, see ColumnarQuoteStore.default
+ * 
+ * @author Caoyuan Deng
+ */
+class ColumnarQuoteStore(val dir: File) {
+  import ColumnarQuoteStore._
+  
+  private val log = Logger.getLogger(this.getClass.getName)
+  
+  private val locks = new ConcurrentHashMap[String, ReentrantLock]
+  /** pending rows of buffer(...), guarded by lockOf the same key */
+  private val pendings = new ConcurrentHashMap[String, ArrayList[Quote]]
+
+  if (!dir.exists) {
+    dir.mkdirs
+  }
+
+  private def serDir(symbol: String, freq: TFreq) = new File(new File(dir, freq.shortName), symbol)
+
+  private def keyOf(symbol: String, freq: TFreq) = freq.shortName + "/" + symbol
+
+  private def lockOf(symbol: String, freq: TFreq): ReentrantLock = {
+    val key = keyOf(symbol, freq)
+    val lock = locks.get(key)
+    if (lock ne null) lock else {
+      val newLock = new ReentrantLock
+      val existed = locks.putIfAbsent(key, newLock)
+      if (existed ne null) existed else newLock
+    }
+  }
+
+  def exists(symbol: String, freq: TFreq): Boolean = new File(serDir(symbol, freq), COLUMNS(TIME)._1 + ".col").exists
+
+  /**
+   * @param maxRows only the last maxRows rows are read
+   */
+  @throws(classOf[IOException])
+  def load(symbol: String, freq: TFreq, maxRows: Int = Int.MaxValue): QuoteColumns = {
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+      
+      flush(symbol, freq)
+      val files = openColumns(serDir(symbol, freq), "r")
+      if (files == null) return new QuoteColumns(0)
+      try {
+        val rows = rowsOf(files)
+        val n = math.min(rows, math.max(maxRows, 0))
+        readColumns(files, rows - n, n)
+      } finally {
+        closeColumns(files)
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  /**
+   * @param quotes of one symbol, in any time order
+   */
+  @throws(classOf[IOException])
+  def append(symbol: String, freq: TFreq, quotes: Array[Quote]) {
+    if (quotes.length == 0) return
+    
+    val sorted = quotes.sortWith(_.time < _.time)
+    // keep only the last one of quotes with same time
+    var n = 0
+    var i = -1
+    while ({i += 1; i < sorted.length}) {
+      if (i + 1 == sorted.length || sorted(i + 1).time != sorted(i).time) {
+        sorted(n) = sorted(i)
+        n += 1
+      }
+    }
+
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+
+      val files = openColumns(serDir(symbol, freq), "rw")
+      try {
+        val rows = rowsOf(files)
+        val fromRow = rowOfTime(files(TIME), rows, sorted(0).time)
+        val (toWrite, m) = if (fromRow == rows) {
+          (sorted, n)
+        } else {
+          // rows from fromRow will be rewritten, merge them with appending quotes
+          val merged = merge(readColumns(files, fromRow, rows - fromRow).toQuotes, sorted, n)
+          (merged, merged.length)
+        }
+
+        writeLongs  (files, TIME,        fromRow, toWrite, m)(_.time)
+        writeLongs  (files, LAST_MODIFY, fromRow, toWrite, m)(_.lastModify)
+        writeInts   (files, FLAG,        fromRow, toWrite, m)(_.flag)
+        writeDoubles(files, OPEN,        fromRow, toWrite, m)(_.open)
+        writeDoubles(files, HIGH,        fromRow, toWrite, m)(_.high)
+        writeDoubles(files, LOW,         fromRow, toWrite, m)(_.low)
+        writeDoubles(files, CLOSE,       fromRow, toWrite, m)(_.close)
+        writeDoubles(files, VOLUME,      fromRow, toWrite, m)(_.volume)
+        writeDoubles(files, AMOUNT,      fromRow, toWrite, m)(_.amount)
+        writeDoubles(files, AVERAGE,     fromRow, toWrite, m)(_.average)
+        writeDoubles(files, PREV_CLOSE,  fromRow, toWrite, m)(_.prevClose)
+        writeDoubles(files, EXEC_COUNT,  fromRow, toWrite, m)(_.execCount)
+      } finally {
+        closeColumns(files)
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  /**
+   * Keep copies of quotes as pending rows of (symbol, freq), and append them 
+   * when there are flushRows pending.
+   * @param quotes of one symbol, in any time order
+   */
+  @throws(classOf[IOException])
+  def buffer(symbol: String, freq: TFreq, quotes: Array[Quote], flushRows: Int) {
+    if (quotes.length == 0) return
+    
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+      
+      val key = keyOf(symbol, freq)
+      var pending = pendings.get(key)
+      if (pending eq null) {
+        pending = new ArrayList[Quote]
+        pendings.put(key, pending)
+      }
+      var i = -1
+      while ({i += 1; i < quotes.length}) {
+        // the quote may be reset and reused by caller for the next bar
+        val quote = quotes(i)
+        val copy = new Quote
+        copy.copyFrom(quote)
+        copy.time = quote.time
+        copy.lastModify = quote.lastModify
+        copy.flag = quote.flag
+        copy.average = quote.average
+        pending.add(copy)
+      }
+      if (pending.size >= flushRows) {
+        flush(symbol, freq)
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  /**
+   * Append pending rows of (symbol, freq) if any
+   */
+  @throws(classOf[IOException])
+  def flush(symbol: String, freq: TFreq) {
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+      
+      val pending = pendings.remove(keyOf(symbol, freq))
+      if ((pending ne null) && !pending.isEmpty) {
+        append(symbol, freq, pending.toArray(new Array[Quote](pending.size)))
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  /**
+   * Append pending rows of all symbols, a failure of one symbol is logged and
+   * won't stop the others.
+   */
+  def flushAll {
+    val keys = pendings.keySet.iterator
+    while (keys.hasNext) {
+      val key = keys.next
+      val slash = key.indexOf('/')
+      TFreq.withName(key.substring(0, slash)) foreach {freq =>
+        val symbol = key.substring(slash + 1)
+        try {
+          flush(symbol, freq)
+        } catch {
+          case ex: IOException => log.log(Level.WARNING, "Failed to flush " + key, ex)
+        }
+      }
+    }
+  }
+
+  /**
+   * Delete rows of fromTime <= time <= toTime, rows after toTime are moved forward.
+   */
+  @throws(classOf[IOException])
+  def delete(symbol: String, freq: TFreq, fromTime: Long, toTime: Long) {
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+      
+      val columns = load(symbol, freq)
+      if (columns.isEmpty) return
+    
+      val kept = columns.toQuotes filter {x => x.time < fromTime || x.time > toTime}
+      if (kept.length < columns.size) {
+        drop(symbol, freq)
+        append(symbol, freq, kept)
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  def drop(symbol: String, freq: TFreq) {
+    val lock = lockOf(symbol, freq)
+    try {
+      lock.lock
+      
+      pendings.remove(keyOf(symbol, freq))
+      val dir = serDir(symbol, freq)
+      if (dir.exists) {
+        dir.listFiles foreach (_.delete)
+        dir.delete
+      }
+    } finally {
+      lock.unlock
+    }
+  }
+
+  def dropAll(symbol: String) {
+    val freqDirs = dir.listFiles
+    if (freqDirs != null) {
+      freqDirs foreach {x => TFreq.withName(x.getName) foreach {freq => drop(symbol, freq)}}
+    }
+  }
+
+  // --- column files
+
+  private def openColumns(serDir: File, mode: String): Array[FileChannel] = {
+    if (mode == "r") {
+      if (!new File(serDir, COLUMNS(TIME)._1 + ".col").exists) return null
+    } else {
+      if (!serDir.exists) serDir.mkdirs
+    }
+    
+    val files = new Array[FileChannel](COLUMNS.length)
+    try {
+      var i = -1
+      while ({i += 1; i < COLUMNS.length}) {
+        files(i) = new RandomAccessFile(new File(serDir, COLUMNS(i)._1 + ".col"), mode).getChannel
+      }
+    } catch {
+      case ex: IOException => closeColumns(files); throw ex
+    }
+    files
+  }
+
+  private def closeColumns(files: Array[FileChannel]) {
+    var i = -1
+    while ({i += 1; i < files.length}) {
+      if (files(i) ne null) {
+        try {
+          files(i).close
+        } catch {
+          case ex: IOException => log.log(Level.WARNING, ex.getMessage, ex)
+        }
+      }
+    }
+  }
+
+  /** 
+   * Rows that have been completely written in all columns, a broken append 
+   * (for example, crashed) will leave more rows in some of the columns, which 
+   * will be overridden by the next append.
+   */
+  private def rowsOf(files: Array[FileChannel]): Int = {
+    var rows = Long.MaxValue
+    var i = -1
+    while ({i += 1; i < files.length}) {
+      rows = math.min(rows, files(i).size / COLUMNS(i)._2)
+    }
+    rows.toInt
+  }
+
+  private def mapOf(files: Array[FileChannel], col: Int, fromRow: Int, rows: Int): ByteBuffer = {
+    val width = COLUMNS(col)._2
+    files(col).map(FileChannel.MapMode.READ_ONLY, fromRow.toLong * width, rows.toLong * width)
+  }
+
+  private def readColumns(files: Array[FileChannel], fromRow: Int, rows: Int): QuoteColumns = {
+    val columns = new QuoteColumns(rows)
+    if (!columns.isEmpty) {
+      mapOf(files, TIME,        fromRow, rows).asLongBuffer.get(columns.time)
+      mapOf(files, LAST_MODIFY, fromRow, rows).asLongBuffer.get(columns.lastModify)
+      mapOf(files, FLAG,        fromRow, rows).asIntBuffer.get(columns.flag)
+      mapOf(files, OPEN,        fromRow, rows).asDoubleBuffer.get(columns.open)
+      mapOf(files, HIGH,        fromRow, rows).asDoubleBuffer.get(columns.high)
+      mapOf(files, LOW,         fromRow, rows).asDoubleBuffer.get(columns.low)
+      mapOf(files, CLOSE,       fromRow, rows).asDoubleBuffer.get(columns.close)
+      mapOf(files, VOLUME,      fromRow, rows).asDoubleBuffer.get(columns.volume)
+      mapOf(files, AMOUNT,      fromRow, rows).asDoubleBuffer.get(columns.amount)
+      mapOf(files, AVERAGE,     fromRow, rows).asDoubleBuffer.get(columns.average)
+      mapOf(files, PREV_CLOSE,  fromRow, rows).asDoubleBuffer.get(columns.prevClose)
+      mapOf(files, EXEC_COUNT,  fromRow, rows).asDoubleBuffer.get(columns.execCount)
+    }
+    columns
+  }
+
+  /**
+   * Merge stored rows with the first n of appending quotes, both in ascending time 
+   * order without duplicate time, an appending quote replaces the stored row of same time.
+   */
+  private def merge(stored: Array[Quote], quotes: Array[Quote], n: Int): Array[Quote] = {
+    val merged = new ArrayList[Quote](stored.length + n)
+    var i = 0
+    var j = 0
+    while (i < stored.length || j < n) {
+      if (j == n || (i < stored.length && stored(i).time < quotes(j).time)) {
+        merged.add(stored(i))
+        i += 1
+      } else {
+        if (i < stored.length && stored(i).time == quotes(j).time) {
+          i += 1
+        }
+        merged.add(quotes(j))
+        j += 1
+      }
+    }
+    merged.toArray(new Array[Quote](merged.size))
+  }
+
+  /** @return index of the first row with time >= time, or rows if none */
+  private def rowOfTime(timeFile: FileChannel, rows: Int, time: Long): Int = {
+    val buf = ByteBuffer.allocate(8)
+    var lo = 0
+    var hi = rows - 1
+    while (lo <= hi) {
+      val mid = (lo + hi) >>> 1
+      buf.clear
+      while (buf.hasRemaining && timeFile.read(buf, mid.toLong * 8 + buf.position) > 0) {}
+      if (buf.getLong(0) < time) lo = mid + 1 else hi = mid - 1
+    }
+    lo
+  }
+
+  private def writeLongs(files: Array[FileChannel], col: Int, fromRow: Int, quotes: Array[Quote], n: Int)(f: Quote => Long) {
+    val buf = ByteBuffer.allocate(n * 8)
+    var i = -1
+    while ({i += 1; i < n}) buf.putLong(f(quotes(i)))
+    write(files(col), fromRow.toLong * 8, buf)
+  }
+
+  private def writeInts(files: Array[FileChannel], col: Int, fromRow: Int, quotes: Array[Quote], n: Int)(f: Quote => Int) {
+    val buf = ByteBuffer.allocate(n * 4)
+    var i = -1
+    while ({i += 1; i < n}) buf.putInt(f(quotes(i)))
+    write(files(col), fromRow.toLong * 4, buf)
+  }
+
+  private def writeDoubles(files: Array[FileChannel], col: Int, fromRow: Int, quotes: Array[Quote], n: Int)(f: Quote => Double) {
+    val buf = ByteBuffer.allocate(n * 8)
+    var i = -1
+    while ({i += 1; i < n}) buf.putDouble(f(quotes(i)))
+    write(files(col), fromRow.toLong * 8, buf)
+  }
+
+  private def write(file: FileChannel, position: Long, buf: ByteBuffer) {
+    file.truncate(position)
+    buf.flip
+    var pos = position
+    while (buf.hasRemaining) {
+      pos += file.write(buf, pos)
+    }
+  }
+}
+
+object ColumnarQuoteStore {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  private val TIME        = 0
+  private val LAST_MODIFY = 1
+  private val FLAG        = 2
+  private val OPEN        = 3
+  private val HIGH        = 4
+  private val LOW         = 5
+  private val CLOSE       = 6
+  private val VOLUME      = 7
+  private val AMOUNT      = 8
+  private val AVERAGE     = 9
+  private val PREV_CLOSE  = 10
+  private val EXEC_COUNT  = 11
+
+  /** (file name, width in bytes) of columns, indexed by the constants above */
+  private val COLUMNS = Array(
+    ("time", 8), ("lastModify", 8), ("flag", 4),
+    ("open", 8), ("high", 8), ("low", 8), ("close", 8), ("volume", 8), ("amount", 8),
+    ("average", 8), ("prevClose", 8), ("execCount", 8)
+  )
+
+  /**
+   * The store used by Sec/QuoteServer/Exchange when -Daiotrade.quoteStore.dir is set
+   */
+  lazy val default: Option[ColumnarQuoteStore] = System.getProperty("aiotrade.quoteStore.dir") match {
+    case null | "" => None
+    case path =>
+      log.info("Use columnar quote store at: " + path)
+      val store = new ColumnarQuoteStore(new File(path))
+      // don't lose buffered intraday rows on a normal exit
+      Runtime.getRuntime.addShutdownHook(new Thread {
+          override def run {
+            store.flushAll
+          }
+        })
+      Some(store)
+  }
+  
+  /**
+   * Save quotes to default store if any, exceptions are logged instead of thrown
+   * since the store is only a local cache of db.
+   */
+  def saveIfEnabled(symbol: String, freq: TFreq, quotes: Array[Quote]) {
+    default foreach {store =>
+      try {
+        store.append(symbol, freq, quotes)
+      } catch {
+        case ex: Throwable => log.log(Level.WARNING, "Failed to save " + symbol + "(" + freq.shortName + ") to columnar quote store", ex)
+      }
+    }
+  }
+
+  /**
+   * Intraday rows are appended per symbol when this number of rows are pending,
+   * or when flushAllIfEnabled is called at daily close.
+   */
+  val FLUSH_ROWS = Integer.parseInt(System.getProperty("aiotrade.quoteStore.flushRows", "30"))
+
+  /**
+   * Save closed quotes of many symbols to default store if any, quotes are grouped 
+   * per symbol. Daily quotes are appended at once, intraday quotes are buffered 
+   * and appended per FLUSH_ROWS of a symbol.
+   */
+  def saveBatchIfEnabled(freq: TFreq, quotes: Array[Quote]) {
+    default foreach {store =>
+      val groups = new HashMap[String, ArrayList[Quote]]
+      var i = -1
+      while ({i += 1; i < quotes.length}) {
+        val quote = quotes(i)
+        val symbol = quote.sec.uniSymbol
+        var group = groups.get(symbol)
+        if (group eq null) {
+          group = new ArrayList[Quote]
+          groups.put(symbol, group)
+        }
+        group.add(quote)
+      }
+      
+      val itr = groups.entrySet.iterator
+      while (itr.hasNext) {
+        val entry = itr.next
+        val symbol = entry.getKey
+        val group = entry.getValue.toArray(new Array[Quote](entry.getValue.size))
+        try {
+          if (freq == TFreq.DAILY) {
+            store.append(symbol, freq, group)
+          } else {
+            store.buffer(symbol, freq, group, FLUSH_ROWS)
+          }
+        } catch {
+          case ex: Throwable => log.log(Level.WARNING, "Failed to save " + symbol + "(" + freq.shortName + ") to columnar quote store", ex)
+        }
+      }
+    }
+  }
+
+  /**
+   * Append all pending intraday rows of default store if any
+   */
+  def flushAllIfEnabled {
+    default foreach (_.flushAll)
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import java.io.File
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Quote
+
+/**
+ * Saves daily quotes of many symbols to a ColumnarQuoteStore, then loads them 
+ * all back into columns, and checks the round trip.
+ * Not enabled by default, run it via main.
+ * 
+ * -DtestSers=<n>  number of symbols, default 3000
+ * -DtestSize=<n>  quotes per symbol, default 2500 (about 10 years)
+ * 
+ * @author Caoyuan Deng
+ */
+object ColumnarQuoteStoreBench {
+  private val SERS = Integer.parseInt(System.getProperty("testSers", "3000"))
+  private val SIZE = Integer.parseInt(System.getProperty("testSize", "2500"))
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+
+  def main(args: Array[String]) {
+    val dir = new File(System.getProperty("java.io.tmpdir"), "ColumnarQuoteStoreBench-" + System.currentTimeMillis)
+    val store = new ColumnarQuoteStore(dir)
+    val symbols = Array.tabulate(SERS){i => "%06d.SS".format(i)}
+    println("Sers=" + SERS + ", Size=" + SIZE)
+
+    try {
+      var t0 = System.currentTimeMillis
+      var i = -1
+      while ({i += 1; i < SERS}) {
+        store.append(symbols(i), TFreq.DAILY, quotesOf(i))
+      }
+      println("Saved in " + (System.currentTimeMillis - t0) + "ms")
+      
+      // append the unclosed bar of today again, should override the last row
+      val last = quotesOf(0)(SIZE - 1)
+      last.close += 1
+      store.append(symbols(0), TFreq.DAILY, Array(last))
+
+      var run = 0
+      while (run < 3) {
+        t0 = System.currentTimeMillis
+        var rows = 0L
+        i = -1
+        while ({i += 1; i < SERS}) {
+          rows += store.load(symbols(i), TFreq.DAILY).size
+        }
+        println("Loaded " + rows + " rows in " + (System.currentTimeMillis - t0) + "ms")
+        run += 1
+      }
+
+      val columns = store.load(symbols(0), TFreq.DAILY)
+      val expected = quotesOf(0)
+      expected(SIZE - 1).close += 1
+      var ok = columns.size == SIZE
+      i = -1
+      while (ok && {i += 1; i < SIZE}) {
+        ok = columns.time(i) == expected(i).time && columns.close(i) == expected(i).close && columns.flag(i) == expected(i).flag
+      }
+      println("Round trip " + (if (ok) "passed" else "FAILED"))
+
+      // load the last rows only
+      val tail = store.load(symbols(0), TFreq.DAILY, SIZE / 3)
+      ok = tail.size == SIZE / 3 && tail.time(0) == expected(SIZE - SIZE / 3).time && tail.close(tail.size - 1) == expected(SIZE - 1).close
+      println("Load last rows " + (if (ok) "passed" else "FAILED"))
+
+      // re-save an old bar, rows after it should be kept
+      val old = quotesOf(1)(SIZE / 2)
+      old.close += 1
+      store.append(symbols(1), TFreq.DAILY, Array(old))
+      val columns1 = store.load(symbols(1), TFreq.DAILY)
+      ok = columns1.size == SIZE && columns1.close(SIZE / 2) == old.close && columns1.time(SIZE - 1) == (SIZE - 1) * ONE_DAY
+      println("Re-save old bar " + (if (ok) "passed" else "FAILED"))
+
+      // buffer one bar of each symbol at a time, as the 1-min closing does
+      val flushRows = 30
+      val bars = Array.tabulate(SERS){i => quotesOf(i).take(2 * flushRows + 1)}
+      t0 = System.currentTimeMillis
+      var bar = -1
+      while ({bar += 1; bar < 2 * flushRows + 1}) {
+        i = -1
+        while ({i += 1; i < SERS}) {
+          store.buffer(symbols(i), TFreq.ONE_MIN, Array(bars(i)(bar)), flushRows)
+        }
+      }
+      store.flushAll
+      println("Buffered " + (2 * flushRows + 1) + " bars of each symbol in " + (System.currentTimeMillis - t0) + "ms")
+      ok = store.load(symbols(0), TFreq.ONE_MIN).size == 2 * flushRows + 1
+      println("Buffered round trip " + (if (ok) "passed" else "FAILED"))
+    } finally {
+      dir.listFiles foreach {freqDir =>
+        freqDir.listFiles foreach {serDir => serDir.listFiles foreach (_.delete); serDir.delete}
+        freqDir.delete
+      }
+      dir.delete
+    }
+  }
+
+  private def quotesOf(seed: Int): Array[Quote] = {
+    val random = new scala.util.Random(seed)
+    var price = 10.0
+    Array.tabulate(SIZE){i =>
+      price = math.max(0.01, price * (1 + (random.nextDouble - 0.5) * 0.1))
+      val quote = new Quote
+      quote.time = i * ONE_DAY
+      quote.open = price
+      quote.high = price * 1.02
+      quote.low = price * 0.98
+      quote.close = price
+      quote.volume = random.nextInt(1000000)
+      quote.amount = quote.volume * price
+      quote
+    }
+  }
+}
@@ -34,6 +34,7 @@ import org.aiotrade.lib.math.indicator.Plot
 import org.aiotrade.lib.math.timeseries.DefaultBaseTSer
 import org.aiotrade.lib.math.timeseries.TFreq
 import org.aiotrade.lib.math.timeseries.TSerEvent
+import org.aiotrade.lib.math.timeseries.TSerEventCoalescer
 import org.aiotrade.lib.math.timeseries.TVal
 import org.aiotrade.lib.securities.model.MoneyFlow
 import org.aiotrade.lib.securities.model.Sec
@@ -47,6 +48,11 @@ class MoneyFlowSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq)
 
   private var _shortName: String = ""
 
+  // count on-calendar rows by the trading sessions of exchange
+  if (_sec != null && _sec.exchange != null) {
+    timestamps.calendar = _sec.exchange.calendar
+  }
+
   val lastModify = TVar[Long]("LM", Plot.None)
   val amountInCount = TVar[Double]("aIC", Plot.None)
   val amountOutCount = TVar[Double]("aOC", Plot.None)
@@ -214,7 +220,7 @@ class MoneyFlowSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq)
     assignValue(mf)
         
     /** be ware of fromTime here may not be same as ticker's event */
-    publish(TSerEvent.Updated(this, "", time, time))
+    TSerEventCoalescer.publishUpdated(this, "", time, time)
   }
 
   def doCalcRate{
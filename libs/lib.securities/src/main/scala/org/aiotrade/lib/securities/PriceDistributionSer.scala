@@ -6,7 +6,7 @@
 package org.aiotrade.lib.securities
 
 import org.aiotrade.lib.math.indicator.Plot
-import org.aiotrade.lib.math.timeseries.{TVal, TSerEvent, DefaultBaseTSer, TFreq}
+import org.aiotrade.lib.math.timeseries.{TVal, TSerEventCoalescer, DefaultBaseTSer, TFreq}
 import org.aiotrade.lib.securities.model.PriceCollection
 import org.aiotrade.lib.securities.model.PriceDistribution
 import org.aiotrade.lib.securities.model.Sec
@@ -42,7 +42,7 @@ class PriceDistributionSer($sec: Sec, $freq: TFreq) extends DefaultBaseTSer($sec
     priceCollection(time) = pd
 
     /** be ware of fromTime here may not be same as ticker's event */
-    publish(TSerEvent.Updated(this, "", time, time))
+    TSerEventCoalescer.publishUpdated(this, "", time, time)
   }
 
   /**
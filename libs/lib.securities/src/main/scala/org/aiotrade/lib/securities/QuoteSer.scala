@@ -35,8 +35,10 @@ import org.aiotrade.lib.math.indicator.Plot
 import org.aiotrade.lib.math.timeseries.DefaultBaseTSer
 import org.aiotrade.lib.math.timeseries.TFreq
 import org.aiotrade.lib.math.timeseries.TSerEvent
+import org.aiotrade.lib.math.timeseries.TSerEventCoalescer
 import org.aiotrade.lib.math.timeseries.TVal
 import org.aiotrade.lib.securities.model.Exchanges
+import org.aiotrade.lib.securities.model.Flag
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.util.actors.Reactions
@@ -51,6 +53,11 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
   
   private var _shortName: String = _sec.uniSymbol
   private var _isAdjusted: Boolean = false
+
+  // count on-calendar rows by the trading sessions of exchange
+  if (_sec.exchange != null) {
+    timestamps.calendar = _sec.exchange.calendar
+  }
   
   override 
   def serProvider: Sec = super.serProvider.asInstanceOf[Sec]
@@ -113,6 +120,53 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
 
   }
 
+  /**
+   * Bulk append of stored quote columns, assigns the same values as assignValue
+   * does for a Quote, but no Quote is created per row.
+   */
+  def ++=(columns: QuoteColumns): QuoteSer = {
+    if (columns.isEmpty) return this
+    
+    try {
+      writeLock.lock
+
+      var i = -1
+      while ({i += 1; i < columns.size}) {
+        val time = columns.time(i)
+        createOrReset(time)
+        val idx = timestamps.indexOfOccurredTime(time)
+
+        if (idx > 0) freeFloat.updateDouble(idx, freeFloat.double(idx - 1))
+
+        open.updateDouble(idx, columns.open(i))
+        high.updateDouble(idx, columns.high(i))
+        low.updateDouble(idx, columns.low(i))
+        close.updateDouble(idx, columns.close(i))
+        volume.updateDouble(idx, columns.volume(i))
+        amount.updateDouble(idx, columns.amount(i))
+        average.updateDouble(idx, columns.average(i))
+        prevClose.updateDouble(idx, columns.prevClose(i))
+        execCount.updateDouble(idx, columns.execCount(i))
+        turnoverRate.updateDouble(idx, columns.volume(i) / freeFloat.double(idx))
+        lastModify(idx) = columns.lastModify(i)
+
+        open_ori.updateDouble(idx, columns.open(i))
+        high_ori.updateDouble(idx, columns.high(i))
+        low_ori.updateDouble(idx, columns.low(i))
+        close_ori.updateDouble(idx, columns.close(i))
+        average_ori.updateDouble(idx, columns.average(i))
+
+        isClosed(idx) = (columns.flag(i) & Flag.MaskClosed) == Flag.MaskClosed
+
+        prev5Close.updateDouble(idx, if (idx >= 5) prevClose.double(idx - 5) else prevClose.double(0))
+      }
+    } finally {
+      writeLock.unlock
+    }
+    
+    this
+  }
+
   def valueOf(time: Long): Option[Quote] = {
     if (exists(time)) {
       val quote = new Quote
@@ -146,7 +200,7 @@ class QuoteSer(_sec: Sec, _freq: TFreq) extends DefaultBaseTSer(_sec, _freq) wit
     assignValue(quote)
 
     /** be ware of fromTime here may not be same as ticker's event */
-    publish(TSerEvent.Updated(this, quote.uniSymbol, time, time))
+    TSerEventCoalescer.publishUpdated(this, quote.uniSymbol, time, time)
   }
 
   def isAdjusted = _isAdjusted
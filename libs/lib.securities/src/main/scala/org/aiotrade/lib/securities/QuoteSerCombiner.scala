@@ -33,7 +33,10 @@ package org.aiotrade.lib.securities
 import java.util.Calendar
 import java.util.TimeZone
 import java.util.logging.Logger
+import org.aiotrade.lib.math.timeseries.TFreqRounder
 import org.aiotrade.lib.math.timeseries.TSerEvent
+import org.aiotrade.lib.math.timeseries.TSerEventCoalescer
+import org.aiotrade.lib.math.timeseries.TStamps
 import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.util.actors.Reactor
@@ -62,7 +65,6 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
 
   private val sec = srcSer.serProvider.asInstanceOf[Sec]
   private val freq = tarSer.freq
-  private var quote: Quote = _
 
   /**
    * Combine data according to wanted frequency, such as Weekly, Monthly etc.
@@ -166,25 +168,66 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
     tarSer.publish(evt)
   }
 
-  def compute(fromTime: Long) {
-    val cal = Calendar.getInstance(timeZone)
-    cal.setTimeInMillis(fromTime)
-    val roundedFromTime = freq.round(fromTime, cal)
-    cal.setTimeInMillis(roundedFromTime)
-    val srcFromIdx = math.max(0, srcSer.timestamps.indexOrNextIndexOfOccurredTime(roundedFromTime))
+  private val rounder = TFreqRounder(freq, timeZone)
+  /** reused for each combined quote, tarSer copies values from it */
+  private val quote = new Quote
+  quote.sec = sec
+  quote.unclosed_!
+  quote.fromMe_!
+  quote.isTransient = true
+
+  /** the last combined period, so a following update only re-combines this period */
+  private var periodBegin = Long.MaxValue
+  private var periodFirstIdx = -1
+  private var periodFirstTime = Long.MinValue
+
+  /**
+   * Combine source quotes since the period that includes fromTime. Source
+   * quotes are walked by index, a period's boundaries are only looked up when
+   * a source quote goes out of current period. When the changes are all in
+   * or after the last combined period, starts from its first source quote
+   * instead of searching.
+   */
+  def compute(fromTime: Long): Unit = synchronized {
+    val timestamps = srcSer.timestamps
+    val n = timestamps.size
+
+    val srcFromIdx =
+      if (n == 0) {
+        0
+      } else if (fromTime >= periodBegin && periodFirstIdx < n && timestamps(periodFirstIdx) == periodFirstTime) {
+        periodFirstIdx
+      } else {
+        lowerBound(timestamps, rounder.round(math.max(fromTime, timestamps(0))))
+      }
 
     // --- begin combining
 
-    val n = srcSer.size
-    var i = srcFromIdx - 1
-    while ({i += 1; i < n}) {
-      val time_i = srcSer.timeOfIndex(i)
-      if (time_i >= roundedFromTime) {
-        val quote = quoteOf(time_i)
+    TSerEventCoalescer.batch {
+      var begin = Long.MinValue
+      var end = Long.MinValue
+      var i = srcFromIdx - 1
+      while ({i += 1; i < n}) {
+        val time_i = timestamps(i)
+        if (time_i >= end || time_i < begin) {
+          val begin_i = rounder.round(time_i)
+          if (begin_i != begin) {
+            if (begin != Long.MinValue) tarSer.updateFrom(quote)
+
+            begin = begin_i
+            quote.reset
+            quote.time = begin
+            quote.justOpen_!
+            periodBegin = begin
+            periodFirstIdx = i
+            periodFirstTime = time_i
+          }
+          end = rounder.next(begin)
+        }
+
+        val prevNorm = srcSer.close.double(i)
+        val postNorm = prevNorm //srcSer.close_adj(i) @todo deal with adjusted
 
-        var prevNorm = srcSer.close(time_i)
-        var postNorm = srcSer.close(time_i)//srcSer.close_adj(time_i) @todo deal with adjusted
-        
         /**
          * @TIPS
          * when combine, do adjust on source's value, then de adjust on combined quote data.
@@ -195,50 +238,38 @@ class QuoteSerCombiner(srcSer: QuoteSer, tarSer: QuoteSer, timeZone: TimeZone) e
          * different scale close_adj, so must do adjust with its own close_adj firstly. then
          * use the last close_orj to de-adjust it.
          */
+        val high_i = linearAdjust(srcSer.high.double(i), prevNorm, postNorm)
+        val low_i  = linearAdjust(srcSer.low.double(i),  prevNorm, postNorm)
         if (quote.justOpen_?) {
           quote.unjustOpen_!
-          quote.open   = linearAdjust(srcSer.open(time_i),  prevNorm, postNorm)
-          quote.high   = linearAdjust(srcSer.high(time_i),  prevNorm, postNorm)
-          quote.low    = linearAdjust(srcSer.low(time_i),   prevNorm, postNorm)
-          quote.close  = linearAdjust(srcSer.close(time_i), prevNorm, postNorm)
-          quote.volume += srcSer.volume(time_i)
-          quote.amount += srcSer.amount(time_i)
-          quote.execCount += srcSer.execCount(time_i)
+          quote.open = linearAdjust(srcSer.open.double(i), prevNorm, postNorm)
+          quote.high = high_i
+          quote.low  = low_i
         } else {
-          quote.high   = math.max(quote.high, linearAdjust(srcSer.high(time_i),  prevNorm, postNorm))
-          quote.low    = math.min(quote.low,  linearAdjust(srcSer.low(time_i),   prevNorm, postNorm))
-          quote.close  = linearAdjust(srcSer.close(time_i), prevNorm, postNorm)
-          quote.volume += srcSer.volume(time_i)
-          quote.amount += srcSer.amount(time_i)
-          quote.execCount += srcSer.execCount(time_i)
+          quote.high = math.max(quote.high, high_i)
+          quote.low  = math.min(quote.low,  low_i)
         }
-        
-        tarSer.updateFrom(quote)
+        quote.close = linearAdjust(srcSer.close.double(i), prevNorm, postNorm)
+        quote.volume += srcSer.volume.double(i)
+        quote.amount += srcSer.amount.double(i)
+        quote.execCount += srcSer.execCount.double(i)
       }
-    }
 
-//    val evt = TSerEvent.Updated(tarSer, null, baseFromTime, tarSer.lastOccurredTime)
-//    tarSer.publish(evt)
+      if (begin != Long.MinValue) tarSer.updateFrom(quote)
+    }
   }
 
-  def quoteOf(time: Long): Quote = {
-    val cal = Calendar.getInstance(timeZone)
-    val rounded = freq.round(time, cal)
-    quote match {
-      case one: Quote if one.time == rounded =>
-        one
-      case prevOneOrNull => // interval changes or null
-        val newone = new Quote
-        newone.time = rounded
-        newone.sec = sec
-        newone.unclosed_!
-        newone.justOpen_!
-        newone.fromMe_!
-        newone.isTransient = true
-
-        quote = newone
-        newone
+  /**
+   * @return index of the first timestamp that is >= time, or size if none
+   */
+  private def lowerBound(timestamps: TStamps, time: Long): Int = {
+    var lo = 0
+    var hi = timestamps.size
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (timestamps(mid) < time) lo = mid + 1 else hi = mid
     }
+    lo
   }
 
   /**
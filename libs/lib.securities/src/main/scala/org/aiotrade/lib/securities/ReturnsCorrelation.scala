@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import org.aiotrade.lib.math.algebra.DenseKernels
+import org.aiotrade.lib.math.algebra.DenseMatrix
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Sec
+
+/**
+ * Covariance/correlation matrix of log returns of many QuoteSers, e.g. secs of 
+ * a sector or of an index, over a rolling window of the last 'window' bars of a
+ * common time grid.
+ *
+ * The return of a ser at a grid time is from its close (adjusted) at the time 
+ * and the close of its previous bar, and is missing if the ser has no bar at
+ * the time (suspended, not listed yet etc), or it's the first bar of the ser.
+ * So a return only depends on the ser itself, and rolled sums are the same as
+ * recomputed ones whatever bars the window started from. Missing returns are excluded pairwise, i.e. 
+ * cov(i, j) only counts the bars where both i and j have returns, by keeping:
+ *   C = M'M      count of common bars
+ *   S = X'M      S(i, j) is sum of x_i over bars common with j
+ *   Q = (X.X)'M  Q(i, j) is sum of x_i^2 over bars common with j
+ *   P = X'X      sum of x_i * x_j over common bars
+ * where X is the (bars x sers) returns with missing ones as 0, and M is the 0/1
+ * mask of them.
+ *
+ * The sums are computed by blocked, parallel DenseKernels.transposeTimes on 
+ * recompute, then rolled by rank-1 updates (DenseKernels.ger) of the new bar 
+ * and the bar that leaves the window, which costs O(n^2) per bar instead of 
+ * O(window * n^2). They are recomputed from the kept window every 'window' rolls
+ * to drop the accumulated rounding error.
+ *
+ * @Note It keeps 4 n x n doubles, that's about 288M for 3000 sers.
+ *
+ * @author Caoyuan Deng
+ */
+final class ReturnsCorrelation(val sers: Array[QuoteSer], val window: Int, val minObservations: Int) {
+  assert(window >= 2, "window should be >= 2: " + window)
+  
+  def this(sers: Array[QuoteSer], window: Int) = this(sers, window, math.max(window / 2, 2))
+
+  private val n = sers.length
+  
+  /** ring of the bars in window, in rows [0, nBars) */
+  private val xs  = Array.ofDim[Double](window, n)
+  private val xxs = Array.ofDim[Double](window, n)
+  private val ms  = Array.ofDim[Double](window, n)
+  private val times = new Array[Long](window)
+  private var nBars = 0
+  private var nextRow = 0
+  private var nRolls = 0
+
+  private var _lastTime = Long.MinValue
+
+  private val C = Array.ofDim[Double](n, n)
+  private val S = Array.ofDim[Double](n, n)
+  private val Q = Array.ofDim[Double](n, n)
+  private val P = Array.ofDim[Double](n, n)
+
+  /** time of the last bar in window */
+  def lastTime = _lastTime
+  def barsInWindow = nBars
+  
+  def reset: Unit = synchronized {
+    nBars = 0
+    nextRow = 0
+    nRolls = 0
+    _lastTime = Long.MinValue
+    var i = 0
+    while (i < n) {
+      java.util.Arrays.fill(C(i), 0.0)
+      java.util.Arrays.fill(S(i), 0.0)
+      java.util.Arrays.fill(Q(i), 0.0)
+      java.util.Arrays.fill(P(i), 0.0)
+      i += 1
+    }
+  }
+  
+  /**
+   * Rebuild the window from the last window bars of grid.
+   * 
+   * @param grid sorted times, e.g. timestamps of the index ser, or unionGrid(sers)
+   */
+  def recompute(grid: Array[Long]): Unit = synchronized {
+    reset
+    var i = math.max(grid.length - window, 0)
+    while (i < grid.length) {
+      readBar(grid(i))
+      i += 1
+    }
+    computeSums
+  }
+
+  /**
+   * Roll the window by a new closed bar at time, which should be after lastTime.
+   * 
+   * @return false if time is not after lastTime, then nothing is changed.
+   */
+  def roll(time: Long): Boolean = synchronized {
+    if (time <= _lastTime) return false
+    
+    if (nBars == window) {
+      // the oldest one is at nextRow
+      rank1Update(-1.0, nextRow)
+    }
+    val row = readBar(time)
+    rank1Update(1.0, row)
+    
+    nRolls += 1
+    if (nRolls >= window) {
+      computeSums
+    }
+    true
+  }
+
+  /** count of bars that both i and j have returns */
+  def count(i: Int, j: Int): Int = synchronized {C(i)(j).toInt}
+
+  def covariance(i: Int, j: Int): Double = synchronized {
+    val c = C(i)(j)
+    if (c < minObservations || c < 2) {
+      Null.Double
+    } else {
+      (P(i)(j) - S(i)(j) * S(j)(i) / c) / (c - 1)
+    }
+  }
+
+  def correlation(i: Int, j: Int): Double = synchronized {
+    val c = C(i)(j)
+    if (c < minObservations || c < 2) {
+      Null.Double
+    } else {
+      val cov = P(i)(j) - S(i)(j) * S(j)(i) / c
+      val varI = Q(i)(j) - S(i)(j) * S(i)(j) / c
+      val varJ = Q(j)(i) - S(j)(i) * S(j)(i) / c
+      if (varI <= 0 || varJ <= 0) {
+        Null.Double
+      } else {
+        // clamp the rounding error
+        math.max(-1.0, math.min(1.0, cov / math.sqrt(varI * varJ)))
+      }
+    }
+  }
+
+  /**
+   * Sample covariance matrix, Null.Double where less than minObservations
+   */
+  def covarianceMatrix: DenseMatrix = synchronized {
+    val result = Array.ofDim[Double](n, n)
+    var i = 0
+    while (i < n) {
+      var j = 0
+      while (j < n) {
+        result(i)(j) = covariance(i, j)
+        j += 1
+      }
+      i += 1
+    }
+    DenseMatrix(result)
+  }
+
+  /**
+   * Correlation matrix, Null.Double where less than minObservations
+   */
+  def correlationMatrix: DenseMatrix = synchronized {
+    val result = Array.ofDim[Double](n, n)
+    var i = 0
+    while (i < n) {
+      result(i)(i) = if (Null.is(correlation(i, i))) Null.Double else 1.0
+      var j = i + 1
+      while (j < n) {
+        val r = correlation(i, j)
+        result(i)(j) = r
+        result(j)(i) = r
+        j += 1
+      }
+      i += 1
+    }
+    DenseMatrix(result)
+  }
+
+  /**
+   * Read returns of all sers at time into the next row of ring, the oldest one
+   * is overwritten if ring is full.
+   * 
+   * @return the row
+   */
+  private def readBar(time: Long): Int = {
+    val row = nextRow
+    val x = xs(row)
+    val xx = xxs(row)
+    val m = ms(row)
+    var j = 0
+    while (j < n) {
+      val r = returnAt(sers(j), time)
+      if (Null.not(r)) {
+        x(j) = r
+        xx(j) = r * r
+        m(j) = 1.0
+      } else {
+        x(j) = 0.0
+        xx(j) = 0.0
+        m(j) = 0.0
+      }
+      j += 1
+    }
+    
+    times(row) = time
+    _lastTime = time
+    nextRow = (row + 1) % window
+    if (nBars < window) {
+      nBars += 1
+    }
+    row
+  }
+  
+  /**
+   * @return log return of ser's bar at time to its previous bar, or Null.Double
+   */
+  private def returnAt(ser: QuoteSer, time: Long): Double = {
+    val timestamps = ser.timestamps
+    timestamps.readLock.lock
+    try {
+      val idx = timestamps.indexOfOccurredTime(time)
+      if (idx >= 1) {
+        val close = ser.close.double(idx)
+        val prevClose = ser.close.double(idx - 1)
+        if (Null.not(close) && close > 0 && Null.not(prevClose) && prevClose > 0) {
+          math.log(close / prevClose)
+        } else Null.Double
+      } else Null.Double
+    } finally {
+      timestamps.readLock.unlock
+    }
+  }
+
+  /**
+   * The sums do not care about the order of bars, so the ring can be used as is.
+   */
+  private def computeSums {
+    DenseKernels.transposeTimes(xs,  xs, P, nBars, n, n)
+    DenseKernels.transposeTimes(xs,  ms, S, nBars, n, n)
+    DenseKernels.transposeTimes(xxs, ms, Q, nBars, n, n)
+    DenseKernels.transposeTimes(ms,  ms, C, nBars, n, n)
+    nRolls = 0
+  }
+
+  private def rank1Update(alpha: Double, row: Int) {
+    DenseKernels.ger(alpha, xs(row),  xs(row), P, n, n)
+    DenseKernels.ger(alpha, xs(row),  ms(row), S, n, n)
+    DenseKernels.ger(alpha, xxs(row), ms(row), Q, n, n)
+    DenseKernels.ger(alpha, ms(row),  ms(row), C, n, n)
+  }
+}
+
+object ReturnsCorrelation {
+  
+  /**
+   * Of the sers of secs in freq, e.g. secs of a sector, or components of an index
+   */
+  def apply(secs: Seq[Sec], freq: TFreq, window: Int): ReturnsCorrelation = {
+    new ReturnsCorrelation((secs flatMap (_.serOf(freq))).toArray, window)
+  }
+
+  /**
+   * Sorted distinct times of all sers
+   */
+  def unionGrid(sers: Array[QuoteSer]): Array[Long] = {
+    var total = 0
+    var i = 0
+    while (i < sers.length) {
+      total += sers(i).timestamps.size
+      i += 1
+    }
+    
+    val all = new Array[Long](total)
+    var k = 0
+    i = 0
+    while (i < sers.length) {
+      val timestamps = sers(i).timestamps
+      timestamps.readLock.lock
+      try {
+        val size = math.min(timestamps.size, total - k)
+        var j = 0
+        while (j < size) {
+          all(k) = timestamps(j)
+          k += 1
+          j += 1
+        }
+      } finally {
+        timestamps.readLock.unlock
+      }
+      i += 1
+    }
+    java.util.Arrays.sort(all, 0, k)
+    
+    // unique
+    var nDistinct = 0
+    i = 0
+    while (i < k) {
+      if (nDistinct == 0 || all(i) != all(nDistinct - 1)) {
+        all(nDistinct) = all(i)
+        nDistinct += 1
+      }
+      i += 1
+    }
+    java.util.Arrays.copyOf(all, nDistinct)
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities
+
+import org.aiotrade.lib.math.timeseries.Null
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.securities.model.Sec
+import scala.util.Random
+
+/**
+ * Checks ReturnsCorrelation.roll against a fresh recompute of the same window
+ * and against naive pairwise correlation/covariance, on sers with missing bars:
+ * - randomly missing bars of all sers,
+ * - a ser that is suspended longer than window, so all of its bars leave the
+ *   window, and its returns come back after resuming,
+ * - a ser that is listed late.
+ * Not enabled by default, run it via main.
+ *
+ * @author Caoyuan Deng
+ */
+object ReturnsCorrelationTest {
+  private val N_SERS = 24
+  private val N_BARS = 500
+  private val WINDOW = 60
+  private val EPS = 1e-8
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+  
+  private val SUSPENDED = 0
+  private val SUSPENDED_FROM = 150
+  private val SUSPENDED_UNTIL = 240
+  private val LISTED_LATE = 1
+  private val LISTED_AT = 100
+
+  def main(args: Array[String]) {
+    val random = new Random(1)
+    val grid = Array.tabulate(N_BARS){i => 946857600000L + i * ONE_DAY}
+    
+    // has(j)(t): ser j has a bar at grid(t)
+    val has = Array.tabulate(N_SERS, N_BARS){(j, t) => 
+      if (j == SUSPENDED && t >= SUSPENDED_FROM && t < SUSPENDED_UNTIL) false
+      else if (j == LISTED_LATE && t < LISTED_AT) false
+      else random.nextInt(20) != 0
+    }
+    val closes = Array.ofDim[Double](N_SERS, N_BARS)
+    val sers = Array.tabulate(N_SERS){j => 
+      val ser = new QuoteSer(new Sec, TFreq.DAILY)
+      var close = 10.0 + j
+      var t = -1
+      while ({t += 1; t < N_BARS}) {
+        val market = random.nextGaussian * 0.01
+        close *= math.exp(market * (j % 3) + random.nextGaussian * 0.01)
+        if (has(j)(t)) {
+          closes(j)(t) = close
+          ser.createOrReset(grid(t))
+          ser.close(grid(t)) = close
+        }
+      }
+      ser
+    }
+    
+    var errors = 0
+    val rolled = new ReturnsCorrelation(sers, WINDOW)
+    rolled.recompute(java.util.Arrays.copyOf(grid, WINDOW))
+    var t = WINDOW - 1
+    while ({t += 1; t < N_BARS}) {
+      if (!rolled.roll(grid(t))) {
+        println("roll at " + t + " returned false")
+        errors += 1
+      }
+      
+      val fresh = new ReturnsCorrelation(sers, WINDOW)
+      fresh.recompute(java.util.Arrays.copyOf(grid, t + 1))
+      
+      var i = -1
+      while ({i += 1; i < N_SERS}) {
+        var j = -1
+        while ({j += 1; j < N_SERS}) {
+          val (count, cov, corr) = naive(closes, has, i, j, t, rolled.minObservations)
+          errors += compare("count", t, i, j, rolled.count(i, j), count)
+          errors += compare("recomputed count", t, i, j, fresh.count(i, j), count)
+          errors += compare("covariance", t, i, j, rolled.covariance(i, j), cov)
+          errors += compare("recomputed covariance", t, i, j, fresh.covariance(i, j), cov)
+          if (i != j) {
+            errors += compare("correlation", t, i, j, rolled.correlation(i, j), corr)
+            errors += compare("recomputed correlation", t, i, j, fresh.correlation(i, j), corr)
+          }
+        }
+      }
+      
+      // bars of the suspended ser have all left the window
+      if (t == SUSPENDED_UNTIL - 1 && (rolled.count(SUSPENDED, SUSPENDED) != 0 || Null.not(rolled.correlation(SUSPENDED, 2)))) {
+        println("suspended ser still has bars in window at " + t)
+        errors += 1
+      }
+      
+      if (errors > 20) {
+        println("ReturnsCorrelationTest failed: too many errors, stopped at " + t)
+        System.exit(1)
+      }
+    }
+    
+    if (rolled.roll(grid(N_BARS - 1))) {
+      println("roll of a time not after lastTime should return false")
+      errors += 1
+    }
+
+    println(if (errors == 0) "ReturnsCorrelationTest passed" else "ReturnsCorrelationTest failed: " + errors + " errors")
+    System.exit(if (errors == 0) 0 else 1)
+  }
+  
+  /**
+   * Pairwise (count, covariance, correlation) of returns of ser i and j over
+   * the window that ends at t, on the bars where both have returns.
+   */
+  private def naive(closes: Array[Array[Double]], has: Array[Array[Boolean]], i: Int, j: Int, t: Int, minObservations: Int): (Int, Double, Double) = {
+    val xs = new scala.collection.mutable.ArrayBuffer[Double]()
+    val ys = new scala.collection.mutable.ArrayBuffer[Double]()
+    var k = t - WINDOW
+    while ({k += 1; k <= t}) {
+      val xi = returnAt(closes(i), has(i), k)
+      val xj = returnAt(closes(j), has(j), k)
+      if (Null.not(xi) && Null.not(xj)) {
+        xs += xi
+        ys += xj
+      }
+    }
+    
+    val c = xs.length
+    if (c < minObservations || c < 2) {
+      (c, Null.Double, Null.Double)
+    } else {
+      val meanX = xs.sum / c
+      val meanY = ys.sum / c
+      var sxy = 0.0
+      var sxx = 0.0
+      var syy = 0.0
+      var k = -1
+      while ({k += 1; k < c}) {
+        sxy += (xs(k) - meanX) * (ys(k) - meanY)
+        sxx += (xs(k) - meanX) * (xs(k) - meanX)
+        syy += (ys(k) - meanY) * (ys(k) - meanY)
+      }
+      val corr = if (sxx <= 0 || syy <= 0) Null.Double else sxy / math.sqrt(sxx * syy)
+      (c, sxy / (c - 1), corr)
+    }
+  }
+  
+  /** return to the previous bar of the ser, whenever it was */
+  private def returnAt(closes: Array[Double], has: Array[Boolean], k: Int): Double = {
+    if (!has(k)) return Null.Double
+    var prev = k
+    while ({prev -= 1; prev >= 0 && !has(prev)}) {}
+    if (prev >= 0) math.log(closes(k) / closes(prev)) else Null.Double
+  }
+
+  private def compare(name: String, t: Int, i: Int, j: Int, actual: Double, expected: Double): Int = {
+    if (Null.is(actual) && Null.is(expected) || math.abs(actual - expected) <= EPS * math.max(1.0, math.abs(expected))) {
+      0
+    } else {
+      println("%s of (%s, %s) at %s: %s, expected %s".format(name, i, j, t, actual, expected))
+      1
+    }
+  }
+}
@@ -54,14 +54,22 @@ class SecPicking extends Publisher {
   }
 
   def go(time: Long) {
+    go(time, {evt: SecPickingEvent => publish(evt)})
+  }
+  
+  /**
+   * Same as go(time), but the events are delivered to handler in caller's thread
+   * instead of being published.
+   */
+  def go(time: Long, handler: SecPickingEvent => Unit) {
     for {
       (sec, validTimes) <- secToValidTimes
       validTime <- validTimes
     } {
       if (validTime.isValid(time) && validTime.nonValid(prevTime)) {
-        publish(SecPickingEvent(validTime, Side.EnterPicking))
+        handler(SecPickingEvent(validTime, Side.EnterPicking))
       } else if (validTime.nonValid(time) && validTime.isValid(prevTime)) {
-        publish(SecPickingEvent(validTime, Side.ExitPicking))
+        handler(SecPickingEvent(validTime, Side.ExitPicking))
       }
     }
     prevTime = time
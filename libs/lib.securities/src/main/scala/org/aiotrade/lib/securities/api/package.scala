@@ -6,8 +6,10 @@ import org.aiotrade.lib.securities.model.Execution
 import org.aiotrade.lib.securities.model.MoneyFlow
 import org.aiotrade.lib.securities.model.PriceCollection
 import org.aiotrade.lib.securities.model.Quote
+import org.aiotrade.lib.securities.model.QuotesCodec
 import org.aiotrade.lib.securities.model.SecDividend
 import org.aiotrade.lib.securities.model.Ticker
+import org.aiotrade.lib.securities.model.TickersCodec
 
 package object api {
 
@@ -24,16 +26,18 @@ package object api {
   val QuotesEvt             = Evt[(String, Array[Quote])](11)
   val MoneyFlowEvt          = Evt[(String, MoneyFlow)](20, "freq, moneyflow")
   val MoneyFlowsEvt         = Evt[(String, Array[MoneyFlow])](21)
-  val PriceDistributionEvt  = Evt[PriceCollection](30, "", schemaJson = """
+  /**
+   * Tags 30 and 31 carried the map based PriceCollection of older versions,
+   * the tick array one is on new tags, so that an older client ignores it as
+   * an unknown evt instead of failing to decode it.
+   */
+  val PriceDistributionEvt  = Evt[PriceCollection](32, "", schemaJson = """
       {"type":"record","name":"PriceCollection","namespace":"org.aiotrade.lib.securities.model",
-              "fields":[{"name":"map","type":["null",
-                                              {"type":"map",
-                                              "values":{"type":"record",
-                                                        "name":"PriceDistribution",
-                                                        "fields":[{"name":"_time","type":["null","long"]},
-                                                                  {"name":"_uniSymbol","type":["null","string"]},
-                                                                  {"name":"_flag","type":["null","int"]},
-                                                                  {"name":"data","type":["null",{"type":"array","items":"double"}]}]}}]},
+              "fields":[{"name":"ticksPerUnit","type":["null","int"]},
+                        {"name":"lowTick","type":["null","long"]},
+                        {"name":"ups","type":["null",{"type":"array","items":"double"}]},
+                        {"name":"downs","type":["null",{"type":"array","items":"double"}]},
+                        {"name":"evens","type":["null",{"type":"array","items":"double"}]},
                         {"name":"isTransient","type":["null","boolean"]},
                         {"name":"_time","type":["null","long"]},
                         {"name":"_uniSymbol","type":["null","string"]},
@@ -41,9 +45,13 @@ package object api {
                         {"name":"data","type":["null",{"type":"array","items":"double"}]}]}
 """)
   
-  val PriceDistributionsEvt = Evt[Array[PriceCollection]](31)
+  val PriceDistributionsEvt = Evt[Array[PriceCollection]](33)
   val ExchangeStatusEvt     = Evt[(String, ExchangeStatus)](40, "exchangeCode, status")
 
+  // dedicated batch encodings, @see BatchCodec
+  Evt.registerColumnar(TickersEvt, TickersCodec)
+  Evt.registerColumnar(QuotesEvt, QuotesCodec)
+
   // --- base data evt
   val SecDividendAddedEvt   = Evt[SecDividend](6000)
   val SecDividendUpdatedEvt = Evt[SecDividend](6001)
@@ -34,7 +34,7 @@ abstract class  PriceDistributionServer  extends DataServer[PriceCollection]{
     var i = 0
     while (i < pds.length) {
       val pd = pds(i)
-      pd.values.foreach{value => value.sec = sec}
+      pd.sec = sec
       frTime = math.min(pd.time, frTime)
       toTime = math.max(pd.time, toTime)
 
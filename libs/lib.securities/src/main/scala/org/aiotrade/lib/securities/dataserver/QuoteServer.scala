@@ -34,6 +34,7 @@ import java.util.logging.Logger
 import org.aiotrade.lib.math.timeseries.TFreq
 import org.aiotrade.lib.math.timeseries.TSerEvent
 import org.aiotrade.lib.math.timeseries.datasource.DataServer
+import org.aiotrade.lib.securities.ColumnarQuoteStore
 import org.aiotrade.lib.securities.model.Exchange
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.Quotes1d
@@ -85,9 +86,11 @@ abstract class QuoteServer extends DataServer[Quote] {
       case TFreq.DAILY =>
         Quotes1d.saveBatch(sec, quotes)
         COMMIT
+        ColumnarQuoteStore.saveIfEnabled(sec.uniSymbol, TFreq.DAILY, quotes)
       case TFreq.ONE_MIN =>
         Quotes1m.saveBatch(sec, quotes)
         COMMIT
+        ColumnarQuoteStore.saveIfEnabled(sec.uniSymbol, TFreq.ONE_MIN, quotes)
       case _ =>
         // we won't save quote to quotes1m when contract.freq is ONE_SEC, so we can always keep
         // quoteSer of 1min after loaded from db will not be blocked by this period of time.
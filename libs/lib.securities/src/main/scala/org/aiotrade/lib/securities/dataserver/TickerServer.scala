@@ -30,9 +30,11 @@
  */
 package org.aiotrade.lib.securities.dataserver
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.logging.Level
 import java.util.logging.Logger
 import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TSerEventCoalescer
 import org.aiotrade.lib.math.timeseries.datasource.DataServer
 import org.aiotrade.lib.securities.api
 import org.aiotrade.lib.securities.model.Tickers
@@ -42,6 +44,7 @@ import org.aiotrade.lib.securities.model.Executions
 import org.aiotrade.lib.securities.model.MarketDepth
 import org.aiotrade.lib.securities.model.Quote
 import org.aiotrade.lib.securities.model.MoneyFlow
+import org.aiotrade.lib.securities.model.Sec
 import org.aiotrade.lib.securities.model.SecSnap
 import org.aiotrade.lib.securities.model.Ticker
 import org.aiotrade.lib.securities.model.TickersLast
@@ -65,14 +68,17 @@ abstract class TickerServer extends DataServer[Ticker] {
 
   private val log = Logger.getLogger(this.getClass.getName)
   
-  private lazy val uniSymbolToSnapTicker = mutable.Map[String, Ticker]()
+  private lazy val uniSymbolToSnapTicker = new ConcurrentHashMap[String, Ticker]()
 
-  def snapTickerOf(uniSymbol: String): Ticker = uniSymbolToSnapTicker synchronized {
-    uniSymbolToSnapTicker.get(uniSymbol).getOrElse{
+  def snapTickerOf(uniSymbol: String): Ticker = {
+    val exist = uniSymbolToSnapTicker.get(uniSymbol)
+    if (exist != null) {
+      exist
+    } else {
       val newOne = new Ticker
-      uniSymbolToSnapTicker += (uniSymbol -> newOne)
       newOne.uniSymbol = uniSymbol
-      newOne
+      val raced = uniSymbolToSnapTicker.putIfAbsent(uniSymbol, newOne)
+      if (raced != null) raced else newOne
     }
   }
 
@@ -87,6 +93,7 @@ abstract class TickerServer extends DataServer[Ticker] {
 
   private def toSecSnaps(values: Array[Ticker]): (Seq[SecSnap], Seq[Ticker]) = {
     val processedSymbols = mutable.Set[String]() // used to avoid duplicate symbols of each refreshing
+    val gotExchanges = mutable.Set[Exchange]()
 
     val length = values.length
     val secSnaps = new ArrayList[SecSnap](length)
@@ -105,6 +112,7 @@ abstract class TickerServer extends DataServer[Ticker] {
 
             val exchange = sec.exchange
             val tickerx = exchange.gotLastTicker(ticker)
+            gotExchanges += exchange
             if (subscribedSrcSymbols.contains(symbol)) {
               tickersLast += tickerx
               secSnaps += sec.secSnap.setByTicker(ticker)
@@ -121,6 +129,9 @@ abstract class TickerServer extends DataServer[Ticker] {
         }
       }
     }
+
+    // publish once for this batch, readers then see all these last tickers at once
+    gotExchanges foreach (_.publishLastTickers)
     
     (secSnaps, tickersLast)
   }
@@ -150,169 +161,181 @@ abstract class TickerServer extends DataServer[Ticker] {
 
     exchangeToLastTime.clear
 
-    var i = -1
-    while ({i += 1; i < secSnaps.length}) {
-      val secSnap = secSnaps(i)
-
-      val sec = secSnap.sec
-      val ticker = secSnap.newTicker
-      val lastTicker = secSnap.lastTicker
-      val isDayFirst = ticker.isDayFirst
-      val dayQuote = secSnap.dayQuote
-      val minQuote = secSnap.minQuote
-      val dayMoneyFlow = secSnap.dayMoneyFlow
-      val minMoneyFlow = secSnap.minMoneyFlow
-
-      log.fine("Composing from ticker: " + ticker + ", lasticker: " + lastTicker)
-
-      var tickerValid = false
-      var execution: Execution = null
-      if (isDayFirst) {
-        log.fine("Got day's first ticker: " + ticker)
-        
-        /**
-         * this is today's first ticker we got when begin update data server,
-         * actually it should be, so maybe we should check this.
-         * As this is the first data of today:
-         * 1. set OHLC = Ticker.LAST_PRICE
-         * 2. to avoid too big volume that comparing to following dataSeries.
-         * so give it a small 0.0001 (if give it a 0, it will won't be calculated
-         * in calcMaxMin() of ChartView)
-         */
-
-        tickerValid = true
-        
-        dayQuote.unjustOpen_!
-        dayMoneyFlow.unjustOpen_!
-        minMoneyFlow.unjustOpen_!
-
-        minQuote.unjustOpen_!
-        minQuote.open   = ticker.dayOpen
-        minQuote.high   = ticker.dayHigh
-        minQuote.low    = ticker.dayLow
-        minQuote.close  = ticker.lastPrice
-        minQuote.volume = ticker.dayVolume
-        minQuote.amount = ticker.dayAmount
-        minQuote.execCount += 1
-
-        execution = new Execution
-        execution.sec = sec
-        execution.time = ticker.time
-        execution.price  = ticker.lastPrice
-        execution.volume = ticker.dayVolume
-        execution.amount = ticker.dayAmount
-        
-        // re-init lastTime
-        lastTime = ticker.time
-      } else {
-                
-        /**
-         *    ticker.time    prevTicker.time
-         *          |------------------|------------------->
-         *          |<----- 1000 ----->|
-         */
-        if (ticker.time + 1000 > lastTicker.time) { // 1000ms, @Note: we may add +1 to ticker.time later
-          // some datasources only count on second, but we may truly have a new ticker
-          if (ticker.time <= lastTicker.time) {
-            ticker.time = lastTicker.time + 1 // avoid duplicate key
-          }
+    // merge TSerEvent.Updated of each quote ser, so its indicators are computed
+    // once for this batch
+    val nRaised = TSerEventCoalescer.raisedCount
+    val nDelivered = TSerEventCoalescer.deliveredCount
+    TSerEventCoalescer.batch {
+      var i = -1
+      while ({i += 1; i < secSnaps.length}) {
+        val secSnap = secSnaps(i)
+
+        val sec = secSnap.sec
+        val ticker = secSnap.newTicker
+        val lastTicker = secSnap.lastTicker
+        val isDayFirst = ticker.isDayFirst
+        val dayQuote = secSnap.dayQuote
+        val minQuote = secSnap.minQuote
+        val dayMoneyFlow = secSnap.dayMoneyFlow
+        val minMoneyFlow = secSnap.minMoneyFlow
+
+        log.fine("Composing from ticker: " + ticker + ", lasticker: " + lastTicker)
+
+        var tickerValid = false
+        var execution: Execution = null
+        if (isDayFirst) {
+          log.fine("Got day's first ticker: " + ticker)
+          
+          /**
+           * this is today's first ticker we got when begin update data server,
+           * actually it should be, so maybe we should check this.
+           * As this is the first data of today:
+           * 1. set OHLC = Ticker.LAST_PRICE
+           * 2. to avoid too big volume that comparing to following dataSeries.
+           * so give it a small 0.0001 (if give it a 0, it will won't be calculated
+           * in calcMaxMin() of ChartView)
+           */
 
           tickerValid = true
+          
+          dayQuote.unjustOpen_!
+          dayMoneyFlow.unjustOpen_!
+          minMoneyFlow.unjustOpen_!
+
+          minQuote.unjustOpen_!
+          minQuote.open   = ticker.dayOpen
+          minQuote.high   = ticker.dayHigh
+          minQuote.low    = ticker.dayLow
+          minQuote.close  = ticker.lastPrice
+          minQuote.volume = ticker.dayVolume
+          minQuote.amount = ticker.dayAmount
+          minQuote.execCount += 1
 
-          if (ticker.dayVolume > lastTicker.dayVolume) {
-            execution = new Execution
-            execution.sec = sec
-            execution.time = ticker.time
-            execution.price = ticker.lastPrice
-            execution.volume = ticker.dayVolume - lastTicker.dayVolume
-            execution.amount = ticker.dayAmount - lastTicker.dayAmount
-          } else {
-            log.fine("dayVolome curr: " + ticker.dayVolume + ", last: " + lastTicker.dayVolume)
-          }
+          execution = new Execution
+          execution.sec = sec
+          execution.time = ticker.time
+          execution.price  = ticker.lastPrice
+          execution.volume = ticker.dayVolume
+          execution.amount = ticker.dayAmount
+          
+          // re-init lastTime
+          lastTime = ticker.time
+        } else {
+                  
+          /**
+           *    ticker.time    prevTicker.time
+           *          |------------------|------------------->
+           *          |<----- 1000 ----->|
+           */
+          if (ticker.time + 1000 > lastTicker.time) { // 1000ms, @Note: we may add +1 to ticker.time later
+            // some datasources only count on second, but we may truly have a new ticker
+            if (ticker.time <= lastTicker.time) {
+              ticker.time = lastTicker.time + 1 // avoid duplicate key
+            }
 
-          if (minQuote.justOpen_?) {
-            minQuote.unjustOpen_!
-            
-            // init minQuote values:
-            minQuote.open = ticker.lastPrice
-            minQuote.high = ticker.lastPrice
-            minQuote.low  = ticker.lastPrice
-            minQuote.volume = 0
-            minQuote.amount = 0
-            minQuote.execCount = 0
-          }
+            tickerValid = true
 
-          minQuote.execCount += 1
+            if (ticker.dayVolume > lastTicker.dayVolume) {
+              execution = new Execution
+              execution.sec = sec
+              execution.time = ticker.time
+              execution.price = ticker.lastPrice
+              execution.volume = ticker.dayVolume - lastTicker.dayVolume
+              execution.amount = ticker.dayAmount - lastTicker.dayAmount
+            } else {
+              log.fine("dayVolome curr: " + ticker.dayVolume + ", last: " + lastTicker.dayVolume)
+            }
 
-          if (lastTicker.dayHigh > 0 && ticker.dayHigh > 0) {
-            if (ticker.dayHigh > lastTicker.dayHigh) {
-              // this is a new day high happened during prevTicker to this ticker
-              minQuote.high = ticker.dayHigh
+            if (minQuote.justOpen_?) {
+              minQuote.unjustOpen_!
+              
+              // init minQuote values:
+              minQuote.open = ticker.lastPrice
+              minQuote.high = ticker.lastPrice
+              minQuote.low  = ticker.lastPrice
+              minQuote.volume = 0
+              minQuote.amount = 0
+              minQuote.execCount = 0
             }
-          }
-          if (ticker.lastPrice > 0) {
-            minQuote.high = math.max(minQuote.high, ticker.lastPrice)
-          }
 
-          if (lastTicker.dayLow > 0 && ticker.dayLow > 0) {
-            if (ticker.dayLow < lastTicker.dayLow) {
-              // this is a new day low happened during prevTicker to this ticker
-              minQuote.low = ticker.dayLow
+            minQuote.execCount += 1
+
+            if (lastTicker.dayHigh > 0 && ticker.dayHigh > 0) {
+              if (ticker.dayHigh > lastTicker.dayHigh) {
+                // this is a new day high happened during prevTicker to this ticker
+                minQuote.high = ticker.dayHigh
+              }
+            }
+            if (ticker.lastPrice > 0) {
+              minQuote.high = math.max(minQuote.high, ticker.lastPrice)
             }
-          }
-          if (ticker.lastPrice > 0) {
-            minQuote.low = math.min(minQuote.low, ticker.lastPrice)
-          }
-          
-          minQuote.close = ticker.lastPrice
-          if (execution != null && execution.volume > 0) {
-            minQuote.volume += execution.volume
-            minQuote.amount += execution.amount
-          }
-          else if (minMoneyFlow.isDataOnlyInited){
-            allUpdatedMinuteMoneyFlows += minMoneyFlow
-            minMoneyFlow.lastModify = ticker.time
-              
-            allUpdatedDailyMoneyFlows += dayMoneyFlow
-            dayMoneyFlow.lastModify = ticker.time
-          }
 
-        } else {
-          log.warning("Discard ticker: " + ticker.uniSymbol + " -> time=" + ticker.time + ", but lastTicker.time=" + lastTicker.time)
+            if (lastTicker.dayLow > 0 && ticker.dayLow > 0) {
+              if (ticker.dayLow < lastTicker.dayLow) {
+                // this is a new day low happened during prevTicker to this ticker
+                minQuote.low = ticker.dayLow
+              }
+            }
+            if (ticker.lastPrice > 0) {
+              minQuote.low = math.min(minQuote.low, ticker.lastPrice)
+            }
+            
+            minQuote.close = ticker.lastPrice
+            if (execution != null && execution.volume > 0) {
+              minQuote.volume += execution.volume
+              minQuote.amount += execution.amount
+            }
+            else if (minMoneyFlow.isDataOnlyInited){
+              allUpdatedMinuteMoneyFlows += minMoneyFlow
+              minMoneyFlow.lastModify = ticker.time
+                
+              allUpdatedDailyMoneyFlows += dayMoneyFlow
+              dayMoneyFlow.lastModify = ticker.time
+            }
+
+          } else {
+            log.warning("Discard ticker: " + ticker.uniSymbol + " -> time=" + ticker.time + ", but lastTicker.time=" + lastTicker.time)
+          }
         }
-      }
 
 
-      if (tickerValid) {
-        sec.publish(api.TickerEvt(ticker))
-        allTickers += ticker
+        if (tickerValid) {
+          sec.publish(api.TickerEvt(ticker))
+          allTickers += ticker
 
-        if (execution != null) {
-          val prevPrice = if (isDayFirst) ticker.prevClose else lastTicker.lastPrice
-          val prevDepth = if (isDayFirst) MarketDepth.Empty else MarketDepth(lastTicker.bidAsks, copy = true)
-          execution.setDirection(prevPrice, prevDepth)
+          if (execution != null) {
+            val prevPrice = if (isDayFirst) ticker.prevClose else lastTicker.lastPrice
+            val prevDepth = if (isDayFirst) MarketDepth.Empty else MarketDepth(lastTicker.bidAsks, copy = true)
+            execution.setDirection(prevPrice, prevDepth)
 
-          sec.publish(api.ExecutionEvt(ticker.prevClose, execution))
-          allExecutions += execution
-        }
+            if (execution.volume > 0) {
+              secSnap.priceCollection.add(execution)
+              sec.updatePriceDistributionSer(TFreq.DAILY, secSnap.priceCollection)
+            }
 
-        // update daily quote and ser
-        dayQuote.updateDailyQuoteByTicker(ticker)
-//        minQuote.lastModify = ticker.time
+            sec.publish(api.ExecutionEvt(ticker.prevClose, execution))
+            allExecutions += execution
+          }
 
-        // updated quote ser
-        sec.updateQuoteSer(TFreq.DAILY, dayQuote)
-        sec.updateQuoteSer(TFreq.ONE_MIN, minQuote)
-        
-        allUpdatedDailyQuotes += dayQuote
-        allUpdatedMinuteQuotes += minQuote
-        
-        exchangeToLastTime.put(sec.exchange, ticker.time)
+          // update daily quote and ser
+          dayQuote.updateDailyQuoteByTicker(ticker)
+  //        minQuote.lastModify = ticker.time
 
-        lastTicker.copyFrom(ticker)
-        lastTime = math.max(lastTime, ticker.time)
+          // updated quote ser
+          sec.updateQuoteSer(TFreq.DAILY, dayQuote)
+          sec.updateQuoteSer(TFreq.ONE_MIN, minQuote)
+          
+          allUpdatedDailyQuotes += dayQuote
+          allUpdatedMinuteQuotes += minQuote
+          
+          exchangeToLastTime.put(sec.exchange, ticker.time)
+
+          lastTicker.copyFrom(ticker)
+          lastTime = math.max(lastTime, ticker.time)
+        }
       }
     }
+    log.fine("TSerEvent.Updated raised: " + (TSerEventCoalescer.raisedCount - nRaised) + ", delivered: " + (TSerEventCoalescer.deliveredCount - nDelivered))
     
     /* else {
 
@@ -363,7 +386,32 @@ abstract class TickerServer extends DataServer[Ticker] {
     }
 
     // batch save to db
+    
+    if (WriteBehind.isEnabled) {
+      TickerServer.tickersLastWriter += TickerServer.copiesOf(tickersLast)
+      if (TickerServer.isServer && TickerServer.isSaveTickers) {
+        TickerServer.tickersWriter += allTickers.toArray
+        TickerServer.executionsWriter += allExecutions.toArray
+      }
+      log.info("Queued to write-behind: " + WriteBehind.metrics)
+    } else {
+      saveToDb(tickersLast)
+    }
+
+    // Update exchange status and try to close and save updated quotes, moneyflows etc
+    for ((exchange, lastTime) <- exchangeToLastTime) {
+      val status = exchange.statusOf(lastTime)
+      exchange.status = status
+      log.info("Trading status of " + exchange.code + ": " + status.toString(exchange))
+      
+      val alsoSave = TickerServer.isServer
+      exchange.tryClosing(status, alsoSave)
+    }
 
+    lastTime
+  }
+  
+  private def saveToDb(tickersLast: Seq[Ticker]) {
     val (tickersLastToInsert, tickersLastToUpdate) = tickersLast.partition(_.isTransient)
     log.info("Going to save to db ...")
     try {
@@ -404,18 +452,6 @@ abstract class TickerServer extends DataServer[Ticker] {
     } catch {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
     }
-
-    // Update exchange status and try to close and save updated quotes, moneyflows etc
-    for ((exchange, lastTime) <- exchangeToLastTime) {
-      val status = exchange.statusOf(lastTime)
-      exchange.status = status
-      log.info("Trading status of " + exchange.code + ": " + status.toString(exchange))
-      
-      val alsoSave = TickerServer.isServer
-      exchange.tryClosing(status, alsoSave)
-    }
-
-    lastTime
   }
   
   def toSrcSymbol(uniSymbol: String): String = uniSymbol
@@ -457,5 +493,53 @@ object TickerServer {
   def publish(e: Any) {
     nextPublisher.publish(e)
   }
+  
+  // --- write-behind groups, @see WriteBehind
+  
+  /**
+   * Last tickers keep being updated by Exchange.gotLastTicker while waiting to
+   * be written, so they are queued as copies, only the latest one of a sec is
+   * written. A copy is written to the persisted row of its sec, which is kept 
+   * by the writer thread only, and is forgotten when a write is rolled back.
+   */
+  private[dataserver] lazy val tickersLastWriter = WriteBehind.group[Ticker]("TickersLast", keyOf = (x: Ticker) => x.sec, 
+                                                                            rolledBack = () => persistedLastTickers = null) {xs =>
+    if (persistedLastTickers == null) {
+      persistedLastTickers = TickersLast.allLastTickers
+    }
+    
+    val toInsert = new ArrayList[Ticker]
+    val toUpdate = new ArrayList[Ticker]
+    var i = -1
+    while ({i += 1; i < xs.length}) {
+      val x = xs(i)
+      persistedLastTickers.get(x.sec) match {
+        case Some(row) =>
+          row.copyFrom(x)
+          toUpdate += row
+        case None =>
+          toInsert += x
+      }
+    }
+    if (toInsert.length > 0) TickersLast.insertBatch_!(toInsert.toArray)
+    if (toUpdate.length > 0) TickersLast.updateBatch_!(toUpdate.toArray)
+    toInsert foreach {x => persistedLastTickers.put(x.sec, x)}
+  }
+  /** accessed by write-behind thread only */
+  private var persistedLastTickers: mutable.Map[Sec, Ticker] = _
+  
+  private[dataserver] def copiesOf(tickers: ArrayList[Ticker]): Array[Ticker] = {
+    val copies = new Array[Ticker](tickers.length)
+    var i = -1
+    while ({i += 1; i < copies.length}) {
+      val ticker = tickers(i)
+      val copy = new Ticker(ticker.depth)
+      copy.copyFrom(ticker)
+      copies(i) = copy
+    }
+    copies
+  }
+  private[dataserver] lazy val tickersWriter = WriteBehind.group[Ticker]("Tickers") {xs => Tickers.insertBatch_!(xs)}
+  private[dataserver] lazy val executionsWriter = WriteBehind.group[Execution]("Executions") {xs => Executions.insertBatch_!(xs)}
 }
 
@@ -0,0 +1,363 @@
+/*
+ * Copyright (c) 2006-2007, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *  o Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer. 
+ *    
+ *  o Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution. 
+ *    
+ *  o Neither the name of AIOTrade Computing Co. nor the names of 
+ *    its contributors may be used to endorse or promote products derived 
+ *    from this software without specific prior written permission. 
+ *    
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, 
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR 
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR 
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, 
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, 
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; 
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, 
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR 
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, 
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.dataserver
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.collection.ArrayList
+import ru.circumflex.orm._
+import scala.reflect.ClassTag
+
+/**
+ * Asynchronous write-behind stage of db persistence, so a slow db won't delay
+ * the data servers' processing.
+ * 
+ * - Rows are appended to Groups (one group per table and operation), and are 
+ *   grouped across appendings, then written by a single writer thread when
+ *   pending rows >= FLUSH_ROWS or the oldest pending rows waited FLUSH_INTERVAL ms, 
+ *   all dirty groups are written in the order they got their first pending rows,
+ *   then committed once. If a write or the commit fails, the transaction is
+ *   rolled back and the rows are put back to their groups, and retried after
+ *   FLUSH_INTERVAL, up to MAX_RETRIES times, then they are dropped and logged.
+ * - Tasks (see execute) are run by the writer thread after pending rows are
+ *   flushed, they should commit by themselves.
+ * - Everything is done by one thread in the order it was submitted, so the
+ *   ordering per security is kept.
+ * - The queue is bounded by QUEUE_SIZE, the submitter will be blocked when it's
+ *   full (backpressure), nothing is dropped.
+ * - Pending rows are flushed by a shutdown hook, which waits at most 
+ *   SHUTDOWN_TIMEOUT ms.
+ * 
+ * Enabled by -Daiotrade.persistence.writeBehind=true, otherwise the callers
+ * save synchronously as before. 
+ * -Daiotrade.persistence.queueSize, default 64 (submittings, not rows)
+ * -Daiotrade.persistence.flushRows, default 5000
+ * -Daiotrade.persistence.flushInterval, in ms, default 1000
+ * -Daiotrade.persistence.maxRetries, default 3
+ * -Daiotrade.persistence.shutdownTimeout, in ms, default 30000
+ *
+ * @author Caoyuan Deng
+ */
+object WriteBehind {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  val isEnabled = System.getProperty("aiotrade.persistence.writeBehind", "false").toBoolean
+  val QUEUE_SIZE = Integer.getInteger("aiotrade.persistence.queueSize", 64).intValue
+  val FLUSH_ROWS = Integer.getInteger("aiotrade.persistence.flushRows", 5000).intValue
+  val FLUSH_INTERVAL = java.lang.Long.getLong("aiotrade.persistence.flushInterval", 1000L).longValue
+  val MAX_RETRIES = Integer.getInteger("aiotrade.persistence.maxRetries", 3).intValue
+  val SHUTDOWN_TIMEOUT = java.lang.Long.getLong("aiotrade.persistence.shutdownTimeout", 30000L).longValue
+
+  private sealed trait Task
+  private final case class Append[T](group: Group[T], rows: Array[T]) extends Task {
+    def addToGroup: Int = group.add(rows)
+  }
+  private final case class Execute(name: String, body: () => Unit) extends Task
+
+  private val queue = new ArrayBlockingQueue[Task](QUEUE_SIZE)
+
+  /** dirty groups, in the order of getting their first pending rows, accessed by writer thread only */
+  private val dirtyGroups = new ArrayList[Group[_]]
+  private var pendingRows = 0
+  private var pendingSince = 0L
+  /** count of continuous failed flushes */
+  private var failedFlushes = 0
+
+  // --- metrics
+  private val _submitted = new AtomicLong
+  private val _blocked = new AtomicLong
+  private val _blockedNanos = new AtomicLong
+  private val _flushedRows = new AtomicLong
+  private val _flushes = new AtomicLong
+  private val _flushNanos = new AtomicLong
+  private val _maxFlushNanos = new AtomicLong
+  private val _failures = new AtomicLong
+
+  final class Metrics private[WriteBehind] (
+    val queueDepth: Int, val submitted: Long, val blocked: Long, val blockedMillis: Long,
+    val flushes: Long, val flushedRows: Long, val avgFlushMillis: Double, val maxFlushMillis: Double, val failures: Long
+  ) {
+    override 
+    def toString = "WriteBehind(queueDepth=" + queueDepth + ", submitted=" + submitted + ", blocked=" + blocked + " in " + blockedMillis + 
+    "ms, flushes=" + flushes + ", flushedRows=" + flushedRows + ", flushLatency avg=" + "%.1f".format(avgFlushMillis) + 
+    "ms max=" + "%.1f".format(maxFlushMillis) + "ms, failures=" + failures + ")"
+  }
+
+  def metrics: Metrics = {
+    val flushes = _flushes.get
+    new Metrics(queue.size, _submitted.get, _blocked.get, _blockedNanos.get / 1000000,
+                flushes, _flushedRows.get, if (flushes == 0) 0.0 else _flushNanos.get / 1000000.0 / flushes, _maxFlushNanos.get / 1000000.0, _failures.get)
+  }
+
+  def queueDepth = queue.size
+
+  /**
+   * Rows of a table/operation that will be written together by write.
+   * @param keyOf if not null, a row appended before flushing replaces the 
+   *        pending one of the same key, i.e. only the latest one is written
+   * @param rolledBack if not null, called after a write of this group is rolled
+   *        back, for example to forget state that was kept by write
+   */
+  final class Group[T: ClassTag] private[WriteBehind] (val name: String, keyOf: T => Any, rolledBack: () => Unit, writeRows: Array[T] => Unit) {
+    private var rows = new ArrayList[T]
+    private var keyToIdx = if (keyOf != null) new java.util.HashMap[Any, Integer] else null
+    /** rows being written by current flush */
+    private var writing: Array[T] = null
+
+    def +=(xs: Array[T]) {
+      if (xs.length > 0) submit(Append(this, xs))
+    }
+
+    private[WriteBehind] def isEmpty = rows.isEmpty
+
+    /**
+     * @return count of new pending rows
+     */
+    private[WriteBehind] def add(xs: Array[T]): Int = {
+      var n = 0
+      var i = -1
+      while ({i += 1; i < xs.length}) {
+        val x = xs(i)
+        if (keyOf == null) {
+          rows += x
+          n += 1
+        } else {
+          val key = keyOf(x)
+          keyToIdx.get(key) match {
+            case null =>
+              keyToIdx.put(key, rows.length)
+              rows += x
+              n += 1
+            case idx => rows(idx.intValue) = x
+          }
+        }
+      }
+      n
+    }
+    
+    /**
+     * Swap out pending rows and write them, they are kept until commit or rollback
+     */
+    private[WriteBehind] def write: Int = {
+      writing = rows.toArray
+      rows = new ArrayList[T]
+      if (keyOf != null) keyToIdx = new java.util.HashMap[Any, Integer]
+      writeRows(writing)
+      writing.length
+    }
+    
+    private[WriteBehind] def commit {
+      writing = null
+    }
+    
+    /**
+     * Put back the rows of a failed write, before the rows that are added since
+     */
+    private[WriteBehind] def rollback {
+      if (writing != null) {
+        val newer = rows.toArray
+        rows = new ArrayList[T]
+        if (keyOf != null) keyToIdx = new java.util.HashMap[Any, Integer]
+        add(writing)
+        add(newer)
+        writing = null
+        if (rolledBack != null) rolledBack()
+      }
+    }
+  }
+
+  def group[T: ClassTag](name: String, keyOf: T => Any = null, rolledBack: () => Unit = null)(write: Array[T] => Unit): Group[T] = {
+    new Group[T](name, keyOf, rolledBack, write)
+  }
+
+  /**
+   * Run body by writer thread, after all rows submitted before it have been flushed
+   */
+  def execute(name: String)(body: => Unit) {
+    submit(Execute(name, () => body))
+  }
+
+  /**
+   * Block until everything submitted before has been written
+   */
+  def sync {
+    val latch = new CountDownLatch(1)
+    execute("sync") {latch.countDown}
+    latch.await
+  }
+  
+  /**
+   * Flush everything submitted before, wait at most timeout ms, don't block
+   * on a full queue for longer than that either.
+   * @return true if all pending rows were written in time
+   */
+  def flushAll(timeout: Long): Boolean = {
+    val deadline = System.currentTimeMillis + timeout
+    val latch = new CountDownLatch(1)
+    val flushed = new AtomicBoolean
+    val task = Execute("flushAll", () => {flushed.set(pendingRows == 0); latch.countDown})
+    _submitted.incrementAndGet
+    queue.offer(task, timeout, TimeUnit.MILLISECONDS) && 
+    latch.await(math.max(deadline - System.currentTimeMillis, 0), TimeUnit.MILLISECONDS) &&
+    flushed.get
+  }
+
+  private def submit(task: Task) {
+    _submitted.incrementAndGet
+    if (!queue.offer(task)) {
+      // queue is full, backpressure
+      _blocked.incrementAndGet
+      val t0 = System.nanoTime
+      log.warning("Write-behind queue is full (" + QUEUE_SIZE + "), waiting for db: " + metrics)
+      queue.put(task)
+      _blockedNanos.addAndGet(System.nanoTime - t0)
+    }
+  }
+
+  private lazy val writer = {
+    val t = new Thread(new Runnable {
+        def run = loop
+      }, "WriteBehind")
+    t.setDaemon(true)
+    t.start
+    t
+  }
+  if (isEnabled) {
+    writer
+    Runtime.getRuntime.addShutdownHook(new Thread("WriteBehind-shutdown") {
+        override def run {
+          if (flushAll(SHUTDOWN_TIMEOUT)) {
+            log.info("Write-behind flushed on shutdown: " + metrics)
+          } else {
+            log.severe("Write-behind could not flush in " + SHUTDOWN_TIMEOUT + "ms on shutdown, pending rows are lost: " + metrics)
+          }
+        }
+      })
+  }
+
+  private def loop {
+    while (true) {
+      try {
+        val task = if (pendingRows == 0) {
+          queue.take
+        } else {
+          val wait = pendingSince + FLUSH_INTERVAL - System.currentTimeMillis
+          if (wait > 0) queue.poll(wait, TimeUnit.MILLISECONDS) else null
+        }
+
+        task match {
+          case null => flushAll
+          case x: Append[_] =>
+            if (x.group.isEmpty) dirtyGroups += x.group
+            if (pendingRows == 0) pendingSince = System.currentTimeMillis
+            pendingRows += x.addToGroup
+            // when db is failing, retry by FLUSH_INTERVAL only
+            if (pendingRows >= FLUSH_ROWS && failedFlushes == 0) flushAll
+          case Execute(name, body) =>
+            flushAll
+            try {
+              body()
+            } catch {
+              case ex: Throwable => _failures.incrementAndGet; log.log(Level.SEVERE, "Write-behind task " + name + " failed: " + ex.getMessage, ex)
+            }
+        }
+      } catch {
+        case ex: InterruptedException => return
+        case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+      }
+    }
+  }
+
+  private def flushAll {
+    if (dirtyGroups.isEmpty) return
+
+    val t0 = System.nanoTime
+    var rows = 0
+    var failed = false
+    var i = -1
+    while ({i += 1; i < dirtyGroups.length && !failed}) {
+      val group = dirtyGroups(i)
+      try {
+        rows += group.write
+      } catch {
+        case ex: Throwable => failed = true; log.log(Level.SEVERE, "Write-behind flush of " + group.name + " failed: " + ex.getMessage, ex)
+      }
+    }
+    if (!failed) {
+      try {
+        COMMIT
+      } catch {
+        case ex: Throwable => failed = true; log.log(Level.SEVERE, "Write-behind commit failed: " + ex.getMessage, ex)
+      }
+    }
+    
+    if (failed) {
+      _failures.incrementAndGet
+      try {
+        ROLLBACK
+      } catch {
+        case ex: Throwable => log.log(Level.SEVERE, "Write-behind rollback failed: " + ex.getMessage, ex)
+      }
+      
+      failedFlushes += 1
+      if (failedFlushes <= MAX_RETRIES) {
+        dirtyGroups foreach (_.rollback)
+        pendingSince = System.currentTimeMillis
+        log.warning("Write-behind will retry (" + failedFlushes + "/" + MAX_RETRIES + ") " + pendingRows + " rows in " + FLUSH_INTERVAL + "ms")
+        return
+      } else {
+        dirtyGroups foreach (_.commit)
+        log.severe("Write-behind dropped " + pendingRows + " rows after " + MAX_RETRIES + " retries")
+        rows = 0
+      }
+    } else {
+      dirtyGroups foreach (_.commit)
+    }
+    failedFlushes = 0
+    dirtyGroups.clear
+    pendingRows = 0
+    
+    val elapsed = System.nanoTime - t0
+    _flushes.incrementAndGet
+    _flushedRows.addAndGet(rows)
+    _flushNanos.addAndGet(elapsed)
+    var max = _maxFlushNanos.get
+    while (elapsed > max && !_maxFlushNanos.compareAndSet(max, elapsed)) {
+      max = _maxFlushNanos.get
+    }
+    log.info("Write-behind flushed " + rows + " rows in " + elapsed / 1000000 + "ms, queueDepth=" + queue.size)
+  }
+}
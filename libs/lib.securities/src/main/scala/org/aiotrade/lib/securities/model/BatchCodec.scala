@@ -0,0 +1,606 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import org.aiotrade.lib.avro.ColumnarCodec
+import org.aiotrade.lib.securities.QuoteSer
+import MarketDepthCodec.Input
+import MarketDepthCodec.Output
+import MarketDepthCodec.unzigzag
+import MarketDepthCodec.zigzag
+
+/**
+ * Column oriented wire encoding of TickersEvt/QuotesEvt batches, which are 
+ * snapshots of thousands of secs that share most of their bytes column by column.
+ * 
+ * Rows are sorted by uniSymbol (rows of the same symbol keep their order), then:
+ *   symbols: a dictionary of distinct symbols, front coded against the previous
+ *            one, and per row dictionary index deltas only if some symbol repeats
+ *   times:   zigzag varint deltas to the previous row
+ *   prices:  a group of columns sharing one scale, the min one that all prices
+ *            are exact in ticks of 10^-scale, each price is a zigzag varint delta 
+ *            in ticks to a reference: previous row, 0, or a price of the same 
+ *            row (e.g. lastPrice to prevClose), or 8 bytes doubles if no scale fits
+ *   others:  volumes, amounts etc. each with its own scale, zigzag varint ticks
+ * 
+ * @see TickersCodec, QuotesCodec
+ * @author Caoyuan Deng
+ */
+object BatchCodec {
+  val VERSION_1: Byte = 1
+  
+  /** references of a price column */
+  val PREV_ROW = -1
+  val ZERO = -2
+
+  private val RAW = -1
+  private val MAX_SCALE = 6
+  private val POW10 = Array.tabulate(MAX_SCALE + 1){i => math.pow(10, i)}
+  /** values beyond it can not be kept exactly by a double */
+  private val MAX_EXACT = 1L << 53
+  
+  private val UTF8 = java.nio.charset.Charset.forName("UTF-8")
+  private val EMPTY_BYTES = Array[Byte]()
+
+  /** @return row indices sorted by symbol, stable */
+  def sortedOrder(symbols: Array[String]): Array[Int] = {
+    Array.range(0, symbols.length) sortBy {i => if (symbols(i) eq null) "" else symbols(i)}
+  }
+
+  def putString(out: Output, s: String) {
+    out.putBytes(if (s eq null) EMPTY_BYTES else s.getBytes(UTF8))
+  }
+  
+  def getString(in: Input): String = new String(in.getBytes, UTF8)
+
+  /**
+   * @param symbols sorted
+   * @param names   name of each row, or null if not to be encoded
+   */
+  def putSymbols(out: Output, symbols: Array[String], names: Array[String]) {
+    val n = symbols.length
+    val dictIdxes = new Array[Int](n)
+    var nDistinct = 0
+    var i = -1
+    while ({i += 1; i < n}) {
+      if (i == 0 || symbols(i) != symbols(i - 1)) nDistinct += 1
+      dictIdxes(i) = nDistinct - 1
+    }
+    
+    out.putVarint(nDistinct)
+    var prev = EMPTY_BYTES
+    i = -1
+    while ({i += 1; i < n}) {
+      if (i == 0 || dictIdxes(i) != dictIdxes(i - 1)) {
+        val bytes = if (symbols(i) eq null) EMPTY_BYTES else symbols(i).getBytes(UTF8)
+        var common = 0
+        while (common < bytes.length && common < prev.length && bytes(common) == prev(common)) common += 1
+        out.putVarint(common)
+        val suffix = new Array[Byte](bytes.length - common)
+        System.arraycopy(bytes, common, suffix, 0, suffix.length)
+        out.putBytes(suffix)
+        if (names ne null) putString(out, names(i))
+        prev = bytes
+      }
+    }
+    
+    if (nDistinct != n) {
+      i = -1
+      while ({i += 1; i < n}) {
+        out.putVarint(if (i == 0) 0 else dictIdxes(i) - dictIdxes(i - 1))
+      }
+    }
+  }
+
+  /**
+   * @return (symbol of each row, name of each row or null if !withNames)
+   */
+  def getSymbols(in: Input, n: Int, withNames: Boolean): (Array[String], Array[String]) = {
+    val nDistinct = in.getVarint.toInt
+    val dictSymbols = new Array[String](nDistinct)
+    val dictNames = if (withNames) new Array[String](nDistinct) else null
+    var prev = EMPTY_BYTES
+    var i = -1
+    while ({i += 1; i < nDistinct}) {
+      val common = in.getVarint.toInt
+      val suffix = in.getBytes
+      val bytes = new Array[Byte](common + suffix.length)
+      System.arraycopy(prev, 0, bytes, 0, common)
+      System.arraycopy(suffix, 0, bytes, common, suffix.length)
+      dictSymbols(i) = new String(bytes, UTF8)
+      if (withNames) dictNames(i) = getString(in)
+      prev = bytes
+    }
+
+    if (nDistinct == n) {
+      (dictSymbols, dictNames)
+    } else {
+      val symbols = new Array[String](n)
+      val names = if (withNames) new Array[String](n) else null
+      var idx = 0
+      i = -1
+      while ({i += 1; i < n}) {
+        idx += in.getVarint.toInt
+        symbols(i) = dictSymbols(idx)
+        if (withNames) names(i) = dictNames(idx)
+      }
+      (symbols, names)
+    }
+  }
+  
+  def putLongs(out: Output, xs: Array[Long], deltaToPrev: Boolean) {
+    var prev = 0L
+    var i = -1
+    while ({i += 1; i < xs.length}) {
+      out.putVarint(zigzag(xs(i) - prev))
+      if (deltaToPrev) prev = xs(i)
+    }
+  }
+
+  def getLongs(in: Input, n: Int, deltaToPrev: Boolean): Array[Long] = {
+    val xs = new Array[Long](n)
+    var prev = 0L
+    var i = -1
+    while ({i += 1; i < n}) {
+      xs(i) = prev + unzigzag(in.getVarint)
+      if (deltaToPrev) prev = xs(i)
+    }
+    xs
+  }
+
+  /**
+   * An independent column with its own scale
+   */
+  def putColumn(out: Output, xs: Array[Double], deltaToPrev: Boolean) {
+    putPrices(out, Array(xs), Array(if (deltaToPrev) PREV_ROW else ZERO), null, null, 0)
+  }
+
+  def getColumn(in: Input, n: Int, deltaToPrev: Boolean): Array[Double] = {
+    getPrices(in, n, Array(if (deltaToPrev) PREV_ROW else ZERO), null, 0)._1(0)
+  }
+  
+  /**
+   * @param cols     price columns of same length
+   * @param refs     reference of each column: PREV_ROW, ZERO or index of an earlier column
+   * @param flat     optional extra prices, e.g. market depth prices, whose
+   *                 reference is column flatRefCol of row flatRows(i)
+   */
+  def putPrices(out: Output, cols: Array[Array[Double]], refs: Array[Int], 
+                flat: Array[Double], flatRows: Array[Int], flatRefCol: Int
+  ) {
+    var scale = 0
+    while (scale <= MAX_SCALE && !(isExactAt(cols, flat, POW10(scale)))) scale += 1
+    if (scale > MAX_SCALE) scale = RAW
+    out.put(scale.toByte)
+
+    if (scale != RAW) {
+      val factor = POW10(scale)
+      val ticks = cols map {col => col map {v => math.round(v * factor)}}
+      var c = -1
+      while ({c += 1; c < cols.length}) {
+        val col = ticks(c)
+        var i = -1
+        while ({i += 1; i < col.length}) {
+          val ref = refs(c) match {
+            case PREV_ROW => if (i == 0) 0L else col(i - 1)
+            case ZERO => 0L
+            case r => ticks(r)(i)
+          }
+          out.putVarint(zigzag(col(i) - ref))
+        }
+      }
+      if (flat ne null) {
+        var i = -1
+        while ({i += 1; i < flat.length}) {
+          out.putVarint(zigzag(math.round(flat(i) * factor) - ticks(flatRefCol)(flatRows(i))))
+        }
+      }
+    } else {
+      var c = -1
+      while ({c += 1; c < cols.length}) {
+        val col = cols(c)
+        var i = -1
+        while ({i += 1; i < col.length}) {
+          out.putLong(java.lang.Double.doubleToLongBits(col(i)))
+        }
+      }
+      if (flat ne null) {
+        var i = -1
+        while ({i += 1; i < flat.length}) {
+          out.putLong(java.lang.Double.doubleToLongBits(flat(i)))
+        }
+      }
+    }
+  }
+
+  /**
+   * @return (columns, flat prices)
+   */
+  def getPrices(in: Input, n: Int, refs: Array[Int], flatRows: Array[Int], flatRefCol: Int): (Array[Array[Double]], Array[Double]) = {
+    val nCols = refs.length
+    val cols = Array.ofDim[Double](nCols, n)
+    val flat = if (flatRows ne null) new Array[Double](flatRows.length) else null
+
+    val scale = in.get.toInt
+    if (scale != RAW) {
+      val factor = POW10(scale)
+      val ticks = Array.ofDim[Long](nCols, n)
+      var c = -1
+      while ({c += 1; c < nCols}) {
+        val col = ticks(c)
+        var i = -1
+        while ({i += 1; i < n}) {
+          val ref = refs(c) match {
+            case PREV_ROW => if (i == 0) 0L else col(i - 1)
+            case ZERO => 0L
+            case r => ticks(r)(i)
+          }
+          col(i) = ref + unzigzag(in.getVarint)
+          cols(c)(i) = col(i) / factor
+        }
+      }
+      if (flat ne null) {
+        var i = -1
+        while ({i += 1; i < flat.length}) {
+          flat(i) = (ticks(flatRefCol)(flatRows(i)) + unzigzag(in.getVarint)) / factor
+        }
+      }
+    } else {
+      var c = -1
+      while ({c += 1; c < nCols}) {
+        var i = -1
+        while ({i += 1; i < n}) {
+          cols(c)(i) = java.lang.Double.longBitsToDouble(in.getLong)
+        }
+      }
+      if (flat ne null) {
+        var i = -1
+        while ({i += 1; i < flat.length}) {
+          flat(i) = java.lang.Double.longBitsToDouble(in.getLong)
+        }
+      }
+    }
+    
+    (cols, flat)
+  }
+  
+  private def isExactAt(cols: Array[Array[Double]], flat: Array[Double], factor: Double): Boolean = {
+    var c = -1
+    while ({c += 1; c < cols.length}) {
+      if (!isExactAt(cols(c), factor)) return false
+    }
+    (flat eq null) || isExactAt(flat, factor)
+  }
+
+  private def isExactAt(xs: Array[Double], factor: Double): Boolean = {
+    var i = -1
+    while ({i += 1; i < xs.length}) {
+      val x = xs(i)
+      val ticks = math.round(x * factor)
+      if (math.abs(ticks) >= MAX_EXACT || ticks / factor != x) return false
+    }
+    true
+  }
+}
+
+/**
+ * @see BatchCodec
+ */
+object TickersCodec extends ColumnarCodec[Array[Ticker]] {
+  import BatchCodec._
+
+  // price columns
+  private val PREV_CLOSE = 0
+  private val LAST_PRICE = 1
+  private val DAY_OPEN   = 2
+  private val DAY_HIGH   = 3
+  private val DAY_LOW    = 4
+  private val DAY_CHANGE = 5
+  private val PRICE_REFS = Array(PREV_ROW, PREV_CLOSE, PREV_CLOSE, LAST_PRICE, LAST_PRICE, ZERO)
+
+  private val TRANSIENT = 0x01
+  private val DAY_FIRST = 0x02
+
+  def encode(tickers: Array[Ticker]): Array[Byte] = {
+    val n = tickers.length
+    val order = sortedOrder(tickers map (_.uniSymbol))
+    val rows = order map {i => tickers(i)}
+
+    val out = new Output(64 + n * 32)
+    out.put(VERSION_1)
+    out.putVarint(n)
+    
+    putSymbols(out, rows map (_.uniSymbol), rows map (_.name))
+    putLongs(out, rows map (_.time), true)
+    
+    var i = -1
+    while ({i += 1; i < n}) {
+      val ticker = rows(i)
+      out.putVarint((if (ticker.isTransient) TRANSIENT else 0) | (if (ticker.isDayFirst) DAY_FIRST else 0))
+    }
+
+    // market depth, store depth once if all rows have the same
+    val depths = rows map (_.bidAsks.length / 4)
+    val isUniform = depths forall (_ == depths(0))
+    if (n > 0 && isUniform) {
+      out.putVarint(depths(0) + 1)
+    } else {
+      out.putVarint(0)
+      i = -1
+      while ({i += 1; i < n}) out.putVarint(depths(i))
+    }
+    val nLevels = depths.sum
+    val depthPrices = new Array[Double](nLevels * 2)
+    val depthSizes  = new Array[Double](nLevels * 2)
+    val depthRows   = new Array[Int](nLevels * 2)
+    var j = 0
+    i = -1
+    while ({i += 1; i < n}) {
+      val bidAsks = rows(i).bidAsks
+      var k = 0
+      while (k < depths(i) * 4) {
+        depthPrices(j) = bidAsks(k)
+        depthSizes(j) = bidAsks(k + 1)
+        depthRows(j) = i
+        j += 1
+        k += 2
+      }
+    }
+
+    val prices = Array(
+      rows map (_.prevClose),
+      rows map (_.lastPrice),
+      rows map (_.dayOpen),
+      rows map (_.dayHigh),
+      rows map (_.dayLow),
+      rows map (_.dayChange)
+    )
+    putPrices(out, prices, PRICE_REFS, depthPrices, depthRows, LAST_PRICE)
+    
+    putColumn(out, rows map (_.dayVolume), false)
+    putColumn(out, rows map (_.dayAmount), false)
+    putColumn(out, depthSizes, false)
+    
+    out.toArray
+  }
+
+  def decode(bytes: Array[Byte]): Array[Ticker] = {
+    val in = new Input(bytes)
+    in.get match {
+      case VERSION_1 =>
+        val n = in.getVarint.toInt
+        val (symbols, names) = getSymbols(in, n, true)
+        val times = getLongs(in, n, true)
+        val flags = new Array[Int](n)
+        var i = -1
+        while ({i += 1; i < n}) flags(i) = in.getVarint.toInt
+
+        val uniformDepth = in.getVarint.toInt - 1
+        val depths = new Array[Int](n)
+        i = -1
+        while ({i += 1; i < n}) depths(i) = if (uniformDepth >= 0) uniformDepth else in.getVarint.toInt
+        val nLevels = depths.sum
+        val depthRows = new Array[Int](nLevels * 2)
+        var j = 0
+        i = -1
+        while ({i += 1; i < n}) {
+          var k = 0
+          while (k < depths(i) * 2) {
+            depthRows(j) = i
+            j += 1
+            k += 1
+          }
+        }
+
+        val (prices, depthPrices) = getPrices(in, n, PRICE_REFS, depthRows, LAST_PRICE)
+        val dayVolumes = getColumn(in, n, false)
+        val dayAmounts = getColumn(in, n, false)
+        val depthSizes = getColumn(in, nLevels * 2, false)
+
+        val tickers = new Array[Ticker](n)
+        j = 0
+        i = -1
+        while ({i += 1; i < n}) {
+          val ticker = new Ticker(depths(i))
+          ticker.uniSymbol = symbols(i)
+          ticker.name = names(i)
+          ticker.time = times(i)
+          ticker.isTransient = (flags(i) & TRANSIENT) != 0
+          ticker.isDayFirst = (flags(i) & DAY_FIRST) != 0
+          ticker.prevClose = prices(PREV_CLOSE)(i)
+          ticker.lastPrice = prices(LAST_PRICE)(i)
+          ticker.dayOpen = prices(DAY_OPEN)(i)
+          ticker.dayHigh = prices(DAY_HIGH)(i)
+          ticker.dayLow = prices(DAY_LOW)(i)
+          ticker.dayChange = prices(DAY_CHANGE)(i)
+          ticker.dayVolume = dayVolumes(i)
+          ticker.dayAmount = dayAmounts(i)
+          val bidAsks = ticker.bidAsks
+          var k = 0
+          while (k < depths(i) * 4) {
+            bidAsks(k) = depthPrices(j)
+            bidAsks(k + 1) = depthSizes(j)
+            j += 1
+            k += 2
+          }
+          tickers(i) = ticker
+        }
+        tickers
+      case version => throw new IllegalArgumentException("Unknown tickers encoding version: " + version)
+    }
+  }
+}
+
+/**
+ * Encodes (freq, quotes) of QuotesEvt.
+ * 
+ * @see BatchCodec
+ */
+object QuotesCodec extends ColumnarCodec[(String, Array[Quote])] {
+  import BatchCodec._
+
+  // price columns
+  private val PREV_CLOSE = 0
+  private val OPEN       = 1
+  private val HIGH       = 2
+  private val LOW        = 3
+  private val CLOSE      = 4
+  private val PRICE_REFS = Array(PREV_ROW, PREV_CLOSE, PREV_CLOSE, PREV_CLOSE, PREV_CLOSE)
+
+  private val TRANSIENT = 0x01
+  private val HAS_GAPS  = 0x02
+  private val FLAG_SHIFT = 2
+
+  def encode(value: (String, Array[Quote])): Array[Byte] = {
+    val (freq, quotes) = value
+    val n = quotes.length
+    val order = sortedOrder(quotes map (_.uniSymbol))
+    val rows = order map {i => quotes(i)}
+
+    val out = new Output(64 + n * 24)
+    out.put(VERSION_1)
+    putString(out, freq)
+    out.putVarint(n)
+
+    putSymbols(out, rows map (_.uniSymbol), null)
+    val times = rows map (_.time)
+    putLongs(out, times, true)
+    putLongs(out, Array.tabulate(n){i => rows(i).lastModify - times(i)}, false)
+
+    var i = -1
+    while ({i += 1; i < n}) {
+      val quote = rows(i)
+      out.putVarint((quote.flag.toLong << FLAG_SHIFT) | (if (quote.hasGaps) HAS_GAPS else 0) | (if (quote.isTransient) TRANSIENT else 0))
+    }
+
+    val prices = Array(
+      rows map (_.prevClose),
+      rows map (_.open),
+      rows map (_.high),
+      rows map (_.low),
+      rows map (_.close)
+    )
+    putPrices(out, prices, PRICE_REFS, null, null, 0)
+
+    putColumn(out, rows map (_.vwap), false)
+    putColumn(out, rows map (_.volume), false)
+    putColumn(out, rows map (_.amount), false)
+    putColumn(out, rows map (_.execCount), false)
+    putColumn(out, rows map (_.turnoverRate), false)
+
+    out.toArray
+  }
+
+  def decode(bytes: Array[Byte]): (String, Array[Quote]) = {
+    val quotes = new collection.mutable.ArrayBuffer[Quote]()
+    val freq = decodeTo(bytes){quote =>
+      val one = new Quote
+      one.uniSymbol = quote.uniSymbol
+      one.time = quote.time
+      one.lastModify = quote.lastModify
+      one.flag = quote.flag
+      one.hasGaps = quote.hasGaps
+      one.isTransient = quote.isTransient
+      one.copyFrom(quote)
+      quotes += one
+    }
+    (freq, quotes.toArray)
+  }
+
+  /**
+   * Decode each row into the same reused quote, which is only valid during f
+   * @return freq
+   */
+  def decodeTo(bytes: Array[Byte])(f: Quote => Unit): String = {
+    val in = new Input(bytes)
+    in.get match {
+      case VERSION_1 =>
+        val freq = getString(in)
+        val n = in.getVarint.toInt
+        val (symbols, _) = getSymbols(in, n, false)
+        val times = getLongs(in, n, true)
+        val lastModifies = getLongs(in, n, false)
+        val flags = new Array[Long](n)
+        var i = -1
+        while ({i += 1; i < n}) flags(i) = in.getVarint
+
+        val (prices, _) = getPrices(in, n, PRICE_REFS, null, 0)
+        val vwaps = getColumn(in, n, false)
+        val volumes = getColumn(in, n, false)
+        val amounts = getColumn(in, n, false)
+        val execCounts = getColumn(in, n, false)
+        val turnoverRates = getColumn(in, n, false)
+
+        val quote = new Quote
+        i = -1
+        while ({i += 1; i < n}) {
+          quote.reset
+          quote.uniSymbol = symbols(i)
+          quote.time = times(i)
+          quote.lastModify = times(i) + lastModifies(i)
+          quote.flag = (flags(i) >>> FLAG_SHIFT).toInt
+          quote.hasGaps = (flags(i) & HAS_GAPS) != 0
+          quote.isTransient = (flags(i) & TRANSIENT) != 0
+          quote.prevClose = prices(PREV_CLOSE)(i)
+          quote.open = prices(OPEN)(i)
+          quote.high = prices(HIGH)(i)
+          quote.low = prices(LOW)(i)
+          quote.close = prices(CLOSE)(i)
+          quote.vwap = vwaps(i)
+          quote.volume = volumes(i)
+          quote.amount = amounts(i)
+          quote.execCount = execCounts(i)
+          quote.turnoverRate = turnoverRates(i)
+          f(quote)
+        }
+        freq
+      case version => throw new IllegalArgumentException("Unknown quotes encoding version: " + version)
+    }
+  }
+
+  /**
+   * Decode straight into quote sers without keeping a Quote per row.
+   * @param serOf (uniSymbol, freq) => ser to be updated, or null to skip the row
+   * @return freq
+   */
+  def decodeInto(bytes: Array[Byte])(serOf: (String, String) => QuoteSer): String = {
+    // freq is the first field after version, peek it so that serOf can be asked per row
+    val freq = {
+      val in = new Input(bytes)
+      in.get
+      getString(in)
+    }
+    decodeTo(bytes){quote =>
+      val ser = serOf(quote.uniSymbol, freq)
+      if (ser ne null) ser.updateFrom(quote)
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPOutputStream
+import org.aiotrade.lib.avro.Evt
+import org.aiotrade.lib.securities.api
+
+/**
+ * Round trip of TickersCodec/QuotesCodec, and their size/encode/decode time 
+ * against avro, both raw and gzipped (the default AMQP content encoding), on 
+ * snapshots of testSize secs.
+ * Not enabled by default, run it via main.
+ *
+ * @author Caoyuan Deng
+ */
+object BatchCodecTest {
+  private val COUNT = Integer.parseInt(System.getProperty("testSize", "3000"))
+  private val RUNS = Integer.parseInt(System.getProperty("testRuns", "20"))
+
+  def main(args: Array[String]) {
+    val random = new scala.util.Random(1)
+    val time = System.currentTimeMillis
+    
+    val tickers = Array.tabulate(COUNT){i =>
+      val ticker = new Ticker(5)
+      ticker.uniSymbol = "%06d.%s".format(i * 3 % 700000, if (i % 2 == 0) "SS" else "SZ")
+      ticker.time = time + random.nextInt(3000)
+      ticker.prevClose = 1 + random.nextInt(10000) / 100.0
+      ticker.lastPrice = ((ticker.prevClose * 100).round + random.nextInt(41) - 20) / 100.0
+      ticker.dayOpen = ((ticker.prevClose * 100).round + random.nextInt(21) - 10) / 100.0
+      ticker.dayHigh = math.max(ticker.dayOpen, ticker.lastPrice) + random.nextInt(10) / 100.0
+      ticker.dayLow = math.min(ticker.dayOpen, ticker.lastPrice) - random.nextInt(10) / 100.0
+      ticker.dayChange = ((ticker.lastPrice * 100).round - (ticker.prevClose * 100).round) / 100.0
+      ticker.dayVolume = random.nextInt(1000000) * 100
+      ticker.dayAmount = ticker.dayVolume * ticker.lastPrice
+      var j = 0
+      while (j < 5) {
+        ticker.setBidPrice(j, ((ticker.lastPrice * 100).round - j - 1) / 100.0)
+        ticker.setBidSize (j, random.nextInt(10000) * 100)
+        ticker.setAskPrice(j, ((ticker.lastPrice * 100).round + j + 1) / 100.0)
+        ticker.setAskSize (j, random.nextInt(10000) * 100)
+        j += 1
+      }
+      ticker
+    }
+    // an odd one that forces prices to go RAW mode
+    tickers(1).dayHigh = 1.0 / 3
+    
+    val quotes = tickers map {ticker =>
+      val quote = new Quote
+      quote.uniSymbol = ticker.uniSymbol
+      quote.time = time - time % (24 * 60 * 60 * 1000)
+      quote.lastModify = ticker.time
+      quote.unclosed_!
+      quote.updateDailyQuoteByTicker(ticker)
+      quote
+    }
+
+    val decodedTickers = TickersCodec.decode(TickersCodec.encode(tickers))
+    val tickersFailed = tickers.length - (decodedTickers count {x => 
+        tickers exists {y => y.uniSymbol == x.uniSymbol && y.time == x.time && !y.isValueChanged(x) && !x.isValueChanged(y)}
+      })
+    println("Round trip of " + COUNT + " tickers: " + (if (tickersFailed == 0) "passed" else tickersFailed + " FAILED"))
+    
+    val (freq, decodedQuotes) = QuotesCodec.decode(QuotesCodec.encode(("1d", quotes)))
+    val quotesFailed = quotes.length - (decodedQuotes count {x =>
+        quotes exists {y => y.uniSymbol == x.uniSymbol && y.time == x.time && y.lastModify == x.lastModify && 
+                       y.flag == x.flag && sameValues(y, x)}
+      })
+    println("Round trip of " + COUNT + " quotes (" + freq + "): " + (if (quotesFailed == 0) "passed" else quotesFailed + " FAILED"))
+
+    var run = 0
+    while (run < 3) {
+      compare("tickers", tickers, api.TickersEvt.tag)
+      compare("quotes", ("1d", quotes), api.QuotesEvt.tag)
+      run += 1
+    }
+  }
+
+  private def compare[T](name: String, value: T, tag: Int) {
+    var t0 = System.nanoTime
+    var avro: Array[Byte] = null
+    var i = 0
+    while (i < RUNS) {avro = Evt.toAvro(value, tag); i += 1}
+    val avroEncodeMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    t0 = System.nanoTime
+    var columnar: Array[Byte] = null
+    i = 0
+    while (i < RUNS) {columnar = Evt.toColumnar(value, tag); i += 1}
+    val columnarEncodeMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    t0 = System.nanoTime
+    i = 0
+    while (i < RUNS) {Evt.fromAvro(avro, tag); i += 1}
+    val avroDecodeMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    t0 = System.nanoTime
+    i = 0
+    while (i < RUNS) {Evt.fromColumnar(columnar, tag); i += 1}
+    val columnarDecodeMs = (System.nanoTime - t0) / 1000000.0 / RUNS
+
+    println("%-8s avro:     %8d bytes, gzipped %8d, encode %7.2f ms, decode %7.2f ms".format(name, avro.length, gzip(avro).length, avroEncodeMs, avroDecodeMs))
+    println("%-8s columnar: %8d bytes, gzipped %8d, encode %7.2f ms, decode %7.2f ms".format(name, columnar.length, gzip(columnar).length, columnarEncodeMs, columnarDecodeMs))
+  }
+
+  private def sameValues(a: Quote, b: Quote): Boolean = {
+    a.open == b.open && a.high == b.high && a.low == b.low && a.close == b.close && 
+    a.volume == b.volume && a.amount == b.amount && a.vwap == b.vwap && a.prevClose == b.prevClose && 
+    a.execCount == b.execCount && a.turnoverRate == b.turnoverRate
+  }
+
+  private def gzip(bytes: Array[Byte]): Array[Byte] = {
+    val out = new ByteArrayOutputStream
+    val gout = new GZIPOutputStream(out)
+    gout.write(bytes)
+    gout.close
+    out.toByteArray
+  }
+}
@@ -32,14 +32,19 @@ package org.aiotrade.lib.securities.model
 
 import java.util.concurrent.ScheduledThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
 import java.util.logging.Level
 import java.util.logging.Logger
 import java.util.{Calendar, TimeZone, ResourceBundle}
 import org.aiotrade.lib.collection.ArrayList
 import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TFreqRounder
+import org.aiotrade.lib.math.timeseries.TSerEventCoalescer
 import org.aiotrade.lib.math.timeseries.TUnit
+import org.aiotrade.lib.securities.ColumnarQuoteStore
 import org.aiotrade.lib.securities.api
 import org.aiotrade.lib.securities.dataserver.TickerServer
+import org.aiotrade.lib.securities.dataserver.WriteBehind
 import org.aiotrade.lib.util
 import org.aiotrade.lib.util.actors.Publisher
 import org.aiotrade.lib.util.pinyin.PinYin
@@ -131,29 +136,34 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
     ((closeInMills - openInMillis) / TUnit.Minute.interval).toInt + 1
   }
 
-  private lazy val _uniSymbolToLastTicker = {
-    val symbolToTicker = mutable.Map[String, Ticker]()
+  /**
+   * Last tickers are written by ticker servers under lastTickerLock, and read
+   * lock-free from the snapshots published by publishLastTickers
+   */
+  private val lastTickerLock = new ReentrantLock
 
-    for ((sec, ticker) <- TickersLast.lastTickersOf(this) if sec != null) {
+  private lazy val _uniSymbolToLastTicker = new LastTickerSnapshot(
+    for ((sec, ticker) <- TickersLast.lastTickersOf(this) if sec != null) yield {
       val symbol = sec.uniSymbol
       ticker.uniSymbol = symbol
-      symbolToTicker.put(symbol, ticker)
+      (symbol, ticker)
     }
+  )
 
-    symbolToTicker
-  }
-
-  private lazy val _uniSymbolToLastTradingDayTicker = {
-    val symbolToTicker = mutable.Map[String, Ticker]()
-
-    for ((sec, ticker) <- TickersLast.lastTradingDayTickersOf(this) if sec != null) {
+  private lazy val _uniSymbolToLastTradingDayTicker = new LastTickerSnapshot(
+    for ((sec, ticker) <- TickersLast.lastTradingDayTickersOf(this) if sec != null) yield {
       val symbol = sec.uniSymbol
       ticker.uniSymbol = symbol
-      symbolToTicker.put(symbol, ticker)
+      (symbol, ticker)
     }
+  )
 
-    symbolToTicker
-  }
+  private lazy val dailyRounder = TFreqRounder(TFreq.DAILY, timeZone)
+
+  /**
+   * Trading session index shared by all on-calendar sers of this exchange
+   */
+  lazy val calendar = new ExchangeCalendar(this)
 
   private val freqToUnclosedQuotes = mutable.Map[TFreq, ArrayList[Quote]]()
   private val freqToUnclosedMoneyFlows = mutable.Map[TFreq, ArrayList[MoneyFlow]]()
@@ -162,8 +172,9 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
 
   private var _lastDailyRoundedTradingTime: Option[Long] = None
 
-  def uniSymbolToLastTicker: collection.Map[String, Ticker] = _uniSymbolToLastTicker synchronized {_uniSymbolToLastTicker}
-  def uniSymbolToLastTradingDayTicker: collection.Map[String, Ticker] = _uniSymbolToLastTradingDayTicker synchronized {_uniSymbolToLastTradingDayTicker}
+  /** @return point-in-time view as of last publishLastTickers, never blocks */
+  def uniSymbolToLastTicker: collection.Map[String, Ticker] = _uniSymbolToLastTicker.snapshot
+  def uniSymbolToLastTradingDayTicker: collection.Map[String, Ticker] = _uniSymbolToLastTradingDayTicker.snapshot
   def uniSymbols: collection.Set[String] = Exchange.symbolsOf(this)
 
   /** @Todo */
@@ -176,27 +187,50 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
   }
 
   /**
+   * The change is visible to readers of uniSymbolToLastTicker and
+   * uniSymbolToLastTradingDayTicker only after next publishLastTickers
+   * 
    * @return the ticker should be updated/saved to TickersLast
    */
   def gotLastTicker(ticker: Ticker): Ticker = {
     val uniSymbol = ticker.uniSymbol
 
-    _uniSymbolToLastTicker synchronized {
+    lastTickerLock.lock
+    try {
       _uniSymbolToLastTicker.get(uniSymbol) match {
         case Some(existOne) =>
           existOne.copyFrom(ticker)
           existOne.isTransient = TickersLast.transient_?(existOne)
+          _uniSymbolToLastTicker.touch(uniSymbol)
+          // a new symbol since loading shares the same ticker in both
+          if (_uniSymbolToLastTradingDayTicker.get(uniSymbol) exists (_ eq existOne)) {
+            _uniSymbolToLastTradingDayTicker.touch(uniSymbol)
+          }
           existOne
         case None =>
           val newOne = new Ticker
           newOne.isTransient = true
           newOne.copyFrom(ticker)
           _uniSymbolToLastTicker.put(uniSymbol, newOne)
-          _uniSymbolToLastTradingDayTicker synchronized {
-            _uniSymbolToLastTradingDayTicker.put(uniSymbol, newOne)
-          }
+          _uniSymbolToLastTradingDayTicker.put(uniSymbol, newOne)
           newOne
       }
+    } finally {
+      lastTickerLock.unlock
+    }
+  }
+
+  /**
+   * Publish the last tickers got since previous publishing as new snapshots,
+   * should be called once after each batch of gotLastTicker.
+   */
+  def publishLastTickers {
+    lastTickerLock.lock
+    try {
+      _uniSymbolToLastTicker.publish
+      _uniSymbolToLastTradingDayTicker.publish
+    } finally {
+      lastTickerLock.unlock
     }
   }
 
@@ -264,19 +298,35 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
     cal.getTimeInMillis
   }
 
-  def isClosedDate(cal: Calendar): Boolean = {
-    cal.get(Calendar.DAY_OF_WEEK) match {
-      case Calendar.SUNDAY | Calendar.SATURDAY => true
-      case _ => false // @todo process holiday
+  def isClosedDate(cal: Calendar): Boolean = isClosedDayOfWeek(cal.get(Calendar.DAY_OF_WEEK))
+
+  def isClosedDate(time: Long): Boolean = calendar.isClosed(time)
+
+  /**
+   * Add new close dates (holidays etc.) of this exchange, the ones that have 
+   * been here are ignored, the trading calendar will be recounted since the 
+   * earliest added one.
+   */
+  def addCloseDates(dates: Seq[ExchangeCloseDate]): Unit = synchronized {
+    val before = closeDates
+    val existed = (before map (x => (x.fromTime, x.toTime))).toSet
+    val added = dates filterNot (x => existed.contains((x.fromTime, x.toTime)))
+    if (added.nonEmpty) {
+      closeDates = before ::: added.toList
+      calendar.closeDatesAdded(before, added)
     }
   }
 
-  def isClosedDate(time: Long): Boolean = {
-    val cal = util.calendarOf(timeZone)
-    cal.setTimeInMillis(time)
-    isClosedDate(cal)
+  private def isClosedDayOfWeek(dayOfWeek: Int): Boolean = {
+    dayOfWeek match {
+      case Calendar.SUNDAY | Calendar.SATURDAY => true
+      case _ => false // holidays are counted by calendar, see isClosedDate(time)
+    }
   }
 
+  /** wall clock time of this exchange in milliseconds, as if the time zone was UTC */
+  private def localTimeOf(time: Long): Long = time + dailyRounder.offsetAt(time)
+
   protected def statusCN(time: Long, timeInMinutes: Int): ExchangeStatus = {
     if (timeInMinutes < firstOpen - CN_OPENING_CALL_AUCTION_MINUTES - CN_PREOPEN_BREAK_MINUTES) {
       ExchangeStatus.PreOpen(time, timeInMinutes)
@@ -296,11 +346,10 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
   }
 
   def statusOf(time: Long): ExchangeStatus = {
-    val cal = util.calendarOf(timeZone)
-    cal.setTimeInMillis(time)
-    val timeInMinutes = cal.get(Calendar.HOUR_OF_DAY) * 60 + cal.get(Calendar.MINUTE)
+    val localTime = localTimeOf(time)
+    val timeInMinutes = (floorMod(localTime, ONE_DAY) / ONE_MINUTE).toInt
 
-    if (isClosedDate(cal)) {
+    if (isClosedDate(time)) {
       return ExchangeStatus.ClosedDate(time, timeInMinutes)
     }
 
@@ -489,102 +538,116 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
   private def doClosing(freq: TFreq, quotesToClose: Array[Quote], mfsToClose: Array[MoneyFlow], sectorMfsToClose: Array[MoneyFlow], pdsToClose: Array[PriceCollection], alsoSave: Boolean) {
     try {
       if (quotesToClose.length > 0) {
-        val time = quotesToClose(0).time
+        TSerEventCoalescer.batch {
+          var i = -1
+          while ({i += 1; i < quotesToClose.length}) {
+            val quote = quotesToClose(i)
+            quote.closed_!
+
+            // update quoteSer's TVar 'isClosed'
+            val sec = quote.sec
+            sec.updateQuoteSer(freq, quote)
+          }
+        }
+        TickerServer.publish(api.QuotesEvt(freq.shortName, quotesToClose))
+      }
 
-        var i = -1
-        while ({i += 1; i < quotesToClose.length}) {
-          val quote = quotesToClose(i)
-          quote.closed_!
+      var i = -1
+      while ({i += 1; i < mfsToClose.length}) {
+        mfsToClose(i).closed_!
+      }
+
+      i = -1
+      while ({i += 1; i < sectorMfsToClose.length}) {
+        sectorMfsToClose(i).closed_!
+      }
+
+      i = -1
+      while ({i += 1; i < pdsToClose.length}) {
+        pdsToClose(i).closed_!
+      }
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+    }
 
-          // update quoteSer's TVar 'isClosed'
-          val sec = quote.sec
-          sec.updateQuoteSer(freq, quote)
+    if (alsoSave) {
+      if (WriteBehind.isEnabled) {
+        WriteBehind.execute(this.code + " closing " + freq.shortName) {
+          doSaving(freq, quotesToClose, mfsToClose, sectorMfsToClose, pdsToClose)
         }
-        TickerServer.publish(api.QuotesEvt(freq.shortName, quotesToClose))
+      } else {
+        doSaving(freq, quotesToClose, mfsToClose, sectorMfsToClose, pdsToClose)
+      }
+    }
+    
+    if (freq == TFreq.DAILY) {
+      TickerServer.publish(api.ExchangeStatusEvt(this.code, status))
+    }
+  }
 
-        if (alsoSave) {
-          val t0 = System.currentTimeMillis
-          freq match {
-            case TFreq.DAILY =>
-              log.info(this.code + " closed, saving " + freq + " quotes: " + quotesToClose.length)
-              Quotes1d.saveBatch(time, quotesToClose)
-            case TFreq.ONE_MIN =>
-              Quotes1m.saveBatch(time, quotesToClose)
-            case _ =>
-          }
-          log.info("Saved closed quotes in " + (System.currentTimeMillis - t0) + "ms: size=" + quotesToClose.length +
-                   ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
+  private def doSaving(freq: TFreq, quotesToClose: Array[Quote], mfsToClose: Array[MoneyFlow], sectorMfsToClose: Array[MoneyFlow], pdsToClose: Array[PriceCollection]) {
+    try {
+      if (quotesToClose.length > 0) {
+        val time = quotesToClose(0).time
+        val t0 = System.currentTimeMillis
+        freq match {
+          case TFreq.DAILY =>
+            log.info(this.code + " closed, saving " + freq + " quotes: " + quotesToClose.length)
+            Quotes1d.saveBatch(time, quotesToClose)
+          case TFreq.ONE_MIN =>
+            Quotes1m.saveBatch(time, quotesToClose)
+          case _ =>
         }
+        ColumnarQuoteStore.saveBatchIfEnabled(freq, quotesToClose)
+        if (freq == TFreq.DAILY) {
+          // intraday rows of today are buffered per symbol until now
+          ColumnarQuoteStore.flushAllIfEnabled
+        }
+        log.info("Saved closed quotes in " + (System.currentTimeMillis - t0) + "ms: size=" + quotesToClose.length +
+                 ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
       }
 
       if (mfsToClose.length > 0) {
         val time = mfsToClose(0).time
-
-        var i = -1
-        while ({i += 1; i < mfsToClose.length}) {
-          val mfs = mfsToClose(i)
-          mfs.closed_!
-        }
-
-        if (alsoSave) {
-          val t0 = System.currentTimeMillis
-          freq match {
-            case TFreq.DAILY =>
-              log.info(this.code + " closed, saving " + freq + " moneyflows: " + mfsToClose.length)
-              MoneyFlows1d.saveBatch(time, mfsToClose)
-            case TFreq.ONE_MIN =>
-              MoneyFlows1m.saveBatch(time, mfsToClose)
-            case _ =>
-          }
-          log.info("Saved closed moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + mfsToClose.length +
-                   ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
+        val t0 = System.currentTimeMillis
+        freq match {
+          case TFreq.DAILY =>
+            log.info(this.code + " closed, saving " + freq + " moneyflows: " + mfsToClose.length)
+            MoneyFlows1d.saveBatch(time, mfsToClose)
+          case TFreq.ONE_MIN =>
+            MoneyFlows1m.saveBatch(time, mfsToClose)
+          case _ =>
         }
+        log.info("Saved closed moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + mfsToClose.length +
+                 ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
       }
 
       if (sectorMfsToClose.length > 0) {
         val time = sectorMfsToClose(0).time
-
-        var i = -1
-        while ({i += 1; i < sectorMfsToClose.length}) {
-          val mfs = sectorMfsToClose(i)
-          mfs.closed_!
-        }
-
-        if (alsoSave) {
-          val t0 = System.currentTimeMillis
-          freq match {
-            case TFreq.DAILY =>
-              log.info(this.code + " closed, saving " + freq + " moneyflows: " + sectorMfsToClose.length)
-              SectorMoneyFlows1d.saveBatch(time, sectorMfsToClose)
-            case TFreq.ONE_MIN =>
-              SectorMoneyFlows1m.saveBatch(time, sectorMfsToClose)
-            case _ =>
-          }
-          log.info("Saved closed sector moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + sectorMfsToClose.length +
-                   ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
+        val t0 = System.currentTimeMillis
+        freq match {
+          case TFreq.DAILY =>
+            log.info(this.code + " closed, saving " + freq + " moneyflows: " + sectorMfsToClose.length)
+            SectorMoneyFlows1d.saveBatch(time, sectorMfsToClose)
+          case TFreq.ONE_MIN =>
+            SectorMoneyFlows1m.saveBatch(time, sectorMfsToClose)
+          case _ =>
         }
+        log.info("Saved closed sector moneyflows in " + (System.currentTimeMillis - t0) + "ms, size=" + sectorMfsToClose.length +
+                 ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
       }
 
       if (pdsToClose.length > 0) {
         val time = pdsToClose(0).time
-
-        var i = -1
-        while ({i += 1; i < pdsToClose.length}) {
-          val pd = pdsToClose(i)
-          pd.closed_!
-        }
-
-        if (alsoSave) {
-          val t0 = System.currentTimeMillis
-          freq match {
-            case TFreq.DAILY =>
-              log.info(this.code + " closed, saving " + freq + " price distributions: " + pdsToClose.length)
-              PriceDistributions.saveBatch(time, pdsToClose)
-            case _ =>
-          }
-          log.info("Saved closed price distributions in " + (System.currentTimeMillis - t0) + "ms, size=" + pdsToClose.length +
-                   ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
+        val t0 = System.currentTimeMillis
+        freq match {
+          case TFreq.DAILY =>
+            log.info(this.code + " closed, saving " + freq + " price distributions: " + pdsToClose.length)
+            PriceDistributions.saveBatch(time, pdsToClose)
+          case _ =>
         }
+        log.info("Saved closed price distributions in " + (System.currentTimeMillis - t0) + "ms, size=" + pdsToClose.length +
+                 ", freq=" + freq.shortName + ", time(in os timezone)=" + util.formatTime(time))
       }
 
       if (quotesToClose.length > 0 || mfsToClose.length > 0 || sectorMfsToClose.length > 0 || pdsToClose.length > 0) {
@@ -594,10 +657,6 @@ final class Exchange extends CRCLongId with Ordered[Exchange] {
     } catch {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
     }
-    
-    if (freq == TFreq.DAILY) {
-      TickerServer.publish(api.ExchangeStatusEvt(this.code, status))
-    }
   }
 
   override def toString: String = {
@@ -626,6 +685,14 @@ object Exchange extends Publisher {
 
   private val BUNDLE = ResourceBundle.getBundle("org.aiotrade.lib.securities.model.Bundle")
   private val ONE_DAY = 24 * 60 * 60 * 1000
+  private val ONE_MINUTE = 60 * 1000
+
+  private def floorDiv(x: Long, y: Long): Long = {
+    val q = x / y
+    if ((x % y != 0) && ((x ^ y) < 0)) q - 1 else q
+  }
+
+  private def floorMod(x: Long, y: Long): Long = x - floorDiv(x, y) * y
   private val config = org.aiotrade.lib.util.config.Config()
   private val closingScheduler = new ScheduledThreadPoolExecutor(1)
 
@@ -660,9 +727,24 @@ object Exchange extends Publisher {
   def allExchanges = _allExchanges
   def allExchanges_=(allExchanges: Seq[Exchange]) {
     _allExchanges = allExchanges
+    loadCloseDates
     resetSearchTables
   }
 
+  /**
+   * Load close dates of all exchanges, so their trading calendars count holidays.
+   */
+  private def loadCloseDates() {
+    try {
+      val exchgToCloseDates = Exchanges.exchangeToCloseDates()
+      _allExchanges foreach {exchg =>
+        exchgToCloseDates.get(exchg.code) foreach {dates => exchg.addCloseDates(dates)}
+      }
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
+    }
+  }
+
   def resetSearchTables() {
     try {
       val t0 = System.currentTimeMillis
@@ -965,6 +1047,25 @@ object Exchanges extends CRCLongPKTable[Exchange] {
     secs.groupBy(x => x.exchange)
   }
 
+  /**
+   * @return close dates grouped by code of exchange
+   */
+  def exchangeToCloseDates(): Map[String, Seq[ExchangeCloseDate]] = {
+    val closeDates = try {
+      if (isServer) {
+        SELECT (ExchangeCloseDates.*) FROM ExchangeCloseDates list()
+      } else {
+        SELECT (ExchangeCloseDates.*) FROM (AVRO(ExchangeCloseDates)) list()
+      } filter {x => x.exchange != null}
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
+    }
+
+    log.info("Close dates number is " + closeDates.size)
+
+    closeDates groupBy {x => x.exchange.code}
+  }
+
   def exchangeToSecInfo(): Map[Exchange, Seq[SecInfo]] = {
     val t0 = System.currentTimeMillis
 
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import org.aiotrade.lib.math.timeseries.TCalendar
+import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TFreqRounder
+import org.aiotrade.lib.math.timeseries.TUnit
+
+/**
+ * Trading session index of an exchange, which maps time <-> row of on-calendar
+ * sers in O(1) for intraday (minute/hour) and daily freqs, skipping weekends,
+ * close dates and off-session minutes.
+ *
+ * The index is an immutable snapshot of per-day tables covering a range of
+ * local days, it's replaced (never mutated) when the range is extended or when
+ * new close dates arrive, only the days since the earliest changed one are
+ * recounted. Readers always work on one snapshot without locking.
+ *
+ * Each snapshot remembers the exchange.closeDates it was counted with, a
+ * snapshot is rebuilt on next lookup when exchange.closeDates was replaced
+ * by other than Exchange.addCloseDates (for example, loaded from db after this
+ * calendar was created).
+ *
+ * Times in a closed day or out of session are floored to the last trading
+ * period before them, as TFreq.round does for continuous time.
+ *
+ * @author Caoyuan Deng
+ */
+final class ExchangeCalendar(exchange: Exchange) extends TCalendar {
+  import ExchangeCalendar._
+
+  private val rounder = TFreqRounder(TFreq.DAILY, exchange.timeZone)
+
+  /** opening periods in minutes of day, as (fr, to), both inclusive */
+  private val periodFrs = exchange.openingPeriods map (_._1)
+  private val periodTos = exchange.openingPeriods map (_._2)
+
+  @volatile private var index: Index = build(null, initialFromDay, initialToDay, Nil, exchange.closeDates)
+
+  def isSupported(freq: TFreq): Boolean = freq.unit match {
+    case TUnit.Day => true
+    case TUnit.Minute | TUnit.Hour => 
+      // rows of freq are on multiples of it from local midnight (see TFreq.round), 
+      // so each period should open on one of them, i.e. 60 minutes for 09:30 is not
+      val minutes = minutesOf(freq)
+      minutes <= periodLength && (periodFrs forall (_ % minutes == 0))
+    case _ => false
+  }
+
+  def nFreqsBetween(fromTime: Long, toTime: Long, freq: TFreq): Int = {
+    val idx = indexCovering(localDayOf(fromTime), localDayOf(toTime))
+    freq.unit match {
+      case TUnit.Day =>
+        (idx.dayOrdinalOf(localDayOf(toTime)) - idx.dayOrdinalOf(localDayOf(fromTime))) / freq.nUnits
+      case _ =>
+        val minutes = minutesOf(freq)
+        val rowsPerDay = rowsPerDayOf(minutes)
+        (slotOrdinalOf(idx, toTime, minutes, rowsPerDay) - slotOrdinalOf(idx, fromTime, minutes, rowsPerDay)).toInt
+    }
+  }
+
+  def timeAfterNFreqs(fromTime: Long, nFreqs: Int, freq: TFreq): Long = {
+    val fromDay = localDayOf(fromTime)
+    freq.unit match {
+      case TUnit.Day =>
+        val n = nFreqs.toLong * freq.nUnits
+        val idx = indexCovering(fromDay, fromDay + daysSpanOf(n))
+        val ordinal = idx.dayOrdinalOf(fromDay) + n
+        utcTimeOf(idx.dayOfOrdinal(ordinal) * ONE_DAY)
+      case _ =>
+        val minutes = minutesOf(freq)
+        val rowsPerDay = rowsPerDayOf(minutes)
+        val idx = indexCovering(fromDay, fromDay + daysSpanOf(nFreqs / rowsPerDay))
+        val ordinal = slotOrdinalOf(idx, fromTime, minutes, rowsPerDay) + nFreqs
+        val day = idx.dayOfOrdinal(floorDiv(ordinal, rowsPerDay))
+        utcTimeOf(day * ONE_DAY + minuteOfSlot(floorMod(ordinal, rowsPerDay).toInt, minutes) * ONE_MINUTE)
+    }
+  }
+
+  /**
+   * @return true if the day including time is a weekend or a close date of this exchange
+   */
+  def isClosed(time: Long): Boolean = {
+    val day = localDayOf(time)
+    indexCovering(day, day).isClosed(day)
+  }
+
+  /**
+   * Recount from the earliest day covered by added, the days before it keep 
+   * their ordinals. Should be called when new close dates are added to exchange.
+   * 
+   * @param before  exchange.closeDates before adding
+   * @param added   the close dates added to before
+   */
+  def closeDatesAdded(before: List[ExchangeCloseDate], added: Seq[ExchangeCloseDate]): Unit = synchronized {
+    val idx = index
+    if (idx.closeDates eq before) {
+      index = build(idx, idx.fromDay, idx.toDay, added, exchange.closeDates)
+    } else {
+      index = build(null, idx.fromDay, idx.toDay, Nil, exchange.closeDates)
+    }
+  }
+
+  // --- helpers
+
+  private lazy val periodLength = {
+    var min = Int.MaxValue
+    var i = -1
+    while ({i += 1; i < periodFrs.length}) {
+      min = math.min(min, periodTos(i) - periodFrs(i))
+    }
+    math.max(min, 1)
+  }
+
+  private def minutesOf(freq: TFreq): Int = (freq.interval / ONE_MINUTE).toInt
+
+  /** count of rows in a trading day, both open and close minute of each period are rows */
+  private def rowsPerDayOf(minutes: Int): Int = {
+    var n = 0
+    var i = -1
+    while ({i += 1; i < periodFrs.length}) {
+      n += (periodTos(i) - periodFrs(i)) / minutes + 1
+    }
+    n
+  }
+
+  private def minuteOfSlot(slot: Int, minutes: Int): Int = {
+    var rest = slot
+    var i = -1
+    while ({i += 1; i < periodFrs.length}) {
+      val n = (periodTos(i) - periodFrs(i)) / minutes + 1
+      if (rest < n) {
+        return periodFrs(i) + rest * minutes
+      }
+      rest -= n
+    }
+    periodTos(periodTos.length - 1)
+  }
+
+  /**
+   * @return ordinal of the intraday row that time falls in, counting from the
+   *         first trading day of idx
+   */
+  private def slotOrdinalOf(idx: Index, time: Long, minutes: Int, rowsPerDay: Int): Long = {
+    val localTime = localTimeOf(time)
+    val day = floorDiv(localTime, ONE_DAY)
+    val dayOrdinal = idx.dayOrdinalOf(day)
+    if (idx.isClosed(day)) {
+      // floor to the last row of previous trading day
+      dayOrdinal.toLong * rowsPerDay + rowsPerDay - 1
+    } else {
+      val minuteOfDay = (floorMod(localTime, ONE_DAY) / ONE_MINUTE).toInt
+      if (minuteOfDay < periodFrs(0)) {
+        dayOrdinal.toLong * rowsPerDay - 1
+      } else {
+        var slot = 0
+        var i = -1
+        var found = false
+        while (!found && {i += 1; i < periodFrs.length}) {
+          val n = (periodTos(i) - periodFrs(i)) / minutes + 1
+          if (minuteOfDay <= periodTos(i)) {
+            slot += (minuteOfDay - periodFrs(i)) / minutes
+            found = true
+          } else if (i + 1 < periodFrs.length && minuteOfDay < periodFrs(i + 1)) {
+            // break between two periods, floor to the last row of this period
+            slot += n - 1
+            found = true
+          } else {
+            slot += n
+          }
+        }
+        if (!found) slot = rowsPerDay - 1
+        dayOrdinal.toLong * rowsPerDay + slot
+      }
+    }
+  }
+
+  private def localTimeOf(time: Long): Long = time + rounder.offsetAt(time)
+
+  private def localDayOf(time: Long): Long = floorDiv(localTimeOf(time), ONE_DAY)
+
+  private def utcTimeOf(localTime: Long): Long = {
+    val guess = localTime - rounder.offsetAt(localTime)
+    localTime - rounder.offsetAt(guess)
+  }
+
+  private def indexCovering(dayA: Long, dayB: Long): Index = {
+    val idx = index
+    val lo = math.max(math.min(dayA, dayB), MIN_DAY)
+    val hi = math.min(math.max(dayA, dayB), MAX_DAY)
+    if (lo >= idx.fromDay && hi <= idx.toDay && (idx.closeDates eq exchange.closeDates)) {
+      idx
+    } else synchronized {
+      val cur = index
+      val closeDates = exchange.closeDates
+      if (!(cur.closeDates eq closeDates)) {
+        // close dates were replaced, recount all with the current ones
+        val fromDay = math.max(math.min(lo, cur.fromDay), MIN_DAY)
+        val toDay   = math.min(math.max(hi, cur.toDay), MAX_DAY)
+        index = build(null, fromDay, toDay, Nil, closeDates)
+        index
+      } else if (lo >= cur.fromDay && hi <= cur.toDay) {
+        cur
+      } else {
+        // extend by at least one year so that a running clock won't rebuild daily
+        val fromDay = if (lo < cur.fromDay) math.max(math.min(lo, cur.fromDay - 366), MIN_DAY) else cur.fromDay
+        val toDay   = if (hi > cur.toDay)   math.min(math.max(hi, cur.toDay + 366), MAX_DAY)   else cur.toDay
+        // the extended days of a reused build are marked by all close dates
+        index = build(if (fromDay == cur.fromDay) cur else null, fromDay, toDay, closeDates, closeDates)
+        index
+      }
+    }
+  }
+
+  /** calendar days that cover nTradingDays trading days, about 5 per 7 days, over estimated a bit */
+  private def daysSpanOf(nTradingDays: Long): Long = {
+    if (nTradingDays >= 0) nTradingDays * 7 / 5 + 14 else nTradingDays * 7 / 5 - 14
+  }
+
+  /**
+   * Build an index on [fromDay, toDay] counted with allCloseDates, reuse prev's
+   * tables before the earliest day touched by addedCloseDates when prev starts
+   * at the same day, prev should have been counted with allCloseDates except
+   * addedCloseDates.
+   */
+  private def build(prev: Index, fromDay: Long, toDay: Long, addedCloseDates: Seq[ExchangeCloseDate], allCloseDates: List[ExchangeCloseDate]): Index = {
+    val nDays = (toDay - fromDay + 1).toInt
+    val closed = new Array[Boolean](nDays)
+    val ordinals = new Array[Int](nDays)
+
+    var firstChanged = 0
+    if (prev != null && prev.fromDay == fromDay) {
+      val nReused = math.min(prev.closed.length, nDays)
+      System.arraycopy(prev.closed, 0, closed, 0, nReused)
+      firstChanged = nReused
+      var i = nReused - 1
+      while ({i += 1; i < nDays}) {
+        closed(i) = isWeekend(fromDay + i)
+      }
+    } else {
+      var i = -1
+      while ({i += 1; i < nDays}) {
+        closed(i) = isWeekend(fromDay + i)
+      }
+    }
+
+    // close dates of a fresh build come from the whole allCloseDates
+    val closeDates = if (prev != null && prev.fromDay == fromDay) addedCloseDates else allCloseDates
+    for (closeDate <- closeDates) {
+      val fr = math.max(localDayOf(closeDate.fromTime), fromDay)
+      val toLocal = localTimeOf(closeDate.toTime)
+      // toTime at exact local midnight is the begin of next open day
+      val to = math.min(if (closeDate.toTime > closeDate.fromTime && floorMod(toLocal, ONE_DAY) == 0) floorDiv(toLocal, ONE_DAY) - 1 else floorDiv(toLocal, ONE_DAY), toDay)
+      var day = fr
+      while (day <= to) {
+        val i = (day - fromDay).toInt
+        if (!closed(i)) {
+          closed(i) = true
+          firstChanged = math.min(firstChanged, i)
+        }
+        day += 1
+      }
+    }
+
+    // recount ordinals since firstChanged, the ones before it are still valid
+    var ordinal = -1
+    if (firstChanged > 0) {
+      System.arraycopy(prev.ordinals, 0, ordinals, 0, firstChanged)
+      ordinal = ordinals(firstChanged - 1)
+    }
+    var i = firstChanged - 1
+    while ({i += 1; i < nDays}) {
+      if (!closed(i)) ordinal += 1
+      ordinals(i) = ordinal
+    }
+
+    val nTradingDays = ordinal + 1
+    val tradingDays = new Array[Int](nTradingDays)
+    val nKept = if (firstChanged > 0) ordinals(firstChanged - 1) + 1 else 0
+    if (nKept > 0) {
+      System.arraycopy(prev.tradingDays, 0, tradingDays, 0, nKept)
+    }
+    i = firstChanged - 1
+    while ({i += 1; i < nDays}) {
+      if (!closed(i)) tradingDays(ordinals(i)) = i
+    }
+
+    new Index(fromDay, toDay, closed, ordinals, tradingDays, allCloseDates)
+  }
+}
+
+object ExchangeCalendar {
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+  private val ONE_MINUTE = 60 * 1000L
+
+  /** 1900-01-01 and 2200-01-01 in days from epoch */
+  private val MIN_DAY = -25567L
+  private val MAX_DAY = 84006L
+
+  /** 1990-01-01 in days from epoch */
+  private val initialFromDay = 7305L
+  private def initialToDay = floorDiv(System.currentTimeMillis, ONE_DAY) + 366
+
+  /** 1970-01-01 is a Thursday */
+  private def isWeekend(day: Long): Boolean = {
+    val dayOfWeek = floorMod(day + 4, 7) // 0 is Sunday
+    dayOfWeek == 0 || dayOfWeek == 6
+  }
+
+  private def floorDiv(x: Long, y: Long): Long = {
+    val q = x / y
+    if ((x % y != 0) && ((x ^ y) < 0)) q - 1 else q
+  }
+
+  private def floorMod(x: Long, y: Long): Long = x - floorDiv(x, y) * y
+
+  /**
+   * @param closed    per day since fromDay, true if it's not a trading day
+   * @param ordinals  per day since fromDay, ordinal of the trading day on or before it, -1 if none
+   * @param tradingDays per trading ordinal, day offset from fromDay
+   * @param closeDates  exchange.closeDates that this index was counted with
+   */
+  private final class Index(val fromDay: Long, val toDay: Long,
+                            val closed: Array[Boolean], val ordinals: Array[Int], val tradingDays: Array[Int],
+                            val closeDates: List[ExchangeCloseDate]
+  ) {
+    def nTradingDays = tradingDays.length
+
+    def isClosed(day: Long): Boolean = {
+      if (day < fromDay || day > toDay) isWeekend(day) else closed((day - fromDay).toInt)
+    }
+
+    /** days out of range are clamped, callers should have extended the index to cover them */
+    def dayOrdinalOf(day: Long): Int = {
+      if (day < fromDay) -1
+      else if (day > toDay) ordinals(ordinals.length - 1)
+      else ordinals((day - fromDay).toInt)
+    }
+
+    /** @return local day from epoch of the trading day with ordinal */
+    def dayOfOrdinal(ordinal: Long): Long = {
+      if (ordinal < 0) {
+        if (nTradingDays > 0) fromDay + tradingDays(0) + ordinal * 7 / 5 else fromDay
+      } else if (ordinal >= nTradingDays) {
+        if (nTradingDays > 0) fromDay + tradingDays(nTradingDays - 1) + (ordinal - nTradingDays + 1) * 7 / 5 else toDay
+      } else {
+        fromDay + tradingDays(ordinal.toInt)
+      }
+    }
+  }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.util.Calendar
+import java.util.TimeZone
+import org.aiotrade.lib.math.timeseries.TFreq
+
+/**
+ * Checks ExchangeCalendar against the TFreq arithmetic that on-calendar sers
+ * used before: every time from testFromYear, stepped by freq.nextTime, is 
+ * numbered by hand as a row if the exchange is open at it (not a weekend, not 
+ * a close date, and on a freq boundary of an opening period), then the 
+ * calendar should give the same row by nFreqsBetween, and the same time back 
+ * by timeAfterNFreqs. A time that is not a row should be floored to the last 
+ * row before it. Inside one opening period no row is skipped, so there the
+ * calendar should also count as freq.nFreqsBetween does. A freq that does not
+ * fit the opening periods (1 hour for 09:30) should not be supported.
+ * 
+ * Close dates are loaded in two ways, by replacing exchange.closeDates after
+ * the calendar was created (as db loading did), and by addCloseDates.
+ * Not enabled by default, run it via main, with e.g.
+ *   -DtestFromYear=2000 -DtestYears=12
+ *
+ * @author Caoyuan Deng
+ */
+object ExchangeCalendarTest {
+  private val FROM_YEAR = Integer.parseInt(System.getProperty("testFromYear", "2000"))
+  private val YEARS = Integer.parseInt(System.getProperty("testYears", "12"))
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+  private val ONE_MINUTE = 60 * 1000L
+
+  private val FREQS = List(TFreq.DAILY, TFreq.ONE_HOUR, TFreq.THIRTY_MINS, TFreq.FIVE_MINS, TFreq.ONE_MIN)
+
+  def main(args: Array[String]) {
+    val exchange = Exchange("SS", "Asia/Shanghai", Array(9, 30, 11, 30, 13, 0, 15, 0))
+    val tz = exchange.timeZone
+    val fromTime = localMidnight(tz, FROM_YEAR, Calendar.JANUARY, 1)
+    val toTime = localMidnight(tz, FROM_YEAR + YEARS, Calendar.JANUARY, 1)
+
+    // touch the calendar before any close date is known
+    exchange.calendar.isClosed(fromTime)
+
+    // a week of Spring Festival like holidays each year, replaced as db loading did
+    exchange.closeDates = (0 until YEARS).toList map {i => closeDate(exchange, localMidnight(tz, FROM_YEAR + i, Calendar.FEBRUARY, 1), 7)}
+    // a National Day like week each year, added
+    exchange.addCloseDates((0 until YEARS) map {i => closeDate(exchange, localMidnight(tz, FROM_YEAR + i, Calendar.OCTOBER, 1), 7)})
+    // added again, should be ignored
+    exchange.addCloseDates(exchange.closeDates take 1 map {x => closeDate(exchange, x.fromTime, 1)})
+
+    var errors = 0
+    for (freq <- FREQS) {
+      if (exchange.calendar.isSupported(freq)) {
+        errors += check(exchange, freq, fromTime, toTime)
+      } else {
+        println(freq + ": not supported, on-calendar rows are counted by TFreq")
+      }
+    }
+    
+    println(if (errors == 0) "All passed" else "Errors: " + errors)
+  }
+
+  private def check(exchange: Exchange, freq: TFreq, fromTime: Long, toTime: Long): Int = {
+    val calendar = exchange.calendar
+    val tz = exchange.timeZone
+    val minutes = (freq.interval / ONE_MINUTE).toInt
+    val t0 = System.currentTimeMillis
+
+    var firstRowTime = Long.MinValue
+    var row = -1
+    var periodOpenTime = Long.MinValue
+    var periodOpenRow = 0
+    var errors = 0
+    var checks = 0
+    var time = fromTime
+    while (time < toTime) {
+      val isRow = isOpen(exchange, time, freq, minutes)
+      if (isRow) {
+        row += 1
+        if (firstRowTime == Long.MinValue) firstRowTime = time
+        if (freq != TFreq.DAILY && minuteOfDay(tz, time) == periodOf(exchange, minuteOfDay(tz, time))._1) {
+          periodOpenTime = time
+          periodOpenRow = row
+        }
+      }
+
+      if (firstRowTime != Long.MinValue) {
+        val n = calendar.nFreqsBetween(firstRowTime, time, freq)
+        checks += 1
+        if (n != row) {
+          errors += 1
+          if (errors <= 10) println(freq + ": nFreqsBetween(" + format(tz, firstRowTime) + ", " + format(tz, time) + ") = " + n + ", expected " + row)
+        }
+        if (isRow) {
+          val back = calendar.timeAfterNFreqs(firstRowTime, row, freq)
+          checks += 1
+          if (back != time) {
+            errors += 1
+            if (errors <= 10) println(freq + ": timeAfterNFreqs(" + format(tz, firstRowTime) + ", " + row + ") = " + format(tz, back) + ", expected " + format(tz, time))
+          }
+          if (freq != TFreq.DAILY && periodOpenTime != Long.MinValue && time - periodOpenTime < ONE_DAY) {
+            checks += 1
+            if (freq.nFreqsBetween(periodOpenTime, time) != row - periodOpenRow) {
+              errors += 1
+              if (errors <= 10) println(freq + ": differs from TFreq arithmetic in period since " + format(tz, periodOpenTime) + " at " + format(tz, time))
+            }
+          }
+        }
+      }
+      
+      time = freq.nextTime(time)
+    }
+
+    println(freq + ": " + (row + 1) + " rows, " + checks + " checks, errors " + errors + ", in " + (System.currentTimeMillis - t0) + "ms")
+    errors
+  }
+
+  private def isOpen(exchange: Exchange, time: Long, freq: TFreq, minutes: Int): Boolean = {
+    val tz = exchange.timeZone
+    val cal = Calendar.getInstance(tz)
+    cal.setTimeInMillis(time)
+    val dayOfWeek = cal.get(Calendar.DAY_OF_WEEK)
+    if (dayOfWeek == Calendar.SATURDAY || dayOfWeek == Calendar.SUNDAY) return false
+    if (exchange.closeDates exists {x => time >= x.fromTime && time < x.toTime}) return false
+    
+    if (freq == TFreq.DAILY) {
+      minuteOfDay(tz, time) == 0
+    } else {
+      val minute = minuteOfDay(tz, time)
+      val (fr, to) = periodOf(exchange, minute)
+      minute >= fr && minute <= to && (minute - fr) % minutes == 0
+    }
+  }
+
+  /** @return the opening period that minute is in, or (-1, -2) */
+  private def periodOf(exchange: Exchange, minute: Int): (Int, Int) = {
+    exchange.openingPeriods find {case (fr, to) => minute >= fr && minute <= to} getOrElse (-1, -2)
+  }
+
+  private def minuteOfDay(tz: TimeZone, time: Long): Int = {
+    val localTime = time + tz.getOffset(time)
+    (((localTime % ONE_DAY) + ONE_DAY) % ONE_DAY / ONE_MINUTE).toInt
+  }
+
+  private def localMidnight(tz: TimeZone, year: Int, month: Int, day: Int): Long = {
+    val cal = Calendar.getInstance(tz)
+    cal.clear
+    cal.set(year, month, day)
+    cal.getTimeInMillis
+  }
+
+  /** close date of nDays since local midnight fromTime, toTime is the local midnight after them */
+  private def closeDate(exchange: Exchange, fromTime: Long, nDays: Int): ExchangeCloseDate = {
+    val cal = Calendar.getInstance(exchange.timeZone)
+    cal.setTimeInMillis(fromTime)
+    cal.add(Calendar.DAY_OF_MONTH, nDays)
+    val closeDate = new ExchangeCloseDate
+    closeDate.exchange = exchange
+    closeDate.fromTime = fromTime
+    closeDate.toTime = cal.getTimeInMillis
+    closeDate
+  }
+
+  private def format(tz: TimeZone, time: Long): String = {
+    val df = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm")
+    df.setTimeZone(tz)
+    df.format(new java.util.Date(time))
+  }
+}
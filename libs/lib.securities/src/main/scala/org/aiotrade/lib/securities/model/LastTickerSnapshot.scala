@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import scala.collection.immutable
+import scala.collection.mutable
+
+/**
+ * Last tickers of one exchange, keyed by uniSymbol.
+ *
+ * The writer side holds the live tickers, which are updated in place by every
+ * incoming ticker, and remembers which symbols changed. Readers never see the
+ * live tickers, instead they get an immutable snapshot that holds copies of the
+ * tickers as of the last publish. publish is called once per processed batch,
+ * it only copies the changed tickers and shares the rest with the previous
+ * snapshot, so readers get a consistent point-in-time view without taking any
+ * lock and without blocking the writer.
+ *
+ * Writes (get/put/touch/publish) are not thread safe, the owner should guard
+ * them with its own write lock.
+ *
+ * @author Caoyuan Deng
+ */
+final class LastTickerSnapshot(tickers: Iterable[(String, Ticker)]) {
+  private val live = new mutable.HashMap[String, Ticker]
+  private val changed = new mutable.HashSet[String]
+  @volatile private var _snapshot = immutable.HashMap[String, Ticker]()
+
+  tickers foreach {case (uniSymbol, ticker) => put(uniSymbol, ticker)}
+  publish
+
+  /** the point-in-time view of last publish, readers may hold it as long as they want */
+  def snapshot: immutable.Map[String, Ticker] = _snapshot
+
+  /** live ticker of writer side */
+  def get(uniSymbol: String): Option[Ticker] = live.get(uniSymbol)
+
+  def put(uniSymbol: String, ticker: Ticker) {
+    live.put(uniSymbol, ticker)
+    changed += uniSymbol
+  }
+
+  /** mark the live ticker of uniSymbol as changed in place */
+  def touch(uniSymbol: String) {
+    changed += uniSymbol
+  }
+
+  def isChanged = changed.nonEmpty
+
+  def publish {
+    if (changed.nonEmpty) {
+      var snap = _snapshot
+      val itr = changed.iterator
+      while (itr.hasNext) {
+        val uniSymbol = itr.next
+        live.get(uniSymbol) match {
+          case Some(ticker) => snap = snap.updated(uniSymbol, LastTickerSnapshot.copyOf(ticker))
+          case None => snap = snap - uniSymbol
+        }
+      }
+      changed.clear
+      _snapshot = snap
+    }
+  }
+}
+
+object LastTickerSnapshot {
+  private def copyOf(ticker: Ticker): Ticker = {
+    val copy = new Ticker(ticker.depth)
+    copy.copyFrom(ticker)
+    copy.isTransient = ticker.isTransient
+    copy
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import scala.collection.mutable
+
+/**
+ * One writer updates last tickers in batches while concurrent readers look
+ * them up, compares the old synchronized map with LastTickerSnapshot.
+ * A read is counted as torn when it sees a ticker whose fields come from
+ * different writes, which the snapshot should never give.
+ * Not enabled by default, run it via main.
+ * 
+ * -DtestSymbols=<n>  number of symbols, default 3000
+ * -DtestReaders=<n>  number of reader threads, default 4
+ * -DtestBatch=<n>    tickers per writer batch, default 500
+ * -DtestMillis=<n>   duration of each run in ms, default 3000
+ * 
+ * @author Caoyuan Deng
+ */
+object LastTickerSnapshotBench {
+  private val SYMBOLS = Integer.parseInt(System.getProperty("testSymbols", "3000"))
+  private val READERS = Integer.parseInt(System.getProperty("testReaders", "4"))
+  private val BATCH   = Integer.parseInt(System.getProperty("testBatch", "500"))
+  private val MILLIS  = Integer.parseInt(System.getProperty("testMillis", "3000"))
+
+  private val symbols = Array.tabulate(SYMBOLS){i => "%06d.SS".format(i)}
+
+  private trait Subject {
+    def update(uniSymbol: String, v: Double)
+    def endBatch
+    def get(uniSymbol: String): Option[Ticker]
+  }
+
+  /** what Exchange did before: every access locks the shared map */
+  private class Synchronized extends Subject {
+    private val map = mutable.Map[String, Ticker]()
+    symbols foreach {x => map.put(x, tickerOf(x, 0))}
+
+    def update(uniSymbol: String, v: Double) = map synchronized {
+      val ticker = map(uniSymbol)
+      ticker.lastPrice = v
+      ticker.dayHigh = v
+      ticker.dayVolume = v
+    }
+    def endBatch {}
+    def get(uniSymbol: String) = map synchronized {map.get(uniSymbol)}
+  }
+
+  private class Snapshot extends Subject {
+    private val lock = new java.util.concurrent.locks.ReentrantLock
+    private val snapshot = new LastTickerSnapshot(symbols map {x => (x, tickerOf(x, 0))})
+
+    def update(uniSymbol: String, v: Double) {
+      lock.lock
+      try {
+        val ticker = snapshot.get(uniSymbol).get
+        ticker.lastPrice = v
+        ticker.dayHigh = v
+        ticker.dayVolume = v
+        snapshot.touch(uniSymbol)
+      } finally {
+        lock.unlock
+      }
+    }
+    def endBatch {
+      lock.lock
+      try {
+        snapshot.publish
+      } finally {
+        lock.unlock
+      }
+    }
+    def get(uniSymbol: String) = snapshot.snapshot.get(uniSymbol)
+  }
+
+  def main(args: Array[String]) {
+    println("Symbols=" + SYMBOLS + ", Readers=" + READERS + ", Batch=" + BATCH + ", Millis=" + MILLIS)
+    var run = 0
+    while (run < 3) {
+      bench("synchronized", new Synchronized)
+      bench("snapshot    ", new Snapshot)
+      run += 1
+    }
+  }
+
+  private def bench(name: String, subject: Subject) {
+    val stop = new AtomicBoolean(false)
+    val reads = new AtomicLong
+    val torn = new AtomicLong
+    val writes = new AtomicLong
+    val done = new CountDownLatch(READERS + 1)
+
+    val writer = new Thread(new Runnable {
+      def run {
+        val random = new scala.util.Random(0)
+        var v = 0.0
+        var n = 0L
+        while (!stop.get) {
+          var i = -1
+          while ({i += 1; i < BATCH}) {
+            v += 1
+            subject.update(symbols(random.nextInt(SYMBOLS)), v)
+          }
+          subject.endBatch
+          n += BATCH
+        }
+        writes.addAndGet(n)
+        done.countDown
+      }
+    })
+
+    val readers = Array.tabulate(READERS){k =>
+      new Thread(new Runnable {
+        def run {
+          val random = new scala.util.Random(k + 1)
+          var n = 0L
+          var nTorn = 0L
+          while (!stop.get) {
+            subject.get(symbols(random.nextInt(SYMBOLS))) match {
+              case Some(ticker) =>
+                val v = ticker.lastPrice
+                if (ticker.dayHigh != v || ticker.dayVolume != v) nTorn += 1
+              case None =>
+            }
+            n += 1
+          }
+          reads.addAndGet(n)
+          torn.addAndGet(nTorn)
+          done.countDown
+        }
+      })
+    }
+
+    writer.start
+    readers foreach (_.start)
+    Thread.sleep(MILLIS)
+    stop.set(true)
+    done.await
+
+    val secs = MILLIS / 1000.0
+    println(name + ": reads/s=" + (reads.get / secs).toLong + ", writes/s=" + (writes.get / secs).toLong + ", torn=" + torn.get)
+  }
+
+  private def tickerOf(uniSymbol: String, v: Double) = {
+    val ticker = new Ticker
+    ticker.uniSymbol = uniSymbol
+    ticker.lastPrice = v
+    ticker.dayHigh = v
+    ticker.dayVolume = v
+    ticker
+  }
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+/**
+ * Compact, versioned binary encoding of MarketDepth.bidAsks.
+ * 
+ * Version 1:
+ *   version: Byte, mode: Byte, depth: varint, then
+ *   mode SCALED: scale: Byte, and for each level: bidPrice, bidSize, askPrice, askSize,
+ *                where prices are zigzag varint deltas to the previous price in 
+ *                ticks of 10^-scale (the first one is delta to 0), sizes are 
+ *                zigzag varints
+ *   mode RAW:    the doubles, 8 bytes each, used when prices are not exact at
+ *                any scale up to MAX_SCALE or sizes are not integral
+ *
+ * A depth-5 ticker takes about 25 - 40 bytes instead of 160 bytes of doubles,
+ * and the round trip is exact in both modes.
+ * 
+ * The depthBytes column is a SERIALIZED byte[] of ORM, i.e. a java serialized
+ * stream of the encoded bytes, whose header is always the same, so 
+ * encodeColumn/decodeColumn read and write the column without going through
+ * ObjectOutputStream/ObjectInputStream.
+ * 
+ * @author Caoyuan Deng
+ */
+object MarketDepthCodec {
+  val VERSION_1: Byte = 1
+  
+  private val SCALED: Byte = 0
+  private val RAW: Byte = 1
+  
+  private val MAX_SCALE = 6
+  private val POW10 = Array.tabulate(MAX_SCALE + 1){i => math.pow(10, i)}
+  /** values beyond it can not be kept exactly by a double */
+  private val MAX_EXACT = 1L << 53
+
+  /** stream header and class descriptor of a java serialized byte[], followed by length and bytes */
+  private val COLUMN_HEADER: Array[Byte] = serialize(Array[Byte]()).dropRight(4)
+
+  def encode(bidAsks: Array[Double]): Array[Byte] = {
+    val n = if (bidAsks == null) 0 else bidAsks.length
+    val depth = n / 4
+    val scale = if (n % 4 == 0) scaleOf(bidAsks, depth) else -1
+
+    val out = new Output(if (scale >= 0) 4 + n * 5 else 4 + n * 8)
+    out.put(VERSION_1)
+    if (scale >= 0) {
+      out.put(SCALED)
+      out.putVarint(depth)
+      out.put(scale.toByte)
+      val factor = POW10(scale)
+      var prevTicks = 0L
+      var i = -1
+      while ({i += 1; i < n}) {
+        if (i % 2 == 0) { // price
+          val ticks = math.round(bidAsks(i) * factor)
+          out.putVarint(zigzag(ticks - prevTicks))
+          prevTicks = ticks
+        } else {          // size
+          out.putVarint(zigzag(bidAsks(i).toLong))
+        }
+      }
+    } else {
+      out.put(RAW)
+      out.putVarint(n)
+      var i = -1
+      while ({i += 1; i < n}) {
+        out.putLong(java.lang.Double.doubleToLongBits(bidAsks(i)))
+      }
+    }
+    out.toArray
+  }
+
+  /**
+   * @return the depthBytes column value of bidAsks, same as java serialized encode(bidAsks)
+   */
+  def encodeColumn(bidAsks: Array[Double]): Array[Byte] = {
+    val bytes = encode(bidAsks)
+    val n = bytes.length
+    val h = COLUMN_HEADER.length
+    val column = new Array[Byte](h + 4 + n)
+    System.arraycopy(COLUMN_HEADER, 0, column, 0, h)
+    column(h)     = (n >>> 24).toByte
+    column(h + 1) = (n >>> 16).toByte
+    column(h + 2) = (n >>> 8).toByte
+    column(h + 3) = n.toByte
+    System.arraycopy(bytes, 0, column, h + 4, n)
+    column
+  }
+
+  /**
+   * Decode the depthBytes column value in place, a stream that is not in the
+   * form of encodeColumn is deserialized by ObjectInputStream.
+   */
+  def decodeColumn(column: Array[Byte]): Array[Double] = {
+    if (column == null || column.length == 0) return Array[Double]()
+
+    val h = COLUMN_HEADER.length
+    if (column.length >= h + 4 && hasColumnHeader(column)) {
+      val n = ((column(h) & 0xFF) << 24) | ((column(h + 1) & 0xFF) << 16) | ((column(h + 2) & 0xFF) << 8) | (column(h + 3) & 0xFF)
+      if (n == column.length - h - 4) {
+        return decode(column, h + 4)
+      }
+    }
+    decode(deserialize(column).asInstanceOf[Array[Byte]])
+  }
+  
+  private def hasColumnHeader(column: Array[Byte]): Boolean = {
+    var i = -1
+    while ({i += 1; i < COLUMN_HEADER.length}) {
+      if (column(i) != COLUMN_HEADER(i)) return false
+    }
+    true
+  }
+
+  def decode(bytes: Array[Byte]): Array[Double] = decode(bytes, 0)
+  
+  private def decode(bytes: Array[Byte], offset: Int): Array[Double] = {
+    if (bytes == null || bytes.length <= offset) return Array[Double]()
+    
+    val in = new Input(bytes, offset)
+    in.get match {
+      case VERSION_1 =>
+        in.get match {
+          case SCALED =>
+            val depth = in.getVarint.toInt
+            val factor = POW10(in.get)
+            val n = depth * 4
+            val bidAsks = new Array[Double](n)
+            var prevTicks = 0L
+            var i = -1
+            while ({i += 1; i < n}) {
+              if (i % 2 == 0) {
+                prevTicks += unzigzag(in.getVarint)
+                bidAsks(i) = prevTicks / factor
+              } else {
+                bidAsks(i) = unzigzag(in.getVarint)
+              }
+            }
+            bidAsks
+          case RAW =>
+            val n = in.getVarint.toInt
+            val bidAsks = new Array[Double](n)
+            var i = -1
+            while ({i += 1; i < n}) {
+              bidAsks(i) = java.lang.Double.longBitsToDouble(in.getLong)
+            }
+            bidAsks
+          case mode => throw new IllegalArgumentException("Unknown market depth encoding mode: " + mode)
+        }
+      case version => throw new IllegalArgumentException("Unknown market depth encoding version: " + version)
+    }
+  }
+
+  /**
+   * @return the min scale that all prices are exact in ticks of 10^-scale 
+   *         and all sizes are integral, or -1 if none
+   */
+  private def scaleOf(bidAsks: Array[Double], depth: Int): Int = {
+    var i = -1
+    while ({i += 1; i < depth * 4}) {
+      if (i % 2 == 1) {
+        val size = bidAsks(i)
+        if (size != size.toLong || math.abs(size) >= MAX_EXACT) return -1
+      }
+    }
+    
+    var scale = 0
+    while (scale <= MAX_SCALE) {
+      if (isExactAt(bidAsks, depth, POW10(scale))) return scale
+      scale += 1
+    }
+    -1
+  }
+  
+  private def isExactAt(bidAsks: Array[Double], depth: Int, factor: Double): Boolean = {
+    var i = -2
+    while ({i += 2; i < depth * 4}) {
+      val price = bidAsks(i)
+      val ticks = math.round(price * factor)
+      if (math.abs(ticks) >= MAX_EXACT || ticks / factor != price) return false
+    }
+    true
+  }
+
+  private[model] def serialize(o: AnyRef): Array[Byte] = {
+    val bos = new ByteArrayOutputStream
+    val oos = new ObjectOutputStream(bos)
+    oos.writeObject(o)
+    oos.close
+    bos.toByteArray
+  }
+
+  private[model] def deserialize(bytes: Array[Byte]): AnyRef = {
+    val ois = new ObjectInputStream(new ByteArrayInputStream(bytes))
+    try {
+      ois.readObject
+    } finally {
+      ois.close
+    }
+  }
+
+  private[model] def zigzag(v: Long): Long = (v << 1) ^ (v >> 63)
+  private[model] def unzigzag(v: Long): Long = (v >>> 1) ^ -(v & 1)
+
+  private[model] final class Output(initialSize: Int) {
+    private var buf = new Array[Byte](initialSize)
+    private var pos = 0
+    
+    def put(b: Byte) {
+      ensure(1)
+      buf(pos) = b
+      pos += 1
+    }
+    
+    def putVarint(v: Long) {
+      ensure(10)
+      var x = v
+      while ((x & ~0x7FL) != 0) {
+        buf(pos) = ((x & 0x7F) | 0x80).toByte
+        pos += 1
+        x >>>= 7
+      }
+      buf(pos) = x.toByte
+      pos += 1
+    }
+    
+    def putLong(v: Long) {
+      ensure(8)
+      var shift = 56
+      while (shift >= 0) {
+        buf(pos) = (v >>> shift).toByte
+        pos += 1
+        shift -= 8
+      }
+    }
+
+    def putBytes(bytes: Array[Byte]) {
+      putVarint(bytes.length)
+      ensure(bytes.length)
+      System.arraycopy(bytes, 0, buf, pos, bytes.length)
+      pos += bytes.length
+    }
+
+    def toArray: Array[Byte] = {
+      val xs = new Array[Byte](pos)
+      System.arraycopy(buf, 0, xs, 0, pos)
+      xs
+    }
+    
+    private def ensure(n: Int) {
+      if (pos + n > buf.length) {
+        val newBuf = new Array[Byte](math.max(buf.length * 2, pos + n))
+        System.arraycopy(buf, 0, newBuf, 0, pos)
+        buf = newBuf
+      }
+    }
+  }
+  
+  private[model] final class Input(buf: Array[Byte], offset: Int = 0) {
+    private var pos = offset
+    
+    def get: Byte = {
+      val b = buf(pos)
+      pos += 1
+      b
+    }
+    
+    def getVarint: Long = {
+      var v = 0L
+      var shift = 0
+      var b = 0
+      do {
+        b = buf(pos)
+        pos += 1
+        v |= (b & 0x7FL) << shift
+        shift += 7
+      } while ((b & 0x80) != 0)
+      v
+    }
+    
+    def getLong: Long = {
+      var v = 0L
+      var i = 0
+      while (i < 8) {
+        v = (v << 8) | (buf(pos) & 0xFFL)
+        pos += 1
+        i += 1
+      }
+      v
+    }
+
+    def getBytes: Array[Byte] = {
+      val n = getVarint.toInt
+      val xs = new Array[Byte](n)
+      System.arraycopy(buf, pos, xs, 0, n)
+      pos += n
+      xs
+    }
+  }
+}
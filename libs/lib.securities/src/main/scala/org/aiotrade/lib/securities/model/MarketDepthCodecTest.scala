@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+/**
+ * Round trip of MarketDepthCodec, and its size/decode time of depthBytes column
+ * against java serialized double[] as the legacy bidAsks column.
+ * Not enabled by default, run it via main.
+ *
+ * @author Caoyuan Deng
+ */
+object MarketDepthCodecTest {
+  private val COUNT = Integer.parseInt(System.getProperty("testSize", "100000"))
+
+  def main(args: Array[String]) {
+    val random = new scala.util.Random(1)
+    val depths = Array.tabulate(COUNT){i => 
+      val depth = if (i % 2 == 0) 5 else 10
+      val lastPrice = 1 + random.nextInt(10000) / 100.0
+      val bidAsks = new Array[Double](depth * 4)
+      var j = 0
+      while (j < depth) {
+        bidAsks(j * 4)     = ((lastPrice * 100).round - j - 1) / 100.0
+        bidAsks(j * 4 + 1) = random.nextInt(100000) * 100
+        bidAsks(j * 4 + 2) = ((lastPrice * 100).round + j + 1) / 100.0
+        bidAsks(j * 4 + 3) = random.nextInt(100000) * 100
+        j += 1
+      }
+      bidAsks
+    }
+    // some odd ones that should go RAW mode
+    depths(1) = Array(1.0 / 3, 100, 0.5, 0.5)
+    depths(3) = Array(Double.NaN, 0, 0, 0)
+    depths(5) = Array[Double]()
+
+    var failed = 0
+    var i = 0
+    while (i < depths.length) {
+      val decoded = MarketDepthCodec.decode(MarketDepthCodec.encode(depths(i)))
+      val column = MarketDepthCodec.encodeColumn(depths(i))
+      val decodedColumn = MarketDepthCodec.decodeColumn(column)
+      val decodedSerialized = MarketDepthCodec.decodeColumn(MarketDepthCodec.serialize(MarketDepthCodec.encode(depths(i))))
+      if (!sameValues(decoded, depths(i)) || !sameValues(decodedColumn, depths(i)) || !sameValues(decodedSerialized, depths(i)) ||
+          !java.util.Arrays.equals(column, MarketDepthCodec.serialize(MarketDepthCodec.encode(depths(i))))) {
+        failed += 1
+        if (failed < 10) println("Mismatch: " + depths(i).mkString(",") + " => " + decoded.mkString(","))
+      }
+      i += 1
+    }
+    println("Round trip of " + COUNT + ": " + (if (failed == 0) "passed" else failed + " FAILED"))
+
+    var run = 0
+    while (run < 3) {
+      compare(depths)
+      run += 1
+    }
+  }
+
+  private def compare(depths: Array[Array[Double]]) {
+    var t0 = System.nanoTime
+    val legacy = depths map MarketDepthCodec.serialize
+    val legacyEncodeMs = (System.nanoTime - t0) / 1000000
+    
+    t0 = System.nanoTime
+    val compact = depths map MarketDepthCodec.encodeColumn
+    val compactEncodeMs = (System.nanoTime - t0) / 1000000
+    
+    t0 = System.nanoTime
+    var checksum = 0.0
+    legacy foreach {x => checksum += MarketDepthCodec.deserialize(x).asInstanceOf[Array[Double]].length}
+    val legacyDecodeMs = (System.nanoTime - t0) / 1000000
+    
+    t0 = System.nanoTime
+    compact foreach {x => checksum += MarketDepthCodec.decodeColumn(x).length}
+    val compactDecodeMs = (System.nanoTime - t0) / 1000000
+
+    println("java double[]: %8d bytes, encode %5d ms, decode %5d ms".format(legacy.map(_.length.toLong).sum, legacyEncodeMs, legacyDecodeMs))
+    println("depthBytes:    %8d bytes, encode %5d ms, decode %5d ms (checksum %s)".format(compact.map(_.length.toLong).sum, compactEncodeMs, compactDecodeMs, checksum))
+  }
+
+  private def sameValues(a: Array[Double], b: Array[Double]): Boolean = {
+    if (a.length != b.length) return false
+    var i = 0
+    while (i < a.length) {
+      if (java.lang.Double.doubleToLongBits(a(i)) != java.lang.Double.doubleToLongBits(b(i))) return false
+      i += 1
+    }
+    true
+  }
+}
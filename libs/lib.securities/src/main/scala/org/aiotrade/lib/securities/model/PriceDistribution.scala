@@ -57,11 +57,22 @@ final class PriceDistribution extends BelongsToSec with TVal with Flag with Seri
   }
 }
 
+/**
+ * Price-volume histogram of a sec at time. Price levels are int offsets in
+ * ticks from lowTick, the volumes up/down/even of each level are kept in
+ * parallel double arrays, so adding an execution is an array update, and a
+ * level is only materialized as a PriceDistribution when asked by get/values,
+ * i.e. for persistence.
+ * 
+ * The tick starts at 0.01 and is refined by 10 whenever a price falls between
+ * ticks, i.e. 0.001 for funds, so two prices never share a level. There is no
+ * tick size of sec or exchange in the tree, so it's found from the prices.
+ * 
+ * A level exists when any of its volumes is not 0.
+ */
 @serializable
 final class PriceCollection extends BelongsToSec with TVal with Flag  {
-  @transient
-  val cal = Calendar.getInstance
-  private var map = mutable.Map[String, PriceDistribution]()
+  import PriceCollection._
 
   var isTransient = true
 
@@ -81,83 +92,258 @@ final class PriceCollection extends BelongsToSec with TVal with Flag  {
   private def avgPrice_= (value: Double){ data(0) = value}
   private def totalVolume_= (value: Double){ data(1) = value}
 
-  def get(price: String) = map.get(price)
-    
-  def put(price: String, pd: PriceDistribution) = {
-    if (map.isEmpty){
-      this.time = pd.time
-      this.sec = pd.sec
-      this.flag = pd.flag
+  /** ticks per price unit, 100 means a tick size of 0.01, @see fitTick */
+  private var ticksPerUnit = DEFAULT_TICKS_PER_UNIT
+  /** price in ticks of level 0 */
+  private var lowTick = 0L
+  private var ups   = EMPTY
+  private var downs = EMPTY
+  private var evens = EMPTY
+
+  def tickSize: Double = 1.0 / ticksPerUnit
+  /** should be set before any volume is added */
+  def tickSize_=(tickSize: Double) {
+    assert(isEmpty, "Can not change tick size of a non-empty PriceCollection")
+    ticksPerUnit = math.round(1 / tickSize).toInt
+    ups = EMPTY
+    downs = EMPTY
+    evens = EMPTY
+  }
+
+  private[model] def tickOf(price: Double): Long = math.round(price * ticksPerUnit)
+  private def priceOf(idx: Int): Double = (lowTick + idx).toDouble / ticksPerUnit
+
+  /**
+   * Refine ticks until price is on a tick, should be called before tickOf for
+   * a price that is not from this collection.
+   */
+  private[model] def fitTick(price: Double) {
+    while (ticksPerUnit < MAX_TICKS_PER_UNIT && !isOnTick(price)) {
+      refineTicks
     }
+  }
+
+  private def isOnTick(price: Double) = {
+    val ticks = price * ticksPerUnit
+    math.abs(ticks - math.rint(ticks)) < ON_TICK_EPSILON
+  }
 
-    if (TFreq.DAILY.round(this.time, cal) == TFreq.DAILY.round(pd.time, cal)){
-      val vol0 = map.get(price) match{
-        case Some(pr) => pr.volumeDown + pr.volumeEven + pr.volumeUp
-        case None => 0
+  /** 10 times finer ticks, level i goes to level i * 10 */
+  private def refineTicks() {
+    val n = ups.length
+    if (n > 0) {
+      val length = (n - 1) * 10 + 1
+      val newUps   = new Array[Double](length)
+      val newDowns = new Array[Double](length)
+      val newEvens = new Array[Double](length)
+      var i = -1
+      while ({i += 1; i < n}) {
+        newUps(i * 10)   = ups(i)
+        newDowns(i * 10) = downs(i)
+        newEvens(i * 10) = evens(i)
       }
-      
-      val vol = pd.volumeUp + pd.volumeDown + pd.volumeEven
-      avgPrice = (avgPrice * totalVolume + pd.price * (vol - vol0)) / (totalVolume + vol - vol0)
-      totalVolume += vol - vol0
-      pd.flag = flag
-      map.put(price, pd)
-      if (this.closed_?) pd.closed_! else pd.unclosed_!
+      ups = newUps
+      downs = newDowns
+      evens = newEvens
+      lowTick *= 10
+    }
+    ticksPerUnit *= 10
+  }
+
+  /**
+   * @return index of the level of tick, arrays are grown or shifted when necessary
+   */
+  private def levelOf(tick: Long): Int = {
+    val n = ups.length
+    if (n == 0) {
+      lowTick = tick - GROW_SLACK
+      allocate(0, 2 * GROW_SLACK + 1)
+    } else if (tick < lowTick) {
+      val shift = (lowTick - tick).toInt + GROW_SLACK
+      lowTick -= shift
+      allocate(shift, n + shift)
+    } else if (tick >= lowTick + n) {
+      allocate(0, math.max((tick - lowTick).toInt + 1 + GROW_SLACK, n * 2))
     }
+    (tick - lowTick).toInt
   }
 
-  def keys = map.keys
+  private def allocate(offset: Int, length: Int) {
+    val newUps   = new Array[Double](length)
+    val newDowns = new Array[Double](length)
+    val newEvens = new Array[Double](length)
+    System.arraycopy(ups,   0, newUps,   offset, ups.length)
+    System.arraycopy(downs, 0, newDowns, offset, downs.length)
+    System.arraycopy(evens, 0, newEvens, offset, evens.length)
+    ups = newUps
+    downs = newDowns
+    evens = newEvens
+  }
 
-  def values = map.values
+  private def isLevel(idx: Int) = ups(idx) != 0 || downs(idx) != 0 || evens(idx) != 0
 
-  def clear = {
-    map.clear
-    var i= -1
-    while ({i += 1; i< data.length}) data(i) = 0.0
+  /**
+   * Add volumes at price
+   */
+  def add(price: Double, volumeUp: Double, volumeDown: Double, volumeEven: Double) {
+    if (price > 0) {
+      fitTick(price)
+      val idx = levelOf(tickOf(price))
+      ups(idx)   += volumeUp
+      downs(idx) += volumeDown
+      evens(idx) += volumeEven
+      addToAverage(price, volumeUp + volumeDown + volumeEven)
+    }
   }
 
-  def isEmpty = map.isEmpty
+  /**
+   * Add an execution's volume at its price, by its direction
+   * @see Execution#setDirection
+   */
+  def add(execution: Execution) {
+    val volume = execution.volume
+    if (execution.up_?) {
+      add(execution.price, volume, 0, 0)
+    } else if (execution.down_?) {
+      add(execution.price, 0, volume, 0)
+    } else {
+      add(execution.price, 0, 0, volume)
+    }
+  }
 
-  override def closed_! = {
-    super.closed_!
-    this.map.values foreach (_.closed_!)
+  /**
+   * Merge volumes of another collection into this one, ie. to get a multi-day
+   * distribution from daily ones
+   */
+  def merge(another: PriceCollection) {
+    val n = another.ups.length
+    if (n == 0) return
+    
+    while (ticksPerUnit < another.ticksPerUnit && another.ticksPerUnit % (ticksPerUnit * 10) == 0) {
+      refineTicks
+    }
+    if (another.ticksPerUnit == ticksPerUnit) {
+      levelOf(another.lowTick)
+      levelOf(another.lowTick + n - 1)
+      val offset = (another.lowTick - lowTick).toInt
+      var i = -1
+      while ({i += 1; i < n}) {
+        ups(offset + i)   += another.ups(i)
+        downs(offset + i) += another.downs(i)
+        evens(offset + i) += another.evens(i)
+      }
+    } else {
+      var i = -1
+      while ({i += 1; i < n}) {
+        if (another.isLevel(i)) {
+          val price = another.priceOf(i)
+          fitTick(price)
+          val idx = levelOf(tickOf(price))
+          ups(idx)   += another.ups(i)
+          downs(idx) += another.downs(i)
+          evens(idx) += another.evens(i)
+        }
+      }
+    }
+    addToAverage(another.avgPrice, another.totalVolume)
   }
 
-  override def unclosed_! = {
-    super.unclosed_!
-    this.map.values foreach (_.unclosed_!)
+  private def addToAverage(price: Double, volume: Double) {
+    if (volume != 0) {
+      // volume is negative when put replaces a level with less volume
+      val total = totalVolume + volume
+      avgPrice = if (total != 0) (avgPrice * totalVolume + price * volume) / total else 0
+      totalVolume = total
+    }
   }
 
-  override def justOpen_! = {
-    super.justOpen_!
-    this.map.values foreach (_.justOpen_!)
+  def get(price: String): Option[PriceDistribution] = {
+    val p = price.toDouble
+    if (!isOnTick(p)) return None
+    val tick = tickOf(p)
+    val idx = (tick - lowTick).toInt
+    if (tick >= lowTick && idx < ups.length && isLevel(idx)) Some(toPriceDistribution(idx)) else None
   }
 
-  override def unjustOpen_! = {
-    super.unjustOpen_!
-    this.map.values foreach (_.unjustOpen_!)
+  /**
+   * Put a stored price distribution, its volumes replace the volumes of the 
+   * level of its price.
+   */
+  def put(price: String, pd: PriceDistribution) = {
+    if (ups.length == 0){
+      this.time = pd.time
+      this.sec = pd.sec
+      this.flag = pd.flag
+    }
+
+    if (sameDay(this.time, pd.time) && pd.price > 0) {
+      fitTick(pd.price)
+      val idx = levelOf(tickOf(pd.price))
+      val vol0 = ups(idx) + downs(idx) + evens(idx)
+      ups(idx)   = pd.volumeUp
+      downs(idx) = pd.volumeDown
+      evens(idx) = pd.volumeEven
+      addToAverage(pd.price, pd.volumeUp + pd.volumeDown + pd.volumeEven - vol0)
+    }
   }
 
-  override def fromMe_! = {
-    super.fromMe_!
-    this.map.values foreach (_.fromMe_!)
+  private def toPriceDistribution(idx: Int): PriceDistribution = {
+    val pd = new PriceDistribution
+    pd.sec = sec
+    pd.time = time
+    pd.flag = flag
+    pd.price = priceOf(idx)
+    pd.volumeUp = ups(idx)
+    pd.volumeDown = downs(idx)
+    pd.volumeEven = evens(idx)
+    pd
   }
 
-  override def unfromMe_! = {
-    super.unfromMe_!
-    this.map.values foreach (_.unfromMe_!)
+  private def levelIndexes: Iterable[Int] = (0 until ups.length) filter isLevel
+
+  def keys: Iterable[String] = levelIndexes map (priceOf(_).toString)
+
+  /** materialized price distributions of all levels, with flag of this collection */
+  def values: Iterable[PriceDistribution] = levelIndexes map toPriceDistribution
+
+  def clear = {
+    ups = EMPTY
+    downs = EMPTY
+    evens = EMPTY
+    var i= -1
+    while ({i += 1; i< data.length}) data(i) = 0.0
   }
-  
+
+  def isEmpty = !(0 until ups.length).exists(isLevel)
+
   override def toString() ={
     val sp = new StringBuffer
     sp.append("\nunisymbol:").append(uniSymbol)
     sp.append("\ntime:").append(time)
     sp.append("\navgPrice:").append(avgPrice)
     sp.append("\ntotalVolume:").append(totalVolume)
-    for((key, value) <- this.map) sp.append("\n").append(value.toString)
+    for (value <- values) sp.append("\n").append(value.toString)
     sp.toString
   }
 }
 
+object PriceCollection {
+  private val DEFAULT_TICKS_PER_UNIT = 100
+  private val MAX_TICKS_PER_UNIT = 10000
+  private val ON_TICK_EPSILON = 1e-6
+  private val GROW_SLACK = 32
+  private val EMPTY = Array[Double]()
+
+  private val ONE_DAY = 24 * 60 * 60 * 1000L
+  private val cal = new ThreadLocal[Calendar] {
+    override protected def initialValue = Calendar.getInstance
+  }
+
+  private def sameDay(timeA: Long, timeB: Long) = {
+    math.abs(timeA - timeB) < ONE_DAY && TFreq.DAILY.round(timeA, cal.get) == TFreq.DAILY.round(timeB, cal.get)
+  }
+}
+
 
 object PriceDistributions  extends Table[PriceDistribution] {
   private val log = Logger.getLogger(this.getClass.getName)
@@ -326,24 +512,17 @@ object PriceDistributions  extends Table[PriceDistribution] {
     val last = sortedPDs.last
     val frTime = math.min(head.time, last.time)
     val toTime = math.max(head.time, last.time)
-    val exists = mutable.Map[(Long, Double), PriceDistribution]()
+    val exists = mutable.Map[Long, ArrayList[PriceDistribution]]()
     (SELECT (this.*) FROM (this) WHERE (
         (this.sec.field EQ Secs.idOf(sec)) AND (this.time GE frTime) AND (this.time LE toTime)
       ) ORDER_BY (this.time) list
-    ) foreach {x => exists.put(x.time -> x.price, x)}
+    ) foreach {x => exists.getOrElseUpdate(x.time, new ArrayList[PriceDistribution]()) += x}
 
     val updates = new ArrayList[PriceDistribution]()
     val inserts = new ArrayList[PriceDistribution]()
 
     sortedPDs.foreach{pc =>
-      val (u, i) = pc.values.partition(x => exists.contains(x.time -> x.price))
-      updates ++= sortAndMergingPriceDistribution(u, SIZE)
-      inserts ++= sortAndMergingPriceDistribution(i, SIZE)
-    }
-
-    for (x <- updates) {
-      val existOne = exists(x.time -> x.price)
-      existOne.copyFrom(x)
+      toUpdatesAndInserts(pc, exists.getOrElse(pc.time, Nil), updates, inserts)
     }
 
     try {
@@ -361,7 +540,7 @@ object PriceDistributions  extends Table[PriceDistribution] {
   def saveBatch(atSameTime: Long, pcs: Array[PriceCollection]) {
     if (pcs.isEmpty) return
 
-    val exists = mutable.Map[(Sec, Double),PriceDistribution]()
+    val exists = mutable.Map[Sec, ArrayList[PriceDistribution]]()
     val res = try {
       SELECT (this.*) FROM (this) WHERE (
         (this.time EQ atSameTime) AND (this.sec.field GT 0) AND (this.sec.field LT CRCLongId.MaxId )
@@ -369,15 +548,13 @@ object PriceDistributions  extends Table[PriceDistribution] {
     } catch {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
     }
-    res foreach {x => exists.put(x.sec -> x.price, x)}
+    res foreach {x => exists.getOrElseUpdate(x.sec, new ArrayList[PriceDistribution]()) += x}
 
     val updates = new ArrayList[PriceDistribution]()
     val inserts = new ArrayList[PriceDistribution]()
 
     pcs.foreach{pc =>
-      val (u, i) = pc.values partition {x => exists.contains(x.sec -> x.price)}
-      updates ++= sortAndMergingPriceDistribution(u, SIZE)
-      inserts ++= sortAndMergingPriceDistribution(i, SIZE)
+      toUpdatesAndInserts(pc, exists.getOrElse(pc.sec, Nil), updates, inserts)
     }
 
     try {
@@ -391,6 +568,32 @@ object PriceDistributions  extends Table[PriceDistribution] {
       case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex)
     }
   }
+
+  /**
+   * Levels of pc are materialized as new rows, so a level that has been stored
+   * should be saved by updating the stored row instead. Stored rows of pc's
+   * sec and time are matched to levels by tick of price, the stored price is
+   * kept, so the row could be matched again on next saving. Ticks of pc are
+   * fitted to stored prices first, so stored rows never share a tick.
+   */
+  private def toUpdatesAndInserts(pc: PriceCollection, stored: Iterable[PriceDistribution],
+                                  updates: ArrayList[PriceDistribution], inserts: ArrayList[PriceDistribution]) {
+    stored foreach {x => pc.fitTick(x.price)}
+    val storedByTick = mutable.Map[Long, PriceDistribution]()
+    stored foreach {x => storedByTick.put(pc.tickOf(x.price), x)}
+
+    sortAndMergingPriceDistribution(pc.values, SIZE) foreach {x =>
+      storedByTick.get(pc.tickOf(x.price)) match {
+        case Some(existOne) =>
+          val price = existOne.price
+          existOne.copyFrom(x)
+          existOne.price = price
+          updates += existOne
+        case None =>
+          inserts += x
+      }
+    }
+  }
   
   /**
    * Merge the prices' size to size.
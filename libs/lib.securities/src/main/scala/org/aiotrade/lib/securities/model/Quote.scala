@@ -248,6 +248,21 @@ abstract class Quotes extends Table[Quote] with TableEx {
     }
   }
 
+  /**
+   * @return quotes of time >= fromTime, in descending time order as quotesOf(sec)
+   */
+  def quotesOf(sec: Sec, fromTime: Long): Seq[Quote] = {
+    try {
+      val list1 = SELECT (this.*) FROM (this) WHERE (
+        (this.sec.field EQ Secs.idOf(sec)) AND (this.time GE fromTime)
+      ) ORDER_BY (this.time DESC) LIMIT(MAX_DATA_LENGTH) list;
+      list1 foreach{ x => x.lastModify = x.time}
+      list1
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
+    }
+  }
+
   def closedQuotesOf(sec: Sec): Seq[Quote] = {
     val xs = new ArrayList[Quote]()
     for (x <- quotesOf(sec) if x.closed_?) {
@@ -31,21 +31,25 @@
 
 package org.aiotrade.lib.securities.model
 
+import java.io.IOException
 import java.util.Calendar
 import org.aiotrade.lib.info.model.Infos1m
 import org.aiotrade.lib.info.model.Infos1d
 import org.aiotrade.lib.math.timeseries.TFreq
+import org.aiotrade.lib.math.timeseries.TFreqRounder
 import org.aiotrade.lib.math.timeseries.TSerEvent
 import org.aiotrade.lib.math.timeseries.TUnit
 import org.aiotrade.lib.math.timeseries.datasource.DataContract
 import org.aiotrade.lib.math.timeseries.datasource.DataServer
 import org.aiotrade.lib.math.timeseries.datasource.SerProvider
 import org.aiotrade.lib.securities.api
+import org.aiotrade.lib.securities.ColumnarQuoteStore
 import org.aiotrade.lib.securities.InfoPointSer
 import org.aiotrade.lib.securities.InfoSer
 import org.aiotrade.lib.securities.MoneyFlowSer
 import org.aiotrade.lib.securities.PersistenceManager
 import org.aiotrade.lib.securities.PriceDistributionSer
+import org.aiotrade.lib.securities.QuoteColumns
 import org.aiotrade.lib.securities.QuoteSer
 import org.aiotrade.lib.securities.QuoteSerCombiner
 import org.aiotrade.lib.securities.dataserver.MoneyFlowContract
@@ -58,6 +62,7 @@ import org.aiotrade.lib.securities.dataserver.RichInfo
 import org.aiotrade.lib.securities.dataserver.RichInfoContract
 import org.aiotrade.lib.securities.dataserver.RichInfoDataServer
 import org.aiotrade.lib.util.actors.Reactions
+import java.util.logging.Level
 import java.util.logging.Logger
 import scala.collection.mutable
 import org.aiotrade.lib.info.model.GeneralInfo
@@ -171,6 +176,8 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
   def realtimeSer = mutex synchronized {
     if (_realtimeSer == null) {
       _realtimeSer = new QuoteSer(this, TFreq.ONE_MIN)
+      // realtime ser keeps growing as long as the server runs, keep it bounded
+      _realtimeSer.toBoundedMode()
       freqToQuoteSer.put(TFreq.ONE_SEC, _realtimeSer)
     }
     _realtimeSer
@@ -179,6 +186,7 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
   def realtimeMoneyFlowSer = mutex synchronized {
     if (_realtimeMoneyFlowSer == null) {
       _realtimeMoneyFlowSer = new MoneyFlowSer(this, TFreq.ONE_MIN)
+      _realtimeMoneyFlowSer.toBoundedMode()
       freqToMoneyFlowSer.put(TFreq.ONE_SEC, _realtimeMoneyFlowSer)
     }
     _realtimeMoneyFlowSer
@@ -451,6 +459,29 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
    * All quotes in persistence should have been properly rounded to 00:00 of exchange's local time
    */
   def loadSerFromPersistence(ser: QuoteSer, isRealTime: Boolean): Long = {
+    if (!isRealTime && (ser.freq == TFreq.DAILY || ser.freq == TFreq.ONE_MIN)) {
+      val columns = ColumnarQuoteStore.default match {
+        case Some(store) =>
+          try {
+            store.load(uniSymbol, ser.freq, Quotes1d.MAX_DATA_LENGTH)
+          } catch {
+            case ex: IOException => 
+              log.log(Level.WARNING, uniSymbol + "(" + ser.freq + "): failed to load from columnar quote store, will load from db", ex)
+              null
+          }
+        case None => null
+      }
+      if (columns != null && !columns.isEmpty) {
+        // the store may be behind db, for example quotes were saved when it was disabled
+        val storedTime = columns.time(columns.size - 1)
+        val newerQuotes = ser.freq match {
+          case TFreq.ONE_MIN => Quotes1m.quotesOf(this, storedTime + 1)
+          case _             => Quotes1d.quotesOf(this, storedTime + 1)
+        }
+        return loadSerFromColumns(ser, columns, newerQuotes)
+      }
+    }
+    
     val quotes = if (isRealTime) {
 
       val dailyRoundedTime = exchange.lastDailyRoundedTradingTime match {
@@ -474,6 +505,11 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
     }
 
     ser ++= quotes.toArray
+    
+    // migrate to columnar quote store, so next time will load from it
+    if (!isRealTime && !quotes.isEmpty) {
+      ColumnarQuoteStore.saveIfEnabled(uniSymbol, ser.freq, quotes.toArray)
+    }
 
     /**
      * get the newest time which DataServer will load quotes after this time
@@ -514,6 +550,36 @@ class Sec extends SerProvider with CRCLongId with Ordered[Sec] {
     }
   }
 
+  /**
+   * Bulk load from columnar quote store, columns are in ascending time order,
+   * then newerQuotes from db, which are also appended to the store.
+   */
+  private def loadSerFromColumns(ser: QuoteSer, columns: QuoteColumns, newerQuotes: Seq[Quote]): Long = {
+    ser ++= columns
+    
+    var lastTime = columns.time(columns.size - 1)
+    if (!newerQuotes.isEmpty) {
+      val newer = newerQuotes.toArray
+      ser ++= newer
+      ColumnarQuoteStore.saveIfEnabled(uniSymbol, ser.freq, newer)
+      newer foreach {x => lastTime = math.max(lastTime, x.time)}
+    }
+
+    val firstTime = columns.time(0)
+    ser.publish(TSerEvent.Refresh(ser, uniSymbol, firstTime, lastTime))
+
+    // should load earlier quotes from data source? first fromMe may means never load from data server
+    val isFirstFromMe = (columns.flag(0) & Flag.MaskFromMe) == Flag.MaskFromMe
+    val wantTime = if (isFirstFromMe) 0 else lastTime
+
+    log.info(uniSymbol + "(" + ser.freq + "): loaded from columnar quote store, got quotes=" + columns.size + ", newer from db=" + newerQuotes.length +
+             ", loaded: time=" + lastTime + ", ser size=" + ser.size +
+             ", will try to load from data source from: " + wantTime
+    )
+
+    wantTime
+  }
+
   def loadInfoPointSer(ser : InfoPointSer) : Boolean = synchronized {
     //after resolve orm problem
     val wantTime = loadInfoPointSerFromPersistence(ser)
@@ -968,8 +1034,8 @@ class SecSnap(val sec: Sec) {
 
   var priceCollection = new PriceCollection
 
-  // it's not thread safe, but we know it won't be accessed parallel, @see sequenced accessing in setByTicker(ticker)
-  private val cal = Calendar.getInstance(sec.exchange.timeZone) 
+  private val dailyRounder  = TFreqRounder(TFreq.DAILY,   sec.exchange.timeZone)
+  private val minuteRounder = TFreqRounder(TFreq.ONE_MIN, sec.exchange.timeZone)
 
   final def setByTicker(ticker: Ticker): SecSnap = {
     newTicker = ticker
@@ -986,7 +1052,7 @@ class SecSnap(val sec: Sec) {
 
   private def checkDayQuoteAt(time: Long): Quote = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = dailyRounder.round(time)
     dayQuote match {
       case oldone: Quote if oldone.time == rounded =>
         oldone.lastModify = time
@@ -1011,7 +1077,7 @@ class SecSnap(val sec: Sec) {
 
   private def checkDayMoneyFlowAt(time: Long): MoneyFlow = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = dailyRounder.round(time)
     dayMoneyFlow match {
       case oldone: MoneyFlow if oldone.time == rounded =>
         oldone
@@ -1033,7 +1099,7 @@ class SecSnap(val sec: Sec) {
 
   private def checkPriceDistributionAt(time: Long): PriceCollection  = {
     assert(Secs.idOf(sec).isDefined, "Sec: " + sec + " is transient")
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = dailyRounder.round(time)
     priceCollection match {
       case oldOne: PriceCollection if oldOne.time == rounded => oldOne
       case _ =>
@@ -1052,7 +1118,7 @@ class SecSnap(val sec: Sec) {
   }
 
   private def checkMinQuoteAt(time: Long): Quote = {
-    val rounded = TFreq.ONE_MIN.round(time, cal)
+    val rounded = minuteRounder.round(time)
     minQuote match {
       case oldone: Quote if oldone.time == rounded =>
         oldone.lastModify = time
@@ -1075,7 +1141,7 @@ class SecSnap(val sec: Sec) {
   }
 
   private def checkMinMoneyFlowAt(time: Long): MoneyFlow = {
-    val rounded = TFreq.ONE_MIN.round(time, cal)
+    val rounded = minuteRounder.round(time)
     minMoneyFlow match {
       case oldone: MoneyFlow if oldone.time == rounded =>
         oldone
@@ -1098,7 +1164,7 @@ class SecSnap(val sec: Sec) {
    * @return lastTicker of this day
    */
   private def checkLastTickerAt(time: Long): Ticker = {
-    val rounded = TFreq.DAILY.round(time, cal)
+    val rounded = dailyRounder.round(time)
     lastTicker match {
       case oldone: Ticker if oldone.time >= rounded && oldone.time < rounded + ONE_DAY =>
         newTicker.isDayFirst = false
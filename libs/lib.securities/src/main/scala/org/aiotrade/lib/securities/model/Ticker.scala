@@ -77,6 +77,20 @@ final class Ticker($data: Array[Double], private var _marketDepth: MarketDepth)
     marketDepth.bidAsks = values
   }
 
+  /**
+   * db field, compact encoding of bidAsks
+   * @see MarketDepthCodec
+   */
+  def depthBytes: Array[Byte] = MarketDepthCodec.encode(bidAsks)
+  def depthBytes_=(bytes: Array[Byte]) {
+    val values = MarketDepthCodec.decode(bytes)
+    if (values.length == bidAsks.length) {
+      bidAsks = values
+    } else {
+      marketDepth = MarketDepth(values)
+    }
+  }
+
   final def bidPrice(idx: Int) = marketDepth.bidPrice(idx)
   final def bidSize (idx: Int) = marketDepth.bidSize (idx)
   final def askPrice(idx: Int) = marketDepth.askPrice(idx)
@@ -209,7 +223,8 @@ abstract class TickersTable extends Table[Ticker] {
 
   val dayChange = "dayChange" DOUBLE()
 
-  val bidAsks = "bidAsks" SERIALIZED(classOf[Array[Double]], 400)
+  /** @see TickersDepthMigration for rows that have only the legacy java-serialized "bidAsks" column */
+  val depthBytes = "depthBytes" SERIALIZED(classOf[Array[Byte]], 200)
 
   val timeIdx = getClass.getSimpleName + "_time_idx" INDEX(time.name)
 }
@@ -351,7 +366,7 @@ object Tickers extends TickersTable {
             private val sqlTickersTab = ORM.dialect.relationQualifiedName(Tickers)
             private val sqlSecsTab = ORM.dialect.relationQualifiedName(Secs)
 
-            override def toSql = "SELECT tickers.id AS this_1, tickers.bidAsks AS this_2, tickers.dayChange AS this_3, tickers.dayAmount AS this_4, tickers.dayVolume AS this_5, tickers.dayLow AS this_6, tickers.dayHigh AS this_7, tickers.dayOpen AS this_8, tickers.lastPrice AS this_9, tickers.prevClose AS this_10, tickers.time AS this_11, tickers.secs_id AS this_12" +
+            override def toSql = "SELECT tickers.id AS this_1, tickers.depthBytes AS this_2, tickers.dayChange AS this_3, tickers.dayAmount AS this_4, tickers.dayVolume AS this_5, tickers.dayLow AS this_6, tickers.dayHigh AS this_7, tickers.dayOpen AS this_8, tickers.lastPrice AS this_9, tickers.prevClose AS this_10, tickers.time AS this_11, tickers.secs_id AS this_12" +
             " FROM (SELECT tickers.secs_id AS secs_id, MAX(tickers.time) AS maxtime FROM " + sqlTickersTab + " AS tickers LEFT JOIN " + sqlSecsTab + " AS secs ON tickers.secs_id = secs.id" +
             " WHERE tickers.time >= " + rounded + " AND tickers.time < " + (rounded + ONE_DAY) + " AND secs.exchanges_id = " + Exchanges.idOf(exchange).get +
             " GROUP BY tickers.secs_id) AS x INNER JOIN + " + sqlTickersTab + " AS tickers ON x.secs_id = tickers.secs_id AND x.maxtime = tickers.time;"
@@ -380,7 +395,7 @@ object Tickers extends TickersTable {
       new Select(Tickers.*) {
         private val sqlTickersTab = ORM.dialect.relationQualifiedName(Tickers)
 
-        override def toSql = "SELECT tickers.id AS this_1, tickers.bidAsks AS this_2, tickers.dayChange AS this_3, tickers.dayAmount AS this_4, tickers.dayVolume AS this_5, tickers.dayLow AS this_6, tickers.dayHigh AS this_7, tickers.dayOpen AS this_8, tickers.lastPrice AS this_9, tickers.prevClose AS this_10, tickers.time AS this_11, tickers.secs_id AS this_12" +
+        override def toSql = "SELECT tickers.id AS this_1, tickers.depthBytes AS this_2, tickers.dayChange AS this_3, tickers.dayAmount AS this_4, tickers.dayVolume AS this_5, tickers.dayLow AS this_6, tickers.dayHigh AS this_7, tickers.dayOpen AS this_8, tickers.lastPrice AS this_9, tickers.prevClose AS this_10, tickers.time AS this_11, tickers.secs_id AS this_12" +
         " FROM (SELECT tickers.secs_id AS secs_id, MAX(tickers.time) AS maxtime FROM " + sqlTickersTab + " AS tickers" +
         " WHERE tickers.time >= " + dailyRoundedTime + " AND tickers.time < " + (dailyRoundedTime + ONE_DAY) +
         " GROUP BY tickers.secs_id) AS x INNER JOIN " + sqlTickersTab + " AS tickers ON x.secs_id = tickers.secs_id AND x.maxtime = tickers.time;"
@@ -430,6 +445,25 @@ object Tickers extends TickersTable {
 
 object TickersLast extends TickersTable {
 
+  /**
+   * @return all persisted last tickers, of all exchanges
+   */
+  def allLastTickers: mutable.Map[Sec, Ticker] = {
+    Exchange.uniSymbolToSec // force all secs and secInfos loaded
+
+    val start = System.currentTimeMillis
+    val map = mutable.Map[Sec, Ticker]()
+    val res = try {
+      SELECT(this.*) FROM (this JOIN Secs) list
+    } catch {
+      case ex: Throwable => log.log(Level.SEVERE, ex.getMessage, ex); Nil
+    } 
+    res foreach {x => map.put(x.sec, x)}
+
+    log.info("Loaded all last tickers: " + map.size + " in " + (System.currentTimeMillis - start) / 1000.0 + "s")
+    map
+  }
+
   private[model] def lastTickersOf(exchange: Exchange): mutable.Map[Sec, Ticker] = {
     Exchange.uniSymbolToSec // force all secs and secInfos loaded
 
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2006-2011, AIOTrade Computing Co. and Contributors
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of AIOTrade Computing Co. nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.aiotrade.lib.securities.model
+
+import java.sql.Connection
+import java.sql.DriverManager
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * Migrates tickers tables from the legacy "bidAsks" column (java-serialized 
+ * double[]) to "depthBytes" (MarketDepthCodec encoded, java-serialized byte[]
+ * as ORM's SERIALIZED does):
+ * 1. adds column depthBytes if it does not exist yet,
+ * 2. converts rows whose depthBytes is null, in batches, committing per batch,
+ *    so it can be stopped and re-run at any time,
+ * 3. leaves the legacy column there, drop it when all readers are upgraded.
+ * 
+ * Usage: TickersDepthMigration jdbcUrl user password [table ...]
+ * tables default to "tickers tickers_last", the column type of depthBytes is
+ * -Daiotrade.depthBytes.type, default "VARBINARY(200)"
+ *
+ * @author Caoyuan Deng
+ */
+object TickersDepthMigration {
+  private val log = Logger.getLogger(this.getClass.getName)
+  
+  private val BATCH_SIZE = 1000
+  private val COLUMN_TYPE = System.getProperty("aiotrade.depthBytes.type", "VARBINARY(200)")
+
+  def main(args: Array[String]) {
+    if (args.length < 3) {
+      println("Usage: TickersDepthMigration jdbcUrl user password [table ...]")
+      return
+    }
+    
+    val tables = if (args.length > 3) args.drop(3) else Array("tickers", "tickers_last")
+    val conn = DriverManager.getConnection(args(0), args(1), args(2))
+    try {
+      conn.setAutoCommit(false)
+      tables foreach {table => migrate(conn, table)}
+    } finally {
+      conn.close
+    }
+  }
+
+  def migrate(conn: Connection, table: String): Int = {
+    if (!hasColumn(conn, table, "depthBytes")) {
+      val stmt = conn.createStatement
+      try {
+        stmt.executeUpdate("ALTER TABLE " + table + " ADD depthBytes " + COLUMN_TYPE)
+        conn.commit
+      } finally {
+        stmt.close
+      }
+      log.info(table + ": added column depthBytes " + COLUMN_TYPE)
+    }
+
+    val t0 = System.currentTimeMillis
+    var legacyBytes = 0L
+    var newBytes = 0L
+    var count = 0
+    var batchCount = 0
+    do {
+      val select = conn.prepareStatement("SELECT id, bidAsks FROM " + table + " WHERE depthBytes IS NULL AND bidAsks IS NOT NULL LIMIT " + BATCH_SIZE)
+      val update = conn.prepareStatement("UPDATE " + table + " SET depthBytes = ? WHERE id = ?")
+      try {
+        batchCount = 0
+        val rs = select.executeQuery
+        while (rs.next) {
+          val id = rs.getLong(1)
+          val legacy = rs.getBytes(2)
+          val bytes = try {
+            MarketDepthCodec.encodeColumn(MarketDepthCodec.deserialize(legacy).asInstanceOf[Array[Double]])
+          } catch {
+            case ex: Exception => 
+              log.log(Level.WARNING, table + ": bad bidAsks of id=" + id + ", set to empty", ex)
+              MarketDepthCodec.encodeColumn(Array[Double]())
+          }
+          update.setBytes(1, bytes)
+          update.setLong(2, id)
+          update.addBatch
+          
+          legacyBytes += legacy.length
+          newBytes += bytes.length
+          batchCount += 1
+        }
+        rs.close
+        
+        if (batchCount > 0) {
+          update.executeBatch
+          conn.commit
+          count += batchCount
+        }
+      } catch {
+        case ex: Exception => conn.rollback; throw ex
+      } finally {
+        select.close
+        update.close
+      }
+    } while (batchCount == BATCH_SIZE)
+
+    log.info(table + ": migrated " + count + " rows in " + (System.currentTimeMillis - t0) + "ms, bytes " + legacyBytes + " -> " + newBytes + 
+             ". Drop the legacy column when all readers are upgraded: ALTER TABLE " + table + " DROP COLUMN bidAsks")
+    count
+  }
+
+  private def hasColumn(conn: Connection, table: String, column: String): Boolean = {
+    val stmt = conn.createStatement
+    try {
+      stmt.executeQuery("SELECT " + column + " FROM " + table + " WHERE 1 = 0").close
+      true
+    } catch {
+      case ex: java.sql.SQLException => conn.rollback; false
+    } finally {
+      stmt.close
+    }
+  }
+}
@@ -33,6 +33,14 @@ public class OutWindow
 		_stream = null;
 	}
 	
+	// drop stream and pending bytes without flushing, so that the window can be reused after a failed decoding
+	public void Reset()
+	{
+		_stream = null;
+		_pos = 0;
+		_streamPos = 0;
+	}
+	
 	public void Init(boolean solid)
 	{
 		if (!solid)
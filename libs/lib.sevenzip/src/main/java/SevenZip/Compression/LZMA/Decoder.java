@@ -310,6 +310,13 @@ public class Decoder
 		return true;
 	}
 	
+	// release streams held by an unfinished Code, the decoder state is reset by next Code
+	public void ReleaseStreams()
+	{
+		m_OutWindow.Reset();
+		m_RangeDecoder.ReleaseStream();
+	}
+	
 	public boolean SetDecoderProperties(byte[] properties)
 	{
 		if (properties.length < 5)
@@ -0,0 +1,226 @@
+package SevenZip;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Thread local LZMA encoders/decoder that are reused among messages.
+ * 
+ * A new Encoder/Decoder allocates its BinTree hash/son arrays, InWindow and
+ * OutWindow buffers, which are sized by dictionary (about 12M for 1M dictionary),
+ * these are kept per thread here and only re-initialized for each message.
+ * 
+ * Streams are encoded with end marker and without header, and can be decoded
+ * with PROPERTIES. The encoder picks the smallest dictionary class that covers
+ * the whole input (up to 1M), so that small messages don't pay for resetting
+ * a 1M dictionary's hash table, the decoder's 1M window covers any of them.
+ */
+public final class LzmaCodec
+{
+	/** lc = 3, lp = 0, pb = 2, dictionary size = 1 << 20 */
+	public static final byte[] PROPERTIES = {93, 0, 0, 16, 0};
+	
+	static final int kMinDictionaryLogSize = 16; // BinTree hash is at least 64K entries anyway
+	static final int kMaxDictionaryLogSize = 20;
+	static final int kDictionaryLogSizeStep = 2;
+	
+	static final ThreadLocal<LzmaCodec> codecs = new ThreadLocal<LzmaCodec>()
+	{
+		protected LzmaCodec initialValue() { return new LzmaCodec(); }
+	};
+	
+	final SevenZip.Compression.LZMA.Encoder[] encoders = 
+			new SevenZip.Compression.LZMA.Encoder[(kMaxDictionaryLogSize - kMinDictionaryLogSize) / kDictionaryLogSizeStep + 1];
+	SevenZip.Compression.LZMA.Decoder decoder;
+	
+	final BytesInputStream in = new BytesInputStream();
+	final BytesOutputStream out = new BytesOutputStream(1 << 12);
+	
+	LzmaCodec() {}
+	
+	public static byte[] Encode(byte[] input) throws IOException
+	{
+		return Encode(input, 0, input.length);
+	}
+	
+	public static byte[] Encode(byte[] input, int offset, int length) throws IOException
+	{
+		LzmaCodec codec = codecs.get();
+		codec.in.Reset(input, offset, length);
+		try
+		{
+			return codec.EncodeStream(codec.in, length).ToByteArray();
+		}
+		finally
+		{
+			codec.in.Reset(null, 0, 0);
+		}
+	}
+	
+	public static byte[] Decode(byte[] input) throws IOException
+	{
+		return Decode(input, 0, input.length);
+	}
+	
+	public static byte[] Decode(byte[] input, int offset, int length) throws IOException
+	{
+		LzmaCodec codec = codecs.get();
+		codec.in.Reset(input, offset, length);
+		try
+		{
+			return codec.DecodeStream(codec.in).ToByteArray();
+		}
+		finally
+		{
+			codec.in.Reset(null, 0, 0);
+		}
+	}
+	
+	/**
+	 * @param sizeHint expected size of input, or -1 if unknown
+	 * @return encoded bytes in a buffer that's owned by current thread, it's 
+	 *         valid until next call of Encode/Decode in the same thread
+	 */
+	public static ByteBuffer Encode(InputStream input, int sizeHint) throws IOException
+	{
+		return codecs.get().EncodeStream(input, sizeHint).AsByteBuffer();
+	}
+	
+	/**
+	 * @return decoded bytes in a buffer that's owned by current thread, it's 
+	 *         valid until next call of Encode/Decode in the same thread
+	 */
+	public static ByteBuffer Decode(InputStream input) throws IOException
+	{
+		return codecs.get().DecodeStream(input).AsByteBuffer();
+	}
+	
+	static int DictionaryLogSizeOf(int size)
+	{
+		if (size < 0)
+			return kMaxDictionaryLogSize;
+		int logSize = kMinDictionaryLogSize;
+		while (logSize < kMaxDictionaryLogSize && (1 << logSize) < size)
+			logSize += kDictionaryLogSizeStep;
+		return logSize;
+	}
+	
+	BytesOutputStream EncodeStream(InputStream input, int sizeHint) throws IOException
+	{
+		int logSize = DictionaryLogSizeOf(sizeHint);
+		int i = (logSize - kMinDictionaryLogSize) / kDictionaryLogSizeStep;
+		SevenZip.Compression.LZMA.Encoder encoder = encoders[i];
+		if (encoder == null)
+		{
+			encoder = new SevenZip.Compression.LZMA.Encoder();
+			encoder.SetEndMarkerMode(true); // must set true
+			encoder.SetDictionarySize(1 << logSize);
+			encoders[i] = encoder;
+		}
+		
+		out.Reset();
+		encoder.Code(input, out, -1, -1, null);
+		return out;
+	}
+	
+	BytesOutputStream DecodeStream(InputStream input) throws IOException
+	{
+		if (decoder == null)
+		{
+			decoder = new SevenZip.Compression.LZMA.Decoder();
+			decoder.SetDecoderProperties(PROPERTIES);
+		}
+		
+		out.Reset();
+		boolean succeed = false;
+		try
+		{
+			succeed = decoder.Code(input, out, -1);
+		}
+		finally
+		{
+			if (!succeed)
+				decoder.ReleaseStreams();
+		}
+		if (!succeed)
+			throw new IOException("Error in lzma data stream");
+		return out;
+	}
+	
+	/** ByteArrayInputStream that can be re-pointed to another array */
+	static final class BytesInputStream extends InputStream
+	{
+		byte[] buf;
+		int pos;
+		int end;
+		
+		void Reset(byte[] buf, int offset, int length)
+		{
+			this.buf = buf;
+			this.pos = offset;
+			this.end = offset + length;
+		}
+		
+		public int read()
+		{
+			return pos < end ? buf[pos++] & 0xFF : -1;
+		}
+		
+		public int read(byte[] b, int off, int len)
+		{
+			if (pos >= end)
+				return -1;
+			int n = Math.min(len, end - pos);
+			System.arraycopy(buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		
+		public int available() { return end - pos; }
+	}
+	
+	/** ByteArrayOutputStream that keeps its buffer among resets */
+	static final class BytesOutputStream extends OutputStream
+	{
+		byte[] buf;
+		int count;
+		
+		BytesOutputStream(int initialSize) { buf = new byte[initialSize]; }
+		
+		void Reset() { count = 0; }
+		
+		void EnsureCapacity(int capacity)
+		{
+			if (capacity > buf.length)
+			{
+				byte[] newBuf = new byte[Math.max(buf.length << 1, capacity)];
+				System.arraycopy(buf, 0, newBuf, 0, count);
+				buf = newBuf;
+			}
+		}
+		
+		public void write(int b)
+		{
+			EnsureCapacity(count + 1);
+			buf[count++] = (byte)b;
+		}
+		
+		public void write(byte[] b, int off, int len)
+		{
+			EnsureCapacity(count + len);
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+		
+		byte[] ToByteArray()
+		{
+			byte[] bytes = new byte[count];
+			System.arraycopy(buf, 0, bytes, 0, count);
+			return bytes;
+		}
+		
+		ByteBuffer AsByteBuffer() { return ByteBuffer.wrap(buf, 0, count).slice(); }
+	}
+}
@@ -0,0 +1,129 @@
+package SevenZip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Messages/sec and allocated bytes per message of LzmaCodec vs a new
+ * Encoder/Decoder per message, on ticker batch like payloads.
+ * 
+ * Usage: java SevenZip.LzmaCodecBench [seconds per case]
+ */
+public class LzmaCodecBench
+{
+	static final int[] kBatchSizes = {10, 100, 500, 2000};
+	static final int kTickerSize = 96; // bytes of an avro encoded ticker, roughly
+	
+	/** symbols and prices repeat among tickers of a batch, as real ones do */
+	static byte[] TickerBatch(int nTickers, int seed)
+	{
+		java.util.Random random = new java.util.Random(seed);
+		byte[] bytes = new byte[nTickers * kTickerSize];
+		for (int i = 0; i < nTickers; i++)
+		{
+			int base = i * kTickerSize;
+			String symbol = String.format("%06d.SZ", random.nextInt(3000));
+			for (int j = 0; j < symbol.length(); j++)
+				bytes[base + j] = (byte)symbol.charAt(j);
+			long time = 1300000000000L + i * 3000L;
+			for (int j = 0; j < 8; j++)
+				bytes[base + 16 + j] = (byte)(time >>> (8 * j));
+			double price = 10.0 + random.nextInt(100) * 0.01;
+			for (int j = 24; j < kTickerSize; j += 8)
+			{
+				long bits = Double.doubleToLongBits(price + random.nextInt(8) * 0.01);
+				for (int k = 0; k < 8; k++)
+					bytes[base + j + k] = (byte)(bits >>> (8 * k));
+			}
+		}
+		return bytes;
+	}
+	
+	static byte[] EncodeWithNewEncoder(byte[] input) throws IOException
+	{
+		ByteArrayInputStream in = new ByteArrayInputStream(input);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SevenZip.Compression.LZMA.Encoder encoder = new SevenZip.Compression.LZMA.Encoder();
+		encoder.SetEndMarkerMode(true);
+		encoder.SetDictionarySize(1 << 20);
+		encoder.Code(in, out, -1, -1, null);
+		return out.toByteArray();
+	}
+	
+	static byte[] DecodeWithNewDecoder(byte[] input) throws IOException
+	{
+		ByteArrayInputStream in = new ByteArrayInputStream(input);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SevenZip.Compression.LZMA.Decoder decoder = new SevenZip.Compression.LZMA.Decoder();
+		decoder.SetDecoderProperties(LzmaCodec.PROPERTIES);
+		decoder.Code(in, out, -1);
+		return out.toByteArray();
+	}
+	
+	static long AllocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return 0;
+	}
+	
+	static void Run(String name, byte[] input, boolean pooled, boolean encode, long millis) throws IOException
+	{
+		byte[] encoded = LzmaCodec.Encode(input);
+		byte[] src = encode ? input : encoded;
+		
+		// warm up
+		long until = System.currentTimeMillis() + millis / 4;
+		while (System.currentTimeMillis() < until)
+			Once(src, pooled, encode);
+		
+		long n = 0;
+		long bytes0 = AllocatedBytes();
+		long t0 = System.nanoTime();
+		until = System.currentTimeMillis() + millis;
+		while (System.currentTimeMillis() < until)
+		{
+			Once(src, pooled, encode);
+			n++;
+		}
+		long nanos = System.nanoTime() - t0;
+		long bytes = AllocatedBytes() - bytes0;
+		System.out.println(String.format("%-8s %-6s %6d bytes -> %6d: %10.1f msgs/s, %10d bytes allocated/msg",
+				pooled ? "pooled" : "new", name, input.length, encoded.length,
+				n * 1e9 / nanos, bytes / Math.max(n, 1)));
+	}
+	
+	static void Once(byte[] src, boolean pooled, boolean encode) throws IOException
+	{
+		if (encode)
+		{
+			if (pooled) LzmaCodec.Encode(src); else EncodeWithNewEncoder(src);
+		}
+		else
+		{
+			if (pooled) LzmaCodec.Decode(src); else DecodeWithNewDecoder(src);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception
+	{
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+		for (int nTickers : kBatchSizes)
+		{
+			byte[] input = TickerBatch(nTickers, nTickers);
+			if (!java.util.Arrays.equals(input, LzmaCodec.Decode(LzmaCodec.Encode(input))) ||
+					!java.util.Arrays.equals(input, DecodeWithNewDecoder(LzmaCodec.Encode(input))) ||
+					!java.util.Arrays.equals(input, LzmaCodec.Decode(EncodeWithNewEncoder(input))))
+				throw new Exception("Round trip failed for " + nTickers + " tickers");
+			
+			System.out.println("--- " + nTickers + " tickers");
+			Run("encode", input, false, true, millis);
+			Run("encode", input, true, true, millis);
+			Run("decode", input, false, false, millis);
+			Run("decode", input, true, false, millis);
+		}
+	}
+}
@@ -0,0 +1,139 @@
+package org.aiotrade.lib.trading
+
+import java.text.SimpleDateFormat
+import org.aiotrade.lib.securities.QuoteSer
+import org.aiotrade.lib.securities.SecPicking
+import org.aiotrade.lib.securities.model.Sec
+import org.aiotrade.lib.util.ValidTime
+
+/**
+ * Reproducibility test: backtest and replay of the same param should get the
+ * same equities at the same times and the same transactions of each account,
+ * it fails on any difference, or when backtest recorded no period at all, i.e.
+ * there was nothing to compare. It also measures the time of
+ * both modes, of the whole run and of driving the periods only (indicators 
+ * computing excluded), and the speedup of replay.
+ * Not enabled by default, it needs the quotes in db, run it via main.
+ * 
+ * @author Caoyuan Deng
+ */
+object BacktestReplayTest {
+  import org.aiotrade.lib.indicator.basic.signal._
+
+  private case class TestParam(faster: Int, slow: Int, signal: Int) extends Param {
+    override def shortDescription = List(faster, slow, signal).mkString("_")
+  }
+
+  private def createService(param: TestParam, secs: Seq[Sec], referSer: QuoteSer) = {
+    val secPicking = new SecPicking()
+    secPicking ++= secs map (ValidTime(_, 0, 0))
+
+    val broker = new PaperBroker("Backtest")
+    val account = new StockAccount("Backtest", 10000000.0, new TradingRule())
+    val indTemplate = TradingService.createIndicator(classOf[MACDSignal], Array(param.faster, param.slow, param.signal))
+    
+    new TradingService(broker, List(account), param, referSer, secPicking, indTemplate)
+  }
+  
+  def main(args: Array[String]) {
+    val df = new SimpleDateFormat("yyyy.MM.dd")
+    val fromTime = df.parse("2011.04.03").getTime
+    val toTime = df.parse("2012.04.03").getTime
+
+    val (secs, referSer) = TradingService.init
+    val timestamps = referSer.timestamps
+    val nPeriods = timestamps.indexOrPrevIndexOfOccurredTime(toTime) - timestamps.indexOrNextIndexOfOccurredTime(fromTime) + 1
+    
+    var failures = 0
+    for (param <- List(TestParam(12, 26, 9), TestParam(5, 30, 5))) {
+      val backtestService = createService(param, secs, referSer)
+      var t0 = System.currentTimeMillis
+      backtestService.backtest(fromTime, toTime)
+      val backtestTime = math.max(System.currentTimeMillis - t0, 1)
+      val backtestPeriodsTime = math.max(backtestService.lastPeriodsTime, 1)
+      backtestService.release
+
+      val replayService = createService(param, secs, referSer)
+      t0 = System.currentTimeMillis
+      replayService.replay(fromTime, toTime)
+      val replayTime = math.max(System.currentTimeMillis - t0, 1)
+      val replayPeriodsTime = math.max(replayService.lastPeriodsTime, 1)
+      replayService.release
+      
+      val diffs = diffsOf(backtestService, replayService)
+      if (diffs.nonEmpty) {
+        failures += 1
+        diffs take 10 foreach {x => println(param.shortDescription + ": " + x)}
+      }
+      
+      println("%s: %s, %s periods, %s trades".format(
+          param.shortDescription, if (diffs.isEmpty) "same" else "DIFFERENT", 
+          replayService.benchmark.times.length, replayService.accounts.map(_.transactions.length).sum
+        ))
+      println("  whole run:    backtest %6d ms (%s periods/s), replay %6d ms (%s periods/s), speedup %.1fx".format(
+          backtestTime, nPeriods * 1000L / backtestTime, replayTime, nPeriods * 1000L / replayTime, backtestTime.toDouble / replayTime
+        ))
+      println("  periods only: backtest %6d ms (%s periods/s), replay %6d ms (%s periods/s), speedup %.1fx".format(
+          backtestPeriodsTime, nPeriods * 1000L / backtestPeriodsTime, replayPeriodsTime, nPeriods * 1000L / replayPeriodsTime, backtestPeriodsTime.toDouble / replayPeriodsTime
+        ))
+    }
+    
+    println(if (failures == 0) "BacktestReplayTest passed" else "BacktestReplayTest failed: " + failures)
+    System.exit(if (failures == 0) 0 else 1)
+  }
+  
+  /**
+   * @return descriptions of differences between the results of expected and
+   *         actual, empty if they are the same.
+   */
+  private def diffsOf(expected: TradingService, actual: TradingService): Seq[String] = {
+    val diffs = new scala.collection.mutable.ArrayBuffer[String]()
+    
+    val expectedTimes = expected.benchmark.times.toArray
+    val actualTimes = actual.benchmark.times.toArray
+    val expectedEquities = expected.benchmark.equities.toArray
+    val actualEquities = actual.benchmark.equities.toArray
+    if (expectedTimes.isEmpty) {
+      diffs += "no period was recorded by backtest, nothing to compare"
+    }
+    if (expectedTimes.length != actualTimes.length) {
+      diffs += "periods: " + expectedTimes.length + " vs " + actualTimes.length
+    }
+    var i = -1
+    while ({i += 1; i < math.min(expectedTimes.length, actualTimes.length)}) {
+      if (expectedTimes(i) != actualTimes(i) || expectedEquities(i) != actualEquities(i)) {
+        diffs += "period %s: time %s vs %s, equity %s vs %s".format(i, expectedTimes(i), actualTimes(i), expectedEquities(i), actualEquities(i))
+      }
+    }
+    
+    expected.accounts zip actual.accounts foreach {case (expectedAccount, actualAccount) =>
+        if (expectedAccount.equity != actualAccount.equity) {
+          diffs += expectedAccount.code + ": final equity " + expectedAccount.equity + " vs " + actualAccount.equity
+        }
+        
+        val expectedTxs = expectedAccount.transactions
+        val actualTxs = actualAccount.transactions
+        if (expectedTxs.length != actualTxs.length) {
+          diffs += expectedAccount.code + ": transactions " + expectedTxs.length + " vs " + actualTxs.length
+        }
+        var j = -1
+        while ({j += 1; j < math.min(expectedTxs.length, actualTxs.length)}) {
+          val a = describe(expectedTxs(j))
+          val b = describe(actualTxs(j))
+          if (a != b) {
+            diffs += expectedAccount.code + ": transaction " + j + ": " + a + " vs " + b
+          }
+        }
+    }
+    
+    diffs
+  }
+  
+  private def describe(tx: TradeTransaction): String = {
+    val secTxs = tx.secTransactions map {x => 
+      List(x.time, x.order.sec.uniSymbol, x.order.side, x.price, x.quantity, x.amount).mkString("(", ",", ")")
+    }
+    val expenses = if (tx.expensesTransaction eq null) 0.0 else tx.expensesTransaction.amount
+    tx.time + secTxs.mkString("[", ",", "]") + expenses
+  }
+}
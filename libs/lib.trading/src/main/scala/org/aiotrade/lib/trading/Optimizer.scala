@@ -0,0 +1,147 @@
+package org.aiotrade.lib.trading
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import org.aiotrade.lib.math.indicator.Function
+import org.aiotrade.lib.math.indicator.FunctionCache
+import org.aiotrade.lib.trading.charting.ChartReport
+
+/**
+ * Parameter sweep of backtests, runs are executed concurrently over the same 
+ * loaded sers.
+ * 
+ * Each run gets its own TradingService (created by createService, which should
+ * also create its own SecPicking, Broker and Accounts), and its own Function 
+ * cache, so releasing a run won't touch the others. Functions that depend on 
+ * base sers only are shared by all runs via the parent cache.
+ * 
+ * Runs are in replay mode (see TradingService.replay) by default.
+ * 
+ * Example:
+ * {{{
+ * val optimizer = new Optimizer[MyParam](fromTime, toTime)
+ * val report = optimizer.run(params) {param => new TradingService(...)}
+ * println(report)
+ * }}}
+ * 
+ * @param ranking the score of a run, higher is better
+ * @author Caoyuan Deng
+ */
+class Optimizer[P <: Param](fromTime: Long, toTime: Long, 
+                            parallelism: Int = Runtime.getRuntime.availableProcessors, 
+                            ranking: Benchmark => Double = Optimizer.byAnnualizedPayoff,
+                            isReplay: Boolean = true
+) {
+  private val log = Logger.getLogger(this.getClass.getName)
+
+  /** Functions that depend on base sers only, shared by all runs */
+  val sharedFunctions = new FunctionCache(Function.MAX_CACHED_FUNCTIONS)
+  
+  /** if set, runs will be charted in rounds of parallelism params */
+  var chartReport: ChartReport = _
+
+  def run(params: Seq[P])(createService: P => TradingService): Optimizer.Report[P] = {
+    val t0 = System.currentTimeMillis
+    
+    val executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory {
+        private val count = new AtomicInteger
+        def newThread(r: Runnable) = {
+          val thread = new Thread(r, "optimizer-" + count.incrementAndGet)
+          thread.setDaemon(true)
+          thread
+        }
+      })
+    
+    val results = try {
+      val rounds = if (chartReport != null) params.grouped(parallelism).toList else List(params)
+      rounds flatMap {round =>
+        if (chartReport != null) chartReport.roundStarted(round.toList)
+
+        val futures = round map {param =>
+          param -> executor.submit(new Callable[Optimizer.Result[P]] {
+              def call = runOne(param, createService)
+            })
+        }
+        val roundResults = futures map {case (param, future) => await(param, future)}
+        
+        if (chartReport != null) chartReport.roundFinished
+        roundResults
+      }
+    } finally {
+      executor.shutdown
+      sharedFunctions.clear
+    }
+
+    val ranked = results.sortBy(x => if (x.score.isNaN) Double.MaxValue else -x.score).toList
+    Optimizer.Report(ranked, System.currentTimeMillis - t0, parallelism)
+  }
+  
+  private def runOne(param: P, createService: P => TradingService): Optimizer.Result[P] = {
+    val t0 = System.currentTimeMillis
+    val service = createService(param)
+    service.functionCache = new FunctionCache(Function.MAX_CACHED_FUNCTIONS, sharedFunctions)
+    try {
+      if (isReplay) {
+        service.replay(fromTime, toTime)
+      } else {
+        service.backtest(fromTime, toTime)
+      }
+      service.benchmark.report // calculate the final figures
+      Optimizer.Result(param, service.benchmark, ranking(service.benchmark), System.currentTimeMillis - t0, null)
+    } catch {
+      case ex: Throwable => 
+        log.log(Level.SEVERE, "Failed to backtest " + param.shortDescription, ex)
+        Optimizer.Result(param, service.benchmark, Double.NaN, System.currentTimeMillis - t0, ex)
+    } finally {
+      service.release
+    }
+  }
+  
+  private def await(param: P, future: Future[Optimizer.Result[P]]): Optimizer.Result[P] = {
+    try {
+      future.get
+    } catch {
+      case ex: ExecutionException => Optimizer.Result(param, null, Double.NaN, 0, ex.getCause)
+    }
+  }
+}
+
+object Optimizer {
+  val byAnnualizedPayoff: Benchmark => Double = _.annualizedPayoffRatio
+  val bySharpeOnMonth: Benchmark => Double = _.sharpeRatioOnMonth
+  val byRrr: Benchmark => Double = _.rrr
+
+  final case class Result[P <: Param](param: P, benchmark: Benchmark, score: Double, elapsed: Long, error: Throwable) {
+    def isSuccess = error == null
+  }
+  
+  final case class Report[P <: Param](ranked: List[Result[P]], elapsed: Long, parallelism: Int) {
+    def best: Option[Result[P]] = ranked find (_.isSuccess)
+    
+    override 
+    def toString = {
+      val sb = new StringBuilder
+      sb.append("Optimized %s runs in %ss with parallelism %s\n".format(ranked.size, elapsed / 1000.0, parallelism))
+      sb.append("Rank \t Param \t Score \t Payoff \t Annualized \t MaxDrawdown \t SharpeOnMonth \t Trades \t Time\n")
+      var rank = 0
+      for (x <- ranked) {
+        rank += 1
+        if (x.isSuccess) {
+          val b = x.benchmark
+          sb.append("%d \t %s \t %8.4f \t %8.2f%% \t %8.2f%% \t %8.2f%% \t %8.4f \t %d \t %ss\n".format(
+              rank, x.param.shortDescription, x.score, b.payoffRatio * 100, b.annualizedPayoffRatio * 100, b.maxDrawdownRatio * 100, b.sharpeRatioOnMonth, b.tradeCount, x.elapsed / 1000.0
+            ))
+        } else {
+          sb.append("%d \t %s \t failed: %s\n".format(rank, x.param.shortDescription, x.error))
+        }
+      }
+      sb.toString
+    }
+  }
+}
@@ -8,6 +8,9 @@ import java.util.concurrent.TimeUnit
 import java.util.concurrent.ScheduledThreadPoolExecutor
 import java.util.logging.Level
 import java.util.logging.Logger
+import org.aiotrade.lib.math.indicator.ComputeScheduler
+import org.aiotrade.lib.math.indicator.Function
+import org.aiotrade.lib.math.indicator.FunctionCache
 import org.aiotrade.lib.math.indicator.SignalIndicator
 import org.aiotrade.lib.math.signal.Side
 import org.aiotrade.lib.math.signal.Signal
@@ -59,29 +62,33 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
   protected var tradeStartIdx: Int = -1
   protected def isTradeStarted: Boolean = tradeStartIdx >= 0
 
+  /** 
+   * Function cache of this service, if null, the global one will be used.
+   * @see Optimizer
+   */
+  var functionCache: FunctionCache = _
+
   private val taskScheduler = new ScheduledThreadPoolExecutor(1)
   private case object GoTrading
   private case class GoBacktest(fromTime: Long, toTime: Long)
   private val backtestDone = new SyncVar[Boolean]()
 
+  /** 
+   * In replay mode, signals and sec picking events are handled in caller's thread
+   * directly instead of via actors.
+   * @see replay
+   */
+  private var isReplaying = false
+  
+  /** time in ms of driving the periods of last backtest or replay, indicators computing excluded */
+  private[trading] var lastPeriodsTime = 0L
+
   reactions += {
-    case SecPickingEvent(secValidTime, side) =>
-      val position = positionOf(secValidTime.ref).getOrElse(null)
-      side match {
-        case Side.ExitPicking if position == null =>
-        case _ => triggers += Trigger(secValidTime.ref, position, secValidTime.validFrom, side)
-      }
+    case evt: SecPickingEvent => 
+      onSecPicking(evt)
     
-    case signalEvt@SignalEvent(ind, signal) if signalIndicators.contains(ind) && signal.isSign =>
-      val sec = signalEvt.source.baseSer.serProvider.asInstanceOf[Sec]
-      log.info("Got signal: sec=%s, signal=%s".format(sec.uniSymbol, signal))
-      val time = signalEvt.signal.time
-      val side = signalEvt.signal.kind.asInstanceOf[Side]
-      val position = positionOf(sec).getOrElse(null)
-      side match {
-        case (Side.ExitLong | Side.ExitShort | Side.ExitPicking | Side.CutLoss | Side.TakeProfit) if position == null =>
-        case _ => triggers += Trigger(sec, position, time, side)
-      }
+    case SignalEvent(ind, signal) if signalIndicators.contains(ind) && signal.isSign =>
+      onSignal(ind, signal)
       
     case GoBacktest(fromTime, toTime) => 
       goBacktest(fromTime, toTime)
@@ -141,6 +148,34 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
   
   listenTo(secPicking)
 
+  protected def onSecPicking(evt: SecPickingEvent) {
+    val SecPickingEvent(secValidTime, side) = evt
+    val position = positionOf(secValidTime.ref).getOrElse(null)
+    side match {
+      case Side.ExitPicking if position == null =>
+      case _ => triggers += Trigger(secValidTime.ref, position, secValidTime.validFrom, side)
+    }
+  }
+  
+  protected def onSignal(ind: SignalIndicator, signal: Signal) {
+    val sec = ind.baseSer.serProvider.asInstanceOf[Sec]
+    logInfo("Got signal: sec=%s, signal=%s".format(sec.uniSymbol, signal))
+    val time = signal.time
+    val side = signal.kind.asInstanceOf[Side]
+    val position = positionOf(sec).getOrElse(null)
+    side match {
+      case (Side.ExitLong | Side.ExitShort | Side.ExitPicking | Side.CutLoss | Side.TakeProfit) if position == null =>
+      case _ => triggers += Trigger(sec, position, time, side)
+    }
+  }
+  
+  /**
+   * Per period logging is skipped in replay mode
+   */
+  private def logInfo(msg: => String) {
+    if (!isReplaying) log.info(msg)
+  }
+
   /**
    * Call it only when indicators were not inited.
    */
@@ -148,27 +183,42 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     val t0 = System.currentTimeMillis
     
     if (signalIndTemplates.nonEmpty) {
-      listenTo(Signal) // @todo move me from initSignalIndicators so as to get inited signals can be got.
+      if (!isReplaying) {
+        listenTo(Signal) // @todo move me from initSignalIndicators so as to get inited signals can be got.
+      }
     
-      for {
+      val inds = for {
         indTemplate <- signalIndTemplates
         indClass = indTemplate.getClass
         indFactor = indTemplate.factors
         
         sec <- secPicking.allSecs
         ser <- sec.serOf(freq)
-      } {
+      } yield {
         // for each sec, need a new instance of indicator
         val ind = indClass.newInstance.asInstanceOf[SignalIndicator]
         // @Note should add to signalIndicators before compute, otherwise, the published signal may be dropped in reactions 
         signalIndicators += ind 
+        ind.functionCache = functionCache
         ind.factors = indFactor
         ind.set(ser)
-        ind.computeFrom(0)
+        ind
+      }
+      
+      if (isReplaying) {
+        // in this thread, one by one
+        inds foreach (_.computeFrom(0))
+      } else {
+        // compute indicators of different sers in parallel
+        ComputeScheduler.computeAll(inds, 0)
+      }
+      
+      if (isReplaying) {
+        inds foreach collectSignals
       }
     }
     
-    log.info("Inited singals in %ss.".format((System.currentTimeMillis - t0) / 1000))
+    log.info("Inited singals in %ss. %s".format((System.currentTimeMillis - t0) / 1000, ComputeScheduler.metrics))
   }
   
   /**
@@ -210,6 +260,39 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     backtestDone.get
   }
   
+  /**
+   * Deterministic, single threaded backtest. It should get the same result as
+   * backtest(fromTime, toTime), but:
+   * - indicators are computed in this thread one by one, not on ComputeScheduler.
+   * - signals are collected straight from the computed signalVar of indicators
+   *   instead of being received as SignalEvent, the same as backtest, they are 
+   *   all collected before the first period.
+   * - sec picking events are delivered in this thread at each close.
+   * - periods are driven in this thread, no GoBacktest message.
+   * - per period logging is skipped.
+   */
+  def replay(fromTime: Long, toTime: Long) {
+    isReplaying = true
+    try {
+      initSignalIndicators
+      goBacktest(fromTime, toTime)
+    } finally {
+      isReplaying = false
+    }
+  }
+  
+  private def collectSignals(ind: SignalIndicator) {
+    val values = ind.signalVar.values
+    var i = 0
+    while (i < values.size) {
+      values(i) match {
+        case null =>
+        case signals => signals foreach {x => if (x.isSign) onSignal(ind, x)}
+      }
+      i += 1
+    }
+  }
+  
   private def goBacktest(fromTime: Long, toTime: Long) {
     accounts foreach broker.updateAccount
     
@@ -217,6 +300,7 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     val toIdx = timestamps.indexOrPrevIndexOfOccurredTime(toTime)
     println("Backtest from %s to %s, referIdx: from %s to %s, total referPeriods: %s".format(new Date(timestamps(fromIdx)), new Date(timestamps(toIdx)), fromIdx, toIdx, timestamps.length))
     
+    val t0 = System.currentTimeMillis
     var i = fromIdx
     while (i <= toIdx) {
       doOpen(i)
@@ -224,18 +308,24 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
       
       i += 1
     }
+    lastPeriodsTime = System.currentTimeMillis - t0
   }
 
   /** 
    * Release resources. Call only when necessary
    * 
-   * @Todo any better way? We cannot guarrantee that only backtesing is using Function.idToFunctions
+   * @Todo any better way? We cannot guarrantee that only backtesing is using Function.cache
    */
   def release {
     deafTo(Signal)
     deafTo(referSer)
     deafTo(secPicking)
-    org.aiotrade.lib.math.indicator.Function.releaseAll
+    taskScheduler.shutdown
+    if (functionCache != null) {
+      functionCache.clear
+    } else {
+      Function.releaseAll
+    }
   }  
   
   protected def positionOf(sec: Sec): Option[Position] = {
@@ -311,10 +401,10 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
   }
   
   protected def doCloseTask(referIdx: Int) {
-    log.info("doClose(" + referIdx + "): updating positions price.")
+    logInfo("doClose(" + referIdx + "): updating positions price.")
     updatePositionsPrice
       
-    log.info("doClose(" + referIdx + "): checking order status.")
+    logInfo("doClose(" + referIdx + "): checking order status.")
     checkOrderStatus
 
     if (isTradeStarted) {
@@ -324,20 +414,24 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     // today's orders processed, now begin to check new conditions and 
     // prepare new orders according to current closed status.
     
-    log.info("doClose(" + referIdx + "): updating account.")
+    logInfo("doClose(" + referIdx + "): updating account.")
     accounts foreach broker.updateAccount
     
-    log.info("doClose(" + referIdx + "): checking stop condition.")
-    secPicking.go(currentTime)
+    logInfo("doClose(" + referIdx + "): checking stop condition.")
+    if (isReplaying) {
+      secPicking.go(currentTime, onSecPicking _)
+    } else {
+      secPicking.go(currentTime)
+    }
     checkStopCondition
     
-    log.info("doClose(" + referIdx + "): processing atClose(" + referIdx + ").")
+    logInfo("doClose(" + referIdx + "): processing atClose(" + referIdx + ").")
     atClose(referIdx)
     
-    log.info("doClose(" + referIdx + "): processing pending orders.")
+    logInfo("doClose(" + referIdx + "): processing pending orders.")
     processPendingOrders
     
-    log.info("doClose(" + referIdx + "): done.")
+    logInfo("doClose(" + referIdx + "): done.")
   }
 
   /**
@@ -408,7 +502,7 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
     } {
       order.status match {
         case OrderStatus.New | OrderStatus.PendingNew | OrderStatus.Partial => 
-          log.info("Unfinished order: " + order)
+          logInfo("Unfinished order: " + order)
           if (order.side.isOpening) {
             // @todo retry?
           } else {
@@ -436,7 +530,7 @@ class TradingService(val broker: Broker, val accounts: List[Account], val param:
 
     accounts foreach {
       case tAccount: TradableAccount =>
-        log.info("%1$tY.%1$tm.%1$td: %2$s, opening=%3$s, closing=%4$s，pending=%5$s".format(
+        logInfo("%1$tY.%1$tm.%1$td: %2$s, opening=%3$s, closing=%4$s，pending=%5$s".format(
             new Date(currentTime), tAccount, openingOrders.getOrElse(tAccount, Nil).size, closingOrders.getOrElse(tAccount, Nil).size, pendingOrders.filter(_.account eq tAccount).size)
         )
       case _ =>
@@ -599,7 +693,7 @@ object TradingService {
     ind
   }
   
-  private def init = {
+  private[trading] def init = {
     val category = "008011"
     val CSI300Code = "399300.SZ"
     val secs = securities.getSecsOfSector(category, CSI300Code)
@@ -629,22 +723,27 @@ object TradingService {
     
     val (secs, referSer) = init
     
-    val secPicking = new SecPicking()
-    secPicking ++= secs map (ValidTime(_, 0, 0))
-    
-    for {
+    val params = for {
       fasterPeriod <- List(5, 8, 12)
       slowPeriod <- List(26, 30, 55) if slowPeriod > fasterPeriod
       signalPeriod <- List(5, 9)
-      param = TestParam(fasterPeriod, slowPeriod, signalPeriod)
-    } {
+    } yield TestParam(fasterPeriod, slowPeriod, signalPeriod)
+    
+    val optimizer = new Optimizer[TestParam](fromTime, toTime)
+    optimizer.chartReport = chartReport
+    
+    val report = optimizer.run(params) {param =>
+      // each run has its own secPicking, broker and account
+      val secPicking = new SecPicking()
+      secPicking ++= secs map (ValidTime(_, 0, 0))
+
       val broker = new PaperBroker("Backtest")
       val tradingRule = new TradingRule()
       val account = new StockAccount("Backtest", 10000000.0, tradingRule)
     
-      val indTemplate = createIndicator(classOf[MACDSignal], Array(fasterPeriod, slowPeriod, signalPeriod))
+      val indTemplate = createIndicator(classOf[MACDSignal], Array(param.faster, param.slow, param.signal))
     
-      val tradingService = new TradingService(broker, List(account), param, referSer, secPicking, indTemplate) {
+      new TradingService(broker, List(account), param, referSer, secPicking, indTemplate) {
         override 
         def atClose(idx: Int) {
           val triggers = scanTriggers(idx)
@@ -667,14 +766,9 @@ object TradingService {
           }
         }
       }
-    
-      chartReport.roundStarted(List(param))
-      tradingService.backtest(fromTime, toTime)
-      tradingService.release
-      chartReport.roundFinished
-      System.gc
     }
     
+    println(report)
     println("Done!")
   }
 }
@@ -83,7 +83,7 @@ final class ArrayList[A](
   
   def sliceToArrayList(start: Int, len: Int): ArrayList[A] = {
     val res = new ArrayList(len)
-    scala.compat.Platform.arraycopy(array, start, res.array, 0, len)
+    scala.compat.Platform.arraycopy(array, offset0 + start, res.array, 0, len)
     res
   }
 }
@@ -137,13 +137,14 @@ abstract class AbstractArrayList[A](
   def sizeHint(len: Int) {
     if (len > size && len >= 1) {
       val newarray = makeArray(len)
-      scala.compat.Platform.arraycopy(array, 0, newarray, 0, size0)
+      scala.compat.Platform.arraycopy(array, offset0, newarray, 0, size0)
       array = newarray
+      offset0 = 0
     }
   }
   
   override 
-  def par = ParArray.handoff[A](array, size)  
+  def par = ParArray.handoff[A](if (offset0 == 0) array else toArray, size)  
   
   /** Appends a single element to this buffer and returns
    *  the identity of the buffer. It takes constant time.
@@ -152,7 +153,7 @@ abstract class AbstractArrayList[A](
    */
   def +(elem: A): this.type =  {
     ensureSize(size0 + 1)
-    array(size0) = elem
+    array(offset0 + size0) = elem
     size0 += 1
     this
   }
@@ -183,11 +184,11 @@ abstract class AbstractArrayList[A](
       // Java arrays to `WrappedArray` if you need a `Traversable` instance.  
       // @see https://lampsvn.epfl.ch/trac/scala/ticket/2564
       case xs: WrappedArray[A] =>
-        scala.compat.Platform.arraycopy(xs.array, 0, array, size0, len)
+        scala.compat.Platform.arraycopy(xs.array, 0, array, offset0 + size0, len)
         size0 += len
         this
       case xs: IndexedSeq[A] =>
-        xs.copyToArray(array, size0, len)
+        xs.copyToArray(array, offset0 + size0, len)
         size0 += len
         this
       case _ =>
@@ -216,7 +217,7 @@ abstract class AbstractArrayList[A](
   def +:(elem: A): this.type = {
     ensureSize(size0 + 1)
     copy(0, 1, size0)
-    array(0) = elem
+    array(offset0) = elem
     size0 += 1
     this
   }
@@ -274,7 +275,7 @@ abstract class AbstractArrayList[A](
     if ((n < 0) || (n > size0)) throw new IndexOutOfBoundsException(n.toString)
     ensureSize(size0 + 1)
     copy(n, n + 1, size0 - n)
-    array(n) = elem
+    array(offset0 + n) = elem
     size0 += 1
   }
 
@@ -299,9 +300,9 @@ abstract class AbstractArrayList[A](
       // Java arrays to `WrappedArray` if you need a `Traversable` instance.  
       // @see https://lampsvn.epfl.ch/trac/scala/ticket/2564
       case xs: WrappedArray[A] =>
-        scala.compat.Platform.arraycopy(xs.array, 0, array, n, len)
+        scala.compat.Platform.arraycopy(xs.array, 0, array, offset0 + n, len)
       case _ =>
-        elems.copyToArray(array, n)
+        elems.copyToArray(array, offset0 + n)
     }
     size0 += len
   }
@@ -351,16 +352,30 @@ abstract class AbstractArrayList[A](
    */
   def toArray: Array[A] = {
     val res = makeArray(length)
-    scala.compat.Platform.arraycopy(array, 0, res, 0, length)
+    scala.compat.Platform.arraycopy(array, offset0, res, 0, length)
     res
   }
   
   def sliceToArray(start: Int, len: Int): Array[A] = {
     val res = makeArray(len)
-    scala.compat.Platform.arraycopy(array, start, res, 0, len)
+    scala.compat.Platform.arraycopy(array, offset0 + start, res, 0, len)
     res
   }
 
+  /**
+   * The backing array, which is a primitive typed array when A is a primitive type,
+   * so reading/writing it via a caller that knows the exact A won't box the element.
+   *
+   * @Note Only elements in [backingOffset, backingOffset + size) are valid, and 
+   * the array will be replaced when this list grows, so never hold the reference.
+   */
+  def backingArray: Array[A] = array
+  
+  /**
+   * Index of the first element in backingArray
+   */
+  def backingOffset: Int = offset0
+
   // --- overrided methods for performance
 
   override 
@@ -13,6 +13,7 @@ object ArrayListTest {
     val test = new Test[Double]
     test.insertAll(1.0)
     test.insertOne(0.0)
+    test.removeHead(Array(2.0, 3.0, 4.0))
     //test.insertOk(1.0, 2.0)
     //test.insertOk(1.0)
     //test.insertFailed(1.0)
@@ -31,6 +32,13 @@ object ArrayListTest {
       println(values)
     }
 
+    def removeHead(xs: Array[V]) {
+      values ++= xs
+      values.removeHead(2)
+      values += xs(0)
+      println(values + ", head=" + values.head)
+    }
+
     def insertOk(v: V) {
       val xs = Array(v)
       values.insert(0, xs :_*)
@@ -0,0 +1,68 @@
+package org.aiotrade.lib.collection
+
+/**
+ * A read-only window [offset, offset + length) of a double array, which does 
+ * not copy the elements.
+ *
+ * Index of apply is relative to the window, and is bounds-checked against the
+ * window instead of the whole array.
+ *
+ * @Note A view of an ArrayList's backing array is only valid until the list
+ * grows or removes head, so use it transiently and never hold it.
+ *
+ * @author Caoyuan Deng
+ */
+final class DoubleArrayView(array: Array[Double], offset: Int, val length: Int) {
+  if (offset < 0 || length < 0 || offset + length > array.length) {
+    throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length + ", array length=" + array.length)
+  }
+
+  def this(array: Array[Double]) = this(array, 0, array.length)
+
+  def size = length
+  def isEmpty = length == 0
+
+  def apply(i: Int): Double = {
+    if (i < 0 || i >= length) {
+      throw new IndexOutOfBoundsException(i.toString)
+    }
+    array(offset + i)
+  }
+
+  /**
+   * Sub window [from, from + len) of this view, still no copy.
+   */
+  def slice(from: Int, len: Int): DoubleArrayView = {
+    if (from < 0 || len < 0 || from + len > length) {
+      throw new IndexOutOfBoundsException("from=" + from + ", len=" + len + ", length=" + length)
+    }
+    new DoubleArrayView(array, offset + from, len)
+  }
+
+  override
+  def toString = "DoubleArrayView(offset=" + offset + ", length=" + length + ")"
+}
+
+object DoubleArrayView {
+  def apply(array: Array[Double]): DoubleArrayView = new DoubleArrayView(array)
+
+  /**
+   * View of all elements of xs on its backing array. An ArrayList[Double] is 
+   * backed by a double[] when it's created with its ClassTag, otherwise (e.g. 
+   * built by a generic builder) the elements have to be copied.
+   */
+  def apply(xs: AbstractArrayList[Double]): DoubleArrayView = {
+    (xs.backingArray: Any) match {
+      case array: Array[Double] => new DoubleArrayView(array, xs.backingOffset, xs.size)
+      case _ =>
+        val length = xs.size
+        val array = new Array[Double](length)
+        var i = 0
+        while (i < length) {
+          array(i) = xs(i)
+          i += 1
+        }
+        new DoubleArrayView(array)
+    }
+  }
+}
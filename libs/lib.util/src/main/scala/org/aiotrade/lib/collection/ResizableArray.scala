@@ -62,6 +62,12 @@ trait ResizableArray[A] extends IndexedSeq[A]
   }
 
   protected var size0: Int = 0
+  
+  /**
+   * Offset of the first element in array. It's moved forward by removeHead, so 
+   * that the head elements can be dropped in O(1) without shifting the array.
+   */
+  protected var offset0: Int = 0
 
   //##########################################################################
   // implement/override methods of IndexedSeq[A]
@@ -71,13 +77,13 @@ trait ResizableArray[A] extends IndexedSeq[A]
   def length: Int = size0
 
   def apply(idx: Int) = {
-    if (idx >= size0) throw new IndexOutOfBoundsException(idx.toString)
-    array(idx)
+    if (idx < 0 || idx >= size0) throw new IndexOutOfBoundsException(idx.toString)
+    array(offset0 + idx)
   }
 
   def update(idx: Int, elem: A) { 
-    if (idx >= size0) throw new IndexOutOfBoundsException(idx.toString)
-    array(idx) = elem
+    if (idx < 0 || idx >= size0) throw new IndexOutOfBoundsException(idx.toString)
+    array(offset0 + idx) = elem
   }
 
   override 
@@ -88,7 +94,7 @@ trait ResizableArray[A] extends IndexedSeq[A]
     var i = 0
     val top = size
     while (i < top) {
-      f(array(i))
+      f(array(offset0 + i))
       i += 1
     }
   }
@@ -105,7 +111,7 @@ trait ResizableArray[A] extends IndexedSeq[A]
   override 
   def copyToArray[B >: A](xs: Array[B], start: Int, len: Int) {
     val len1 = len min (xs.length - start) min length
-    scala.compat.Platform.arraycopy(array, 0, xs, start, len1)
+    scala.compat.Platform.arraycopy(array, offset0, xs, start, len1)
   }
 
   //##########################################################################
@@ -117,36 +123,79 @@ trait ResizableArray[A] extends IndexedSeq[A]
     while (size0 > sz) {
       size0 -= 1
       if (!m.runtimeClass.isPrimitive) {
-        array(size0) = null.asInstanceOf[A] 
+        array(offset0 + size0) = null.asInstanceOf[A] 
+      }
+    }
+    if (size0 == 0) {
+      offset0 = 0
+    }
+  }
+  
+  /** 
+   * Remove the first n elements in O(1) by moving the offset forward instead of 
+   * shifting the rest elements. The freed cells are reused when the array is 
+   * compacted by a later ensureSize.
+   */
+  def removeHead(n: Int) {
+    require(n >= 0 && n <= size0, "removing " + n + " elements from head of size " + size0)
+    if (!m.runtimeClass.isPrimitive) {
+      var i = offset0
+      val end = offset0 + n
+      while (i < end) {
+        array(i) = null.asInstanceOf[A] 
+        i += 1
       }
     }
+    offset0 += n
+    size0 -= n
+    if (size0 == 0) {
+      offset0 = 0
+    }
   }
 
-  /** ensure that the internal array has at n cells */
+  /** 
+   * ensure that the internal array has at n cells after offset. If the cells 
+   * before offset are at least as many as the elements, just move the elements 
+   * to the beginning, so the copying is amortized by previous removeHead calls.
+   */
   protected def ensureSize(n: Int) {
-    if (n > array.length) {
-      // make sure newsize is not 0 by math.max(array.length, 1)
-      var newsize = math.max(array.length, 1) * 2 
-      while (n > newsize)
-        newsize = newsize * 2
-      val newar = makeArray(newsize)
-      scala.compat.Platform.arraycopy(array, 0, newar, 0, size0)
-      array = newar
+    if (offset0 + n > array.length) {
+      if (n <= array.length && offset0 >= size0) {
+        scala.compat.Platform.arraycopy(array, offset0, array, 0, size0)
+        if (!m.runtimeClass.isPrimitive) {
+          var i = size0
+          val end = offset0 + size0
+          while (i < end) {
+            array(i) = null.asInstanceOf[A] 
+            i += 1
+          }
+        }
+        offset0 = 0
+      } else {
+        // make sure newsize is not 0 by math.max(array.length, 1)
+        var newsize = math.max(array.length, 1) * 2 
+        while (n > newsize)
+          newsize = newsize * 2
+        val newar = makeArray(newsize)
+        scala.compat.Platform.arraycopy(array, offset0, newar, 0, size0)
+        array = newar
+        offset0 = 0
+      }
     }
   }
 
   /** Swap two elements of this array.
    */
   protected def swap(a: Int, b: Int) {
-    val h = array(a)
-    array(a) = array(b)
-    array(b) = h
+    val h = array(offset0 + a)
+    array(offset0 + a) = array(offset0 + b)
+    array(offset0 + b) = h
   }
 
   /** Move parts of the array.
    */
   protected def copy(m: Int, n: Int, len: Int) {
-    scala.compat.Platform.arraycopy(array, m, array, n, len)
+    scala.compat.Platform.arraycopy(array, offset0 + m, array, offset0 + n, len)
   }
 }
 
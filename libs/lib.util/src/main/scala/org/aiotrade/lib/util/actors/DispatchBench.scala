@@ -0,0 +1,72 @@
+package org.aiotrade.lib.util.actors
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicLong
+import org.aiotrade.lib.util.MemoryBench
+
+/**
+ * Events/sec and heap per 10k publishers of each Dispatch mode.
+ * Not enabled by default, run it via main.
+ * 
+ * @author Caoyuan Deng
+ */
+object DispatchBench {
+  private val N_PUBLISHERS = 10000
+  private val N_EVENTS = Integer.parseInt(System.getProperty("testEvents", "1000000"))
+
+  private class BenchPublisher(mode: Dispatch, counter: AtomicLong) extends Publisher {
+    override 
+    protected def dispatch = mode
+    
+    reactions += {
+      case x: CountDownLatch => counter.incrementAndGet; x.countDown
+      case _ => counter.incrementAndGet
+    }
+  }
+  
+  private class PublishersFactory(mode: Dispatch) extends MemoryBench.ObjectFactory {
+    private val counter = new AtomicLong
+    def makeObject = {
+      val xs = Array.fill(N_PUBLISHERS)(new BenchPublisher(mode, counter))
+      // publish once, so Dispatch.Actor really creates its actors
+      xs foreach (_.publish("init"))
+      xs
+    }
+  }
+  
+  private def throughput(mode: Dispatch) {
+    val counter = new AtomicLong
+    val publishers = Array.fill(N_PUBLISHERS)(new BenchPublisher(mode, counter))
+    
+    val t0 = System.nanoTime
+    var i = 0
+    while (i < N_EVENTS) {
+      publishers(i % N_PUBLISHERS).publish(i)
+      i += 1
+    }
+    
+    // each publisher is the only listener of itself, wait until all its previous events reacted
+    val latch = new CountDownLatch(N_PUBLISHERS)
+    publishers foreach (_.publish(latch))
+    latch.await
+    val elapsed = math.max((System.nanoTime - t0) / 1000000, 1)
+    
+    println("%-8s %10d events/s (reacted %s)".format(mode, N_EVENTS * 1000L / elapsed, counter.get))
+    publishers foreach (_.stop)
+  }
+  
+  def main(args: Array[String]) {
+    val modes = List(Dispatch.Actor, Dispatch.Striped, Dispatch.Sync)
+    
+    for (mode <- modes) {
+      print("Heap of %s publishers in %s: ".format(N_PUBLISHERS, mode))
+      MemoryBench.showMemoryUsage(new PublishersFactory(mode))
+    }
+    
+    // warm up then measure
+    modes foreach throughput
+    modes foreach throughput
+    
+    Reactor.system.shutdown
+  }
+}
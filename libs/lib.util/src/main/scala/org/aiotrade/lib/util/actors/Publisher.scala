@@ -29,14 +29,51 @@ trait Publisher extends Reactor {
     }
   }
   
-  private[actors] def subscribe(listener: Reactor)   { listeners += listener }
-  private[actors] def unsubscribe(listener: Reactor) { listeners -= listener }
+  /** 
+   * Cached listeners for publish, element is either a strongly referenced reactor
+   * or a java WeakReference to it, reset to null whenever listeners changed.
+   */
+  @volatile private var snapshot: Array[AnyRef] = null
+  
+  private[actors] def subscribe(listener: Reactor)   { listeners synchronized {listeners += listener; snapshot = null} }
+  private[actors] def unsubscribe(listener: Reactor) { listeners synchronized {listeners -= listener; snapshot = null} }
   
   /**
    * Notify all registered reactions.
    */
   def publish(e: Any) { 
-    for (l <- listeners) l.underlyingActor ! e 
+    var xs = snapshot
+    if (xs == null) {
+      xs = listeners synchronized {
+        if (snapshot == null) {
+          snapshot = listeners.toArray map {
+            case l: Reactions.StronglyReferenced => l
+            case l => new java.lang.ref.WeakReference[Reactor](l)
+          }
+        }
+        snapshot
+      }
+    }
+    
+    var hasStale = false
+    var i = 0
+    while (i < xs.length) {
+      xs(i) match {
+        case ref: java.lang.ref.WeakReference[_] => 
+          ref.get match {
+            case null => hasStale = true
+            case l: Reactor => l.deliver(e)
+          }
+        case l: Reactor => l.deliver(e)
+      }
+      i += 1
+    }
+    
+    if (hasStale) {
+      listeners synchronized {
+        if (snapshot eq xs) snapshot = null
+      }
+    }
   }
 
   listenTo(this)
@@ -1,9 +1,13 @@
 package org.aiotrade.lib.util.actors
 
 import akka.actor.Actor
+import akka.actor.ActorRef
 import akka.actor.ActorSystem
 import akka.actor.PoisonPill
 import akka.actor.Props
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
 
 /**
  * The counterpart to publishers. Listens to events from registered publishers.
@@ -20,19 +24,51 @@ trait Reactor {
   }
 
   /**
+   * How events published to this reactor are dispatched, override it to force
+   * one, for instance, Dispatch.Actor for a reactor whose reactions must not
+   * run in publisher's thread.
+   */
+  protected def dispatch: Dispatch = Reactor.defaultDispatch
+  
+  @volatile private var isActorCreated = false
+  
+  /**
+   * Created lazily, only when this reactor is really dispatched via actor.
    * Override for custom actor system and actor name, props etc.
    */
-  val underlyingActor = Reactor.system.actorOf(Props(new Reactor.UnderlyingActor(reactions)))
+  lazy val underlyingActor: ActorRef = {
+    isActorCreated = true
+    Reactor.system.actorOf(Props(new Reactor.UnderlyingActor(reactions)))
+  }
 
   /**
    * Stop via message driven, so the reactor will react messages before finally exit.
    */
   def stop {
-    underlyingActor ! PoisonPill
+    if (isActorCreated) {
+      underlyingActor ! PoisonPill
+    }
   }
 
+  /**
+   * Send a message asynchronously, via actor, or via stripe in Dispatch.Striped
+   */
   def !(msg: Any) = {
-    underlyingActor ! msg
+    dispatch match {
+      case Dispatch.Striped => Reactor.stripeOf(this).execute(new Reactor.React(reactions, msg))
+      case _ => underlyingActor ! msg
+    }
+  }
+  
+  /**
+   * Deliver a published event according to dispatch.
+   */
+  def deliver(msg: Any) {
+    dispatch match {
+      case Dispatch.Sync => reactions(msg)
+      case Dispatch.Striped => Reactor.stripeOf(this).execute(new Reactor.React(reactions, msg))
+      case Dispatch.Actor => underlyingActor ! msg
+    }
   }
   
   /**
@@ -49,9 +85,61 @@ trait Reactor {
 object Reactor {
   val system = ActorSystem("Default")
   
+  /**
+   * -Daiotrade.actors.dispatch=actor|sync|striped, default actor
+   */
+  val defaultDispatch: Dispatch = System.getProperty("aiotrade.actors.dispatch", "actor").toLowerCase match {
+    case "sync" => Dispatch.Sync
+    case "striped" => Dispatch.Striped
+    case _ => Dispatch.Actor
+  }
+  
+  val nStripes = Integer.parseInt(System.getProperty("aiotrade.actors.stripes", (Runtime.getRuntime.availableProcessors * 2).toString))
+  
+  private lazy val stripes: Array[ExecutorService] = Array.tabulate(nStripes){i =>
+    Executors.newSingleThreadExecutor(new ThreadFactory {
+        def newThread(r: Runnable) = {
+          val thread = new Thread(r, "reactor-stripe-" + i)
+          thread.setDaemon(true)
+          thread
+        }
+      })
+  }
+  
+  /**
+   * A reactor is always dispatched by the same stripe, so its reactions are 
+   * serialized and in order, as in its own actor.
+   */
+  private def stripeOf(reactor: Reactor): ExecutorService = {
+    stripes((System.identityHashCode(reactor) & 0x7fffffff) % nStripes)
+  }
+  
+  private final class React(reactions: Reactions, msg: Any) extends Runnable {
+    def run {
+      reactions(msg)
+    }
+  }
+
   final class UnderlyingActor(reactions: Reactions) extends Actor {
     def receive = {
       reactions
     }
   }
-}
\ No newline at end of file
+}
+
+sealed trait Dispatch
+object Dispatch {
+  /** Each reactor has its own actor and mailbox, which is created lazily */
+  case object Actor extends Dispatch
+  /** 
+   * Reactions are called in publisher's thread, no mailbox at all. Reactions 
+   * of one reactor may be called concurrently by different publishers' threads,
+   * or re-entered if it publishes to itself.
+   */
+  case object Sync extends Dispatch
+  /** 
+   * Reactors are hashed onto a fixed number of single threaded executors, keeps
+   * the order and serialization of a reactor's reactions without a mailbox per reactor.
+   */
+  case object Striped extends Dispatch
+}